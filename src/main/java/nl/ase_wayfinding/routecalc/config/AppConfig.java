@@ -1,14 +1,74 @@
 package nl.ase_wayfinding.routecalc.config;
 
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.http.client.HttpComponentsClientHttpRequestFactory;
 import org.springframework.web.client.RestTemplate;
 
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
 @Configuration
 public class AppConfig {
 
+    /**
+     * RestTemplate on a pooled, keep-alive HTTP client. Every call is bounded by the
+     * pool, connect and read timeouts. The read timeout applies to each read, not to
+     * the whole response, so callers that need a total deadline enforce it themselves
+     * (see EnvironmentalDataClient).
+     */
     @Bean
-    public RestTemplate restTemplate() {
-        return new RestTemplate();
+    public RestTemplate restTemplate(
+            @Value("${http.client.max-connections:50}") int maxConnections,
+            @Value("${http.client.pool-timeout-ms:200}") int poolTimeoutMs,
+            @Value("${http.client.connect-timeout-ms:500}") int connectTimeoutMs,
+            @Value("${http.client.read-timeout-ms:2000}") int readTimeoutMs,
+            @Value("${http.client.idle-timeout-ms:30000}") long idleTimeoutMs) {
+        PoolingHttpClientConnectionManager connectionManager = new PoolingHttpClientConnectionManager();
+        connectionManager.setMaxTotal(maxConnections);
+        connectionManager.setDefaultMaxPerRoute(maxConnections);
+        connectionManager.setValidateAfterInactivity(1000);
+
+        RequestConfig requestConfig = RequestConfig.custom()
+                .setConnectionRequestTimeout(poolTimeoutMs)
+                .setConnectTimeout(connectTimeoutMs)
+                .setSocketTimeout(readTimeoutMs)
+                .build();
+
+        CloseableHttpClient httpClient = HttpClients.custom()
+                .setConnectionManager(connectionManager)
+                .setDefaultRequestConfig(requestConfig)
+                .evictExpiredConnections()
+                .evictIdleConnections(idleTimeoutMs, TimeUnit.MILLISECONDS)
+                .build();
+        return new RestTemplate(new HttpComponentsClientHttpRequestFactory(httpClient));
+    }
+
+    /**
+     * Bounded pool for routing work fanned out within one request, such as the legs
+     * of a chained route. Tasks the full pool rejects are run by the requesting thread.
+     */
+    @Bean(destroyMethod = "shutdown")
+    public ExecutorService routingExecutor(
+            @Value("${routing.executor.threads:0}") int threads,
+            @Value("${routing.executor.queue-capacity:100}") int queueCapacity) {
+        int poolSize = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+        AtomicInteger counter = new AtomicInteger();
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(poolSize, poolSize, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(queueCapacity), runnable -> {
+                    Thread thread = new Thread(runnable, "routing-" + counter.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
     }
-}
\ No newline at end of file
+}
@@ -18,6 +18,7 @@ public class SecurityConfig {
                 .csrf(CsrfConfigurer::disable)
                 .authorizeHttpRequests(auth -> auth
                         .antMatchers("/route").permitAll()
+                        .antMatchers("/route/stats").permitAll()
                         .antMatchers("/health").permitAll()
                         .antMatchers("/swagger-ui/**").permitAll()
                         .antMatchers("/v3/api-docs/**").permitAll()
@@ -6,9 +6,13 @@ import com.graphhopper.ResponsePath;
 import com.graphhopper.util.PointList;
 import com.graphhopper.util.Instruction;
 import com.graphhopper.util.details.PathDetail;
+import com.graphhopper.util.shapes.GHPoint;
 import nl.ase_wayfinding.routecalc.service.GraphHopperService;
+import nl.ase_wayfinding.routecalc.service.RouteResultCache;
+import nl.ase_wayfinding.routecalc.service.TransitMode;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
+import org.springframework.util.StringUtils;
 import org.springframework.web.bind.annotation.*;
 import com.graphhopper.util.TranslationMap;
 import com.graphhopper.util.Translation;
@@ -16,6 +20,8 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeParseException;
 import java.util.*;
 
 @RestController
@@ -25,9 +31,11 @@ public class RouteController {
 
     private final TranslationMap translationMap = new TranslationMap().doImport();
     private final GraphHopperService graphHopperService;
+    private final RouteResultCache routeResultCache;
 
-    public RouteController(GraphHopperService graphHopperService) {
+    public RouteController(GraphHopperService graphHopperService, RouteResultCache routeResultCache) {
         this.graphHopperService = graphHopperService;
+        this.routeResultCache = routeResultCache;
     }
 
     @PostMapping
@@ -83,22 +91,51 @@ public class RouteController {
         String mode = (String) body.getOrDefault("mode", "car");
         logger.info("Single-mode route requested, mode: {}", mode);
 
-        if (mode.equalsIgnoreCase("bus")) {
-            logger.info("Handling bus route with walking fallback");
+        TransitMode transitMode = TransitMode.fromName(mode);
+        if (transitMode != null) {
+            logger.info("Handling {} route with walking fallback", transitMode.getName());
+            // optional ISO local date-time in the feed's time zone, now when absent
+            LocalDateTime departure = null;
+            if (body.get("departure_time") != null) {
+                try {
+                    departure = LocalDateTime.parse(body.get("departure_time").toString());
+                } catch (DateTimeParseException e) {
+                    logger.warn("Invalid request: departure_time {}", body.get("departure_time"));
+                    return ResponseEntity.badRequest()
+                            .body(Map.of("error", "departure_time must be a date-time like 2025-03-01T08:30:00"));
+                }
+            }
             try {
-                Map<String, Object> busRoute = graphHopperService.getBusRouteWithWalking(points);
-                logger.info("Bus route response: {}", busRoute);
-                return ResponseEntity.ok(busRoute);
+                Map<String, Object> transitRoute;
+                if (transitMode == TransitMode.BUS) {
+                    transitRoute = departure == null ? graphHopperService.getBusRouteWithWalking(points)
+                            : graphHopperService.getBusRouteWithWalking(points, departure);
+                } else {
+                    transitRoute = graphHopperService.getTransitRouteWithWalking(points, transitMode, departure);
+                }
+                logger.info("{} route response: {}", transitMode.getName(), transitRoute);
+                return ResponseEntity.ok(transitRoute);
             } catch (Exception ex) {
-                logger.error("Error generating bus route", ex);
-                return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
-                        .body(Map.of("error", "Bus route calculation failed", "details", ex.getMessage()));
+                logger.error("Error generating {} route", transitMode.getName(), ex);
+                return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(Map.of("error",
+                        StringUtils.capitalize(transitMode.getName()) + " route calculation failed", "details",
+                        ex.getMessage()));
             }
         }
 
-        GHRequest request = new GHRequest(
-                points.get(0).get(1), points.get(0).get(0),
-                points.get(1).get(1), points.get(1).get(0)).setProfile(mode);
+        String dataVersion = graphHopperService.getRoutingDataVersion();
+        Map<String, Object> cached = routeResultCache.get(points, mode, dataVersion);
+        if (cached != null) {
+            logger.info("Serving cached route for mode {}", mode);
+            return ResponseEntity.ok(cached);
+        }
+
+        // every point goes into one request, the points between the ends become via points
+        List<GHPoint> ghPoints = new ArrayList<>();
+        for (List<Double> point : points) {
+            ghPoints.add(new GHPoint(point.get(1), point.get(0)));
+        }
+        GHRequest request = new GHRequest(ghPoints).setProfile(mode);
 
         logger.info("GraphHopper request created: {}", request);
 
@@ -120,17 +157,28 @@ public class RouteController {
         }
         Map<String, Object> formattedResponse = buildFormattedResponse(actualIterations, mode, response, bestPath,
                 routeResult);
+        routeResultCache.put(points, mode, dataVersion, formattedResponse);
 
         logger.info("Formatted response ready to return");
         return ResponseEntity.ok(formattedResponse);
     }
 
+    @GetMapping("/stats")
+    public ResponseEntity<Map<String, Object>> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>(graphHopperService.getStats());
+        stats.put("route_result_cache", routeResultCache.stats());
+        return ResponseEntity.ok(stats);
+    }
+
     private Map<String, Object> buildFormattedResponse(int actualIterations, String mode, GHResponse response,
             ResponsePath bestPath, Map<String, Object> routeResult) {
         Map<String, Object> formattedResponse = new HashMap<>();
         formattedResponse.put("status", "success");
         formattedResponse.put("message", "Optimal route found!");
         formattedResponse.put("iterations", actualIterations);
+        if (routeResult.containsKey("termination_reason")) {
+            formattedResponse.put("termination_reason", routeResult.get("termination_reason"));
+        }
         formattedResponse.put("mode", mode);
         formattedResponse.put("hints", Map.of(
                 "visited_nodes.sum", response.getHints().getInt("visited_nodes.sum", 0),
@@ -0,0 +1,34 @@
+package nl.ase_wayfinding.routecalc.service;
+
+import com.graphhopper.routing.ev.DefaultEncodedValueFactory;
+import com.graphhopper.routing.ev.EncodedValueFactory;
+import com.graphhopper.routing.ev.IntEncodedValue;
+import com.graphhopper.routing.ev.IntEncodedValueImpl;
+
+/**
+ * Per-edge air-quality index stored in the graph. 0 means "no reading", 1..5 is
+ * the AQI reported by the environmental-data service.
+ */
+public final class AirQuality {
+
+    public static final String KEY = "air_quality";
+
+    /** Readings above this AQI are treated as bad air, both per edge and per waypoint. */
+    public static final int BAD_THRESHOLD = 3;
+
+    private AirQuality() {
+    }
+
+    public static IntEncodedValue create() {
+        return new IntEncodedValueImpl(KEY, 3, false);
+    }
+
+    /**
+     * GraphHopper's default factory extended with {@link #KEY}. The value has no
+     * OSM tag parser, every edge starts at 0 and is filled from AQI snapshots.
+     */
+    public static EncodedValueFactory encodedValueFactory() {
+        EncodedValueFactory defaults = new DefaultEncodedValueFactory();
+        return (name, properties) -> KEY.equals(name) ? create() : defaults.create(name, properties);
+    }
+}
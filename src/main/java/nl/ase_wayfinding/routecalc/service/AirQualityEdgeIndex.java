@@ -0,0 +1,138 @@
+package nl.ase_wayfinding.routecalc.service;
+
+import com.graphhopper.routing.ev.EdgeIntAccess;
+import com.graphhopper.routing.ev.IntEncodedValue;
+import com.graphhopper.routing.util.AllEdgesIterator;
+import com.graphhopper.storage.BaseGraph;
+import com.graphhopper.storage.NodeAccess;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Buckets the graph edges into a regular grid over the AQI snapshot area, so a
+ * snapshot only needs one reading per grid cell. Each edge belongs to the cell of
+ * its midpoint. Edges outside the area keep air_quality = 0 (no reading).
+ */
+public class AirQualityEdgeIndex {
+
+    private static final double METERS_PER_DEGREE = 111_320d;
+
+    private final double minLat;
+    private final double minLon;
+    private final double cellLat;
+    private final double cellLon;
+    private final int cols;
+    // CSR layout: edges of active cell i are cellEdges[cellStart[i] .. cellStart[i + 1])
+    private final int[] activeCells;
+    private final int[] cellStart;
+    private final int[] cellEdges;
+
+    private AirQualityEdgeIndex(double minLat, double minLon, double cellLat, double cellLon, int cols,
+            int[] activeCells, int[] cellStart, int[] cellEdges) {
+        this.minLat = minLat;
+        this.minLon = minLon;
+        this.cellLat = cellLat;
+        this.cellLon = cellLon;
+        this.cols = cols;
+        this.activeCells = activeCells;
+        this.cellStart = cellStart;
+        this.cellEdges = cellEdges;
+    }
+
+    /**
+     * @param bbox            snapshot area as {minLon, minLat, maxLon, maxLat}
+     * @param cellSizeMeters  edge length of one grid cell
+     */
+    public static AirQualityEdgeIndex build(BaseGraph graph, double[] bbox, double cellSizeMeters) {
+        double minLon = bbox[0], minLat = bbox[1], maxLon = bbox[2], maxLat = bbox[3];
+        double cellLat = cellSizeMeters / METERS_PER_DEGREE;
+        double cellLon = cellSizeMeters / (METERS_PER_DEGREE * Math.cos(Math.toRadians((minLat + maxLat) / 2)));
+        int cols = Math.max(1, (int) Math.ceil((maxLon - minLon) / cellLon));
+        int rows = Math.max(1, (int) Math.ceil((maxLat - minLat) / cellLat));
+
+        // first pass: cell of every edge (-1 = outside the area) and edge count per cell
+        NodeAccess nodeAccess = graph.getNodeAccess();
+        int[] edgeCell = new int[graph.getEdges()];
+        int[] counts = new int[rows * cols];
+        AllEdgesIterator iter = graph.getAllEdges();
+        while (iter.next()) {
+            double lat = (nodeAccess.getLat(iter.getBaseNode()) + nodeAccess.getLat(iter.getAdjNode())) / 2;
+            double lon = (nodeAccess.getLon(iter.getBaseNode()) + nodeAccess.getLon(iter.getAdjNode())) / 2;
+            int cell = -1;
+            if (lat >= minLat && lat < maxLat && lon >= minLon && lon < maxLon) {
+                int row = Math.min(rows - 1, (int) ((lat - minLat) / cellLat));
+                int col = Math.min(cols - 1, (int) ((lon - minLon) / cellLon));
+                cell = row * cols + col;
+                counts[cell]++;
+            }
+            edgeCell[iter.getEdge()] = cell;
+        }
+
+        // second pass: compact the non-empty cells into CSR arrays
+        int[] activeIndex = new int[rows * cols];
+        Arrays.fill(activeIndex, -1);
+        int active = 0;
+        for (int cell = 0; cell < counts.length; cell++) {
+            if (counts[cell] > 0)
+                activeIndex[cell] = active++;
+        }
+        int[] activeCells = new int[active];
+        int[] cellStart = new int[active + 1];
+        for (int cell = 0; cell < counts.length; cell++) {
+            if (activeIndex[cell] >= 0) {
+                activeCells[activeIndex[cell]] = cell;
+                cellStart[activeIndex[cell] + 1] = counts[cell];
+            }
+        }
+        for (int i = 0; i < active; i++)
+            cellStart[i + 1] += cellStart[i];
+
+        int[] fill = Arrays.copyOf(cellStart, active);
+        int[] cellEdges = new int[cellStart[active]];
+        for (int edge = 0; edge < edgeCell.length; edge++) {
+            if (edgeCell[edge] >= 0)
+                cellEdges[fill[activeIndex[edgeCell[edge]]]++] = edge;
+        }
+        return new AirQualityEdgeIndex(minLat, minLon, cellLat, cellLon, cols, activeCells, cellStart, cellEdges);
+    }
+
+    /** Number of cells that contain at least one edge, i.e. readings per snapshot. */
+    public int getCellCount() {
+        return activeCells.length;
+    }
+
+    public int getEdgeCount() {
+        return cellEdges.length;
+    }
+
+    /** Centers of the active cells as [lon, lat], in the order expected by {@link #apply}. */
+    public List<List<Double>> getCellCenters() {
+        List<List<Double>> centers = new ArrayList<>(activeCells.length);
+        for (int cell : activeCells) {
+            int row = cell / cols;
+            int col = cell % cols;
+            centers.add(Arrays.asList(minLon + (col + 0.5) * cellLon, minLat + (row + 0.5) * cellLat));
+        }
+        return centers;
+    }
+
+    /**
+     * Writes one AQI per active cell onto all of its edges. Values outside the
+     * storable range are clamped.
+     *
+     * @return number of edges written
+     */
+    public int apply(int[] aqiPerCell, IntEncodedValue airQualityEnc, EdgeIntAccess edgeIntAccess) {
+        if (aqiPerCell.length != activeCells.length)
+            throw new IllegalArgumentException("Expected " + activeCells.length + " readings but got " + aqiPerCell.length);
+        int max = airQualityEnc.getMaxStorableInt();
+        for (int i = 0; i < activeCells.length; i++) {
+            int value = Math.max(0, Math.min(max, aqiPerCell[i]));
+            for (int j = cellStart[i]; j < cellStart[i + 1]; j++)
+                airQualityEnc.setInt(false, cellEdges[j], edgeIntAccess, value);
+        }
+        return cellEdges.length;
+    }
+}
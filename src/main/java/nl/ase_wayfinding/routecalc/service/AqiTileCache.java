@@ -0,0 +1,138 @@
+package nl.ase_wayfinding.routecalc.service;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded, TTL-based cache of AQI readings keyed by a quantized spatial cell.
+ * Waypoints that fall into the same cell share one reading, so neighbouring
+ * requests only send the cells that are not cached yet.
+ */
+@Component
+public class AqiTileCache {
+
+    private static final double METERS_PER_DEGREE = 111_320d;
+
+    private final double cellLat;
+    private final long ttlMillis;
+    private final int maxEntries;
+    private final LinkedHashMap<Long, Reading> readings;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong expirations = new AtomicLong();
+
+    public AqiTileCache(@Value("${routing.aqi.cache.cell-size-m:100}") double cellSizeMeters,
+            @Value("${routing.aqi.cache.ttl-ms:600000}") long ttlMillis,
+            @Value("${routing.aqi.cache.max-entries:50000}") int maxEntries) {
+        this.cellLat = cellSizeMeters / METERS_PER_DEGREE;
+        this.ttlMillis = ttlMillis;
+        this.maxEntries = maxEntries;
+        // access order turns the map into an LRU, the eldest entry is dropped once full
+        this.readings = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, Reading> eldest) {
+                if (size() > AqiTileCache.this.maxEntries) {
+                    evictions.incrementAndGet();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Cell of the coordinate. Rows are cellSize high, columns are cellSize wide at
+     * the latitude of their row, so cells stay roughly square across the country.
+     */
+    public long cellKey(double lat, double lon) {
+        long row = (long) Math.floor(lat / cellLat);
+        double cellLon = cellLat / Math.cos(Math.toRadians((row + 0.5) * cellLat));
+        long col = (long) Math.floor(lon / cellLon);
+        return (row << 32) | (col & 0xFFFFFFFFL);
+    }
+
+    /** @return the cached AQI of the coordinate's cell, or null when missing or expired */
+    public Integer get(double lat, double lon) {
+        return get(cellKey(lat, lon));
+    }
+
+    public Integer get(long cellKey) {
+        long now = System.currentTimeMillis();
+        synchronized (readings) {
+            Reading reading = readings.get(cellKey);
+            if (reading != null && now - reading.createdMillis <= ttlMillis) {
+                hits.incrementAndGet();
+                return reading.aqi;
+            }
+            if (reading != null) {
+                readings.remove(cellKey);
+                expirations.incrementAndGet();
+            }
+        }
+        misses.incrementAndGet();
+        return null;
+    }
+
+    public void put(double lat, double lon, int aqi) {
+        put(cellKey(lat, lon), aqi);
+    }
+
+    public void put(long cellKey, int aqi) {
+        Reading reading = new Reading(aqi, System.currentTimeMillis());
+        synchronized (readings) {
+            readings.put(cellKey, reading);
+        }
+    }
+
+    public int size() {
+        synchronized (readings) {
+            return readings.size();
+        }
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    public long getExpirations() {
+        return expirations.get();
+    }
+
+    public Map<String, Object> stats() {
+        long h = hits.get();
+        long m = misses.get();
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("size", size());
+        stats.put("max_entries", maxEntries);
+        stats.put("hits", h);
+        stats.put("misses", m);
+        stats.put("hit_ratio", h + m == 0 ? 0.0 : (double) h / (h + m));
+        stats.put("evictions", evictions.get());
+        stats.put("expirations", expirations.get());
+        return stats;
+    }
+
+    private static final class Reading {
+        final int aqi;
+        final long createdMillis;
+
+        Reading(int aqi, long createdMillis) {
+            this.aqi = aqi;
+            this.createdMillis = createdMillis;
+        }
+    }
+}
@@ -0,0 +1,153 @@
+package nl.ase_wayfinding.routecalc.service;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * Avoidance zones as cells of a fixed lat/lon grid. Cells are cellSize high and
+ * cellSize wide in degrees of latitude, so the same coordinate always maps to the
+ * same cell. The marked cells are kept in a bitset over their bounding window,
+ * which makes {@link #contains} a constant-time lookup during edge relaxation
+ * (zones scattered over a very large window use a binary search instead).
+ * Instances are immutable; {@link #with} returns a grid that also covers new
+ * coordinates.
+ */
+public final class AvoidanceGrid {
+
+    /** Request hint under which the grid is passed to the weighting factory. */
+    public static final String KEY = "avoidance_grid";
+
+    private static final double METERS_PER_DEGREE = 111_320d;
+    // zones spread over a larger window fall back to a binary search over the cell keys
+    private static final long MAX_WINDOW_BITS = 1L << 22;
+
+    private final double cellDeg;
+    private final double radiusMeters;
+    // sorted global cell keys (row << 32 | col), also used for equals/hashCode
+    private final long[] cells;
+    private final int minRow;
+    private final int minCol;
+    private final int rows;
+    private final int cols;
+    private final BitSet bits;
+
+    private AvoidanceGrid(double cellDeg, double radiusMeters, long[] cells) {
+        this.cellDeg = cellDeg;
+        this.radiusMeters = radiusMeters;
+        this.cells = cells;
+        int minR = Integer.MAX_VALUE, minC = Integer.MAX_VALUE, maxR = Integer.MIN_VALUE, maxC = Integer.MIN_VALUE;
+        for (long cell : cells) {
+            minR = Math.min(minR, row(cell));
+            maxR = Math.max(maxR, row(cell));
+            minC = Math.min(minC, col(cell));
+            maxC = Math.max(maxC, col(cell));
+        }
+        this.minRow = cells.length == 0 ? 0 : minR;
+        this.minCol = cells.length == 0 ? 0 : minC;
+        this.rows = cells.length == 0 ? 0 : maxR - minR + 1;
+        this.cols = cells.length == 0 ? 0 : maxC - minC + 1;
+        if ((long) rows * cols <= MAX_WINDOW_BITS) {
+            this.bits = new BitSet(rows * cols);
+            for (long cell : cells)
+                bits.set((row(cell) - minRow) * cols + (col(cell) - minCol));
+        } else {
+            this.bits = null;
+        }
+    }
+
+    /**
+     * @param cellSizeMeters height of one cell
+     * @param radiusMeters   every cell within this distance of a coordinate is marked
+     * @param coords         coordinates as [lon, lat]
+     */
+    public static AvoidanceGrid of(double cellSizeMeters, double radiusMeters, List<List<Double>> coords) {
+        AvoidanceGrid empty = new AvoidanceGrid(cellSizeMeters / METERS_PER_DEGREE, radiusMeters, new long[0]);
+        return empty.with(coords);
+    }
+
+    /** @return a grid marking the cells of this grid plus the cells around the given [lon, lat] coordinates */
+    public AvoidanceGrid with(List<List<Double>> coords) {
+        if (coords.isEmpty())
+            return this;
+        long[] marked = Arrays.copyOf(cells, cells.length + coords.size() * 16);
+        int size = cells.length;
+        for (List<Double> coord : coords) {
+            double lon = coord.get(0);
+            double lat = coord.get(1);
+            double dLat = radiusMeters / METERS_PER_DEGREE;
+            double dLon = radiusMeters / (METERS_PER_DEGREE * Math.cos(Math.toRadians(lat)));
+            int fromRow = cellIndex(lat - dLat), toRow = cellIndex(lat + dLat);
+            int fromCol = cellIndex(lon - dLon), toCol = cellIndex(lon + dLon);
+            for (int r = fromRow; r <= toRow; r++) {
+                for (int c = fromCol; c <= toCol; c++) {
+                    if (size == marked.length)
+                        marked = Arrays.copyOf(marked, size * 2);
+                    marked[size++] = key(r, c);
+                }
+            }
+        }
+        long[] sorted = Arrays.copyOf(marked, size);
+        Arrays.sort(sorted);
+        int unique = 0;
+        for (int i = 0; i < sorted.length; i++) {
+            if (i == 0 || sorted[i] != sorted[i - 1])
+                sorted[unique++] = sorted[i];
+        }
+        return new AvoidanceGrid(cellDeg, radiusMeters, Arrays.copyOf(sorted, unique));
+    }
+
+    public boolean contains(double lat, double lon) {
+        int row = cellIndex(lat);
+        int col = cellIndex(lon);
+        int r = row - minRow;
+        int c = col - minCol;
+        if (r < 0 || r >= rows || c < 0 || c >= cols)
+            return false;
+        return bits != null ? bits.get(r * cols + c) : Arrays.binarySearch(cells, key(row, col)) >= 0;
+    }
+
+    public int getCellCount() {
+        return cells.length;
+    }
+
+    public boolean isEmpty() {
+        return cells.length == 0;
+    }
+
+    private int cellIndex(double degrees) {
+        return (int) Math.floor(degrees / cellDeg);
+    }
+
+    private static long key(int row, int col) {
+        return ((long) row << 32) | (col & 0xFFFFFFFFL);
+    }
+
+    private static int row(long key) {
+        return (int) (key >> 32);
+    }
+
+    private static int col(long key) {
+        return (int) key;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o)
+            return true;
+        if (!(o instanceof AvoidanceGrid))
+            return false;
+        AvoidanceGrid other = (AvoidanceGrid) o;
+        return cellDeg == other.cellDeg && Arrays.equals(cells, other.cells);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * Double.hashCode(cellDeg) + Arrays.hashCode(cells);
+    }
+
+    @Override
+    public String toString() {
+        return "AvoidanceGrid{cells=" + cells.length + ", rows=" + rows + ", cols=" + cols + "}";
+    }
+}
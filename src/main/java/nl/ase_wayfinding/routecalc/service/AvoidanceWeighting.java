@@ -0,0 +1,55 @@
+package nl.ase_wayfinding.routecalc.service;
+
+import com.graphhopper.routing.weighting.AbstractAdjustedWeighting;
+import com.graphhopper.routing.weighting.Weighting;
+import com.graphhopper.storage.BaseGraph;
+import com.graphhopper.storage.NodeAccess;
+import com.graphhopper.util.EdgeIteratorState;
+import com.graphhopper.util.FetchMode;
+import com.graphhopper.util.PointList;
+
+/**
+ * Multiplies the weight of every edge whose midpoint lies in an avoided grid cell.
+ * The penalty only ever raises weights, so LM and A* estimates stay valid.
+ */
+public class AvoidanceWeighting extends AbstractAdjustedWeighting {
+
+    private final AvoidanceGrid grid;
+    private final NodeAccess nodeAccess;
+    private final int baseNodes;
+    private final double penalty;
+
+    public AvoidanceWeighting(Weighting superWeighting, AvoidanceGrid grid, BaseGraph graph, double penalty) {
+        super(superWeighting);
+        this.grid = grid;
+        this.nodeAccess = graph.getNodeAccess();
+        this.baseNodes = graph.getNodes();
+        this.penalty = penalty;
+    }
+
+    @Override
+    public double calcEdgeWeight(EdgeIteratorState edgeState, boolean reverse) {
+        double weight = superWeighting.calcEdgeWeight(edgeState, reverse);
+        if (Double.isInfinite(weight) || !isAvoided(edgeState))
+            return weight;
+        return weight * penalty;
+    }
+
+    boolean isAvoided(EdgeIteratorState edgeState) {
+        int base = edgeState.getBaseNode();
+        int adj = edgeState.getAdjNode();
+        if (base < baseNodes && adj < baseNodes) {
+            return grid.contains((nodeAccess.getLat(base) + nodeAccess.getLat(adj)) / 2,
+                    (nodeAccess.getLon(base) + nodeAccess.getLon(adj)) / 2);
+        }
+        // virtual edge next to a snapped point, its geometry is held in memory
+        PointList towers = edgeState.fetchWayGeometry(FetchMode.TOWER_ONLY);
+        int last = towers.size() - 1;
+        return grid.contains((towers.getLat(0) + towers.getLat(last)) / 2, (towers.getLon(0) + towers.getLon(last)) / 2);
+    }
+
+    @Override
+    public String getName() {
+        return "avoidance";
+    }
+}
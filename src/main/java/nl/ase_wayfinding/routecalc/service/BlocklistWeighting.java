@@ -0,0 +1,48 @@
+package nl.ase_wayfinding.routecalc.service;
+
+import com.graphhopper.routing.querygraph.VirtualEdgeIteratorState;
+import com.graphhopper.routing.weighting.AbstractAdjustedWeighting;
+import com.graphhopper.routing.weighting.Weighting;
+import com.graphhopper.util.EdgeIteratorState;
+import com.graphhopper.util.GHUtility;
+
+/**
+ * Multiplies the weight of every edge on the {@link EdgeBlocklist}. Virtual edges
+ * created by snapping the request points count as their original edge.
+ */
+public class BlocklistWeighting extends AbstractAdjustedWeighting {
+
+    private final EdgeBlocklist blocklist;
+    private final int baseEdges;
+    private final double penalty;
+
+    public BlocklistWeighting(Weighting superWeighting, EdgeBlocklist blocklist, int baseEdges, double penalty) {
+        super(superWeighting);
+        this.blocklist = blocklist;
+        this.baseEdges = baseEdges;
+        this.penalty = penalty;
+    }
+
+    @Override
+    public double calcEdgeWeight(EdgeIteratorState edgeState, boolean reverse) {
+        double weight = superWeighting.calcEdgeWeight(edgeState, reverse);
+        if (Double.isInfinite(weight) || !blocklist.contains(originalEdge(edgeState)))
+            return weight;
+        return weight * penalty;
+    }
+
+    private int originalEdge(EdgeIteratorState edgeState) {
+        int edge = edgeState.getEdge();
+        if (edge < baseEdges)
+            return edge;
+        EdgeIteratorState detached = edgeState.detach(false);
+        return detached instanceof VirtualEdgeIteratorState
+                ? GHUtility.getEdgeFromEdgeKey(((VirtualEdgeIteratorState) detached).getOriginalEdgeKey())
+                : edge;
+    }
+
+    @Override
+    public String getName() {
+        return "blocklist";
+    }
+}
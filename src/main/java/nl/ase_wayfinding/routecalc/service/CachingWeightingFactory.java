@@ -0,0 +1,140 @@
+package nl.ase_wayfinding.routecalc.service;
+
+import com.graphhopper.config.Profile;
+import com.graphhopper.routing.WeightingFactory;
+import com.graphhopper.routing.weighting.Weighting;
+import com.graphhopper.storage.BaseGraph;
+import com.graphhopper.util.CustomModel;
+import com.graphhopper.util.JsonFeature;
+import com.graphhopper.util.PMap;
+import com.graphhopper.util.Parameters;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+/**
+ * Reuses the weighting of a query custom model or avoidance zone that was already
+ * seen. Building a custom weighting prepares every area polygon and runs the
+ * parsed model, so repeated avoidance zones (the same route asked again, the LM
+ * fallback retry) skip that work. A request carrying an {@link AvoidanceGrid} or
+ * {@link EdgeBlocklist} gets the delegate's weighting wrapped in an
+ * {@link AvoidanceWeighting} or {@link BlocklistWeighting}. Requests with none of
+ * these, such as the CH and LM preparations, go straight to the delegate.
+ */
+public class CachingWeightingFactory implements WeightingFactory {
+
+    private final WeightingFactory delegate;
+    private final BaseGraph graph;
+    private final double avoidancePenalty;
+    private final int maxEntries;
+    private final LinkedHashMap<List<Object>, Weighting> weightings;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    public CachingWeightingFactory(WeightingFactory delegate, BaseGraph graph, double avoidancePenalty,
+            int maxEntries) {
+        this.delegate = delegate;
+        this.graph = graph;
+        this.avoidancePenalty = avoidancePenalty;
+        this.maxEntries = maxEntries;
+        this.weightings = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<List<Object>, Weighting> eldest) {
+                return size() > CachingWeightingFactory.this.maxEntries;
+            }
+        };
+    }
+
+    @Override
+    public Weighting createWeighting(Profile profile, PMap requestHints, boolean disableTurnCosts) {
+        CustomModel customModel = requestHints.getObject(CustomModel.KEY, null);
+        AvoidanceGrid grid = requestHints.getObject(AvoidanceGrid.KEY, null);
+        if (grid != null && grid.isEmpty())
+            grid = null;
+        EdgeBlocklist blocklist = requestHints.getObject(EdgeBlocklist.KEY, null);
+        if (blocklist != null && blocklist.isEmpty())
+            blocklist = null;
+        if (customModel == null && grid == null && blocklist == null)
+            return delegate.createWeighting(profile, requestHints, disableTurnCosts);
+        if (maxEntries <= 0)
+            return create(profile, requestHints, disableTurnCosts, grid, blocklist);
+
+        List<Object> key = Arrays.asList(cacheKey(profile, requestHints, disableTurnCosts, customModel), grid,
+                blocklist);
+        synchronized (weightings) {
+            Weighting weighting = weightings.get(key);
+            if (weighting != null) {
+                hits.incrementAndGet();
+                return weighting;
+            }
+        }
+        misses.incrementAndGet();
+        Weighting weighting = create(profile, requestHints, disableTurnCosts, grid, blocklist);
+        synchronized (weightings) {
+            weightings.put(key, weighting);
+        }
+        return weighting;
+    }
+
+    private Weighting create(Profile profile, PMap requestHints, boolean disableTurnCosts, AvoidanceGrid grid,
+            EdgeBlocklist blocklist) {
+        Weighting weighting = delegate.createWeighting(profile, requestHints, disableTurnCosts);
+        if (grid != null)
+            weighting = new AvoidanceWeighting(weighting, grid, graph, avoidancePenalty);
+        if (blocklist != null)
+            weighting = new BlocklistWeighting(weighting, blocklist, graph.getEdges(), avoidancePenalty);
+        return weighting;
+    }
+
+    /**
+     * Normalized model: the statements as GraphHopper prints them, plus every area
+     * by id with its full geometry (CustomModel#toString only lists area ids).
+     */
+    static String cacheKey(Profile profile, PMap requestHints, boolean disableTurnCosts, CustomModel customModel) {
+        StringBuilder key = new StringBuilder(profile.getName())
+                .append('|').append(disableTurnCosts)
+                .append('|').append(requestHints.getDouble(Parameters.Routing.HEADING_PENALTY, -1))
+                .append('|').append(requestHints.getInt(Parameters.Routing.U_TURN_COSTS, -1))
+                .append('|').append(customModel);
+        if (customModel != null && customModel.getAreas() != null) {
+            List<JsonFeature> areas = customModel.getAreas().getFeatures().stream()
+                    .sorted(Comparator.comparing(JsonFeature::getId))
+                    .collect(Collectors.toList());
+            for (JsonFeature area : areas)
+                key.append('|').append(area.getId()).append('=').append(area.getGeometry().toText());
+        }
+        return key.toString();
+    }
+
+    public int size() {
+        synchronized (weightings) {
+            return weightings.size();
+        }
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public Map<String, Object> stats() {
+        long h = hits.get();
+        long m = misses.get();
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("size", size());
+        stats.put("max_entries", maxEntries);
+        stats.put("hits", h);
+        stats.put("misses", m);
+        stats.put("hit_ratio", h + m == 0 ? 0.0 : (double) h / (h + m));
+        return stats;
+    }
+}
@@ -0,0 +1,68 @@
+package nl.ase_wayfinding.routecalc.service;
+
+/**
+ * Minimal consecutive-failure circuit breaker. After {@code failureThreshold}
+ * failures in a row the breaker opens and rejects calls for {@code openMillis}.
+ * It then lets a single trial call through (half-open). That call either closes
+ * the breaker again or re-opens it.
+ */
+public class CircuitBreaker {
+
+    public enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    private final int failureThreshold;
+    private final long openMillis;
+
+    private State state = State.CLOSED;
+    private int consecutiveFailures;
+    private long openedAtMillis;
+    private boolean trialInFlight;
+    private long rejectedCalls;
+
+    public CircuitBreaker(int failureThreshold, long openMillis) {
+        this.failureThreshold = failureThreshold;
+        this.openMillis = openMillis;
+    }
+
+    /** @return true when the caller may go ahead with the call */
+    public synchronized boolean tryAcquirePermission() {
+        if (state == State.OPEN && System.currentTimeMillis() - openedAtMillis >= openMillis) {
+            state = State.HALF_OPEN;
+            trialInFlight = false;
+        }
+        if (state == State.CLOSED) {
+            return true;
+        }
+        if (state == State.HALF_OPEN && !trialInFlight) {
+            trialInFlight = true;
+            return true;
+        }
+        rejectedCalls++;
+        return false;
+    }
+
+    public synchronized void onSuccess() {
+        state = State.CLOSED;
+        consecutiveFailures = 0;
+        trialInFlight = false;
+    }
+
+    public synchronized void onFailure() {
+        consecutiveFailures++;
+        trialInFlight = false;
+        if (state == State.HALF_OPEN || consecutiveFailures >= failureThreshold) {
+            state = State.OPEN;
+            openedAtMillis = System.currentTimeMillis();
+        }
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    public synchronized long getRejectedCalls() {
+        return rejectedCalls;
+    }
+}
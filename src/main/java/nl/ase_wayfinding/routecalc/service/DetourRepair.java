@@ -0,0 +1,216 @@
+package nl.ase_wayfinding.routecalc.service;
+
+import com.graphhopper.ResponsePath;
+import com.graphhopper.util.DistanceCalcEarth;
+import com.graphhopper.util.Instruction;
+import com.graphhopper.util.InstructionList;
+import com.graphhopper.util.PointList;
+import com.graphhopper.util.shapes.GHPoint;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Repairs a route locally instead of recomputing it from origin to destination.
+ * The path is cut a little before and after each flagged stretch, only those
+ * sub-segments are routed again, and the detours are spliced back into the
+ * geometry, distance, time and instructions of the original path.
+ */
+public final class DetourRepair {
+
+    private DetourRepair() {
+    }
+
+    /**
+     * Groups the bad coordinates into stretches of the path and widens each one by
+     * the margin on both sides. Overlapping stretches are merged.
+     *
+     * @param badCoords    flagged coordinates as [lon, lat]
+     * @param marginMeters how far before and after a flagged point the path is cut
+     * @return sorted, disjoint {from, to} point indices with from &lt; to
+     */
+    public static List<int[]> findStretches(PointList points, List<List<Double>> badCoords, double marginMeters) {
+        List<int[]> stretches = new ArrayList<>();
+        if (points.size() < 2 || badCoords.isEmpty())
+            return stretches;
+
+        double[] travelled = new double[points.size()];
+        for (int i = 1; i < points.size(); i++)
+            travelled[i] = travelled[i - 1] + segmentLength(points, i - 1, i);
+
+        boolean[] flagged = new boolean[points.size()];
+        for (List<Double> bad : badCoords)
+            flagged[nearestIndex(points, bad.get(1), bad.get(0))] = true;
+
+        for (int i = 0; i < points.size(); i++) {
+            if (!flagged[i])
+                continue;
+            int from = i;
+            while (from > 0 && travelled[i] - travelled[from] < marginMeters)
+                from--;
+            int to = i;
+            while (to < points.size() - 1 && travelled[to] - travelled[i] < marginMeters)
+                to++;
+            if (from == to)
+                continue;
+            int[] last = stretches.isEmpty() ? null : stretches.get(stretches.size() - 1);
+            if (last != null && from <= last[1]) {
+                last[1] = Math.max(last[1], to);
+            } else {
+                stretches.add(new int[] { from, to });
+            }
+        }
+        return stretches;
+    }
+
+    /**
+     * @return true if a via point lies strictly inside one of the stretches, a detour
+     *         around that stretch would skip it
+     */
+    public static boolean coversViaPoint(PointList points, List<int[]> stretches, List<GHPoint> viaPoints) {
+        for (GHPoint via : viaPoints) {
+            int index = nearestIndex(points, via.getLat(), via.getLon());
+            for (int[] stretch : stretches) {
+                if (stretch[0] < index && index < stretch[1])
+                    return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @param detours one routed path per stretch, from points[from] to points[to]
+     * @return a new path with each stretch replaced by its detour
+     */
+    public static ResponsePath splice(ResponsePath original, List<int[]> stretches, List<ResponsePath> detours) {
+        PointList points = original.getPoints();
+        InstructionList instructions = original.getInstructions();
+
+        // first point index of every original instruction; via and finish instructions
+        // cover no points and sit on the point the next instruction starts at
+        int[] starts = new int[instructions.size() + 1];
+        for (int i = 0; i < instructions.size(); i++)
+            starts[i + 1] = starts[i] + instructions.get(i).getLength();
+
+        PointList splicedPoints = new PointList(points.size(), points.is3D());
+        InstructionList splicedInstructions = new InstructionList(instructions.size(), instructions.getTr());
+        int cursor = 0;
+        long keptTime = 0;
+        for (int s = 0; s < stretches.size(); s++) {
+            int from = stretches.get(s)[0];
+            int to = stretches.get(s)[1];
+            keptTime += copy(original, starts, cursor, from, splicedPoints, splicedInstructions);
+
+            // the detour's last point is the first point kept after the stretch, its finish is dropped
+            ResponsePath detour = detours.get(s);
+            for (Instruction instruction : detour.getInstructions()) {
+                if (instruction.getSign() == Instruction.FINISH)
+                    continue;
+                splicedInstructions.add(instruction);
+                splicedPoints.add(instruction.getPoints());
+            }
+            cursor = to;
+        }
+        keptTime += copy(original, starts, cursor, points.size(), splicedPoints, splicedInstructions);
+
+        double distance = 0;
+        long time = 0;
+        for (Instruction instruction : splicedInstructions) {
+            distance += instruction.getDistance();
+            time += instruction.getTime();
+        }
+        double detourWeight = detours.stream().mapToDouble(ResponsePath::getRouteWeight).sum();
+        // the original weight of the cut stretches is estimated from their share of the travel time
+        double keptWeight = original.getTime() == 0 ? 0
+                : original.getRouteWeight() * keptTime / original.getTime();
+
+        ResponsePath spliced = new ResponsePath();
+        spliced.setPoints(splicedPoints);
+        spliced.setInstructions(splicedInstructions);
+        spliced.setWaypoints(original.getWaypoints());
+        spliced.setDistance(distance);
+        spliced.setTime(time);
+        spliced.setRouteWeight(keptWeight + detourWeight);
+        spliced.setDescription(original.getDescription());
+        return spliced;
+    }
+
+    /**
+     * Copies the original instructions covering points [from, to), cutting the first
+     * and last one where the range starts or ends inside them. Cut instructions keep
+     * the share of distance and time that matches the share of geometry. A via
+     * instruction on either end of the range is kept, so a stretch starting or ending
+     * at a via point does not lose it.
+     *
+     * @return time of the copied instructions
+     */
+    private static long copy(ResponsePath original, int[] starts, int from, int to, PointList targetPoints,
+            InstructionList targetInstructions) {
+        PointList points = original.getPoints();
+        InstructionList instructions = original.getInstructions();
+        long copied = 0;
+        for (int i = 0; i < instructions.size(); i++) {
+            int start = starts[i];
+            int end = starts[i + 1];
+            Instruction instruction = instructions.get(i);
+            if (start == end) {
+                if (start < from || start > to)
+                    continue;
+                targetInstructions.add(instruction);
+                // a via point is also the first point of the next leg, only the finish adds its point
+                if (instruction.getSign() != Instruction.REACHED_VIA)
+                    targetPoints.add(instruction.getPoints());
+                copied += instruction.getTime();
+                continue;
+            }
+            if (end <= from || start >= to)
+                continue;
+            int copyFrom = Math.max(start, from);
+            int copyTo = Math.min(end, to);
+            if (copyFrom == start && copyTo == end) {
+                targetInstructions.add(instruction);
+                targetPoints.add(instruction.getPoints());
+                copied += instruction.getTime();
+                continue;
+            }
+            // the segment after an instruction's last point leads to the next instruction's first point
+            int segmentEnd = Math.min(end, points.size() - 1);
+            double full = lengthBetween(points, start, segmentEnd);
+            double kept = lengthBetween(points, copyFrom, Math.min(copyTo, segmentEnd));
+            double share = full == 0 ? 0 : Math.min(1, kept / full);
+            int sign = copyFrom == start ? instruction.getSign() : Instruction.CONTINUE_ON_STREET;
+            Instruction cut = new Instruction(sign, instruction.getName(), points.copy(copyFrom, copyTo));
+            cut.setDistance(instruction.getDistance() * share);
+            cut.setTime(Math.round(instruction.getTime() * share));
+            targetInstructions.add(cut);
+            targetPoints.add(cut.getPoints());
+            copied += cut.getTime();
+        }
+        return copied;
+    }
+
+    private static int nearestIndex(PointList points, double lat, double lon) {
+        int best = 0;
+        double bestDist = Double.MAX_VALUE;
+        for (int i = 0; i < points.size(); i++) {
+            double d = DistanceCalcEarth.DIST_EARTH.calcNormalizedDist(lat, lon, points.getLat(i), points.getLon(i));
+            if (d < bestDist) {
+                bestDist = d;
+                best = i;
+            }
+        }
+        return best;
+    }
+
+    private static double lengthBetween(PointList points, int from, int to) {
+        double length = 0;
+        for (int i = from + 1; i <= to; i++)
+            length += segmentLength(points, i - 1, i);
+        return length;
+    }
+
+    private static double segmentLength(PointList points, int from, int to) {
+        return DistanceCalcEarth.DIST_EARTH.calcDist(points.getLat(from), points.getLon(from), points.getLat(to),
+                points.getLon(to));
+    }
+}
@@ -0,0 +1,106 @@
+package nl.ase_wayfinding.routecalc.service;
+
+import com.carrotsearch.hppc.IntHashSet;
+import com.graphhopper.storage.BaseGraph;
+import com.graphhopper.storage.index.LocationIndex;
+import com.graphhopper.util.DistanceCalc;
+import com.graphhopper.util.DistanceCalcEarth;
+import com.graphhopper.util.EdgeIteratorState;
+import com.graphhopper.util.FetchMode;
+import com.graphhopper.util.PointList;
+import com.graphhopper.util.shapes.BBox;
+
+import java.util.List;
+
+/**
+ * Avoidance zones as a set of graph edge ids. Each bad coordinate is snapped
+ * through the location index to the edges that pass within the radius, so the
+ * avoidance is exact and {@link #contains} is a single hash-set lookup. Instances
+ * are immutable; {@link #with} returns a blocklist that also covers new
+ * coordinates.
+ */
+public final class EdgeBlocklist {
+
+    /** Request hint under which the blocklist is passed to the weighting factory. */
+    public static final String KEY = "edge_blocklist";
+
+    private static final double METERS_PER_DEGREE = 111_320d;
+    private static final DistanceCalc DIST = DistanceCalcEarth.DIST_EARTH;
+
+    private final IntHashSet edges;
+
+    private EdgeBlocklist(IntHashSet edges) {
+        this.edges = edges;
+    }
+
+    public static EdgeBlocklist empty() {
+        return new EdgeBlocklist(new IntHashSet());
+    }
+
+    /**
+     * @param coords       bad coordinates as [lon, lat]
+     * @param radiusMeters edges passing closer than this to a coordinate are blocked
+     */
+    public EdgeBlocklist with(BaseGraph graph, LocationIndex locationIndex, List<List<Double>> coords,
+            double radiusMeters) {
+        IntHashSet blocked = new IntHashSet(edges);
+        for (List<Double> coord : coords) {
+            double lon = coord.get(0);
+            double lat = coord.get(1);
+            double dLat = radiusMeters / METERS_PER_DEGREE;
+            double dLon = radiusMeters / (METERS_PER_DEGREE * Math.cos(Math.toRadians(lat)));
+            BBox bbox = new BBox(lon - dLon, lon + dLon, lat - dLat, lat + dLat);
+            // the index visits every edge of the touched tiles, keep the ones that really pass by
+            locationIndex.query(bbox, edge -> {
+                if (!blocked.contains(edge)
+                        && distance(graph.getEdgeIteratorState(edge, Integer.MIN_VALUE), lat, lon) <= radiusMeters)
+                    blocked.add(edge);
+            });
+        }
+        return blocked.size() == edges.size() ? this : new EdgeBlocklist(blocked);
+    }
+
+    private static double distance(EdgeIteratorState edge, double lat, double lon) {
+        PointList points = edge.fetchWayGeometry(FetchMode.ALL);
+        double min = Double.MAX_VALUE;
+        for (int i = 0; i < points.size(); i++) {
+            double fromLat = points.getLat(i), fromLon = points.getLon(i);
+            min = Math.min(min, DIST.calcNormalizedDist(lat, lon, fromLat, fromLon));
+            if (i + 1 < points.size() && DIST.validEdgeDistance(lat, lon, fromLat, fromLon, points.getLat(i + 1),
+                    points.getLon(i + 1))) {
+                min = Math.min(min, DIST.calcNormalizedEdgeDistance(lat, lon, fromLat, fromLon, points.getLat(i + 1),
+                        points.getLon(i + 1)));
+            }
+        }
+        return DIST.calcDenormalizedDist(min);
+    }
+
+    public boolean contains(int edge) {
+        return edges.contains(edge);
+    }
+
+    public int size() {
+        return edges.size();
+    }
+
+    public boolean isEmpty() {
+        return edges.isEmpty();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o)
+            return true;
+        return o instanceof EdgeBlocklist && edges.equals(((EdgeBlocklist) o).edges);
+    }
+
+    @Override
+    public int hashCode() {
+        return edges.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return "EdgeBlocklist{edges=" + edges.size() + "}";
+    }
+}
@@ -0,0 +1,210 @@
+package nl.ase_wayfinding.routecalc.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Component;
+import org.springframework.web.client.RestTemplate;
+
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+/**
+ * Client for the environmental-data service. Pool, connect and per-read timeouts
+ * come from the pooled RestTemplate. Since a service trickling bytes can keep each
+ * read under the read timeout, every call also runs on a small worker pool and the
+ * caller waits at most {@code deadline-ms} for it. On top of that the client limits
+ * concurrent calls (bulkhead) and skips calls while the circuit breaker is open. A
+ * skipped, late or failed call returns no readings, so AQI checks are simply
+ * skipped while the service is unhealthy.
+ */
+@Component
+public class EnvironmentalDataClient {
+
+    private static final Logger logger = LoggerFactory.getLogger(EnvironmentalDataClient.class);
+
+    private final RestTemplate restTemplate;
+    private final String environmentalDataServiceUrl;
+    private final Semaphore bulkhead;
+    private final long bulkheadWaitMillis;
+    private final CircuitBreaker circuitBreaker;
+    private final long deadlineMillis;
+    private final ThreadPoolExecutor workers;
+
+    private final AtomicLong calls = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+    private final AtomicLong bulkheadRejections = new AtomicLong();
+    private final AtomicLong deadlineExceeded = new AtomicLong();
+
+    public EnvironmentalDataClient(RestTemplate restTemplate,
+            @Value("${service.internal-urls.environmental-data}") String environmentalDataServiceUrl,
+            @Value("${routing.aqi.client.max-concurrent-calls:20}") int maxConcurrentCalls,
+            @Value("${routing.aqi.client.bulkhead-wait-ms:50}") long bulkheadWaitMillis,
+            @Value("${routing.aqi.client.failure-threshold:5}") int failureThreshold,
+            @Value("${routing.aqi.client.open-ms:30000}") long openMillis,
+            @Value("${routing.aqi.client.deadline-ms:2500}") long deadlineMillis) {
+        this.restTemplate = restTemplate;
+        this.environmentalDataServiceUrl = environmentalDataServiceUrl;
+        this.bulkhead = new Semaphore(maxConcurrentCalls);
+        this.bulkheadWaitMillis = bulkheadWaitMillis;
+        this.circuitBreaker = new CircuitBreaker(failureThreshold, openMillis);
+        this.deadlineMillis = deadlineMillis;
+        // no queue: a call that finds every worker still busy with a late response fails at once
+        AtomicInteger counter = new AtomicInteger();
+        this.workers = new ThreadPoolExecutor(0, maxConcurrentCalls, 60, TimeUnit.SECONDS,
+                new SynchronousQueue<>(), runnable -> {
+                    Thread thread = new Thread(runnable, "environmental-data-" + counter.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        workers.shutdownNow();
+    }
+
+    /**
+     * POSTs the coordinates ([lon, lat]) to /environmental-data and returns the AQI
+     * of every returned sample (0 when a sample has no reading). Returns an empty
+     * list when the call is skipped or fails.
+     */
+    public List<Integer> fetchAirQuality(List<List<Double>> coords) {
+        if (!acquireBulkhead()) {
+            bulkheadRejections.incrementAndGet();
+            logger.warn("🚧 Too many concurrent environmental data calls, skipping AQI lookup of {} waypoints",
+                    coords.size());
+            return List.of();
+        }
+        try {
+            if (!circuitBreaker.tryAcquirePermission()) {
+                logger.warn("⚡ Environmental data service circuit is open, skipping AQI lookup of {} waypoints",
+                        coords.size());
+                return List.of();
+            }
+            calls.incrementAndGet();
+            return call(coords);
+        } finally {
+            bulkhead.release();
+        }
+    }
+
+    private List<Integer> call(List<List<Double>> coords) {
+        Future<List<Integer>> future = null;
+        try {
+            future = workers.submit(() -> exchange(coords));
+            List<Integer> aqiValues = future.get(deadlineMillis, TimeUnit.MILLISECONDS);
+            if (aqiValues == null) {
+                failures.incrementAndGet();
+                circuitBreaker.onFailure();
+                return List.of();
+            }
+            circuitBreaker.onSuccess();
+            return aqiValues;
+        } catch (TimeoutException e) {
+            // the worker stays on the socket until the next read times out, but the caller moves on
+            future.cancel(true);
+            deadlineExceeded.incrementAndGet();
+            failures.incrementAndGet();
+            circuitBreaker.onFailure();
+            logger.error("❌ Environmental data service did not answer within {} ms", deadlineMillis);
+            return List.of();
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+            failures.incrementAndGet();
+            circuitBreaker.onFailure();
+            return List.of();
+        } catch (ExecutionException | RejectedExecutionException e) {
+            failures.incrementAndGet();
+            circuitBreaker.onFailure();
+            Throwable cause = e instanceof ExecutionException && e.getCause() != null ? e.getCause() : e;
+            logger.error("❌ Error while fetching environmental data: {}", cause.getMessage());
+            return List.of();
+        }
+    }
+
+    private boolean acquireBulkhead() {
+        try {
+            return bulkhead.tryAcquire(bulkheadWaitMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /** @return the readings, or null when the service did not answer with 200 OK */
+    private List<Integer> exchange(List<List<Double>> coords) {
+        String url = environmentalDataServiceUrl + "/environmental-data";
+        logger.info("🌍 Environmental data service URL: {}", url);
+
+        // Convert coordinates to the expected JSON format (latitude, longitude)
+        List<Map<String, Double>> waypoints = coords.stream()
+                .map(p -> Map.of("latitude", p.get(1), "longitude", p.get(0)))
+                .collect(Collectors.toList());
+
+        // Prepare headers
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.APPLICATION_JSON);
+        headers.set("Accept", "application/json");
+
+        // Create the request entity
+        HttpEntity<List<Map<String, Double>>> requestEntity = new HttpEntity<>(waypoints, headers);
+
+        logger.info("📍 Sending request to environmental data service with waypoints: {}", waypoints);
+
+        // Make the POST request
+        ResponseEntity<List> response = restTemplate.exchange(url, HttpMethod.POST, requestEntity, List.class);
+
+        logger.info("🌐 Environmental data service response: {}", response);
+
+        if (response.getStatusCode() != HttpStatus.OK || response.getBody() == null) {
+            logger.error("❌ Failed to fetch environmental data. Status code: {}, Response: {}",
+                    response.getStatusCode(), response);
+            return null;
+        }
+        List<Map<String, Object>> envData = response.getBody();
+        logger.info("✅ Environmental data received: {}", envData);
+        List<Integer> aqiValues = new ArrayList<>();
+        for (Map<String, Object> data : envData) {
+            aqiValues.add(data.get("aqi") instanceof Number ? ((Number) data.get("aqi")).intValue() : 0);
+        }
+        return aqiValues;
+    }
+
+    public CircuitBreaker.State getCircuitState() {
+        return circuitBreaker.getState();
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("circuit_state", circuitBreaker.getState().name());
+        stats.put("calls", calls.get());
+        stats.put("failures", failures.get());
+        stats.put("circuit_rejections", circuitBreaker.getRejectedCalls());
+        stats.put("bulkhead_rejections", bulkheadRejections.get());
+        stats.put("deadline_exceeded", deadlineExceeded.get());
+        stats.put("available_permits", bulkhead.availablePermits());
+        return stats;
+    }
+}
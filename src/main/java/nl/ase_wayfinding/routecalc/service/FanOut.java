@@ -0,0 +1,143 @@
+package nl.ase_wayfinding.routecalc.service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Runs independent tasks on a bounded executor and returns their results in task
+ * order. The calling thread does not just wait: while nothing has finished it runs
+ * tasks no worker has picked up yet, so a saturated or rejecting pool, or a task
+ * fanning out again on the same pool, cannot deadlock. A failing task cancels the
+ * tasks after it and the exception of the first failing task in task order is
+ * rethrown.
+ */
+public final class FanOut {
+
+    private FanOut() {
+    }
+
+    public static <T> List<T> invokeAll(Executor executor, List<Callable<T>> tasks) {
+        try {
+            return invokeAll(executor, tasks, false, 0);
+        } catch (TimeoutException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Like {@link #invokeAll(Executor, List)}, but gives up and cancels the tasks once
+     * the shared deadline has passed. A task the calling thread is running itself is
+     * not interrupted, the deadline is checked when it returns and late results are
+     * dropped.
+     */
+    public static <T> List<T> invokeAll(Executor executor, List<Callable<T>> tasks, long timeout, TimeUnit unit)
+            throws TimeoutException {
+        return invokeAll(executor, tasks, true, System.nanoTime() + unit.toNanos(timeout));
+    }
+
+    private static <T> List<T> invokeAll(Executor executor, List<Callable<T>> tasks, boolean timed,
+            long deadlineNanos) throws TimeoutException {
+        BlockingQueue<FutureTask<T>> completed = new LinkedBlockingQueue<>();
+        List<FutureTask<T>> futures = new ArrayList<>(tasks.size());
+        for (Callable<T> task : tasks) {
+            futures.add(new FutureTask<>(task) {
+                @Override
+                protected void done() {
+                    completed.add(this);
+                }
+            });
+        }
+        // the first task is kept for the calling thread
+        for (int i = 1; i < futures.size(); i++) {
+            try {
+                executor.execute(futures.get(i));
+            } catch (RejectedExecutionException e) {
+                // left for the calling thread
+            }
+        }
+
+        int next = 0;
+        try {
+            for (int remaining = futures.size(); remaining > 0; remaining--) {
+                FutureTask<T> done = completed.poll();
+                while (done == null && next < futures.size()) {
+                    // no-op if a worker already started it
+                    futures.get(next++).run();
+                    done = completed.poll();
+                }
+                if (done == null && !timed)
+                    done = completed.take();
+                if (done == null)
+                    done = completed.poll(deadlineNanos - System.nanoTime(), TimeUnit.NANOSECONDS);
+                if (done == null || timed && deadlineNanos - System.nanoTime() < 0) {
+                    cancel(futures);
+                    throw new TimeoutException("Parallel tasks did not finish before the deadline");
+                }
+                try {
+                    done.get();
+                } catch (ExecutionException e) {
+                    throw earliestFailure(futures, futures.indexOf(done), e, timed, deadlineNanos);
+                }
+            }
+            List<T> results = new ArrayList<>(futures.size());
+            for (FutureTask<T> future : futures)
+                results.add(future.get());
+            return results;
+        } catch (ExecutionException e) {
+            cancel(futures);
+            if (e.getCause() instanceof RuntimeException)
+                throw (RuntimeException) e.getCause();
+            if (e.getCause() instanceof Error)
+                throw (Error) e.getCause();
+            throw new IllegalStateException(e.getCause());
+        } catch (InterruptedException e) {
+            cancel(futures);
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for parallel tasks", e);
+        }
+    }
+
+    /**
+     * Cancels the tasks after the failed one and waits for the ones before it, so the
+     * reported failure is the first one in task order, as if the tasks ran one by one.
+     */
+    private static <T> ExecutionException earliestFailure(List<FutureTask<T>> futures, int failed,
+            ExecutionException failure, boolean timed, long deadlineNanos) throws InterruptedException {
+        for (int i = failed + 1; i < futures.size(); i++)
+            futures.get(i).cancel(true);
+        try {
+            for (int i = 0; i < failed; i++) {
+                FutureTask<T> earlier = futures.get(i);
+                // no-op if a worker already started it
+                earlier.run();
+                try {
+                    if (timed)
+                        earlier.get(deadlineNanos - System.nanoTime(), TimeUnit.NANOSECONDS);
+                    else
+                        earlier.get();
+                } catch (ExecutionException e) {
+                    return e;
+                } catch (TimeoutException e) {
+                    return failure;
+                }
+            }
+            return failure;
+        } finally {
+            cancel(futures);
+        }
+    }
+
+    private static <T> void cancel(List<FutureTask<T>> futures) {
+        for (FutureTask<T> future : futures)
+            future.cancel(true);
+    }
+}
@@ -0,0 +1,105 @@
+package nl.ase_wayfinding.routecalc.service;
+
+import java.util.Arrays;
+
+/**
+ * Walking transfers between stops in compressed rows: the footpaths leaving stop s
+ * are targets[start[s]] up to targets[start[s + 1]], each taking seconds[j].
+ * Instances are immutable.
+ */
+final class Footpaths {
+
+    private final int[] start;
+    private final int[] targets;
+    private final int[] seconds;
+
+    Footpaths(int[] start, int[] targets, int[] seconds) {
+        this.start = start;
+        this.targets = targets;
+        this.seconds = seconds;
+    }
+
+    /** @param transfers {from, to, seconds} per footpath, in any order */
+    static Footpaths of(int stops, Iterable<int[]> transfers) {
+        int[] start = new int[stops + 1];
+        int count = 0;
+        for (int[] transfer : transfers) {
+            start[transfer[0] + 1]++;
+            count++;
+        }
+        for (int s = 0; s < stops; s++)
+            start[s + 1] += start[s];
+        int[] targets = new int[count];
+        int[] seconds = new int[count];
+        int[] fill = Arrays.copyOf(start, stops);
+        for (int[] transfer : transfers) {
+            int j = fill[transfer[0]]++;
+            targets[j] = transfer[1];
+            seconds[j] = transfer[2];
+        }
+        return new Footpaths(start, targets, seconds);
+    }
+
+    static Footpaths empty(int stops) {
+        return new Footpaths(new int[stops + 1], new int[0], new int[0]);
+    }
+
+    /**
+     * @return the footpaths of both; where both connect the same two stops, the
+     *         one of this instance is kept
+     */
+    Footpaths merge(Footpaths other) {
+        int stops = stopCount();
+        int[] mergedStart = new int[stops + 1];
+        int[] mergedTargets = new int[size() + other.size()];
+        int[] mergedSeconds = new int[mergedTargets.length];
+        int n = 0;
+        for (int s = 0; s < stops; s++) {
+            mergedStart[s] = n;
+            for (int j = start[s]; j < start[s + 1]; j++) {
+                mergedTargets[n] = targets[j];
+                mergedSeconds[n++] = seconds[j];
+            }
+            for (int j = other.start[s]; j < other.start[s + 1]; j++) {
+                if (!connects(s, other.targets[j])) {
+                    mergedTargets[n] = other.targets[j];
+                    mergedSeconds[n++] = other.seconds[j];
+                }
+            }
+        }
+        mergedStart[stops] = n;
+        return new Footpaths(mergedStart, Arrays.copyOf(mergedTargets, n), Arrays.copyOf(mergedSeconds, n));
+    }
+
+    private boolean connects(int from, int to) {
+        for (int j = start[from]; j < start[from + 1]; j++) {
+            if (targets[j] == to)
+                return true;
+        }
+        return false;
+    }
+
+    int stopCount() {
+        return start.length - 1;
+    }
+
+    int size() {
+        return targets.length;
+    }
+
+    int start(int stop) {
+        return start[stop];
+    }
+
+    int end(int stop) {
+        return start[stop + 1];
+    }
+
+    int target(int j) {
+        return targets[j];
+    }
+
+    int seconds(int j) {
+        return seconds[j];
+    }
+}
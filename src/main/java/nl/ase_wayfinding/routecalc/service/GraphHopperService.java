@@ -1,15 +1,30 @@
 package nl.ase_wayfinding.routecalc.service;
 
 import com.graphhopper.*;
+import com.graphhopper.config.CHProfile;
+import com.graphhopper.config.LMProfile;
 import com.graphhopper.config.Profile;
-import com.graphhopper.util.JsonFeature;
-import com.graphhopper.util.JsonFeatureCollection;
+import com.graphhopper.routing.Router;
+import com.graphhopper.routing.RouterConfig;
+import com.graphhopper.routing.WeightingFactory;
+import com.graphhopper.routing.ev.Subnetwork;
+import com.graphhopper.routing.lm.LandmarkStorage;
+import com.graphhopper.routing.util.DefaultSnapFilter;
+import com.graphhopper.routing.util.EdgeFilter;
+import com.graphhopper.routing.util.EncodingManager;
+import com.graphhopper.routing.weighting.Weighting;
+import com.graphhopper.storage.RoutingCHGraph;
+import com.graphhopper.storage.index.LocationIndex;
+import com.graphhopper.storage.index.Snap;
+import com.graphhopper.util.PMap;
+import com.graphhopper.util.details.PathDetailsBuilderFactory;
+import com.graphhopper.util.Parameters;
 import com.graphhopper.util.CustomModel;
 import com.graphhopper.util.PointList;
 import com.graphhopper.util.shapes.GHPoint;
+import com.graphhopper.storage.BaseGraph;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
-import org.locationtech.jts.geom.*;
-import org.locationtech.jts.operation.union.CascadedPolygonUnion;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Service;
@@ -23,34 +38,64 @@ import org.slf4j.LoggerFactory;
 
 import javax.annotation.PostConstruct;
 import java.io.File;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.temporal.ChronoUnit;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.stream.Collectors;
 
 import static com.graphhopper.json.Statement.If;
 import static com.graphhopper.json.Statement.Op.MULTIPLY;
-import org.springframework.web.client.RestTemplate;
-import org.springframework.http.ResponseEntity;
-import org.springframework.http.HttpStatus;
-import org.springframework.http.HttpHeaders;
-import org.springframework.http.HttpEntity;
-import org.springframework.http.HttpMethod;
-import org.springframework.http.MediaType;
+import org.springframework.scheduling.annotation.Scheduled;
 
 @Service
 public class GraphHopperService {
 
     private static final Logger logger = LoggerFactory.getLogger(GraphHopperService.class);
-    private final RestTemplate restTemplate;
-
-    public GraphHopperService(RestTemplate restTemplate) {
-        this.restTemplate = restTemplate;
+    private static final List<String> ROUTING_PROFILES = List.of("car", "bike", "walk");
+    private static final double WALK_DETOUR_FACTOR = 1.3;
+    // messages GraphHopper's LM solver fails with when it cannot serve a custom model
+    private static final List<String> LM_REJECTIONS = List.of("Cannot find LM preparation",
+            "CustomModel in query", "CustomModel of query", "maximum of value", "minimum of value");
+
+    /** Why the iterative AQI loop stopped, reported as termination_reason. */
+    public static final String TERMINATION_CLEAN = "clean";
+    public static final String TERMINATION_NO_IMPROVEMENT = "no_improvement";
+    public static final String TERMINATION_ROUTE_UNCHANGED = "route_unchanged";
+    public static final String TERMINATION_BUDGET = "budget_exhausted";
+    public static final String TERMINATION_MAX_ITERATIONS = "max_iterations";
+    public static final String TERMINATION_SINGLE_PASS = "single_pass";
+
+    private final EnvironmentalDataClient environmentalDataClient;
+    private final AqiTileCache aqiTileCache;
+
+    private final ExecutorService routingExecutor;
+
+    public GraphHopperService(EnvironmentalDataClient environmentalDataClient, AqiTileCache aqiTileCache,
+            @Qualifier("routingExecutor") ExecutorService routingExecutor) {
+        this.environmentalDataClient = environmentalDataClient;
+        this.aqiTileCache = aqiTileCache;
+        this.routingExecutor = routingExecutor;
     }
 
     private GraphHopper hopper;
-    private final GeometryFactory geometryFactory = new GeometryFactory();
     private Map<String, List<double[]>> busRoutes = new HashMap<>();
+    // the shapes each transit mode runs along, searched separately
+    private Map<TransitMode, ShapeIndex> shapeIndexes = Map.of();
+    private volatile Timetable timetable;
+    private volatile StopSnaps stopSnaps;
+    private Map<String, ShapeSegments> shapeSegments = new ConcurrentHashMap<>();
     private TranslationMap translationMap;
 
     @Value("${osm.file.path}")
@@ -62,8 +107,101 @@ public class GraphHopperService {
     @Value("${graph.cache.path}")
     private String graphCachePath;
 
-    @Value("${service.internal-urls.environmental-data}")
-    private String environmentalDataServiceUrl;
+    @Value("${gtfs.cache.path:}")
+    private String gtfsCachePath;
+
+    @Value("${routing.ch.enabled:true}")
+    private boolean chEnabled = true;
+
+    @Value("${routing.lm.enabled:true}")
+    private boolean lmEnabled = true;
+
+    @Value("${routing.aqi.mode:edge}")
+    private String airQualityMode = "edge";
+
+    @Value("${routing.aqi.snapshot.bbox:-6.45,53.20,-6.05,53.45}")
+    private String airQualitySnapshotBbox = "-6.45,53.20,-6.05,53.45";
+
+    @Value("${routing.aqi.snapshot.cell-size-m:500}")
+    private double airQualityCellSizeMeters = 500;
+
+    @Value("${routing.aqi.snapshot.batch-size:500}")
+    private int airQualityBatchSize = 500;
+
+    @Value("${routing.aqi.snapshot.max-age-ms:900000}")
+    private long airQualitySnapshotMaxAgeMs = 900_000;
+
+    @Value("${routing.aqi.sampling.spacing-m:100}")
+    private double waypointSpacingMeters = 100;
+
+    @Value("${routing.aqi.sampling.cell-size-m:50}")
+    private double waypointCellSizeMeters = 50;
+
+    @Value("${routing.aqi.sampling.max-waypoints:100}")
+    private int maxWaypoints = 100;
+
+    @Value("${routing.weighting-cache.max-entries:200}")
+    private int weightingCacheMaxEntries = 200;
+
+    @Value("${routing.avoidance.strategy:grid}")
+    private String avoidanceStrategy = "grid";
+
+    @Value("${routing.avoidance.cell-size-m:50}")
+    private double avoidanceCellSizeMeters = 50;
+
+    @Value("${routing.avoidance.radius-m:100}")
+    private double avoidanceRadiusMeters = 100;
+
+    @Value("${routing.avoidance.penalty:100}")
+    private double avoidancePenalty = 100;
+
+    @Value("${routing.aqi.iterations.max:5}")
+    private int maxIterations = 5;
+
+    @Value("${routing.aqi.iterations.budget-ms:3000}")
+    private long iterationBudgetMs = 3000;
+
+    @Value("${routing.transit.shape-index.cell-size-m:250}")
+    private double shapeIndexCellSizeMeters = 250;
+
+    @Value("${routing.transit.max-walk-to-stop-m:1000}")
+    private double maxWalkToStopMeters = 1000;
+
+    @Value("${routing.transit.walk-deadline-ms:5000}")
+    private long transitWalkDeadlineMs = 5000;
+
+    @Value("${routing.transit.max-transfers:3}")
+    private int transitMaxTransfers = 3;
+
+    @Value("${routing.transit.min-change-s:60}")
+    private int transitMinChangeSeconds = 60;
+
+    @Value("${routing.transit.walk-speed-mps:1.3}")
+    private double walkSpeedMps = 1.3;
+
+    @Value("${routing.transit.stop-snap.max-m:150}")
+    private double maxStopSnapMeters = 150;
+
+    @Value("${routing.transit.transfers.max-walk-m:400}")
+    private double maxTransferWalkMeters = 400;
+
+    @Value("${routing.transit.transfers.parallelism:0}")
+    private int transferParallelism = 0;
+
+    @Value("${gtfs.timezone:Europe/Dublin}")
+    private String gtfsTimezone = "Europe/Dublin";
+
+    @Value("${routing.aqi.repair.mode:local}")
+    private String repairMode = "local";
+
+    @Value("${routing.aqi.repair.margin-m:300}")
+    private double repairMarginMeters = 300;
+
+    private CachingWeightingFactory weightingFactory;
+    private final SingleFlight<String, Map<String, Object>> routeFlights = new SingleFlight<>();
+    private AirQualityEdgeIndex airQualityIndex;
+    private volatile long airQualitySnapshotMillis;
+    private final AtomicLong airQualityEpoch = new AtomicLong();
 
     @PostConstruct
     public void init() {
@@ -72,7 +210,25 @@ public class GraphHopperService {
             throw new IllegalStateException("❌ OSM file not found: " + osmData.getAbsolutePath());
         }
 
-        hopper = new GraphHopper()
+        hopper = new GraphHopper() {
+            @Override
+            protected WeightingFactory createWeightingFactory() {
+                return cachingWeightingFactory(super.createWeightingFactory(), getBaseGraph());
+            }
+
+            @Override
+            protected Router doCreateRouter(BaseGraph baseGraph, EncodingManager encodingManager,
+                    LocationIndex locationIndex, Map<String, Profile> profilesByName,
+                    PathDetailsBuilderFactory pathBuilderFactory, TranslationMap trMap, RouterConfig routerConfig,
+                    WeightingFactory weightingFactory, Map<String, RoutingCHGraph> chGraphs,
+                    Map<String, LandmarkStorage> landmarks) {
+                // walking legs to and from stops reuse the snaps computed at startup
+                StopSnaps snaps = stopSnaps;
+                return super.doCreateRouter(baseGraph, encodingManager,
+                        snaps == null ? locationIndex : snaps.wrap(locationIndex, baseGraph), profilesByName,
+                        pathBuilderFactory, trMap, routerConfig, weightingFactory, chGraphs, landmarks);
+            }
+        }
                 .setOSMFile(osmFilePath)
                 .setGraphHopperLocation(graphCachePath)
                 .setProfiles(
@@ -80,10 +236,35 @@ public class GraphHopperService {
                         new Profile("bike").setVehicle("bike").setWeighting("custom"),
                         new Profile("walk").setVehicle("foot").setWeighting("custom"));
 
+        boolean edgeAirQuality = "edge".equalsIgnoreCase(airQualityMode);
+        if (edgeAirQuality) {
+            hopper.setEncodedValueFactory(AirQuality.encodedValueFactory())
+                    .setEncodedValuesString(AirQuality.KEY);
+        }
+
+        // CH serves the plain requests, LM the ones carrying a custom model or avoidance zone.
+        // Missing preparations are built on the next start, an existing graph cache is kept.
+        if (chEnabled) {
+            hopper.getCHPreparationHandler().setCHProfiles(
+                    ROUTING_PROFILES.stream().map(CHProfile::new).collect(Collectors.toList()));
+        }
+        if (lmEnabled) {
+            hopper.getLMPreparationHandler().setLMProfiles(
+                    ROUTING_PROFILES.stream().map(LMProfile::new).collect(Collectors.toList()));
+        }
+
         hopper.importOrLoad();
+        if (edgeAirQuality) {
+            initAirQualityIndex();
+        }
 
         String shapesFile = Paths.get(gtfsPath, "shapes.txt").toString();
         loadGTFSData(shapesFile);
+        loadTimetable(Paths.get(gtfsPath));
+        if (timetable != null) {
+            loadStopSnaps(timetable, Paths.get(graphCachePath, "stop_snaps.bin"));
+            loadWalkingTransfers(Paths.get(graphCachePath, "walk_transfers.bin"));
+        }
 
         // Initialize translationMap here to avoid NullPointerException.
         translationMap = new TranslationMap().doImport();
@@ -91,75 +272,406 @@ public class GraphHopperService {
         logger.info("✅ GraphHopper initialized with OSM file: {}", osmFilePath);
         logger.info("✅ GTFS data loaded from: {}", gtfsPath);
         logger.info("✅ Graph cache path: {}", graphCachePath);
+        logger.info("✅ Speed-up preparations: CH={}, LM={}", chEnabled, lmEnabled);
     }
 
-    private void loadGTFSData(String shapesFile) {
-        try {
-            logger.info("🔍 Reading GTFS shapes.txt from: {}", shapesFile);
+    /**
+     * GraphHopper asks for a weighting factory on every route call; hand out one
+     * shared caching factory so prepared custom weightings survive between requests.
+     */
+    private synchronized WeightingFactory cachingWeightingFactory(WeightingFactory defaults, BaseGraph graph) {
+        if (weightingFactory == null) {
+            weightingFactory = new CachingWeightingFactory(defaults, graph, avoidancePenalty,
+                    weightingCacheMaxEntries);
+        }
+        return weightingFactory;
+    }
 
-            List<String> lines = Files.readAllLines(Paths.get(shapesFile), java.nio.charset.StandardCharsets.UTF_8);
+    /**
+     * Routes the request on the fastest engine that can serve it. Plain requests
+     * go to CH, requests with a custom model or avoidance zone (CH can't serve
+     * those) go to LM, and a flexible search is used when LM is disabled or
+     * rejects the custom model. Any other error, such as an unsnappable point or no
+     * connection, is returned as is: a flexible search would only fail the same way.
+     */
+    GHResponse route(GHRequest request) {
+        boolean customModel = request.getCustomModel() != null || request.getHints().has(AvoidanceGrid.KEY)
+                || request.getHints().has(EdgeBlocklist.KEY);
+        request.putHint(Parameters.CH.DISABLE, customModel || !chEnabled);
+        request.putHint(Parameters.Landmark.DISABLE, !lmEnabled);
+
+        GHResponse response = hopper.route(request);
+        if (customModel && lmEnabled && response != null && rejectedByLM(response)) {
+            logger.warn("⚠️ LM could not serve the custom model for profile {}, falling back to flexible routing: {}",
+                    request.getProfile(), response.getErrors());
+            request.putHint(Parameters.Landmark.DISABLE, true);
+            response = hopper.route(request);
+        }
+        return response;
+    }
 
-            logger.info("📄 GTFS file line count: {}", lines.size());
-            if (lines.size() > 1) {
-                logger.info("📄 Sample GTFS shape lines:\n{}\n{}",
-                        lines.get(1),
-                        lines.size() > 2 ? lines.get(2) : "");
-            }
-            boolean isFirstLine = true;
-            for (String line : lines) {
-                if (isFirstLine) {
-                    isFirstLine = false;
-                    continue; // Skip header row
-                }
-                String[] parts = line.split(",");
-                logger.debug("Processing line: \"{}\", parts count: {}", line, parts.length);
+    private static boolean rejectedByLM(GHResponse response) {
+        // PointNotFound and ConnectionNotFound are IllegalArgumentException subclasses, so match the exact type
+        return response.getErrors().stream()
+                .filter(error -> error.getClass() == IllegalArgumentException.class && error.getMessage() != null)
+                .anyMatch(error -> LM_REJECTIONS.stream().anyMatch(error.getMessage()::startsWith));
+    }
 
-                if (parts.length < 4) {
-                    logger.warn("Skipping line due to insufficient parts: \"{}\"", line);
-                    continue;
+    private void initAirQualityIndex() {
+        if (!hopper.getEncodingManager().hasEncodedValue(AirQuality.KEY)) {
+            logger.warn("⚠️ Graph cache {} has no '{}' edge attribute (delete it to re-import). "
+                    + "Falling back to iterative AQI routing.", graphCachePath, AirQuality.KEY);
+            return;
+        }
+        double[] bbox = Arrays.stream(airQualitySnapshotBbox.split(","))
+                .map(String::trim)
+                .mapToDouble(Double::parseDouble)
+                .toArray();
+        airQualityIndex = AirQualityEdgeIndex.build(hopper.getBaseGraph(), bbox, airQualityCellSizeMeters);
+        logger.info("🌍 AQI snapshot area {} covers {} edges in {} cells of {} m",
+                airQualitySnapshotBbox, airQualityIndex.getEdgeCount(), airQualityIndex.getCellCount(),
+                airQualityCellSizeMeters);
+    }
+
+    /**
+     * Pulls one AQI reading per snapshot cell from the environmental-data service and
+     * writes it onto the air_quality attribute of the cell's edges. A failed refresh
+     * keeps the previous snapshot; once it is older than the max age, requests fall
+     * back to the iterative loop.
+     */
+    @Scheduled(initialDelayString = "${routing.aqi.snapshot.initial-delay-ms:0}",
+            fixedDelayString = "${routing.aqi.snapshot.refresh-ms:300000}")
+    public void refreshAirQualitySnapshot() {
+        AirQualityEdgeIndex index = airQualityIndex;
+        if (index == null)
+            return;
+
+        List<List<Double>> centers = index.getCellCenters();
+        int[] readings = new int[centers.size()];
+        try {
+            for (int from = 0; from < centers.size(); from += airQualityBatchSize) {
+                int to = Math.min(centers.size(), from + airQualityBatchSize);
+                List<Integer> aqiValues = environmentalDataClient.fetchAirQuality(centers.subList(from, to));
+                if (aqiValues.size() != to - from) {
+                    logger.error("❌ AQI snapshot aborted: expected {} readings but got {}", to - from,
+                            aqiValues.size());
+                    return;
                 }
-                // Remove quotes and trim each value
-                String shapeId = parts[0].replace("\"", "").trim();
-                double lat, lon;
-                try {
-                    logger.debug("Parsing lat from \"{}\", lon from \"{}\"",
-                            parts[1], parts[2]);
-                    lat = Double.parseDouble(parts[1].replace("\"", "").trim());
-                    lon = Double.parseDouble(parts[2].replace("\"", "").trim());
-                    logger.debug("Parsed shapeId: \"{}\" with lat: {} and lon: {}", shapeId, lat, lon);
-                } catch (NumberFormatException e) {
-                    logger.warn("Skipping line due to NumberFormatException: \"{}\"", line);
-                    continue;
+                for (int i = 0; i < aqiValues.size(); i++) {
+                    readings[from + i] = aqiValues.get(i);
                 }
-                busRoutes.computeIfAbsent(shapeId, k -> new ArrayList<>()).add(new double[] { lon, lat });
             }
+        } catch (Exception e) {
+            logger.error("❌ AQI snapshot refresh failed: {}", e.getMessage());
+            return;
+        }
+
+        BaseGraph graph = hopper.getBaseGraph();
+        int edges = index.apply(readings, hopper.getEncodingManager().getIntEncodedValue(AirQuality.KEY),
+                graph.createEdgeIntAccess());
+        airQualitySnapshotMillis = System.currentTimeMillis();
+        logger.info("🌍 AQI snapshot #{} applied to {} edges in {} cells", airQualityEpoch.incrementAndGet(), edges,
+                readings.length);
+    }
+
+    boolean isAirQualitySnapshotFresh() {
+        return airQualityIndex != null && airQualitySnapshotMillis > 0
+                && System.currentTimeMillis() - airQualitySnapshotMillis <= airQualitySnapshotMaxAgeMs;
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("aqi_tile_cache", aqiTileCache.stats());
+        stats.put("environmental_data_client", environmentalDataClient.stats());
+        stats.put("route_single_flight", routeFlights.stats());
+        CachingWeightingFactory weightings = getWeightingFactory();
+        if (weightings != null) {
+            stats.put("weighting_cache", weightings.stats());
+        }
+        return stats;
+    }
 
-            logger.info("🚌 GTFS data loaded successfully! {} bus routes available.", busRoutes.size());
+    private synchronized CachingWeightingFactory getWeightingFactory() {
+        return weightingFactory;
+    }
+
+    /** Normalized single-flight key, points are rounded to about 10 cm. */
+    static String flightKey(String kind, String modes, List<List<Double>> points) {
+        StringBuilder key = new StringBuilder(kind).append('|').append(modes.toLowerCase());
+        for (List<Double> point : points) {
+            key.append('|').append(Math.round(point.get(1) * 1e6)).append(',').append(Math.round(point.get(0) * 1e6));
+        }
+        return key.toString();
+    }
+
+    /**
+     * Identifies the data routes are computed against: the graph import and the
+     * AQI snapshot. Cached route results of another version are stale.
+     */
+    public String getRoutingDataVersion() {
+        String importDate = hopper == null ? null : hopper.getProperties().get("datareader.import.date");
+        return "graph@" + importDate + "/aqi#" + airQualityEpoch.get();
+    }
+
+    /** Incremented every time a new AQI snapshot has been written into the graph. */
+    public long getAirQualityEpoch() {
+        return airQualityEpoch.get();
+    }
+
+    private void loadGTFSData(String shapesFile) {
+        try {
+            logger.info("🔍 Reading GTFS shapes.txt from: {}", shapesFile);
+            long start = System.currentTimeMillis();
+            Path source = Paths.get(shapesFile);
+            // the shapes' modes come from the trips and routes, so they are part of the cache too
+            List<Path> sources = new ArrayList<>(List.of(source));
+            for (String modeSource : List.of("trips.txt", "routes.txt")) {
+                Path file = source.resolveSibling(modeSource);
+                if (Files.exists(file))
+                    sources.add(file);
+            }
+            long checksum = TransitCache.checksum(sources.toArray(new Path[0]));
+            Path cacheFile = gtfsCachePath == null || gtfsCachePath.isBlank() ? null
+                    : Paths.get(gtfsCachePath, "shapes.bin");
+            Map<TransitMode, ShapeIndex> indexes = cacheFile == null ? null : readTransitCache(cacheFile, checksum);
+            if (indexes != null) {
+                ShapeTable shapes = indexes.values().iterator().next().getShapes();
+                logger.info("🚌 GTFS data mapped from {}! {} bus routes with {} points available, in {} ms.",
+                        cacheFile, shapes.size(), shapes.pointCount(), System.currentTimeMillis() - start);
+            } else {
+                ShapeTable shapes = ShapeTable.read(source);
+                indexes = ShapeIndex.byMode(shapes, shapeIndexCellSizeMeters, readShapeModes(source.getParent()));
+                logger.info("🚌 GTFS data loaded successfully! {} bus routes with {} points available, in {} ms.",
+                        shapes.size(), shapes.pointCount(), System.currentTimeMillis() - start);
+                if (cacheFile != null) {
+                    writeTransitCache(cacheFile, checksum, indexes);
+                }
+            }
+            setShapes(indexes);
+            for (Map.Entry<TransitMode, ShapeIndex> modeIndex : shapeIndexes.entrySet()) {
+                logger.info("🚏 {} {} shapes indexed", modeIndex.getValue().size(), modeIndex.getKey().getName());
+            }
         } catch (Exception e) {
             logger.error("❌ Failed to load GTFS data: {}", e.getMessage());
         }
     }
 
+    /** @return the mode of every shape, or null when the feed has no trips to tell */
+    private Map<String, TransitMode> readShapeModes(Path gtfsDir) {
+        if (gtfsDir == null || !Files.exists(gtfsDir.resolve("trips.txt"))
+                || !Files.exists(gtfsDir.resolve("routes.txt"))) {
+            logger.info("ℹ️ No trips.txt and routes.txt in {}, every shape is taken for a bus route", gtfsDir);
+            return null;
+        }
+        try {
+            return Timetable.readShapeModes(gtfsDir);
+        } catch (IOException e) {
+            logger.warn("⚠️ Could not tell the shapes' modes apart, every shape is taken for a bus route: {}",
+                    e.getMessage());
+            return null;
+        }
+    }
+
+    private void loadTimetable(Path gtfsDir) {
+        if (!Files.exists(gtfsDir.resolve("stop_times.txt"))) {
+            logger.info("ℹ️ No stop_times.txt in {}, bus routes follow the nearest shape", gtfsDir);
+            return;
+        }
+        try {
+            long start = System.currentTimeMillis();
+            long checksum = TransitCache.checksum(Timetable.sources(gtfsDir));
+            Path cacheFile = gtfsCachePath == null || gtfsCachePath.isBlank() ? null
+                    : Paths.get(gtfsCachePath, "timetable.bin");
+            Timetable table = cacheFile == null ? null : readTimetableCache(cacheFile, checksum);
+            if (table != null) {
+                logger.info("🕒 GTFS timetable mapped from {}: {} stops, {} patterns, {} trips, in {} ms.",
+                        cacheFile, table.stopCount(), table.patternCount(), table.tripCount(),
+                        System.currentTimeMillis() - start);
+            } else {
+                table = Timetable.read(gtfsDir);
+                logger.info("🕒 GTFS timetable loaded: {} stops, {} patterns, {} trips, in {} ms.",
+                        table.stopCount(), table.patternCount(), table.tripCount(), System.currentTimeMillis() - start);
+                if (cacheFile != null) {
+                    writeTimetableCache(cacheFile, checksum, table);
+                }
+            }
+            timetable = table;
+        } catch (Exception e) {
+            logger.error("❌ Failed to load GTFS timetable, bus routes follow the nearest shape: {}", e.getMessage());
+        }
+    }
+
+    private Timetable readTimetableCache(Path cacheFile, long checksum) {
+        try {
+            return Timetable.readCache(cacheFile, checksum);
+        } catch (IOException | BufferUnderflowException e) {
+            logger.warn("⚠️ Could not read timetable cache {}, parsing the feed instead: {}", cacheFile,
+                    e.getMessage());
+            return null;
+        }
+    }
+
+    private void writeTimetableCache(Path cacheFile, long checksum, Timetable table) {
+        try {
+            table.writeCache(cacheFile, checksum);
+            logger.info("💾 Timetable cache written to {}", cacheFile);
+        } catch (IOException e) {
+            logger.warn("⚠️ Could not write timetable cache {}: {}", cacheFile, e.getMessage());
+        }
+    }
+
+    void setTimetable(Timetable timetable) {
+        this.timetable = timetable;
+    }
+
+    /** Snaps every stop onto the walk network once, or reads the snaps kept next to the graph. */
+    private void loadStopSnaps(Timetable table, Path snapsFile) {
+        long start = System.currentTimeMillis();
+        long graphKey = graphKey();
+        StopSnaps snaps = null;
+        try {
+            snaps = StopSnaps.read(snapsFile, graphKey, table);
+        } catch (IOException e) {
+            logger.warn("⚠️ Could not read stop snaps {}, snapping the stops again: {}", snapsFile, e.getMessage());
+        }
+        if (snaps == null) {
+            snaps = StopSnaps.compute(table, hopper.getLocationIndex(), walkSnapFilter(walkWeighting()), graphKey,
+                    maxStopSnapMeters);
+            try {
+                snaps.write(snapsFile);
+            } catch (IOException e) {
+                logger.warn("⚠️ Could not write stop snaps {}: {}", snapsFile, e.getMessage());
+            }
+        }
+        stopSnaps = snaps;
+        logger.info("📍 {} of {} stops snapped to the walk network, in {} ms.", snaps.snappedCount(), snaps.size(),
+                System.currentTimeMillis() - start);
+    }
+
+    /**
+     * Adds walking transfers between nearby stops to the timetable, computed once
+     * for the graph and the stops and then read from the file next to the graph.
+     */
+    private void loadWalkingTransfers(Path transfersFile) {
+        Timetable table = timetable;
+        StopSnaps snaps = stopSnaps;
+        long start = System.currentTimeMillis();
+        long graphKey = graphKey();
+        long stopsKey = StopSnaps.stopsKey(table);
+        Footpaths footpaths = null;
+        try {
+            footpaths = WalkingTransfers.read(transfersFile, graphKey, stopsKey, maxTransferWalkMeters);
+        } catch (IOException e) {
+            logger.warn("⚠️ Could not read walking transfers {}, computing them again: {}", transfersFile,
+                    e.getMessage());
+        }
+        if (footpaths == null) {
+            int parallelism = transferParallelism > 0 ? transferParallelism
+                    : Runtime.getRuntime().availableProcessors();
+            footpaths = WalkingTransfers.compute(hopper.getBaseGraph(), walkWeighting(), snaps,
+                    maxTransferWalkMeters, walkSpeedMps, parallelism);
+            try {
+                WalkingTransfers.write(transfersFile, graphKey, stopsKey, maxTransferWalkMeters, footpaths);
+            } catch (IOException e) {
+                logger.warn("⚠️ Could not write walking transfers {}: {}", transfersFile, e.getMessage());
+            }
+        }
+        timetable = table.withFootpaths(footpaths);
+        logger.info("🚶 {} walking transfers within {} m between stops, in {} ms.", footpaths.size(),
+                maxTransferWalkMeters, System.currentTimeMillis() - start);
+    }
+
+    void setStopSnaps(StopSnaps stopSnaps) {
+        this.stopSnaps = stopSnaps;
+    }
+
+    private Weighting walkWeighting() {
+        return hopper.createWeighting(hopper.getProfile("walk"), new PMap());
+    }
+
+    /** Streets of the walk profile's main network, the same filter GraphHopper snaps walking requests with. */
+    private EdgeFilter walkSnapFilter(Weighting walkWeighting) {
+        return new DefaultSnapFilter(walkWeighting,
+                hopper.getEncodingManager().getBooleanEncodedValue(Subnetwork.key("walk")));
+    }
+
+    /** Identifies the imported graph; stop snaps refer to its edges. */
+    private long graphKey() {
+        String importDate = hopper.getProperties().get("datareader.import.date");
+        BaseGraph graph = hopper.getBaseGraph();
+        return ((long) Objects.hashCode(importDate) << 32) ^ (graph.getNodes() * 31L + graph.getEdges());
+    }
+
+    private Map<TransitMode, ShapeIndex> readTransitCache(Path cacheFile, long checksum) {
+        try {
+            return TransitCache.read(cacheFile, checksum, shapeIndexCellSizeMeters);
+        } catch (IOException e) {
+            logger.warn("⚠️ Could not read transit cache {}, parsing the feed instead: {}", cacheFile, e.getMessage());
+            return null;
+        }
+    }
+
+    private void writeTransitCache(Path cacheFile, long checksum, Map<TransitMode, ShapeIndex> indexes) {
+        try {
+            TransitCache.write(cacheFile, checksum, indexes);
+            logger.info("💾 Transit cache written to {}", cacheFile);
+        } catch (IOException e) {
+            logger.warn("⚠️ Could not write transit cache {}: {}", cacheFile, e.getMessage());
+        }
+    }
+
+    /**
+     * Concurrent requests for the same points and mode share one computation. A
+     * request that already carries a custom model or hints of its own is routed
+     * on its own.
+     */
     public Map<String, Object> getOptimizedRoute(GHRequest request, String mode) {
+        if (request.getCustomModel() != null || !request.getHints().toMap().isEmpty()) {
+            return optimizeRoute(request, mode);
+        }
+        String key = flightKey("route", mode, request.getPoints().stream()
+                .map(p -> Arrays.asList(p.getLon(), p.getLat()))
+                .collect(Collectors.toList()));
+        return routeFlights.execute(key, () -> optimizeRoute(request, mode));
+    }
+
+    private Map<String, Object> optimizeRoute(GHRequest request, String mode) {
         request.setProfile(mode);
-        int maxIterations = 5;
+        if (isAirQualitySnapshotFresh()) {
+            return getAirQualityAwareRoute(request, mode);
+        }
+        long startNanos = System.nanoTime();
         int currentIteration = 0;
         GHResponse bestResponse = null;
         int minBadCoords = Integer.MAX_VALUE;
         List<List<Double>> lastBadAreas = new ArrayList<>();
+        GHResponse response = null;
+        List<List<Double>> badCoords = List.of();
+        List<List<Double>> previousCoords = null;
+        String terminationReason = TERMINATION_MAX_ITERATIONS;
 
         request.setProfile(mode);
 
         while (currentIteration < maxIterations) {
+            long elapsedMs = (System.nanoTime() - startNanos) / 1_000_000;
+            // stop before an iteration that would likely overrun the budget, judging by the average so far
+            if (currentIteration > 0 && elapsedMs + elapsedMs / currentIteration >= iterationBudgetMs) {
+                logger.warn("⏱️ Latency budget of {} ms spent after {} iterations ({} ms) for mode {}",
+                        iterationBudgetMs, currentIteration, elapsedMs, mode);
+                terminationReason = TERMINATION_BUDGET;
+                break;
+            }
             currentIteration++;
             logger.info("🔄 Iteration {}: Calculating route for mode {} ...", currentIteration, mode);
 
-            GHResponse response = hopper.route(request);
+            GHResponse repaired = response == null ? null : repairLocally(request, response.getBest(), badCoords);
+            response = repaired != null ? repaired : route(request);
             if (response == null || response.hasErrors() || response.getAll().isEmpty()) {
                 logger.error("❌ Iteration {}: Failed to calculate route for mode {}. Errors: {}",
                         currentIteration, mode, response != null ? response.getErrors() : "No response");
                 if (currentIteration == 1)
                     return Map.of("error", "Failed to calculate route.");
+                response = null;
                 continue;
             }
 
@@ -167,90 +679,381 @@ public class GraphHopperService {
             logger.info("📍 Extracted {} route coordinates in Iteration #{} for mode {}",
                     routeCoords.size(), currentIteration, mode);
             logRouteCoordinates(routeCoords, "Iteration_" + currentIteration);
+            // the same route has the same bad coordinates, no need to ask the environmental service again
+            if (routeCoords.equals(previousCoords)) {
+                logger.info("⏹️ Iteration {}: Route unchanged for mode {}, stopping.", currentIteration, mode);
+                terminationReason = TERMINATION_ROUTE_UNCHANGED;
+                break;
+            }
+            previousCoords = routeCoords;
 
-            List<List<Double>> badCoords = identifyBadCoordinates(routeCoords);
+            badCoords = identifyBadCoordinates(routeCoords);
             if (badCoords.isEmpty()) {
                 logger.info("✅ Iteration {}: Route is GOOD for mode {} (no bad waypoints).", currentIteration, mode);
-                return Map.of(
-                        "iterations", currentIteration,
-                        "bestPath", response.getBest(),
-                        "response", response,
-                        "bad_areas", lastBadAreas.isEmpty() ? List.of() : lastBadAreas);
-            } else {
-                logger.warn("❌ Iteration {}: Found {} bad coords => Creating new 'bad_area_{}' for mode {}",
-                        currentIteration, badCoords.size(), currentIteration, mode);
-                lastBadAreas.addAll(badCoords);
-                updateCustomModel(request, badCoords, currentIteration);
-
-                if (badCoords.size() < minBadCoords) {
-                    bestResponse = response;
-                    minBadCoords = badCoords.size();
-                }
+                return iterationResult(currentIteration, response, lastBadAreas, TERMINATION_CLEAN);
+            }
+            if (badCoords.size() >= minBadCoords) {
+                logger.warn("⏹️ Iteration {}: {} bad coords, no improvement on {} for mode {}, stopping.",
+                        currentIteration, badCoords.size(), minBadCoords, mode);
+                terminationReason = TERMINATION_NO_IMPROVEMENT;
+                break;
             }
+            logger.warn("❌ Iteration {}: Found {} bad coords => Adding them to the avoidance {} for mode {}",
+                    currentIteration, badCoords.size(), avoidanceStrategy, mode);
+            lastBadAreas.addAll(badCoords);
+            updateAvoidance(request, badCoords, currentIteration);
+            bestResponse = response;
+            minBadCoords = badCoords.size();
         }
 
         if (bestResponse == null || bestResponse.getAll().isEmpty()) {
             return Map.of("error", "No valid route found after multiple attempts for mode " + mode);
         }
 
+        return iterationResult(currentIteration, bestResponse, lastBadAreas, terminationReason);
+    }
+
+    private static Map<String, Object> iterationResult(int iterations, GHResponse response,
+            List<List<Double>> badAreas, String terminationReason) {
         return Map.of(
-                "iterations", maxIterations,
-                "bestPath", bestResponse.getBest(),
-                "response", bestResponse,
-                "bad_areas", lastBadAreas.isEmpty() ? List.of() : lastBadAreas);
+                "iterations", iterations,
+                "bestPath", response.getBest(),
+                "response", response,
+                "bad_areas", badAreas.isEmpty() ? List.of() : badAreas,
+                "termination_reason", terminationReason);
+    }
+
+    /**
+     * Re-routes only the stretches of the previous path around the bad coordinates
+     * and splices the detours into it, instead of searching the whole route again.
+     *
+     * @return the repaired path, or null when the full route has to be recalculated
+     */
+    GHResponse repairLocally(GHRequest request, ResponsePath path, List<List<Double>> badCoords) {
+        if (!"local".equalsIgnoreCase(repairMode) || path == null || path.getInstructions() == null
+                || path.getInstructions().isEmpty() || path.getPoints() == null)
+            return null;
+        PointList points = path.getPoints();
+        List<int[]> stretches = DetourRepair.findStretches(points, badCoords, repairMarginMeters);
+        if (stretches.isEmpty()
+                || stretches.size() == 1 && stretches.get(0)[0] == 0 && stretches.get(0)[1] == points.size() - 1)
+            return null;
+        List<GHPoint> viaPoints = request.getPoints().size() > 2
+                ? request.getPoints().subList(1, request.getPoints().size() - 1)
+                : List.of();
+        if (DetourRepair.coversViaPoint(points, stretches, viaPoints))
+            return null;
+
+        List<ResponsePath> detours = new ArrayList<>();
+        for (int[] stretch : stretches) {
+            GHRequest detourRequest = new GHRequest(
+                    new GHPoint(points.getLat(stretch[0]), points.getLon(stretch[0])),
+                    new GHPoint(points.getLat(stretch[1]), points.getLon(stretch[1])))
+                    .setProfile(request.getProfile())
+                    .setLocale(request.getLocale())
+                    .setCustomModel(request.getCustomModel());
+            for (String key : List.of(AvoidanceGrid.KEY, EdgeBlocklist.KEY)) {
+                if (request.getHints().has(key))
+                    detourRequest.putHint(key, request.getHints().getObject(key, null));
+            }
+            GHResponse detour = route(detourRequest);
+            if (detour == null || detour.hasErrors() || detour.getAll().isEmpty()) {
+                logger.warn("⚠️ Detour between points {} and {} failed, recalculating the full route: {}",
+                        stretch[0], stretch[1], detour != null ? detour.getErrors() : "No response");
+                return null;
+            }
+            detours.add(detour.getBest());
+        }
+        logger.info("🩹 Repaired {} stretch(es) of the route locally", stretches.size());
+        GHResponse repaired = new GHResponse();
+        repaired.add(DetourRepair.splice(path, stretches, detours));
+        return repaired;
+    }
+
+    /**
+     * Single search that avoids bad air through the air_quality edge attribute,
+     * used instead of the iterative loop while the AQI snapshot is fresh.
+     */
+    private Map<String, Object> getAirQualityAwareRoute(GHRequest request, String mode) {
+        CustomModel cm = request.getCustomModel();
+        if (cm == null) {
+            cm = new CustomModel();
+            request.setCustomModel(cm);
+        }
+        cm.addToPriority(If(AirQuality.KEY + " > " + AirQuality.BAD_THRESHOLD, MULTIPLY, "0.01"));
+
+        GHResponse response = route(request);
+        if (response == null || response.hasErrors() || response.getAll().isEmpty()) {
+            logger.error("❌ Failed to calculate AQI-aware route for mode {}. Errors: {}",
+                    mode, response != null ? response.getErrors() : "No response");
+            return Map.of("error", "Failed to calculate route.");
+        }
+        logger.info("✅ Single-pass AQI-aware route for mode {} (snapshot #{}).", mode, airQualityEpoch.get());
+        return iterationResult(1, response, List.of(), TERMINATION_SINGLE_PASS);
     }
 
     public Map<String, Object> getBusRouteWithWalking(List<List<Double>> userPoints) {
-        logger.info("Calculating bus route with walking for userPoints: {}", userPoints);
+        return getBusRouteWithWalking(userPoints, null);
+    }
+
+    /** Plans a bus journey, see {@link #getTransitRouteWithWalking}. */
+    public Map<String, Object> getBusRouteWithWalking(List<List<Double>> userPoints, LocalDateTime departure) {
+        return getTransitRouteWithWalking(userPoints, TransitMode.BUS, departure);
+    }
+
+    /**
+     * Plans a journey riding only the given mode, leaving at the given time, local to
+     * the feed, or now when it is null. With a timetable serving the mode the journey
+     * is searched over the mode's actual trips, transfers included; otherwise the
+     * nearest shape of the mode is followed.
+     */
+    public Map<String, Object> getTransitRouteWithWalking(List<List<Double>> userPoints, TransitMode mode,
+            LocalDateTime departure) {
+        Timetable table = timetable;
+        if (table == null || table.stopCount(mode) == 0) {
+            return routeFlights.execute(flightKey(mode.getName(), mode.getName(), userPoints),
+                    () -> shapeRouteWithWalking(userPoints, mode));
+        }
+        // requests within the same minute share one search
+        LocalDateTime when = (departure != null ? departure : LocalDateTime.now(ZoneId.of(gtfsTimezone)))
+                .truncatedTo(ChronoUnit.MINUTES);
+        return routeFlights.execute(flightKey(mode.getName(), mode.getName() + "@" + when, userPoints),
+                () -> transitRouteWithWalking(userPoints, mode, when));
+    }
+
+    private Map<String, Object> transitRouteWithWalking(List<List<Double>> userPoints, TransitMode mode,
+            LocalDateTime departure) {
+        logger.info("Calculating timetable {} route for userPoints: {} leaving {}", mode.getName(), userPoints,
+                departure);
+        Timetable table = timetable;
+        GHPoint start = new GHPoint(userPoints.get(0).get(1), userPoints.get(0).get(0));
+        GHPoint end = new GHPoint(userPoints.get(1).get(1), userPoints.get(1).get(0));
+
+        List<Raptor.StopTime> access = stopsWithinWalk(table, mode, start, false);
+        List<Raptor.StopTime> egress = stopsWithinWalk(table, mode, end, true);
+        if (access.isEmpty() || egress.isEmpty()) {
+            return Map.of("error", "No " + mode.getStopNoun() + " within walking distance.");
+        }
+        long searchStart = System.nanoTime();
+        Raptor.Journey journey = new Raptor(table, mode, transitMaxTransfers, transitMinChangeSeconds)
+                .search(access, egress, departure.toLocalDate(), departure.toLocalTime().toSecondOfDay());
+        logger.info("🚏 Timetable search of the {} network over {} access and {} egress stops took {} ms",
+                mode.getName(), access.size(), egress.size(), (System.nanoTime() - searchStart) / 1_000_000);
+        if (journey == null) {
+            return Map.of("error", "No " + mode.getName() + " route found for this journey.");
+        }
+
+        // every walking leg is routed on the street network, all under one deadline
+        List<Raptor.Leg> legs = journey.getLegs();
+        List<Callable<GHResponse>> walkRequests = new ArrayList<>();
+        for (Raptor.Leg leg : legs) {
+            if (leg.getKind() == Raptor.Leg.Kind.RIDE)
+                continue;
+            GHPoint from = leg.getFromStop() < 0 ? start : walkPoint(table, leg.getFromStop());
+            GHPoint to = leg.getToStop() < 0 ? end : walkPoint(table, leg.getToStop());
+            GHRequest request = new GHRequest(from, to).setProfile("walk");
+            walkRequests.add(() -> route(request));
+        }
+        List<GHResponse> walks;
+        try {
+            walks = FanOut.invokeAll(routingExecutor, walkRequests, transitWalkDeadlineMs, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            logger.error("Walking routes to and from the {}s took longer than {} ms", mode.getStopNoun(),
+                    transitWalkDeadlineMs);
+            return Map.of("error", "Walking routes to and from the " + mode.getStopNoun() + "s timed out");
+        }
+
+        LocalDateTime serviceDay = departure.toLocalDate().atStartOfDay();
+        List<Map<String, Object>> paths = new ArrayList<>();
+        int walk = 0;
+        for (Raptor.Leg leg : legs) {
+            if (leg.getKind() == Raptor.Leg.Kind.RIDE) {
+                paths.add(formatTransitSegment(table, mode, leg, serviceDay));
+                continue;
+            }
+            GHResponse walkResp = walks.get(walk++);
+            if (walkResp.hasErrors()) {
+                logger.error("Walking route for the {} leg failed: {}", leg.getKind(), walkResp.getErrors());
+                return Map.of("error", leg.getKind() == Raptor.Leg.Kind.ACCESS
+                        ? "Failed to generate walking route to " + mode.getStopNoun()
+                        : leg.getKind() == Raptor.Leg.Kind.EGRESS
+                                ? "Failed to generate walking route from " + mode.getStopNoun()
+                                : "Failed to generate walking route between " + mode.getStopNoun() + "s");
+            }
+            String from = leg.getFromStop() < 0 ? "Origin" : table.stopName(leg.getFromStop());
+            String to = leg.getToStop() < 0 ? "Destination" : table.stopName(leg.getToStop());
+            paths.add(formatPathSegment(walkResp.getBest(), "walk", from, to));
+        }
+
+        Map<String, Object> response = new LinkedHashMap<>();
+        response.put("status", "success");
+        response.put("mode", mode.getName());
+        response.put("departure_time", serviceDay.plusSeconds(journey.getDeparture()).toString());
+        response.put("arrival_time", serviceDay.plusSeconds(journey.getArrival()).toString());
+        response.put("transfers", journey.getRides() - 1);
+        response.put("paths", paths);
+        logger.info("Completed timetable {} route with {} rides.", mode.getName(), journey.getRides());
+        return response;
+    }
+
+    /**
+     * Stops within walking distance with the time to walk between them and the point.
+     * With snaps loaded, one shortest-path tree on the walk network times every
+     * candidate stop at once. Otherwise the time is estimated from the straight-line
+     * distance on streets that are rarely straight.
+     *
+     * @param mode         only stops of this mode's network are considered
+     * @param towardsPoint true for egress, walking from the stops to the point
+     */
+    private List<Raptor.StopTime> stopsWithinWalk(Timetable table, TransitMode mode, GHPoint point,
+            boolean towardsPoint) {
+        StopSnaps snaps = stopSnaps;
+        if (snaps != null) {
+            List<Integer> candidates = new ArrayList<>();
+            snaps.forEachStopNear(mode, point.getLat(), point.getLon(), maxWalkToStopMeters,
+                    (stop, meters) -> candidates.add(stop));
+            if (candidates.isEmpty()) {
+                return List.of();
+            }
+            Weighting weighting = walkWeighting();
+            Snap snap = hopper.getLocationIndex().findClosest(point.getLat(), point.getLon(),
+                    walkSnapFilter(weighting));
+            if (snap.isValid()) {
+                return WalkAccess.search(hopper.getBaseGraph(), weighting, snap, snaps, candidates, towardsPoint,
+                        maxWalkToStopMeters, walkSpeedMps);
+            }
+            logger.warn("No walkable street near {}, estimating walks to stops", point);
+        }
+        List<Raptor.StopTime> stops = new ArrayList<>();
+        table.forEachStopNear(mode, point.getLat(), point.getLon(), maxWalkToStopMeters, (stop, meters) -> stops
+                .add(new Raptor.StopTime(stop, (int) Math.ceil(meters * WALK_DETOUR_FACTOR / walkSpeedMps))));
+        return stops;
+    }
+
+    private static GHPoint stopPoint(Timetable table, int stop) {
+        return new GHPoint(table.stopLat(stop), table.stopLon(stop));
+    }
+
+    /** Where walking legs meet the stop: its snapped street point, so routing reuses the stored snap. */
+    private GHPoint walkPoint(Timetable table, int stop) {
+        StopSnaps snaps = stopSnaps;
+        if (snaps != null && snaps.isSnapped(stop)) {
+            return new GHPoint(snaps.lat(stop), snaps.lon(stop));
+        }
+        return stopPoint(table, stop);
+    }
+
+    private Map<String, Object> formatTransitSegment(Timetable table, TransitMode mode, Raptor.Leg leg,
+            LocalDateTime serviceDay) {
+        int trip = leg.getTrip();
+        String routeName = table.routeName(table.patternRoute(table.patternOf(trip)));
+        GHPoint board = stopPoint(table, leg.getFromStop());
+        GHPoint alight = stopPoint(table, leg.getToStop());
+        Map<String, Object> segment = new LinkedHashMap<>(formatRideSegment(mode, routeName, board, alight,
+                convertBusPoints(ridePoints(table, leg, board, alight))));
+        segment.put("trip_id", table.tripId(trip));
+        segment.put("headsign", table.tripHeadsign(trip));
+        segment.put("from_stop", table.stopName(leg.getFromStop()));
+        segment.put("to_stop", table.stopName(leg.getToStop()));
+        segment.put("departure_time", serviceDay.plusSeconds(leg.getDeparture()).toString());
+        segment.put("arrival_time", serviceDay.plusSeconds(leg.getArrival()).toString());
+        segment.put("stops", leg.getAlightPosition() - leg.getBoardPosition());
+        return segment;
+    }
+
+    /** The trip's shape between the two stops, or the straight line through its stops when it has none. */
+    private List<double[]> ridePoints(Timetable table, Raptor.Leg leg, GHPoint board, GHPoint alight) {
+        String shapeId = table.tripShapeId(leg.getTrip());
+        List<double[]> shape = busRoutes.get(shapeId);
+        if (shape != null && !shape.isEmpty()) {
+            ShapeSegments segments = shapeSegments.computeIfAbsent(shapeId, id -> ShapeSegments.of(shape));
+            ShapeSegments.Projection from = segments.project(board.getLat(), board.getLon());
+            ShapeSegments.Projection to = segments.project(alight.getLat(), alight.getLon());
+            if (from.getPosition() <= to.getPosition())
+                return segments.slice(from, to);
+        }
+        int pattern = table.patternOf(leg.getTrip());
+        List<double[]> points = new ArrayList<>();
+        for (int i = leg.getBoardPosition(); i <= leg.getAlightPosition(); i++) {
+            int stop = table.patternStop(pattern, i);
+            points.add(new double[] { table.stopLon(stop), table.stopLat(stop) });
+        }
+        return points;
+    }
+
+    private Map<String, Object> shapeRouteWithWalking(List<List<Double>> userPoints, TransitMode mode) {
+        logger.info("Calculating {} route with walking for userPoints: {}", mode.getName(), userPoints);
         GHPoint start = new GHPoint(userPoints.get(0).get(1), userPoints.get(0).get(0));
         GHPoint end = new GHPoint(userPoints.get(1).get(1), userPoints.get(1).get(0));
         logger.debug("Start GHPoint: {}, End GHPoint: {}", start, end);
 
-        Map<String, Object> busRouteData = getBusRoute(userPoints);
+        Map<String, Object> busRouteData = mode == TransitMode.BUS ? getBusRoute(userPoints)
+                : nearestShape(userPoints, mode);
         if (busRouteData.containsKey("error")) {
-            logger.warn("Bus route calculation failed: {}", busRouteData.get("error"));
+            logger.warn("{} route calculation failed: {}", mode.getName(), busRouteData.get("error"));
             return busRouteData;
         }
 
         List<double[]> busPoints = (List<double[]>) busRouteData.get("points");
         if (busPoints == null || busPoints.isEmpty()) {
-            logger.error("Bus points are empty or null");
-            return Map.of("error", "No bus route found");
+            logger.error("{} points are empty or null", mode.getName());
+            return Map.of("error", "No " + mode.getName() + " route found");
         }
 
-        // Find the indices of the stops closest to the user start and end points
-        int startIndex = findClosestIndex(start, busPoints);
-        int endIndex = findClosestIndex(end, busPoints);
-        logger.debug("Closest startIndex: {}, endIndex: {}", startIndex, endIndex);
-
-        // Ensure the indices are in proper order
-        if (startIndex > endIndex) {
-            int temp = startIndex;
-            startIndex = endIndex;
-            endIndex = temp;
-            logger.debug("Swapped indices to maintain order: startIndex={}, endIndex={}", startIndex, endIndex);
+        // Board and alight where the shape passes closest to the user start and end points
+        String busRoute = busRouteData.get("busRoute").toString();
+        ShapeSegments segments = busRoutes.get(busRoute) == busPoints
+                ? shapeSegments.computeIfAbsent(busRoute, id -> ShapeSegments.of(busPoints))
+                : ShapeSegments.of(busPoints);
+        // project around the points the index matched in travel order, so a shape that
+        // doubles back is not ridden the wrong way; without a match the alighting point
+        // is only looked for after the boarding point
+        ShapeIndex.Match match = (ShapeIndex.Match) busRouteData.get("match");
+        int lastSegment = segments.size() - 2;
+        ShapeSegments.Projection board = match == null
+                ? segments.project(start.getLat(), start.getLon())
+                : segments.project(start.getLat(), start.getLon(), match.getBoardIndex() - 1,
+                        match.getBoardIndex());
+        int alightFrom = match == null ? board.getSegment()
+                : Math.max(match.getAlightIndex() - 1, board.getSegment());
+        int alightTo = match == null ? lastSegment : match.getAlightIndex();
+        ShapeSegments.Projection alight = segments.project(end.getLat(), end.getLon(), alightFrom, alightTo);
+        if (alight.getPosition() < board.getPosition()) {
+            // both ends project onto one segment, against its direction
+            alight = board;
         }
+        logger.debug("Closest positions on the shape: board={}, alight={}", board.getPosition(), alight.getPosition());
 
-        // Use only the bus stops between the two indices for the bus segment
-        List<double[]> busSegmentPoints = busPoints.subList(startIndex, endIndex + 1);
+        // Use only the part of the shape between the two positions for the bus segment
+        List<double[]> busSegmentPoints = segments.slice(board, alight);
 
-        // Determine bus stops based on the sublist
-        GHPoint startBusStop = new GHPoint(busPoints.get(startIndex)[1], busPoints.get(startIndex)[0]);
-        GHPoint endBusStop = new GHPoint(busPoints.get(endIndex)[1], busPoints.get(endIndex)[0]);
+        GHPoint startBusStop = new GHPoint(board.getLat(), board.getLon());
+        GHPoint endBusStop = new GHPoint(alight.getLat(), alight.getLon());
 
         GHRequest toBusStopRequest = new GHRequest(start, startBusStop).setProfile("walk");
         GHRequest fromBusStopRequest = new GHRequest(endBusStop, end).setProfile("walk");
 
-        GHResponse walkToBusStopResp = hopper.route(toBusStopRequest);
-        GHResponse walkFromBusStopResp = hopper.route(fromBusStopRequest);
+        // the two walking legs are independent, they share one deadline
+        List<GHResponse> walks;
+        try {
+            walks = FanOut.invokeAll(routingExecutor,
+                    List.of(() -> route(toBusStopRequest), () -> route(fromBusStopRequest)),
+                    transitWalkDeadlineMs, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            logger.error("Walking routes to and from the {}s took longer than {} ms", mode.getStopNoun(),
+                    transitWalkDeadlineMs);
+            return Map.of("error", "Walking routes to and from the " + mode.getStopNoun() + "s timed out");
+        }
+        GHResponse walkToBusStopResp = walks.get(0);
+        GHResponse walkFromBusStopResp = walks.get(1);
 
         if (walkToBusStopResp.hasErrors()) {
-            logger.error("Walking route to bus stop failed: {}", walkToBusStopResp.getErrors());
-            return Map.of("error", "Failed to generate walking route to bus stop");
+            logger.error("Walking route to {} failed: {}", mode.getStopNoun(), walkToBusStopResp.getErrors());
+            return Map.of("error", "Failed to generate walking route to " + mode.getStopNoun());
         }
         if (walkFromBusStopResp.hasErrors()) {
-            logger.error("Walking route from bus stop failed: {}", walkFromBusStopResp.getErrors());
-            return Map.of("error", "Failed to generate walking route from bus stop");
+            logger.error("Walking route from {} failed: {}", mode.getStopNoun(), walkFromBusStopResp.getErrors());
+            return Map.of("error", "Failed to generate walking route from " + mode.getStopNoun());
         }
 
         // Convert only the sublist of bus points for display
@@ -258,80 +1061,71 @@ public class GraphHopperService {
 
         Map<String, Object> response = new LinkedHashMap<>();
         response.put("status", "success");
-        response.put("mode", "bus");
+        response.put("mode", mode.getName());
 
         Map<String, Object> walkToBusStop = formatPathSegment(walkToBusStopResp.getBest(), "walk", "Origin",
-                "Bus Stop");
-        Map<String, Object> busSegment = formatBusSegment(
-                busRouteData.get("busRoute").toString(), startBusStop, endBusStop, formattedBusPoints);
-        Map<String, Object> walkFromBusStop = formatPathSegment(walkFromBusStopResp.getBest(), "walk", "Bus Stop",
-                "Destination");
+                mode.getStopLabel());
+        Map<String, Object> busSegment = formatRideSegment(mode, busRoute, startBusStop, endBusStop,
+                formattedBusPoints);
+        Map<String, Object> walkFromBusStop = formatPathSegment(walkFromBusStopResp.getBest(), "walk",
+                mode.getStopLabel(), "Destination");
 
         response.put("paths", List.of(walkToBusStop, busSegment, walkFromBusStop));
-        logger.info("Completed bus route with walking successfully.");
+        logger.info("Completed {} route with walking successfully.", mode.getName());
         return response;
     }
 
-    // Helper method to find the index of the closest bus stop to a given user point
-    private int findClosestIndex(GHPoint point, List<double[]> busPoints) {
-        int bestIndex = 0;
-        double bestDist = Double.MAX_VALUE;
-        for (int i = 0; i < busPoints.size(); i++) {
-            double[] coord = busPoints.get(i);
-            GHPoint busStop = new GHPoint(coord[1], coord[0]);
-            double dist = distance(point.getLat(), point.getLon(), busStop.getLat(), busStop.getLon());
-            if (dist < bestDist) {
-                bestDist = dist;
-                bestIndex = i;
-            }
-        }
-        return bestIndex;
+    /** Replaces the loaded shapes, all taken for bus routes, and rebuilds the spatial index over their points. */
+    void setBusRoutes(Map<String, List<double[]>> shapes) {
+        setShapes(ShapeIndex.byMode(ShapeTable.of(shapes), shapeIndexCellSizeMeters, null));
     }
 
+    /** Replaces the loaded shapes and indexes each mode's shapes on their own. */
+    void setShapeRoutes(Map<String, List<double[]>> shapes, Map<String, TransitMode> shapeModes) {
+        setShapes(ShapeIndex.byMode(ShapeTable.of(shapes), shapeIndexCellSizeMeters, shapeModes));
+    }
+
+    /** @param indexes the index of each mode's shapes, all over the same table */
+    private void setShapes(Map<TransitMode, ShapeIndex> indexes) {
+        busRoutes = indexes.values().iterator().next().getShapes().asMap();
+        shapeIndexes = indexes;
+        // segment indexes are built for the shapes that actually get used
+        shapeSegments = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Picks the bus shape that passes closest to the origin and, later along the
+     * shape, closest to the destination.
+     */
     public Map<String, Object> getBusRoute(List<List<Double>> points) {
+        return nearestShape(points, TransitMode.BUS);
+    }
+
+    /**
+     * Picks the shape of the mode that passes closest to the origin and, later along
+     * the shape, closest to the destination. Only shapes within walking distance of
+     * both ends are considered; the mode's shape index keeps this independent of the
+     * feed size and of the other modes' shapes.
+     */
+    private Map<String, Object> nearestShape(List<List<Double>> points, TransitMode mode) {
         double startLat = points.get(0).get(1);
         double startLon = points.get(0).get(0);
         double endLat = points.get(1).get(1);
         double endLon = points.get(1).get(0);
 
-        double minStartDist = Double.MAX_VALUE;
-        double minEndDist = Double.MAX_VALUE;
-        String bestRoute = null;
-
-        for (Map.Entry<String, List<double[]>> entry : busRoutes.entrySet()) {
-            double[] firstStop = entry.getValue().get(0);
-            double[] lastStop = entry.getValue().get(entry.getValue().size() - 1);
+        ShapeIndex index = shapeIndexes.get(mode);
+        ShapeIndex.Match match = index == null ? null
+                : index.nearest(startLat, startLon, endLat, endLon, maxWalkToStopMeters);
 
-            double startDist = distance(startLat, startLon, firstStop[1], firstStop[0]);
-            double endDist = distance(endLat, endLon, lastStop[1], lastStop[0]);
-
-            if (startDist < minStartDist && endDist < minEndDist) {
-                minStartDist = startDist;
-                minEndDist = endDist;
-                bestRoute = entry.getKey();
-            }
-        }
-
-        if (bestRoute != null) {
-            logger.info("🚌 Best bus route found: {}", bestRoute);
-            return Map.of("mode", "bus", "busRoute", bestRoute, "points", busRoutes.get(bestRoute));
+        if (match != null) {
+            logger.info("🚏 Best {} route found: {} (walking {} m)", mode.getName(), match.getShapeId(),
+                    Math.round(match.getWalkMeters()));
+            // the shape id travels under busRoute whatever the mode
+            return Map.of("mode", mode.getName(), "busRoute", match.getShapeId(), "points",
+                    busRoutes.get(match.getShapeId()), "match", match);
         } else {
-            return Map.of("error", "No bus route found for this journey.");
-        }
-    }
-
-    private GHPoint closestPoint(GHPoint userLocation, List<double[]> busRoutePoints) {
-        GHPoint closest = null;
-        double minDist = Double.MAX_VALUE;
-        for (double[] coord : busRoutePoints) {
-            GHPoint busStop = new GHPoint(coord[1], coord[0]);
-            double dist = distance(userLocation.getLat(), userLocation.getLon(), busStop.getLat(), busStop.getLon());
-            if (dist < minDist) {
-                minDist = dist;
-                closest = busStop;
-            }
+            return Map.of("error", "No " + mode.getName() + " route found for this journey.");
         }
-        return closest;
     }
 
     Map<String, Object> formatPathSegment(ResponsePath path, String mode, String startName, String endName) {
@@ -375,22 +1169,36 @@ public class GraphHopperService {
     }
 
     Map<String, Object> formatBusSegment(String busRoute, GHPoint start, GHPoint end, List<List<Double>> busPoints) {
+        return rideSegment("bus", "busRoute", busRoute, start, end, busPoints);
+    }
+
+    /** A ride of the mode; bus rides keep their route under busRoute, the other modes under route. */
+    Map<String, Object> formatRideSegment(TransitMode mode, String route, GHPoint start, GHPoint end,
+            List<List<Double>> points) {
+        if (mode == TransitMode.BUS) {
+            return formatBusSegment(route, start, end, points);
+        }
+        return rideSegment(mode.getName(), "route", route, start, end, points);
+    }
+
+    private static Map<String, Object> rideSegment(String mode, String routeKey, String route, GHPoint start,
+            GHPoint end, List<List<Double>> points) {
         return Map.of(
-                "mode", "bus",
-                "busRoute", busRoute,
+                "mode", mode,
+                routeKey, route,
                 "start", Arrays.asList(start.getLon(), start.getLat()),
                 "end", Arrays.asList(end.getLon(), end.getLat()),
                 "points_encoded", false,
-                "points", busPoints,
+                "points", points,
                 "instructions", List.of(
                         Map.of(
-                                "text", "Board bus route " + busRoute,
+                                "text", "Board " + mode + " route " + route,
                                 "distance", 0,
                                 "time", 0,
                                 "sign", 0,
                                 "location", start),
                         Map.of(
-                                "text", "Disembark bus at final stop",
+                                "text", "Disembark " + mode + " at final stop",
                                 "distance", 0,
                                 "time", 0,
                                 "sign", 4,
@@ -416,85 +1224,65 @@ public class GraphHopperService {
         return coords;
     }
 
-    private List<List<Double>> identifyBadCoordinates(List<List<Double>> coords) {
+    List<List<Double>> identifyBadCoordinates(List<List<Double>> coords) {
         List<List<Double>> badCoords = new ArrayList<>();
         if (coords.isEmpty())
             return badCoords;
 
-        // Sample every n-th coordinate (adjust samplingInterval as needed)
-        int samplingInterval = 5;
-        List<List<Double>> sampledCoords = new ArrayList<>();
-        for (int i = 0; i < coords.size(); i += samplingInterval) {
-            sampledCoords.add(coords.get(i));
+        // Sample by travelled distance, merging samples that land in the same small cell
+        List<List<Double>> sampledCoords = new WaypointSampler(waypointSpacingMeters, waypointCellSizeMeters,
+                maxWaypoints).sample(coords);
+        logger.info("📏 Sampled {} of {} route points for AQI checks", sampledCoords.size(), coords.size());
+
+        // Serve cached cells first; only one waypoint per uncached cell goes to the service
+        Integer[] aqiValues = new Integer[sampledCoords.size()];
+        Map<Long, List<Integer>> missesByCell = new LinkedHashMap<>();
+        for (int i = 0; i < sampledCoords.size(); i++) {
+            long cell = aqiTileCache.cellKey(sampledCoords.get(i).get(1), sampledCoords.get(i).get(0));
+            List<Integer> pending = missesByCell.get(cell);
+            if (pending != null) {
+                pending.add(i);
+                continue;
+            }
+            aqiValues[i] = aqiTileCache.get(cell);
+            if (aqiValues[i] == null) {
+                missesByCell.computeIfAbsent(cell, k -> new ArrayList<>()).add(i);
+            }
         }
-
-        try {
-            String url = environmentalDataServiceUrl + "/environmental-data";
-            logger.info("🌍 Environmental data service URL: {}", url);
-
-            // Convert sampled coordinates to the expected JSON format (latitude, longitude)
-            List<Map<String, Double>> waypoints = sampledCoords.stream()
-                    .map(p -> Map.of("latitude", p.get(1), "longitude", p.get(0)))
+        logger.info("🗺️ AQI tile cache: {} of {} sampled waypoints need a lookup ({} cells)",
+                missesByCell.values().stream().mapToInt(List::size).sum(), sampledCoords.size(),
+                missesByCell.size());
+
+        if (!missesByCell.isEmpty()) {
+            List<Long> missCells = new ArrayList<>(missesByCell.keySet());
+            List<List<Double>> missCoords = missCells.stream()
+                    .map(cell -> sampledCoords.get(missesByCell.get(cell).get(0)))
                     .collect(Collectors.toList());
-
-            // Prepare headers
-            HttpHeaders headers = new HttpHeaders();
-            headers.setContentType(MediaType.APPLICATION_JSON);
-            headers.set("Accept", "application/json");
-
-            // Create the request entity
-            HttpEntity<List<Map<String, Double>>> requestEntity = new HttpEntity<>(waypoints, headers);
-
-            logger.info("📍 Sending request to environmental data service with waypoints: {}", waypoints);
-
-            // Make the POST request
-            ResponseEntity<List> response = restTemplate.exchange(url, HttpMethod.POST, requestEntity, List.class);
-
-            logger.info("🌐 Environmental data service response: {}", response);
-
-            if (response.getStatusCode() == HttpStatus.OK && response.getBody() != null) {
-                List<Map<String, Object>> envData = response.getBody();
-                logger.info("✅ Environmental data received: {}", envData);
-
-                // Iterate over the environmental data samples
-                for (int i = 0; i < envData.size(); i++) {
-                    Map<String, Object> data = envData.get(i);
-                    int aqi = 0;
-                    if (data.get("aqi") instanceof Number) {
-                        aqi = ((Number) data.get("aqi")).intValue();
-                    }
-                    // If the AQI is greater than 3, mark the corresponding sampled coordinate as
-                    // bad
-                    if (aqi > 3) {
-                        badCoords.add(sampledCoords.get(i));
-                        logger.warn("🚫 High AQI detected ({}), marking as bad coordinate: {}", aqi,
-                                sampledCoords.get(i));
+            try {
+                List<Integer> fetched = environmentalDataClient.fetchAirQuality(missCoords);
+                for (int j = 0; j < Math.min(fetched.size(), missCells.size()); j++) {
+                    aqiTileCache.put(missCells.get(j), fetched.get(j));
+                    for (int i : missesByCell.get(missCells.get(j))) {
+                        aqiValues[i] = fetched.get(j);
                     }
                 }
-            } else {
-                logger.error("❌ Failed to fetch environmental data. Status code: {}, Response: {}",
-                        response.getStatusCode(), response);
+            } catch (Exception e) {
+                logger.error("❌ Error while fetching environmental data: {}", e.getMessage());
+            }
+        }
+
+        for (int i = 0; i < aqiValues.length; i++) {
+            // If the AQI is above the threshold, mark the corresponding sampled coordinate as bad
+            if (aqiValues[i] != null && aqiValues[i] > AirQuality.BAD_THRESHOLD) {
+                badCoords.add(sampledCoords.get(i));
+                logger.warn("🚫 High AQI detected ({}), marking as bad coordinate: {}", aqiValues[i],
+                        sampledCoords.get(i));
             }
-        } catch (Exception e) {
-            logger.error("❌ Error while fetching environmental data: {}", e.getMessage());
         }
         logger.info("🚦 Total bad coordinates identified: {}", badCoords.size());
         return badCoords;
     }
 
-    private double distance(double lat1, double lon1, double lat2, double lon2) {
-        double R = 6371e3;
-        double phi1 = Math.toRadians(lat1);
-        double phi2 = Math.toRadians(lat2);
-        double deltaLat = Math.toRadians(lat2 - lat1);
-        double deltaLon = Math.toRadians(lon2 - lon1);
-        double a = Math.sin(deltaLat / 2) * Math.sin(deltaLat / 2) +
-                Math.cos(phi1) * Math.cos(phi2) *
-                        Math.sin(deltaLon / 2) * Math.sin(deltaLon / 2);
-        double c = 2 * Math.atan2(Math.sqrt(a), Math.sqrt(1 - a));
-        return R * c;
-    }
-
     private void logRouteCoordinates(List<List<Double>> coords, String label) {
         if (coords.isEmpty()) {
             logger.warn("⚠️ No coordinates found for {}.", label);
@@ -508,122 +1296,86 @@ public class GraphHopperService {
         logger.info(logMessage.toString());
     }
 
-    void updateCustomModel(GHRequest request, List<List<Double>> badCoords, int iteration) {
-        CustomModel cm = request.getCustomModel();
-        if (cm == null) {
-            cm = new CustomModel();
-            request.setCustomModel(cm);
-        }
-        JsonFeatureCollection fc = cm.getAreas();
-        if (fc == null) {
-            fc = new JsonFeatureCollection();
-            cm.setAreas(fc);
-        }
-        String areaId = "bad_area_" + iteration;
-        Geometry badArea = createAvoidancePolygon(badCoords);
-        if (badArea != null) {
-            JsonFeature feature = new JsonFeature(areaId, "Feature", null, badArea, new HashMap<>());
-            fc.getFeatures().add(feature);
-            cm.addToPriority(If("in_" + areaId, MULTIPLY, "0.01"));
-            logPolygonCoordinates(badArea, areaId);
-        }
-    }
-
-    private void logPolygonCoordinates(Geometry polygon, String areaId) {
-        if (polygon instanceof MultiPolygon) {
-            logger.info("📌 **MultiPolygon detected for {} ({}) parts.**", areaId,
-                    ((MultiPolygon) polygon).getNumGeometries());
-            for (int i = 0; i < ((MultiPolygon) polygon).getNumGeometries(); i++) {
-                logPolygonCoordinates(((MultiPolygon) polygon).getGeometryN(i), areaId + "_part" + i);
-            }
-        } else if (polygon instanceof Polygon) {
-            List<List<Double>> coordinates = new ArrayList<>();
-            for (Coordinate c : polygon.getCoordinates()) {
-                coordinates.add(Arrays.asList(c.x, c.y));
-            }
-            logger.info("📌 **Polygon Coordinates for {}**: {}", areaId, coordinates);
+    /** Adds the bad coordinates to the request's avoidance zone of the configured strategy. */
+    void updateAvoidance(GHRequest request, List<List<Double>> badCoords, int iteration) {
+        if ("edges".equalsIgnoreCase(avoidanceStrategy)) {
+            updateEdgeBlocklist(request, badCoords, iteration);
+        } else {
+            updateAvoidanceGrid(request, badCoords, iteration);
         }
     }
 
-    private Geometry createAvoidancePolygon(List<List<Double>> badCoords) {
+    /**
+     * Snaps the bad coordinates through the location index onto the edges passing
+     * within the avoidance radius and adds their ids to the request's blocklist.
+     * No polygons are built, the weighting only checks set membership.
+     */
+    void updateEdgeBlocklist(GHRequest request, List<List<Double>> badCoords, int iteration) {
         if (badCoords.isEmpty())
-            return null;
-        List<Polygon> polygons = badCoords.stream()
-                .map(coord -> generateHexagon(coord, 100))
-                .collect(Collectors.toList());
-        return CascadedPolygonUnion.union(polygons);
+            return;
+        EdgeBlocklist blocklist = request.getHints().getObject(EdgeBlocklist.KEY, EdgeBlocklist.empty());
+        blocklist = blocklist.with(hopper.getBaseGraph(), hopper.getLocationIndex(), badCoords,
+                avoidanceRadiusMeters);
+        request.putHint(EdgeBlocklist.KEY, blocklist);
+        logger.info("📌 Edge blocklist after iteration {}: {}", iteration, blocklist);
     }
 
-    private Polygon generateHexagon(List<Double> center, double radius) {
-        Coordinate[] corners = new Coordinate[7];
-        double lon = center.get(0);
-        double lat = center.get(1);
-        for (int i = 0; i < 6; i++) {
-            double angleRad = Math.toRadians(60 * i);
-            corners[i] = new Coordinate(
-                    lon + (radius * Math.cos(angleRad) / 111320d),
-                    lat + (radius * Math.sin(angleRad) / 111320d));
-        }
-        corners[6] = corners[0];
-        return geometryFactory.createPolygon(geometryFactory.createLinearRing(corners));
+    /**
+     * Marks the grid cells around the bad coordinates as avoided. The grid travels
+     * with the request as a hint and accumulates the cells of earlier iterations;
+     * building it is plain cell arithmetic, no polygon union.
+     */
+    void updateAvoidanceGrid(GHRequest request, List<List<Double>> badCoords, int iteration) {
+        if (badCoords.isEmpty())
+            return;
+        AvoidanceGrid grid = request.getHints().getObject(AvoidanceGrid.KEY, null);
+        grid = grid == null
+                ? AvoidanceGrid.of(avoidanceCellSizeMeters, avoidanceRadiusMeters, badCoords)
+                : grid.with(badCoords);
+        request.putHint(AvoidanceGrid.KEY, grid);
+        logger.info("📌 Avoidance grid after iteration {}: {}", iteration, grid);
     }
 
     // ------------------- New chained route feature -------------------
 
     public Map<String, Object> getChainedRoute(List<List<Double>> points, List<String> modes) {
+        return routeFlights.execute(flightKey("chain", String.join(",", modes), points),
+                () -> chainRoute(points, modes));
+    }
+
+    private Map<String, Object> chainRoute(List<List<Double>> points, List<String> modes) {
         if (points.size() != modes.size() + 1) {
             return Map.of("error", "For chained route, number of points must be one more than number of modes");
         }
+        // transit legs and runs of the same mode are independent, they are routed in parallel
+        List<Callable<List<Map<String, Object>>>> tasks = new ArrayList<>();
+        for (int i = 0; i < modes.size();) {
+            String mode = modes.get(i);
+            int runEnd = i + 1;
+            // consecutive legs of the same mode are routed as one via-point request
+            while (TransitMode.fromName(mode) == null && runEnd < modes.size()
+                    && modes.get(runEnd).equalsIgnoreCase(mode)) {
+                runEnd++;
+            }
+            List<List<Double>> runPoints = points.subList(i, runEnd + 1);
+            tasks.add(() -> routeChainedLegs(runPoints, mode));
+            i = runEnd;
+        }
+        List<List<Map<String, Object>>> parts;
+        try {
+            parts = FanOut.invokeAll(routingExecutor, tasks);
+        } catch (ChainedLegException e) {
+            return e.getError();
+        }
+
         List<Map<String, Object>> segments = new ArrayList<>();
         double totalDistance = 0;
         long totalTime = 0;
-        for (int i = 0; i < modes.size(); i++) {
-            String mode = modes.get(i);
-            Map<String, Object> segmentResult;
-            if (mode.equalsIgnoreCase("bus")) {
-                // For bus segments, use bus route with walking between the two given points
-                List<List<Double>> segmentPoints = new ArrayList<>();
-                segmentPoints.add(points.get(i));
-                segmentPoints.add(points.get(i + 1));
-                segmentResult = getBusRouteWithWalking(segmentPoints);
-                if (segmentResult.containsKey("error")) {
-                    return segmentResult;
-                }
-                List<Map<String, Object>> paths = (List<Map<String, Object>>) segmentResult.get("paths");
-                double segmentDistance = 0;
-                long segmentTime = 0;
-                for (Map<String, Object> path : paths) {
-                    if (path.containsKey("distance") && path.containsKey("time")) {
-                        segmentDistance += ((Number) path.get("distance")).doubleValue();
-                        segmentTime += ((Number) path.get("time")).longValue();
-                    }
-                }
-                Map<String, Object> segmentData = new HashMap<>();
-                segmentData.put("mode", mode);
-                segmentData.put("distance", segmentDistance);
-                segmentData.put("time", segmentTime);
-                segmentData.put("paths", paths);
-                segments.add(segmentData);
-                totalDistance += segmentDistance;
-                totalTime += segmentTime;
-            } else {
-                GHRequest request = new GHRequest(
-                        points.get(i).get(1), points.get(i).get(0),
-                        points.get(i + 1).get(1), points.get(i + 1).get(0)).setProfile(mode);
-                segmentResult = getOptimizedRoute(request, mode);
-                if (segmentResult.containsKey("error")) {
-                    return segmentResult;
-                }
-                ResponsePath bestPath = (ResponsePath) segmentResult.get("bestPath");
-                Map<String, Object> segmentData = new HashMap<>();
-                segmentData.put("mode", mode);
-                segmentData.put("distance", bestPath.getDistance());
-                segmentData.put("time", bestPath.getTime());
-                segmentData.put("points", extractCoordinates(bestPath));
-                segmentData.put("instructions", extractInstructions(bestPath));
-                segments.add(segmentData);
-                totalDistance += bestPath.getDistance();
-                totalTime += bestPath.getTime();
+        for (List<Map<String, Object>> part : parts) {
+            for (Map<String, Object> segment : part) {
+                segments.add(segment);
+                totalDistance += (double) segment.get("distance");
+                totalTime += (long) segment.get("time");
             }
         }
         Map<String, Object> chainedResponse = new HashMap<>();
@@ -635,26 +1387,161 @@ public class GraphHopperService {
     }
 
     /**
-     * Gets a train route with walking segments to/from the train stations.
-     * This is a placeholder implementation for future enhancement.
-     * 
-     * @param userPoints List of points representing start and end locations
-     *                   [[lon1,lat1],[lon2,lat2]]
-     * @return A map containing the train route details or an error
+     * Routes one transit leg, or a run of legs sharing a street mode.
+     *
+     * @throws ChainedLegException with the error response when a leg cannot be routed
      */
-    public Map<String, Object> getTrainRouteWithWalking(List<List<Double>> userPoints) {
-        // This is a placeholder implementation for future enhancement
-        // Similar to getBusRouteWithWalking but for train routes
+    private List<Map<String, Object>> routeChainedLegs(List<List<Double>> points, String mode) {
+        TransitMode transitMode = TransitMode.fromName(mode);
+        if (transitMode != null) {
+            // For transit segments, ride the mode with walking between the two given points
+            Map<String, Object> segmentResult = transitMode == TransitMode.BUS ? getBusRouteWithWalking(points)
+                    : getTransitRouteWithWalking(points, transitMode, null);
+            if (segmentResult.containsKey("error")) {
+                throw new ChainedLegException(segmentResult);
+            }
+            List<Map<String, Object>> paths = (List<Map<String, Object>>) segmentResult.get("paths");
+            double segmentDistance = 0;
+            long segmentTime = 0;
+            for (Map<String, Object> path : paths) {
+                if (path.containsKey("distance") && path.containsKey("time")) {
+                    segmentDistance += ((Number) path.get("distance")).doubleValue();
+                    segmentTime += ((Number) path.get("time")).longValue();
+                }
+            }
+            Map<String, Object> segmentData = new HashMap<>();
+            segmentData.put("mode", mode);
+            segmentData.put("distance", segmentDistance);
+            segmentData.put("time", segmentTime);
+            segmentData.put("paths", paths);
+            return List.of(segmentData);
+        }
 
-        logger.info("Calculating train route with walking for userPoints: {}", userPoints);
+        List<Map<String, Object>> legs = points.size() > 2 ? routeMergedLegs(points, mode) : null;
+        if (legs != null) {
+            return legs;
+        }
+        legs = new ArrayList<>();
+        for (int i = 0; i + 1 < points.size(); i++) {
+            GHRequest request = new GHRequest(
+                    points.get(i).get(1), points.get(i).get(0),
+                    points.get(i + 1).get(1), points.get(i + 1).get(0)).setProfile(mode);
+            Map<String, Object> segmentResult = getOptimizedRoute(request, mode);
+            if (segmentResult.containsKey("error")) {
+                throw new ChainedLegException(segmentResult);
+            }
+            ResponsePath bestPath = (ResponsePath) segmentResult.get("bestPath");
+            Map<String, Object> segmentData = new HashMap<>();
+            segmentData.put("mode", mode);
+            segmentData.put("distance", bestPath.getDistance());
+            segmentData.put("time", bestPath.getTime());
+            segmentData.put("points", extractCoordinates(bestPath));
+            segmentData.put("instructions", extractInstructions(bestPath));
+            legs.add(segmentData);
+        }
+        return legs;
+    }
 
-        // Currently not implemented - return a placeholder response
-        Map<String, Object> response = new LinkedHashMap<>();
-        response.put("status", "success");
-        response.put("mode", "train");
-        response.put("paths", new ArrayList<>());
-        response.put("message", "Train routing is not fully implemented yet");
+    /** Carries the error response of a failed leg out of the parallel leg tasks. */
+    private static final class ChainedLegException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
 
-        return response;
+        private final transient Map<String, Object> error;
+
+        ChainedLegException(Map<String, Object> error) {
+            super(String.valueOf(error.get("error")), null, false, false);
+            this.error = error;
+        }
+
+        Map<String, Object> getError() {
+            return error;
+        }
+    }
+
+    /**
+     * Routes a run of same-mode legs in one search and splits the path back into one
+     * segment per leg at its via instructions.
+     *
+     * @param points the run's points, one more than the number of legs
+     * @return the per-leg segments, or null when the legs have to be routed one by one
+     */
+    private List<Map<String, Object>> routeMergedLegs(List<List<Double>> points, String mode) {
+        List<GHPoint> ghPoints = new ArrayList<>();
+        for (List<Double> point : points) {
+            ghPoints.add(new GHPoint(point.get(1), point.get(0)));
+        }
+        Map<String, Object> result = getOptimizedRoute(new GHRequest(ghPoints).setProfile(mode), mode);
+        if (result.containsKey("error")) {
+            logger.warn("⚠️ Merged {} route over {} points failed, routing the legs one by one: {}", mode,
+                    points.size(), result.get("error"));
+            return null;
+        }
+        List<Map<String, Object>> legs = splitAtViaPoints((ResponsePath) result.get("bestPath"), mode);
+        if (legs == null || legs.size() != points.size() - 1) {
+            logger.warn("⚠️ Merged {} route did not split into {} legs, routing them one by one", mode,
+                    points.size() - 1);
+            return null;
+        }
+        logger.info("🔗 Routed {} consecutive {} legs in one search", legs.size(), mode);
+        return legs;
+    }
+
+    /**
+     * GraphHopper replaces the finish instruction of every leg but the last with a
+     * via instruction holding the via point, so each via instruction closes a leg.
+     */
+    List<Map<String, Object>> splitAtViaPoints(ResponsePath path, String mode) {
+        InstructionList instructions = path.getInstructions();
+        if (instructions == null || instructions.isEmpty()) {
+            return null;
+        }
+        List<List<Instruction>> groups = new ArrayList<>();
+        groups.add(new ArrayList<>());
+        for (Instruction instruction : instructions) {
+            groups.get(groups.size() - 1).add(instruction);
+            if (instruction.getSign() == Instruction.REACHED_VIA) {
+                groups.add(new ArrayList<>());
+            }
+        }
+
+        Translation tr = translationMap.getWithFallBack(Locale.ENGLISH);
+        List<Map<String, Object>> legs = new ArrayList<>();
+        for (List<Instruction> group : groups) {
+            double distance = 0;
+            long time = 0;
+            List<List<Double>> coords = new ArrayList<>();
+            List<Map<String, Object>> legInstructions = new ArrayList<>();
+            for (Instruction instruction : group) {
+                distance += instruction.getDistance();
+                time += instruction.getTime();
+                PointList points = instruction.getPoints();
+                for (int p = 0; p < points.size(); p++) {
+                    coords.add(Arrays.asList(points.getLon(p), points.getLat(p)));
+                }
+                legInstructions.add(formatInstruction(instruction, tr));
+            }
+            Map<String, Object> leg = new HashMap<>();
+            leg.put("mode", mode);
+            leg.put("distance", distance);
+            leg.put("time", time);
+            leg.put("points", coords);
+            leg.put("instructions", legInstructions);
+            legs.add(leg);
+        }
+        return legs;
+    }
+
+    public Map<String, Object> getTrainRouteWithWalking(List<List<Double>> userPoints) {
+        return getTrainRouteWithWalking(userPoints, null);
+    }
+
+    /**
+     * Plans a rail journey with walking to and from the stations, see
+     * {@link #getTransitRouteWithWalking}.
+     *
+     * @param userPoints start and end locations [[lon1,lat1],[lon2,lat2]]
+     */
+    public Map<String, Object> getTrainRouteWithWalking(List<List<Double>> userPoints, LocalDateTime departure) {
+        return getTransitRouteWithWalking(userPoints, TransitMode.RAIL, departure);
     }
 }
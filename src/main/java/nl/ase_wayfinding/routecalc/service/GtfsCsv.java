@@ -0,0 +1,123 @@
+package nl.ase_wayfinding.routecalc.service;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Streaming reader for one GTFS text file. Columns are looked up by their header
+ * name, rows are read one at a time into a reused field list, so a file of any
+ * size is read with constant memory.
+ */
+final class GtfsCsv implements Closeable {
+
+    private final BufferedReader reader;
+    private final List<String> columns = new ArrayList<>();
+    private final List<String> row = new ArrayList<>();
+
+    private GtfsCsv(BufferedReader reader) throws IOException {
+        this.reader = reader;
+        String header = reader.readLine();
+        if (header != null) {
+            if (header.startsWith("\uFEFF"))
+                header = header.substring(1);
+            for (String column : split(header, new ArrayList<>()))
+                columns.add(column.toLowerCase());
+        }
+    }
+
+    static GtfsCsv open(Path file) throws IOException {
+        return new GtfsCsv(Files.newBufferedReader(file, StandardCharsets.UTF_8));
+    }
+
+    /** @return the index of the named column, or -1 when the file has no such column */
+    int column(String name) {
+        return columns.indexOf(name);
+    }
+
+    /** @return the index of the named column, or the fallback when the file has no such column */
+    int column(String name, int fallback) {
+        int index = columns.indexOf(name);
+        return index >= 0 ? index : fallback;
+    }
+
+    /** Advances to the next non-empty row. */
+    boolean next() throws IOException {
+        String line;
+        do {
+            line = reader.readLine();
+            if (line == null)
+                return false;
+        } while (line.isEmpty());
+        split(line, row);
+        return true;
+    }
+
+    /** Number of fields in the current row. */
+    int size() {
+        return row.size();
+    }
+
+    /** @return the field of the current row, or an empty string for a missing column */
+    String get(int column) {
+        return column >= 0 && column < row.size() ? row.get(column) : "";
+    }
+
+    /**
+     * @param time HH:MM:SS, hours may run past 24 for trips after midnight
+     * @return seconds after the start of the service day (noon minus 12h), or -1 for an empty field
+     */
+    static int parseTime(String time) {
+        if (time.isEmpty())
+            return -1;
+        int first = time.indexOf(':');
+        int second = time.indexOf(':', first + 1);
+        if (first < 0 || second < 0)
+            throw new NumberFormatException("Not a GTFS time: " + time);
+        return Integer.parseInt(time.substring(0, first)) * 3600
+                + Integer.parseInt(time.substring(first + 1, second)) * 60
+                + Integer.parseInt(time.substring(second + 1));
+    }
+
+    @Override
+    public void close() throws IOException {
+        reader.close();
+    }
+
+    /** Splits one CSV line into unquoted, trimmed fields, reusing the given list. */
+    static List<String> split(String line, List<String> out) {
+        out.clear();
+        int i = 0, n = line.length();
+        while (i <= n) {
+            if (i < n && line.charAt(i) == '"') {
+                StringBuilder field = new StringBuilder();
+                i++;
+                while (i < n) {
+                    char c = line.charAt(i++);
+                    if (c == '"' && i < n && line.charAt(i) == '"') {
+                        field.append('"');
+                        i++;
+                    } else if (c == '"') {
+                        break;
+                    } else {
+                        field.append(c);
+                    }
+                }
+                out.add(field.toString().trim());
+                int comma = line.indexOf(',', i);
+                i = comma < 0 ? n + 1 : comma + 1;
+            } else {
+                int comma = line.indexOf(',', i);
+                int end = comma < 0 ? n : comma;
+                out.add(line.substring(i, end).trim());
+                i = end + 1;
+            }
+        }
+        return out;
+    }
+}
@@ -0,0 +1,160 @@
+package nl.ase_wayfinding.routecalc.service;
+
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.util.Arrays;
+import java.util.function.IntPredicate;
+import java.util.stream.IntStream;
+
+/**
+ * Radius search over a fixed set of points. Every point is filed under its cell
+ * of a fixed lat/lon grid, in one array sorted by cell, so a search only looks at
+ * the points in the few cells around the query. The arrays are either built on
+ * the heap or mapped from a {@link TransitCache} file. Instances are immutable.
+ */
+final class PointGrid {
+
+    private static final double METERS_PER_DEGREE = 111_320d;
+    private static final double EARTH_RADIUS = 6371e3;
+
+    private final double cellDeg;
+    private final DoubleBuffer lats;
+    private final DoubleBuffer lons;
+    // sorted distinct cell keys (row << 32 | col), the points of cells[i] are
+    // points[cellStart[i]] up to points[cellStart[i + 1]]
+    private final LongBuffer cells;
+    private final IntBuffer cellStart;
+    private final IntBuffer points;
+
+    PointGrid(double cellDeg, DoubleBuffer lats, DoubleBuffer lons, LongBuffer cells, IntBuffer cellStart,
+            IntBuffer points) {
+        this.cellDeg = cellDeg;
+        this.lats = lats;
+        this.lons = lons;
+        this.cells = cells;
+        this.cellStart = cellStart;
+        this.points = points;
+    }
+
+    /** Files the points under their cells; the coordinate buffers are shared, not copied. */
+    static PointGrid of(DoubleBuffer lats, DoubleBuffer lons, double cellSizeMeters) {
+        return of(lats, lons, cellSizeMeters, point -> true);
+    }
+
+    /**
+     * Files only the points the filter includes; searches never visit the others.
+     * The coordinate buffers are shared, not copied.
+     */
+    static PointGrid of(DoubleBuffer lats, DoubleBuffer lons, double cellSizeMeters, IntPredicate include) {
+        double cellDeg = cellDegrees(cellSizeMeters);
+        int[] included = IntStream.range(0, lats.limit()).filter(include).toArray();
+        int n = included.length;
+        long[] keyed = new long[n];
+        long[] pointKeys = new long[n];
+        for (int i = 0; i < n; i++) {
+            int p = included[i];
+            pointKeys[i] = cellKey(cellIndex(lats.get(p), cellDeg), cellIndex(lons.get(p), cellDeg));
+            keyed[i] = pointKeys[i];
+        }
+        Arrays.sort(keyed);
+        int distinct = 0;
+        for (int i = 0; i < n; i++) {
+            if (i == 0 || keyed[i] != keyed[i - 1])
+                keyed[distinct++] = keyed[i];
+        }
+        long[] cells = Arrays.copyOf(keyed, distinct);
+
+        // counting sort of the points by cell, keeping point order within a cell
+        int[] cellStart = new int[distinct + 1];
+        int[] cellOf = new int[n];
+        for (int i = 0; i < n; i++) {
+            cellOf[i] = Arrays.binarySearch(cells, pointKeys[i]);
+            cellStart[cellOf[i] + 1]++;
+        }
+        for (int c = 0; c < distinct; c++)
+            cellStart[c + 1] += cellStart[c];
+        int[] fill = Arrays.copyOf(cellStart, distinct);
+        int[] points = new int[n];
+        for (int i = 0; i < n; i++)
+            points[fill[cellOf[i]]++] = included[i];
+        return new PointGrid(cellDeg, lats, lons, LongBuffer.wrap(cells), IntBuffer.wrap(cellStart),
+                IntBuffer.wrap(points));
+    }
+
+    static double cellDegrees(double cellSizeMeters) {
+        return cellSizeMeters / METERS_PER_DEGREE;
+    }
+
+    /** Calls the visitor for every point within radiusMeters of the coordinate, in no particular order. */
+    void forEachPointNear(double lat, double lon, double radiusMeters, Visitor visitor) {
+        double dLat = radiusMeters / METERS_PER_DEGREE;
+        double dLon = radiusMeters / (METERS_PER_DEGREE * Math.max(Math.cos(Math.toRadians(lat)), 1e-6));
+        int fromRow = cellIndex(lat - dLat, cellDeg), toRow = cellIndex(lat + dLat, cellDeg);
+        int fromCol = cellIndex(lon - dLon, cellDeg), toCol = cellIndex(lon + dLon, cellDeg);
+        for (int row = fromRow; row <= toRow; row++) {
+            for (int col = fromCol; col <= toCol; col++) {
+                int cell = findCell(cellKey(row, col));
+                if (cell < 0)
+                    continue;
+                for (int i = cellStart.get(cell), end = cellStart.get(cell + 1); i < end; i++) {
+                    int point = points.get(i);
+                    double dist = distance(lat, lon, lats.get(point), lons.get(point));
+                    if (dist <= radiusMeters)
+                        visitor.visit(point, dist);
+                }
+            }
+        }
+    }
+
+    double cellDeg() {
+        return cellDeg;
+    }
+
+    LongBuffer cells() {
+        return cells.duplicate();
+    }
+
+    IntBuffer cellStart() {
+        return cellStart.duplicate();
+    }
+
+    IntBuffer points() {
+        return points.duplicate();
+    }
+
+    private int findCell(long key) {
+        int lo = 0, hi = cells.limit() - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            long cell = cells.get(mid);
+            if (cell < key)
+                lo = mid + 1;
+            else if (cell > key)
+                hi = mid - 1;
+            else
+                return mid;
+        }
+        return -1;
+    }
+
+    private static int cellIndex(double degrees, double cellDeg) {
+        return (int) Math.floor(degrees / cellDeg);
+    }
+
+    private static long cellKey(int row, int col) {
+        return ((long) row << 32) | (col & 0xffffffffL);
+    }
+
+    static double distance(double lat1, double lon1, double lat2, double lon2) {
+        double dLat = Math.toRadians(lat2 - lat1);
+        double dLon = Math.toRadians(lon2 - lon1);
+        double a = Math.sin(dLat / 2) * Math.sin(dLat / 2) + Math.cos(Math.toRadians(lat1))
+                * Math.cos(Math.toRadians(lat2)) * Math.sin(dLon / 2) * Math.sin(dLon / 2);
+        return EARTH_RADIUS * 2 * Math.atan2(Math.sqrt(a), Math.sqrt(1 - a));
+    }
+
+    interface Visitor {
+        void visit(int point, double distMeters);
+    }
+}
@@ -0,0 +1,387 @@
+package nl.ase_wayfinding.routecalc.service;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Round-based earliest-arrival search over a {@link Timetable} (RAPTOR). Round k
+ * finds the best arrival at every stop using at most k vehicles: it scans each
+ * pattern serving a stop improved in round k - 1 once, hopping on the earliest
+ * catchable trip, then relaxes the footpaths from the stops it improved. Arrivals
+ * no better than the best one at the destination so far are pruned. Trips of the
+ * previous service day still running after midnight are searched too. A search
+ * for one {@link TransitMode} only rides that mode's patterns.
+ */
+public final class Raptor {
+
+    private static final int UNREACHED = Integer.MAX_VALUE;
+    private static final int DAY = 24 * 3600;
+
+    // how a stop's label was set in a round
+    private static final byte KEPT = 0;
+    private static final byte ACCESS = 1;
+    private static final byte RIDE = 2;
+    private static final byte TRANSFER = 3;
+
+    private final Timetable timetable;
+    private final TransitMode mode;
+    private final int maxRides;
+    private final int minChangeSeconds;
+
+    public Raptor(Timetable timetable, int maxTransfers, int minChangeSeconds) {
+        this(timetable, null, maxTransfers, minChangeSeconds);
+    }
+
+    /** @param mode the only mode ridden, or null for all */
+    public Raptor(Timetable timetable, TransitMode mode, int maxTransfers, int minChangeSeconds) {
+        this.timetable = timetable;
+        this.mode = mode;
+        this.maxRides = maxTransfers + 1;
+        this.minChangeSeconds = minChangeSeconds;
+    }
+
+    /**
+     * @param access    stops reachable from the origin with their walking seconds
+     * @param egress    stops the destination is reachable from with their walking seconds
+     * @param date      service date of the departure
+     * @param departure seconds after the start of that service day
+     * @return the journey arriving first, with the fewest rides among equals, or null when none does
+     */
+    public Journey search(List<StopTime> access, List<StopTime> egress, LocalDate date, int departure) {
+        int stops = timetable.stopCount();
+        BitSet today = timetable.activeServices(date);
+        BitSet yesterday = timetable.activeServices(date.minusDays(1));
+
+        int[] egressSeconds = new int[stops];
+        Arrays.fill(egressSeconds, -1);
+        for (StopTime e : egress) {
+            if (egressSeconds[e.getStop()] < 0 || e.getSeconds() < egressSeconds[e.getStop()])
+                egressSeconds[e.getStop()] = e.getSeconds();
+        }
+
+        int[][] arrival = new int[maxRides + 1][];
+        byte[][] how = new byte[maxRides + 1][];
+        // RIDE: trip, board position, service day offset; TRANSFER: source stop
+        int[][] from = new int[maxRides + 1][];
+        int[][] boardPosition = new int[maxRides + 1][];
+        int[][] dayOffset = new int[maxRides + 1][];
+        // stops whose label in the round was last set by a ride, kept labels included,
+        // boarding there again needs the minimum change time
+        BitSet[] byRide = new BitSet[maxRides + 1];
+        int[] best = new int[stops];
+        Arrays.fill(best, UNREACHED);
+
+        arrival[0] = new int[stops];
+        Arrays.fill(arrival[0], UNREACHED);
+        how[0] = new byte[stops];
+        from[0] = new int[stops];
+        byRide[0] = new BitSet(stops);
+        BitSet marked = new BitSet(stops);
+        for (StopTime a : access) {
+            int t = departure + a.getSeconds();
+            if (t < arrival[0][a.getStop()]) {
+                arrival[0][a.getStop()] = t;
+                best[a.getStop()] = t;
+                how[0][a.getStop()] = ACCESS;
+                from[0][a.getStop()] = a.getSeconds();
+                marked.set(a.getStop());
+            }
+        }
+
+        int target = UNREACHED;
+        int targetRound = -1;
+        int targetStop = -1;
+        int rounds = 0;
+        for (int k = 1; k <= maxRides && !marked.isEmpty(); k++) {
+            rounds = k;
+            arrival[k] = arrival[k - 1].clone();
+            how[k] = new byte[stops];
+            from[k] = new int[stops];
+            boardPosition[k] = new int[stops];
+            dayOffset[k] = new int[stops];
+            byRide[k] = (BitSet) byRide[k - 1].clone();
+
+            // earliest marked position of every pattern serving a marked stop
+            int[] scanFrom = new int[timetable.patternCount()];
+            Arrays.fill(scanFrom, -1);
+            BitSet queued = new BitSet(timetable.patternCount());
+            for (int s = marked.nextSetBit(0); s >= 0; s = marked.nextSetBit(s + 1)) {
+                for (int j = timetable.stopPatternStart(s); j < timetable.stopPatternEnd(s); j++) {
+                    int p = timetable.stopPattern(j);
+                    if (mode != null && timetable.patternMode(p) != mode)
+                        continue;
+                    int position = timetable.stopPatternPosition(j);
+                    if (!queued.get(p) || position < scanFrom[p]) {
+                        scanFrom[p] = position;
+                        queued.set(p);
+                    }
+                }
+            }
+            marked.clear();
+
+            for (int p = queued.nextSetBit(0); p >= 0; p = queued.nextSetBit(p + 1)) {
+                int trip = -1, offset = 0, boardedAt = -1;
+                for (int i = scanFrom[p], n = timetable.patternSize(p); i < n; i++) {
+                    int stop = timetable.patternStop(p, i);
+                    if (trip >= 0) {
+                        int t = timetable.arrival(trip, i) + offset;
+                        if (t < best[stop] && t < target) {
+                            arrival[k][stop] = t;
+                            best[stop] = t;
+                            how[k][stop] = RIDE;
+                            from[k][stop] = trip;
+                            boardPosition[k][stop] = boardedAt;
+                            dayOffset[k][stop] = offset;
+                            byRide[k].set(stop);
+                            marked.set(stop);
+                        }
+                    }
+                    int ready = arrival[k - 1][stop];
+                    if (ready == UNREACHED)
+                        continue;
+                    if (byRide[k - 1].get(stop))
+                        ready += minChangeSeconds;
+                    if (trip < 0 || ready <= timetable.departure(trip, i) + offset) {
+                        int[] catchable = earliestTrip(p, i, ready, today, yesterday);
+                        if (catchable != null && (trip < 0 || catchable[0] != trip || catchable[1] != offset)) {
+                            trip = catchable[0];
+                            offset = catchable[1];
+                            boardedAt = i;
+                        }
+                    }
+                }
+            }
+
+            // footpaths from the stops reached by a ride this round
+            BitSet ridden = (BitSet) marked.clone();
+            for (int s = ridden.nextSetBit(0); s >= 0; s = ridden.nextSetBit(s + 1)) {
+                for (int j = timetable.transferStart(s); j < timetable.transferEnd(s); j++) {
+                    if (timetable.transferSeconds(j) == Timetable.NO_TRANSFER)
+                        continue;
+                    int to = timetable.transferTarget(j);
+                    int t = arrival[k][s] + timetable.transferSeconds(j);
+                    if (t < best[to] && t < target) {
+                        arrival[k][to] = t;
+                        best[to] = t;
+                        how[k][to] = TRANSFER;
+                        from[k][to] = s;
+                        byRide[k].clear(to);
+                        marked.set(to);
+                    }
+                }
+            }
+
+            for (int s = marked.nextSetBit(0); s >= 0; s = marked.nextSetBit(s + 1)) {
+                if (egressSeconds[s] >= 0 && arrival[k][s] + egressSeconds[s] < target) {
+                    target = arrival[k][s] + egressSeconds[s];
+                    targetRound = k;
+                    targetStop = s;
+                }
+            }
+        }
+        if (targetStop < 0)
+            return null;
+        return reconstruct(how, from, boardPosition, dayOffset, arrival, targetRound, targetStop,
+                egressSeconds[targetStop], rounds);
+    }
+
+    /**
+     * @return {trip, day offset} of the first trip of the pattern leaving position i
+     *         at or after the time, or null when no running trip does
+     */
+    private int[] earliestTrip(int pattern, int position, int time, BitSet today, BitSet yesterday) {
+        int[] best = null;
+        int bestDeparture = UNREACHED;
+        for (int offset : new int[] { 0, -DAY }) {
+            BitSet services = offset == 0 ? today : yesterday;
+            int from = timetable.firstTrip(pattern), end = timetable.endTrip(pattern);
+            // the timetable splits overtaking trips into patterns of their own, so the
+            // departures of a pattern are sorted at every stop
+            int lo = from, hi = end;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (timetable.departure(mid, position) + offset < time)
+                    lo = mid + 1;
+                else
+                    hi = mid;
+            }
+            for (int trip = lo; trip < end; trip++) {
+                int t = timetable.departure(trip, position) + offset;
+                if (t >= bestDeparture)
+                    break;
+                if (services.get(timetable.tripService(trip))) {
+                    best = new int[] { trip, offset };
+                    bestDeparture = t;
+                    break;
+                }
+            }
+        }
+        return best;
+    }
+
+    private Journey reconstruct(byte[][] how, int[][] from, int[][] boardPosition, int[][] dayOffset,
+            int[][] arrival, int round, int stop, int egressSeconds, int rounds) {
+        List<Leg> legs = new ArrayList<>();
+        legs.add(new Leg(Leg.Kind.EGRESS, stop, -1, arrival[round][stop], arrival[round][stop] + egressSeconds,
+                -1, -1, -1, 0));
+        int k = round, s = stop;
+        while (true) {
+            byte kind = how[k][s];
+            if (kind == KEPT) {
+                k--;
+            } else if (kind == ACCESS) {
+                legs.add(new Leg(Leg.Kind.ACCESS, -1, s, arrival[k][s] - from[k][s], arrival[k][s], -1, -1, -1, 0));
+                break;
+            } else if (kind == TRANSFER) {
+                int source = from[k][s];
+                legs.add(new Leg(Leg.Kind.TRANSFER, source, s, arrival[k][source], arrival[k][s], -1, -1, -1, 0));
+                s = source;
+            } else {
+                int trip = from[k][s];
+                int offset = dayOffset[k][s];
+                int pattern = timetable.patternOf(trip);
+                int board = boardPosition[k][s];
+                int alight = board + 1;
+                while (timetable.patternStop(pattern, alight) != s
+                        || timetable.arrival(trip, alight) + offset != arrival[k][s])
+                    alight++;
+                int boardStop = timetable.patternStop(pattern, board);
+                legs.add(new Leg(Leg.Kind.RIDE, boardStop, s, timetable.departure(trip, board) + offset,
+                        arrival[k][s], trip, board, alight, offset));
+                s = boardStop;
+                k--;
+            }
+        }
+        Collections.reverse(legs);
+        // leave the origin as late as still catches the first vehicle
+        if (legs.size() > 1 && legs.get(1).getKind() == Leg.Kind.RIDE) {
+            Leg walk = legs.get(0);
+            int seconds = walk.getArrival() - walk.getDeparture();
+            int board = legs.get(1).getDeparture();
+            legs.set(0, new Leg(Leg.Kind.ACCESS, -1, walk.getToStop(), board - seconds, board, -1, -1, -1, 0));
+        }
+        return new Journey(legs, rounds);
+    }
+
+    /** A stop with the walking time to or from it. */
+    public static final class StopTime {
+        private final int stop;
+        private final int seconds;
+
+        public StopTime(int stop, int seconds) {
+            this.stop = stop;
+            this.seconds = seconds;
+        }
+
+        public int getStop() {
+            return stop;
+        }
+
+        public int getSeconds() {
+            return seconds;
+        }
+    }
+
+    /** One leg of a journey; times are seconds after the start of the query's service day. */
+    public static final class Leg {
+        public enum Kind { ACCESS, RIDE, TRANSFER, EGRESS }
+
+        private final Kind kind;
+        private final int fromStop;
+        private final int toStop;
+        private final int departure;
+        private final int arrival;
+        private final int trip;
+        private final int boardPosition;
+        private final int alightPosition;
+        private final int dayOffset;
+
+        Leg(Kind kind, int fromStop, int toStop, int departure, int arrival, int trip, int boardPosition,
+                int alightPosition, int dayOffset) {
+            this.kind = kind;
+            this.fromStop = fromStop;
+            this.toStop = toStop;
+            this.departure = departure;
+            this.arrival = arrival;
+            this.trip = trip;
+            this.boardPosition = boardPosition;
+            this.alightPosition = alightPosition;
+            this.dayOffset = dayOffset;
+        }
+
+        public Kind getKind() {
+            return kind;
+        }
+
+        /** @return the stop the leg starts at, or -1 for the walk from the origin */
+        public int getFromStop() {
+            return fromStop;
+        }
+
+        /** @return the stop the leg ends at, or -1 for the walk to the destination */
+        public int getToStop() {
+            return toStop;
+        }
+
+        public int getDeparture() {
+            return departure;
+        }
+
+        public int getArrival() {
+            return arrival;
+        }
+
+        /** @return the trip ridden, or -1 for walking legs */
+        public int getTrip() {
+            return trip;
+        }
+
+        public int getBoardPosition() {
+            return boardPosition;
+        }
+
+        public int getAlightPosition() {
+            return alightPosition;
+        }
+
+        /** @return 0, or minus one day for a trip of the previous service day */
+        public int getDayOffset() {
+            return dayOffset;
+        }
+    }
+
+    public static final class Journey {
+        private final List<Leg> legs;
+        private final int rounds;
+
+        Journey(List<Leg> legs, int rounds) {
+            this.legs = Collections.unmodifiableList(legs);
+            this.rounds = rounds;
+        }
+
+        public List<Leg> getLegs() {
+            return legs;
+        }
+
+        public int getDeparture() {
+            return legs.get(0).getDeparture();
+        }
+
+        public int getArrival() {
+            return legs.get(legs.size() - 1).getArrival();
+        }
+
+        public int getRides() {
+            return (int) legs.stream().filter(leg -> leg.getKind() == Leg.Kind.RIDE).count();
+        }
+
+        /** Number of rounds the search ran. */
+        int getRounds() {
+            return rounds;
+        }
+    }
+}
@@ -0,0 +1,190 @@
+package nl.ase_wayfinding.routecalc.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded, TTL-based cache of formatted route responses. Requests whose origin and
+ * destination snap to the same quantized cells with the same mode share one entry,
+ * so commuter pairs and app retries skip the routing loop. Every entry belongs to a
+ * routing data version; once the graph or the AQI snapshot changes the whole cache
+ * is dropped. Memory is bounded by entry count and by the estimated JSON size of
+ * the cached responses.
+ */
+@Component
+public class RouteResultCache {
+
+    private static final Logger logger = LoggerFactory.getLogger(RouteResultCache.class);
+    private static final double METERS_PER_DEGREE = 111_320d;
+
+    private final double cellDeg;
+    private final long ttlMillis;
+    private final int maxEntries;
+    private final long maxBytes;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    private String version;
+    private long bytes;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong expirations = new AtomicLong();
+    private final AtomicLong invalidations = new AtomicLong();
+
+    public RouteResultCache(@Value("${routing.route-cache.cell-size-m:25}") double cellSizeMeters,
+            @Value("${routing.route-cache.ttl-ms:600000}") long ttlMillis,
+            @Value("${routing.route-cache.max-entries:10000}") int maxEntries,
+            @Value("${routing.route-cache.max-bytes:67108864}") long maxBytes) {
+        this.cellDeg = cellSizeMeters / METERS_PER_DEGREE;
+        this.ttlMillis = ttlMillis;
+        this.maxEntries = maxEntries;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * @param points  request points as [lon, lat]
+     * @param version routing data version the response would be computed against
+     * @return the cached response, or null when missing, expired or from an older version
+     */
+    public Map<String, Object> get(List<List<Double>> points, String mode, String version) {
+        String key = key(points, mode);
+        long now = System.currentTimeMillis();
+        synchronized (entries) {
+            invalidateIfChanged(version);
+            Entry entry = entries.get(key);
+            if (entry != null && now - entry.createdMillis <= ttlMillis) {
+                hits.incrementAndGet();
+                return entry.response;
+            }
+            if (entry != null) {
+                remove(key);
+                expirations.incrementAndGet();
+            }
+        }
+        misses.incrementAndGet();
+        return null;
+    }
+
+    /**
+     * Caches the response unless the routing data changed while it was computed,
+     * or it alone is larger than the memory bound.
+     */
+    public void put(List<List<Double>> points, String mode, String version, Map<String, Object> response) {
+        long size = estimateBytes(response);
+        if (size > maxBytes)
+            return;
+        String key = key(points, mode);
+        Entry entry = new Entry(response, size, System.currentTimeMillis());
+        synchronized (entries) {
+            invalidateIfChanged(version);
+            if (!Objects.equals(this.version, version))
+                return;
+            remove(key);
+            entries.put(key, entry);
+            bytes += size;
+            // access order keeps the least recently used entry first
+            Iterator<Map.Entry<String, Entry>> eldest = entries.entrySet().iterator();
+            while (entries.size() > maxEntries || bytes > maxBytes) {
+                bytes -= eldest.next().getValue().bytes;
+                eldest.remove();
+                evictions.incrementAndGet();
+            }
+        }
+    }
+
+    /** Same key for every request whose endpoints fall into the same cells. */
+    String key(List<List<Double>> points, String mode) {
+        StringBuilder key = new StringBuilder(mode.toLowerCase());
+        for (List<Double> point : points) {
+            key.append('|').append(Math.round(point.get(1) / cellDeg))
+                    .append(',').append(Math.round(point.get(0) / cellDeg));
+        }
+        return key.toString();
+    }
+
+    private void invalidateIfChanged(String version) {
+        if (Objects.equals(this.version, version))
+            return;
+        if (!entries.isEmpty()) {
+            logger.info("♻️ Routing data changed from {} to {}, dropping {} cached routes", this.version, version,
+                    entries.size());
+            invalidations.incrementAndGet();
+        }
+        entries.clear();
+        bytes = 0;
+        this.version = version;
+    }
+
+    private void remove(String key) {
+        Entry removed = entries.remove(key);
+        if (removed != null)
+            bytes -= removed.bytes;
+    }
+
+    private long estimateBytes(Map<String, Object> response) {
+        try {
+            return objectMapper.writeValueAsBytes(response).length;
+        } catch (JsonProcessingException e) {
+            return Long.MAX_VALUE;
+        }
+    }
+
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public Map<String, Object> stats() {
+        long h = hits.get();
+        long m = misses.get();
+        Map<String, Object> stats = new LinkedHashMap<>();
+        synchronized (entries) {
+            stats.put("size", entries.size());
+            stats.put("estimated_bytes", bytes);
+            stats.put("version", version);
+        }
+        stats.put("max_entries", maxEntries);
+        stats.put("max_bytes", maxBytes);
+        stats.put("hits", h);
+        stats.put("misses", m);
+        stats.put("hit_ratio", h + m == 0 ? 0.0 : (double) h / (h + m));
+        stats.put("evictions", evictions.get());
+        stats.put("expirations", expirations.get());
+        stats.put("invalidations", invalidations.get());
+        return stats;
+    }
+
+    private static final class Entry {
+        final Map<String, Object> response;
+        final long bytes;
+        final long createdMillis;
+
+        Entry(Map<String, Object> response, long bytes, long createdMillis) {
+            this.response = response;
+            this.bytes = bytes;
+            this.createdMillis = createdMillis;
+        }
+    }
+}
@@ -0,0 +1,169 @@
+package nl.ase_wayfinding.routecalc.service;
+
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.IntPredicate;
+import java.util.stream.IntStream;
+
+/**
+ * Grid index over the points of all GTFS shapes, built once when the feed is loaded.
+ * A query only looks at the shape points in the few grid cells around the origin
+ * and the destination instead of scanning every shape of the feed. Instances are
+ * immutable.
+ */
+public final class ShapeIndex {
+
+    private final ShapeTable shapes;
+    private final PointGrid grid;
+    private final int size;
+
+    ShapeIndex(ShapeTable shapes, PointGrid grid) {
+        this(shapes, grid, shapes.size());
+    }
+
+    ShapeIndex(ShapeTable shapes, PointGrid grid, int size) {
+        this.shapes = shapes;
+        this.grid = grid;
+        this.size = size;
+    }
+
+    /**
+     * @param shapes         shape points as [lon, lat], in travel order
+     * @param cellSizeMeters height of one grid cell
+     */
+    public static ShapeIndex of(Map<String, List<double[]>> shapes, double cellSizeMeters) {
+        return of(ShapeTable.of(shapes), cellSizeMeters);
+    }
+
+    /** Indexes the points of the table, which is shared rather than copied. */
+    public static ShapeIndex of(ShapeTable shapes, double cellSizeMeters) {
+        return new ShapeIndex(shapes, PointGrid.of(shapes.lats(), shapes.lons(), cellSizeMeters));
+    }
+
+    /**
+     * Indexes only the points of the shapes the filter includes, e.g. those of one
+     * {@link TransitMode}. The table is shared rather than copied.
+     */
+    public static ShapeIndex of(ShapeTable shapes, double cellSizeMeters, IntPredicate includeShape) {
+        int size = (int) IntStream.range(0, shapes.size()).filter(includeShape).count();
+        return new ShapeIndex(shapes, PointGrid.of(shapes.lats(), shapes.lons(), cellSizeMeters,
+                point -> includeShape.test(shapes.shapeOf(point))), size);
+    }
+
+    /**
+     * Indexes the shapes of every mode on their own, all over the one table.
+     *
+     * @param shapeModes the mode of every shape; without it every shape is taken for a
+     *                   bus route and the other modes have no index
+     */
+    public static Map<TransitMode, ShapeIndex> byMode(ShapeTable shapes, double cellSizeMeters,
+            Map<String, TransitMode> shapeModes) {
+        Map<TransitMode, ShapeIndex> indexes = new EnumMap<>(TransitMode.class);
+        if (shapeModes == null) {
+            indexes.put(TransitMode.BUS, of(shapes, cellSizeMeters));
+            return indexes;
+        }
+        for (TransitMode mode : TransitMode.values())
+            indexes.put(mode, of(shapes, cellSizeMeters, shape -> shapeModes.get(shapes.id(shape)) == mode));
+        return indexes;
+    }
+
+    /**
+     * Finds the shape that passes within radiusMeters of the origin and, further along
+     * the shape, within radiusMeters of the destination, with the smallest sum of both
+     * distances.
+     *
+     * @return the match, or null when no shape serves the trip in this direction
+     */
+    public Match nearest(double fromLat, double fromLon, double toLat, double toLon, double radiusMeters) {
+        // nearest point of every shape near the origin
+        Map<Integer, double[]> boarding = new HashMap<>();
+        forEachPointNear(fromLat, fromLon, radiusMeters, (point, dist) -> {
+            int shape = shapeOf(point);
+            double[] best = boarding.get(shape);
+            if (best == null || dist < best[0])
+                boarding.put(shape, new double[] { dist, point });
+        });
+        if (boarding.isEmpty())
+            return null;
+
+        // nearest point near the destination that comes after the boarding point
+        Map<Integer, double[]> alighting = new HashMap<>();
+        forEachPointNear(toLat, toLon, radiusMeters, (point, dist) -> {
+            int shape = shapeOf(point);
+            double[] board = boarding.get(shape);
+            if (board == null || point <= (int) board[1])
+                return;
+            double[] best = alighting.get(shape);
+            if (best == null || dist < best[0])
+                alighting.put(shape, new double[] { dist, point });
+        });
+
+        Match match = null;
+        for (Map.Entry<Integer, double[]> alight : alighting.entrySet()) {
+            int shape = alight.getKey();
+            double[] board = boarding.get(shape);
+            double walk = board[0] + alight.getValue()[0];
+            if (match == null || walk < match.walkMeters) {
+                int first = shapes.start(shape);
+                match = new Match(shapes.id(shape), (int) board[1] - first, (int) alight.getValue()[1] - first, walk);
+            }
+        }
+        return match;
+    }
+
+    /** Number of shapes indexed, which may be fewer than the table holds. */
+    public int size() {
+        return size;
+    }
+
+    public ShapeTable getShapes() {
+        return shapes;
+    }
+
+    PointGrid grid() {
+        return grid;
+    }
+
+    private void forEachPointNear(double lat, double lon, double radiusMeters, PointGrid.Visitor visitor) {
+        grid.forEachPointNear(lat, lon, radiusMeters, visitor);
+    }
+
+    private int shapeOf(int point) {
+        return shapes.shapeOf(point);
+    }
+
+    /** A shape serving a trip, with the indexes of its points closest to both ends. */
+    public static final class Match {
+        private final String shapeId;
+        private final int boardIndex;
+        private final int alightIndex;
+        private final double walkMeters;
+
+        Match(String shapeId, int boardIndex, int alightIndex, double walkMeters) {
+            this.shapeId = shapeId;
+            this.boardIndex = boardIndex;
+            this.alightIndex = alightIndex;
+            this.walkMeters = walkMeters;
+        }
+
+        public String getShapeId() {
+            return shapeId;
+        }
+
+        public int getBoardIndex() {
+            return boardIndex;
+        }
+
+        public int getAlightIndex() {
+            return alightIndex;
+        }
+
+        /** Straight-line distance from the origin to the boarding point plus from the alighting point to the destination. */
+        public double getWalkMeters() {
+            return walkMeters;
+        }
+    }
+}
@@ -0,0 +1,205 @@
+package nl.ase_wayfinding.routecalc.service;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Nearest-point lookup on one GTFS shape. The shape's segments are grouped into
+ * blocks with a bounding box per block and per segment, so a query skips every
+ * block and segment that cannot be closer than the best match so far. Distances
+ * are compared on an equirectangular projection around the shape's mean
+ * latitude, which keeps trigonometry out of the inner loop and is accurate to
+ * well under a metre over the few kilometres between a user and a bus line.
+ * Instances are immutable.
+ */
+public final class ShapeSegments {
+
+    private static final double METERS_PER_DEGREE = 111_320d;
+    private static final int BLOCK_SIZE = 16;
+
+    private final double[] lats;
+    private final double[] lons;
+    // metres per degree of longitude at the shape's mean latitude
+    private final double lonScale;
+    // bounding box of segment s (from point s to s + 1), and of block b (segments b * BLOCK_SIZE onwards)
+    private final double[] segMinLat, segMaxLat, segMinLon, segMaxLon;
+    private final double[] blockMinLat, blockMaxLat, blockMinLon, blockMaxLon;
+
+    private ShapeSegments(double[] lats, double[] lons) {
+        this.lats = lats;
+        this.lons = lons;
+        double meanLat = 0;
+        for (double lat : lats)
+            meanLat += lat;
+        this.lonScale = METERS_PER_DEGREE * Math.cos(Math.toRadians(lats.length == 0 ? 0 : meanLat / lats.length));
+
+        int segments = Math.max(lats.length - 1, 0);
+        segMinLat = new double[segments];
+        segMaxLat = new double[segments];
+        segMinLon = new double[segments];
+        segMaxLon = new double[segments];
+        int blocks = (segments + BLOCK_SIZE - 1) / BLOCK_SIZE;
+        blockMinLat = new double[blocks];
+        blockMaxLat = new double[blocks];
+        blockMinLon = new double[blocks];
+        blockMaxLon = new double[blocks];
+        for (int s = 0; s < segments; s++) {
+            segMinLat[s] = Math.min(lats[s], lats[s + 1]);
+            segMaxLat[s] = Math.max(lats[s], lats[s + 1]);
+            segMinLon[s] = Math.min(lons[s], lons[s + 1]);
+            segMaxLon[s] = Math.max(lons[s], lons[s + 1]);
+            int b = s / BLOCK_SIZE;
+            boolean first = s % BLOCK_SIZE == 0;
+            blockMinLat[b] = first ? segMinLat[s] : Math.min(blockMinLat[b], segMinLat[s]);
+            blockMaxLat[b] = first ? segMaxLat[s] : Math.max(blockMaxLat[b], segMaxLat[s]);
+            blockMinLon[b] = first ? segMinLon[s] : Math.min(blockMinLon[b], segMinLon[s]);
+            blockMaxLon[b] = first ? segMaxLon[s] : Math.max(blockMaxLon[b], segMaxLon[s]);
+        }
+    }
+
+    /** @param shape shape points as [lon, lat], in travel order */
+    public static ShapeSegments of(List<double[]> shape) {
+        double[] lats = new double[shape.size()];
+        double[] lons = new double[shape.size()];
+        for (int i = 0; i < shape.size(); i++) {
+            lons[i] = shape.get(i)[0];
+            lats[i] = shape.get(i)[1];
+        }
+        return new ShapeSegments(lats, lons);
+    }
+
+    /**
+     * Projects the coordinate onto the nearest segment of the shape.
+     *
+     * @return the projected point, or null for a shape without points
+     */
+    public Projection project(double lat, double lon) {
+        return project(lat, lon, 0, segMinLat.length - 1);
+    }
+
+    /**
+     * Projects the coordinate onto the nearest of the segments fromSegment up to and
+     * including toSegment, e.g. to stay on one pass of a shape that doubles back.
+     *
+     * @return the projected point, or null for a shape without points
+     */
+    public Projection project(double lat, double lon, int fromSegment, int toSegment) {
+        if (lats.length == 0)
+            return null;
+        if (lats.length == 1)
+            return new Projection(0, 0, lats[0], lons[0], Math.sqrt(squaredMeters(lat, lon, lats[0], lons[0])));
+
+        fromSegment = Math.max(fromSegment, 0);
+        toSegment = Math.min(toSegment, segMinLat.length - 1);
+        int bestSegment = fromSegment;
+        double bestFraction = 0;
+        double best = Double.MAX_VALUE;
+        for (int b = fromSegment / BLOCK_SIZE; b <= toSegment / BLOCK_SIZE; b++) {
+            if (boxDistance(lat, lon, blockMinLat[b], blockMaxLat[b], blockMinLon[b], blockMaxLon[b]) >= best)
+                continue;
+            int end = Math.min((b + 1) * BLOCK_SIZE, toSegment + 1);
+            for (int s = Math.max(b * BLOCK_SIZE, fromSegment); s < end; s++) {
+                if (boxDistance(lat, lon, segMinLat[s], segMaxLat[s], segMinLon[s], segMaxLon[s]) >= best)
+                    continue;
+                // projection in metres relative to the segment start
+                double dx = (lons[s + 1] - lons[s]) * lonScale;
+                double dy = (lats[s + 1] - lats[s]) * METERS_PER_DEGREE;
+                double px = (lon - lons[s]) * lonScale;
+                double py = (lat - lats[s]) * METERS_PER_DEGREE;
+                double lengthSq = dx * dx + dy * dy;
+                double t = lengthSq == 0 ? 0 : Math.max(0, Math.min(1, (px * dx + py * dy) / lengthSq));
+                double ex = px - t * dx;
+                double ey = py - t * dy;
+                double dist = ex * ex + ey * ey;
+                if (dist < best) {
+                    best = dist;
+                    bestSegment = s;
+                    bestFraction = t;
+                }
+            }
+        }
+        int s = bestSegment;
+        // keep vertices exact rather than interpolating to them
+        if (bestFraction == 0)
+            return new Projection(s, 0, lats[s], lons[s], Math.sqrt(best));
+        if (bestFraction == 1)
+            return new Projection(s, 1, lats[s + 1], lons[s + 1], Math.sqrt(best));
+        return new Projection(s, bestFraction, lats[s] + bestFraction * (lats[s + 1] - lats[s]),
+                lons[s] + bestFraction * (lons[s + 1] - lons[s]), Math.sqrt(best));
+    }
+
+    /**
+     * @return the part of the shape between two projections, as [lon, lat] starting
+     *         and ending at the projected points
+     */
+    public List<double[]> slice(Projection from, Projection to) {
+        List<double[]> points = new ArrayList<>();
+        points.add(new double[] { from.lon, from.lat });
+        int first = from.segment + 1 + (from.fraction == 1 ? 1 : 0);
+        int last = to.fraction == 0 ? to.segment - 1 : to.segment;
+        for (int i = first; i <= last; i++)
+            points.add(new double[] { lons[i], lats[i] });
+        points.add(new double[] { to.lon, to.lat });
+        return points;
+    }
+
+    public int size() {
+        return lats.length;
+    }
+
+    /** Squared distance in metres from the coordinate to the box, 0 inside it. */
+    private double boxDistance(double lat, double lon, double minLat, double maxLat, double minLon, double maxLon) {
+        double dy = (lat < minLat ? minLat - lat : lat > maxLat ? lat - maxLat : 0) * METERS_PER_DEGREE;
+        double dx = (lon < minLon ? minLon - lon : lon > maxLon ? lon - maxLon : 0) * lonScale;
+        return dx * dx + dy * dy;
+    }
+
+    private double squaredMeters(double lat1, double lon1, double lat2, double lon2) {
+        double dy = (lat2 - lat1) * METERS_PER_DEGREE;
+        double dx = (lon2 - lon1) * lonScale;
+        return dx * dx + dy * dy;
+    }
+
+    /** A point on the shape: segment index and the fraction of the way along that segment. */
+    public static final class Projection {
+        private final int segment;
+        private final double fraction;
+        private final double lat;
+        private final double lon;
+        private final double distanceMeters;
+
+        Projection(int segment, double fraction, double lat, double lon, double distanceMeters) {
+            this.segment = segment;
+            this.fraction = fraction;
+            this.lat = lat;
+            this.lon = lon;
+            this.distanceMeters = distanceMeters;
+        }
+
+        /** Index of the shape point the segment starts at. */
+        public int getSegment() {
+            return segment;
+        }
+
+        public double getFraction() {
+            return fraction;
+        }
+
+        /** Position along the shape, for comparing two projections on the same shape. */
+        public double getPosition() {
+            return segment + fraction;
+        }
+
+        public double getLat() {
+            return lat;
+        }
+
+        public double getLon() {
+            return lon;
+        }
+
+        public double getDistanceMeters() {
+            return distanceMeters;
+        }
+    }
+}
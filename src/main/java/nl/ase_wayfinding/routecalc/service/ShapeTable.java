@@ -0,0 +1,264 @@
+package nl.ase_wayfinding.routecalc.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.file.Path;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+
+/**
+ * All GTFS shapes in columnar form: the points of every shape back to back in two
+ * primitive arrays, with the offset of each shape's first point. Shapes are read
+ * from shapes.txt in one streaming pass and their points ordered by
+ * shape_pt_sequence, or mapped from a {@link TransitCache} file. Instances are
+ * immutable.
+ */
+public final class ShapeTable {
+
+    private static final Logger logger = LoggerFactory.getLogger(ShapeTable.class);
+
+    private final String[] ids;
+    // points of shape s are start[s] up to start[s + 1]; heap arrays or a mapped cache file
+    private final IntBuffer start;
+    private final DoubleBuffer lats;
+    private final DoubleBuffer lons;
+
+    ShapeTable(String[] ids, int[] start, double[] lats, double[] lons) {
+        this(ids, IntBuffer.wrap(start), DoubleBuffer.wrap(lats), DoubleBuffer.wrap(lons));
+    }
+
+    ShapeTable(String[] ids, IntBuffer start, DoubleBuffer lats, DoubleBuffer lons) {
+        this.ids = ids;
+        this.start = start;
+        this.lats = lats;
+        this.lons = lons;
+    }
+
+    /** @param shapes shape points as [lon, lat], in travel order */
+    public static ShapeTable of(Map<String, List<double[]>> shapes) {
+        String[] ids = new String[shapes.size()];
+        int[] start = new int[shapes.size() + 1];
+        int total = 0;
+        for (List<double[]> shape : shapes.values())
+            total += shape.size();
+        double[] lats = new double[total];
+        double[] lons = new double[total];
+        int s = 0, p = 0;
+        for (Map.Entry<String, List<double[]>> shape : shapes.entrySet()) {
+            ids[s] = shape.getKey();
+            start[s++] = p;
+            for (double[] coord : shape.getValue()) {
+                lons[p] = coord[0];
+                lats[p++] = coord[1];
+            }
+        }
+        start[s] = p;
+        return new ShapeTable(ids, start, lats, lons);
+    }
+
+    /**
+     * Streams a GTFS shapes.txt. Columns are located by their header names
+     * (shape_id, shape_pt_lat, shape_pt_lon, shape_pt_sequence); a file without
+     * those names is read as shape_id, lat, lon, sequence in that order. Rows that
+     * are too short or do not parse are skipped.
+     */
+    public static ShapeTable read(Path shapesFile) throws IOException {
+        try (GtfsCsv csv = GtfsCsv.open(shapesFile)) {
+            int idCol = csv.column("shape_id", 0);
+            int latCol = csv.column("shape_pt_lat", 1);
+            int lonCol = csv.column("shape_pt_lon", 2);
+            int seqCol = csv.column("shape_pt_sequence", 3);
+            int needed = Math.max(Math.max(idCol, latCol), Math.max(lonCol, seqCol)) + 1;
+
+            Map<String, Integer> ordinals = new HashMap<>();
+            List<String> ids = new ArrayList<>();
+            int[] shapeOf = new int[1024];
+            int[] sequence = new int[1024];
+            double[] lats = new double[1024];
+            double[] lons = new double[1024];
+            int rows = 0;
+            int skipped = 0;
+            while (csv.next()) {
+                if (csv.size() < needed) {
+                    skipped++;
+                    continue;
+                }
+                double lat, lon;
+                int seq;
+                try {
+                    lat = Double.parseDouble(csv.get(latCol));
+                    lon = Double.parseDouble(csv.get(lonCol));
+                    seq = (int) Double.parseDouble(csv.get(seqCol));
+                } catch (NumberFormatException e) {
+                    skipped++;
+                    continue;
+                }
+                if (rows == lats.length) {
+                    int capacity = rows + (rows >> 1);
+                    shapeOf = Arrays.copyOf(shapeOf, capacity);
+                    sequence = Arrays.copyOf(sequence, capacity);
+                    lats = Arrays.copyOf(lats, capacity);
+                    lons = Arrays.copyOf(lons, capacity);
+                }
+                String id = csv.get(idCol);
+                Integer ordinal = ordinals.get(id);
+                if (ordinal == null) {
+                    ordinal = ids.size();
+                    ordinals.put(id, ordinal);
+                    ids.add(id);
+                }
+                shapeOf[rows] = ordinal;
+                sequence[rows] = seq;
+                lats[rows] = lat;
+                lons[rows] = lon;
+                rows++;
+            }
+            if (skipped > 0)
+                logger.warn("Skipped {} unreadable rows in {}", skipped, shapesFile);
+            return group(ids.toArray(new String[0]), shapeOf, sequence, lats, lons, rows);
+        }
+    }
+
+    /** Groups the rows by shape, in order of first appearance, and sorts each shape by sequence. */
+    private static ShapeTable group(String[] ids, int[] shapeOf, int[] sequence, double[] rowLats,
+            double[] rowLons, int rows) {
+        int[] start = new int[ids.length + 1];
+        for (int r = 0; r < rows; r++)
+            start[shapeOf[r] + 1]++;
+        for (int s = 0; s < ids.length; s++)
+            start[s + 1] += start[s];
+        int[] fill = Arrays.copyOf(start, ids.length);
+        int[] order = new int[rows];
+        for (int r = 0; r < rows; r++)
+            order[fill[shapeOf[r]]++] = r;
+
+        double[] lats = new double[rows];
+        double[] lons = new double[rows];
+        for (int s = 0; s < ids.length; s++) {
+            int from = start[s], to = start[s + 1];
+            boolean sorted = true;
+            for (int i = from + 1; i < to && sorted; i++)
+                sorted = sequence[order[i - 1]] <= sequence[order[i]];
+            if (!sorted) {
+                // feeds are normally in sequence order already, only shuffled shapes pay for this
+                long[] keyed = new long[to - from];
+                for (int i = from; i < to; i++)
+                    keyed[i - from] = ((long) sequence[order[i]] << 32) | order[i];
+                Arrays.sort(keyed);
+                for (int i = from; i < to; i++)
+                    order[i] = (int) keyed[i - from];
+            }
+            for (int i = from; i < to; i++) {
+                lats[i] = rowLats[order[i]];
+                lons[i] = rowLons[order[i]];
+            }
+        }
+        return new ShapeTable(ids, start, lats, lons);
+    }
+
+    public int size() {
+        return ids.length;
+    }
+
+    public String id(int shape) {
+        return ids[shape];
+    }
+
+    /** Index of the first point of the shape. */
+    public int start(int shape) {
+        return start.get(shape);
+    }
+
+    /** Index after the last point of the shape. */
+    public int end(int shape) {
+        return start.get(shape + 1);
+    }
+
+    public int pointCount() {
+        return lats.limit();
+    }
+
+    public double lat(int point) {
+        return lats.get(point);
+    }
+
+    public double lon(int point) {
+        return lons.get(point);
+    }
+
+    /** @return the shape the point belongs to */
+    public int shapeOf(int point) {
+        int lo = 0, hi = ids.length - 1;
+        // last shape starting at or before the point, which skips empty shapes at the same offset
+        while (lo < hi) {
+            int mid = (lo + hi + 1) >>> 1;
+            if (start.get(mid) <= point)
+                lo = mid;
+            else
+                hi = mid - 1;
+        }
+        return lo;
+    }
+
+    String[] ids() {
+        return ids;
+    }
+
+    IntBuffer starts() {
+        return start.duplicate();
+    }
+
+    DoubleBuffer lats() {
+        return lats.duplicate();
+    }
+
+    DoubleBuffer lons() {
+        return lons.duplicate();
+    }
+
+    /** @return the points of the shape as a read-only [lon, lat] view over the packed arrays */
+    public List<double[]> points(int shape) {
+        return new PointView(start(shape), end(shape));
+    }
+
+    /** @return every shape by id, as views over the packed arrays */
+    public Map<String, List<double[]>> asMap() {
+        Map<String, List<double[]>> shapes = new LinkedHashMap<>();
+        for (int s = 0; s < ids.length; s++)
+            shapes.put(ids[s], points(s));
+        return Collections.unmodifiableMap(shapes);
+    }
+
+    private final class PointView extends AbstractList<double[]> implements RandomAccess {
+        private final int from;
+        private final int to;
+
+        PointView(int from, int to) {
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        public double[] get(int index) {
+            if (index < 0 || index >= to - from)
+                throw new IndexOutOfBoundsException(index);
+            return new double[] { lons.get(from + index), lats.get(from + index) };
+        }
+
+        @Override
+        public int size() {
+            return to - from;
+        }
+    }
+}
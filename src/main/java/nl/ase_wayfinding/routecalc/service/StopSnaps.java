@@ -0,0 +1,296 @@
+package nl.ase_wayfinding.routecalc.service;
+
+import com.graphhopper.routing.util.EdgeFilter;
+import com.graphhopper.storage.BaseGraph;
+import com.graphhopper.storage.index.LocationIndex;
+import com.graphhopper.storage.index.Snap;
+import com.graphhopper.util.shapes.BBox;
+import com.graphhopper.util.shapes.GHPoint3D;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * Every GTFS stop snapped once onto the walk network. Walking legs start and end
+ * at a stop's snapped point, and {@link #wrap} hands GraphHopper the stored snap
+ * for that point instead of searching the location index again. The snaps are
+ * kept in a file next to the graph cache and reused while neither the graph nor
+ * the stops change.
+ *
+ * <pre>
+ * int magic, int version, long graph key, long stops key, int stops,
+ * stops x (int edge key or -1, int node, int way index, byte position,
+ *          double lat, double lon, double ele, double offset)
+ * </pre>
+ */
+public final class StopSnaps {
+
+    private static final int MAGIC = 0x52435353; // "RCSS"
+    static final int VERSION = 1;
+    private static final Snap.Position[] POSITIONS = Snap.Position.values();
+    private static final double GRID_CELL_METERS = 250;
+
+    private final long graphKey;
+    private final long stopsKey;
+    // per stop; edgeKeys[s] is -1 for a stop with no walkable street nearby
+    private final int[] edgeKeys;
+    private final int[] nodes;
+    private final int[] wayIndexes;
+    private final byte[] positions;
+    private final double[] lats;
+    private final double[] lons;
+    private final double[] eles;
+    private final double[] offsets;
+    private final PointGrid grid;
+    // the snapped stops of each mode, by ordinal
+    private final PointGrid[] modeGrids;
+    private final Map<Long, Integer> stopsByPoint = new HashMap<>();
+
+    private StopSnaps(Timetable timetable, long graphKey, long stopsKey, int[] edgeKeys, int[] nodes,
+            int[] wayIndexes, byte[] positions, double[] lats, double[] lons, double[] eles, double[] offsets) {
+        this.graphKey = graphKey;
+        this.stopsKey = stopsKey;
+        this.edgeKeys = edgeKeys;
+        this.nodes = nodes;
+        this.wayIndexes = wayIndexes;
+        this.positions = positions;
+        this.lats = lats;
+        this.lons = lons;
+        this.eles = eles;
+        this.offsets = offsets;
+        for (int s = 0; s < edgeKeys.length; s++) {
+            if (edgeKeys[s] >= 0)
+                stopsByPoint.putIfAbsent(pointKey(lats[s], lons[s]), s);
+        }
+        // unsnapped stops stay out of the grids
+        DoubleBuffer gridLats = DoubleBuffer.wrap(lats);
+        DoubleBuffer gridLons = DoubleBuffer.wrap(lons);
+        this.grid = PointGrid.of(gridLats, gridLons, GRID_CELL_METERS, s -> edgeKeys[s] >= 0);
+        this.modeGrids = new PointGrid[TransitMode.values().length];
+        for (TransitMode mode : TransitMode.values()) {
+            modeGrids[mode.ordinal()] = PointGrid.of(gridLats, gridLons, GRID_CELL_METERS,
+                    s -> edgeKeys[s] >= 0 && timetable.serves(mode, s));
+        }
+    }
+
+    /**
+     * Snaps every stop of the timetable within maxSnapMeters of a street the filter accepts.
+     *
+     * @param graphKey identifies the graph the snaps are valid for
+     */
+    public static StopSnaps compute(Timetable timetable, LocationIndex index, EdgeFilter filter, long graphKey,
+            double maxSnapMeters) {
+        int n = timetable.stopCount();
+        int[] edgeKeys = new int[n];
+        int[] nodes = new int[n];
+        int[] wayIndexes = new int[n];
+        byte[] positions = new byte[n];
+        double[] lats = new double[n];
+        double[] lons = new double[n];
+        double[] eles = new double[n];
+        double[] offsets = new double[n];
+        for (int s = 0; s < n; s++) {
+            Snap snap = index.findClosest(timetable.stopLat(s), timetable.stopLon(s), filter);
+            if (!snap.isValid() || snap.getQueryDistance() > maxSnapMeters) {
+                edgeKeys[s] = -1;
+                lats[s] = timetable.stopLat(s);
+                lons[s] = timetable.stopLon(s);
+                continue;
+            }
+            GHPoint3D point = snap.getSnappedPoint();
+            edgeKeys[s] = snap.getClosestEdge().getEdgeKey();
+            nodes[s] = snap.getClosestNode();
+            wayIndexes[s] = snap.getWayIndex();
+            positions[s] = (byte) snap.getSnappedPosition().ordinal();
+            lats[s] = point.lat;
+            lons[s] = point.lon;
+            eles[s] = point.ele;
+            offsets[s] = snap.getQueryDistance();
+        }
+        return new StopSnaps(timetable, graphKey, stopsKey(timetable), edgeKeys, nodes, wayIndexes, positions, lats,
+                lons, eles, offsets);
+    }
+
+    /** CRC32 of the stop coordinates; snaps of other stops do not apply. */
+    static long stopsKey(Timetable timetable) {
+        CRC32 crc = new CRC32();
+        ByteBuffer buffer = ByteBuffer.allocate(16);
+        for (int s = 0; s < timetable.stopCount(); s++) {
+            buffer.clear();
+            buffer.putDouble(timetable.stopLat(s)).putDouble(timetable.stopLon(s));
+            crc.update(buffer.array());
+        }
+        return crc.getValue();
+    }
+
+    /**
+     * @return the snaps stored in the file, or null when it is missing or was written
+     *         by another version, for another graph or for other stops
+     */
+    public static StopSnaps read(Path file, long graphKey, Timetable timetable) throws IOException {
+        if (!Files.isRegularFile(file))
+            return null;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), 1 << 16))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION || in.readLong() != graphKey)
+                return null;
+            long stopsKey = in.readLong();
+            int n = in.readInt();
+            if (stopsKey != stopsKey(timetable) || n != timetable.stopCount())
+                return null;
+            int[] edgeKeys = new int[n];
+            int[] nodes = new int[n];
+            int[] wayIndexes = new int[n];
+            byte[] positions = new byte[n];
+            double[] lats = new double[n];
+            double[] lons = new double[n];
+            double[] eles = new double[n];
+            double[] offsets = new double[n];
+            for (int s = 0; s < n; s++) {
+                edgeKeys[s] = in.readInt();
+                nodes[s] = in.readInt();
+                wayIndexes[s] = in.readInt();
+                positions[s] = in.readByte();
+                lats[s] = in.readDouble();
+                lons[s] = in.readDouble();
+                eles[s] = in.readDouble();
+                offsets[s] = in.readDouble();
+            }
+            return new StopSnaps(timetable, graphKey, stopsKey, edgeKeys, nodes, wayIndexes, positions, lats, lons,
+                    eles, offsets);
+        }
+    }
+
+    /** Writes the snaps, replacing the file only once it is complete. */
+    public void write(Path file) throws IOException {
+        Path dir = file.toAbsolutePath().getParent();
+        Files.createDirectories(dir);
+        Path tmp = Files.createTempFile(dir, file.getFileName().toString(), ".tmp");
+        try {
+            try (DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(Files.newOutputStream(tmp), 1 << 16))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeLong(graphKey);
+                out.writeLong(stopsKey);
+                out.writeInt(edgeKeys.length);
+                for (int s = 0; s < edgeKeys.length; s++) {
+                    out.writeInt(edgeKeys[s]);
+                    out.writeInt(nodes[s]);
+                    out.writeInt(wayIndexes[s]);
+                    out.writeByte(positions[s]);
+                    out.writeDouble(lats[s]);
+                    out.writeDouble(lons[s]);
+                    out.writeDouble(eles[s]);
+                    out.writeDouble(offsets[s]);
+                }
+            }
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    public int size() {
+        return edgeKeys.length;
+    }
+
+    public int snappedCount() {
+        return (int) Arrays.stream(edgeKeys).filter(key -> key >= 0).count();
+    }
+
+    public boolean isSnapped(int stop) {
+        return edgeKeys[stop] >= 0;
+    }
+
+    /** Where walking legs to and from the stop start on the street, or the stop itself when it has no snap. */
+    public double lat(int stop) {
+        return lats[stop];
+    }
+
+    public double lon(int stop) {
+        return lons[stop];
+    }
+
+    /** Straight-line meters between the stop and its snapped point. */
+    public double offsetMeters(int stop) {
+        return offsets[stop];
+    }
+
+    /**
+     * Calls the visitor for every snapped stop whose street point lies within
+     * radiusMeters, with the distance to that point plus the stop's own offset.
+     */
+    void forEachStopNear(double lat, double lon, double radiusMeters, PointGrid.Visitor visitor) {
+        grid.forEachPointNear(lat, lon, radiusMeters, (stop, meters) -> visitor.visit(stop, meters + offsets[stop]));
+    }
+
+    /** Like {@link #forEachStopNear(double, double, double, PointGrid.Visitor)}, for the stops of one mode. */
+    void forEachStopNear(TransitMode mode, double lat, double lon, double radiusMeters, PointGrid.Visitor visitor) {
+        modeGrids[mode.ordinal()].forEachPointNear(lat, lon, radiusMeters,
+                (stop, meters) -> visitor.visit(stop, meters + offsets[stop]));
+    }
+
+    /** @return the stop snapped exactly onto the point, or -1 */
+    int stopAt(double lat, double lon) {
+        Integer stop = stopsByPoint.get(pointKey(lat, lon));
+        return stop != null && lats[stop] == lat && lons[stop] == lon ? stop : -1;
+    }
+
+    /** Rebuilds the stored snap of the stop; snaps are changed by routing, so every lookup gets a fresh one. */
+    Snap snap(int stop, BaseGraph graph) {
+        Snap snap = new Snap(lats[stop], lons[stop]);
+        snap.setClosestEdge(graph.getEdgeIteratorStateForKey(edgeKeys[stop]));
+        snap.setClosestNode(nodes[stop]);
+        snap.setWayIndex(wayIndexes[stop]);
+        snap.setSnappedPosition(POSITIONS[positions[stop]]);
+        snap.setSnappedPoint(new GHPoint3D(lats[stop], lons[stop], eles[stop]));
+        snap.setQueryDistance(0);
+        return snap;
+    }
+
+    /**
+     * @return a location index answering lookups at a stop's snapped point with the
+     *         stored snap, when the request's filter accepts its edge; every other
+     *         lookup goes to the delegate
+     */
+    public LocationIndex wrap(LocationIndex delegate, BaseGraph graph) {
+        return new LocationIndex() {
+            @Override
+            public Snap findClosest(double lat, double lon, EdgeFilter edgeFilter) {
+                int stop = stopAt(lat, lon);
+                if (stop >= 0) {
+                    Snap snap = snap(stop, graph);
+                    if (edgeFilter.accept(snap.getClosestEdge()))
+                        return snap;
+                }
+                return delegate.findClosest(lat, lon, edgeFilter);
+            }
+
+            @Override
+            public void query(BBox queryBBox, Visitor function) {
+                delegate.query(queryBBox, function);
+            }
+
+            @Override
+            public void close() {
+                delegate.close();
+            }
+        };
+    }
+
+    private static long pointKey(double lat, double lon) {
+        return Double.doubleToLongBits(lat) * 31 + Double.doubleToLongBits(lon);
+    }
+}
@@ -0,0 +1,1047 @@
+package nl.ase_wayfinding.routecalc.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A GTFS timetable in the compact arrays a {@link Raptor} search scans. Trips of
+ * one route that call at the same stops in the same order form a pattern. The
+ * stop times of a pattern's trips lie next to each other, ordered by departure, so
+ * finding the first trip to catch at a stop is a binary search. Times are seconds
+ * after the start of the service day and may run past midnight. Instances are
+ * immutable.
+ *
+ * <p>A parsed timetable can be kept in a cache file, see {@link #writeCache}; the
+ * stop times, by far its largest part, are then used straight from the mapping.
+ */
+public final class Timetable {
+
+    private static final Logger logger = LoggerFactory.getLogger(Timetable.class);
+
+    /** Transfer time of a footpath the feed forbids. */
+    static final int NO_TRANSFER = -1;
+
+    private static final int MAGIC = 0x52435454; // "RCTT"
+    static final int VERSION = 1;
+
+    // the feed files read, in checksum order
+    private static final List<String> SOURCES = List.of("stops.txt", "routes.txt", "calendar.txt",
+            "calendar_dates.txt", "trips.txt", "stop_times.txt", "transfers.txt");
+
+    // stops
+    private final String[] stopIds;
+    private final String[] stopNames;
+    private final double[] stopLats;
+    private final double[] stopLons;
+    private final PointGrid stopGrid;
+    // the stops served by each mode and their grids, by ordinal
+    private final BitSet[] modeStops;
+    private final PointGrid[] modeStopGrids;
+
+    // routes
+    private final String[] routeNames;
+    private final int[] routeTypes;
+
+    // pattern p calls at patternStops[patternStopStart[p]] up to patternStopStart[p + 1]
+    // and runs trips patternTripStart[p] up to patternTripStart[p + 1], ordered by departure
+    private final int[] patternRoutes;
+    private final TransitMode[] patternModes;
+    private final int[] patternStopStart;
+    private final int[] patternStops;
+    private final int[] patternTripStart;
+
+    // trip t stops at position i of its pattern at arrivals/departures[tripTimeStart[t] + i]
+    private final String[] tripIds;
+    private final String[] tripHeadsigns;
+    private final String[] tripShapeIds;
+    private final int[] tripServices;
+    private final int[] tripTimeStart;
+    private final IntBuffer arrivals;
+    private final IntBuffer departures;
+
+    // stop s is served at position stopPatternPositions[j] of pattern stopPatterns[j],
+    // for j from stopPatternStart[s] up to stopPatternStart[s + 1]
+    private final int[] stopPatternStart;
+    private final int[] stopPatterns;
+    private final int[] stopPatternPositions;
+
+    private final Footpaths transfers;
+
+    private final ServiceCalendar calendar;
+
+    private Timetable(Builder b) {
+        this.stopIds = b.stopIds;
+        this.stopNames = b.stopNames;
+        this.stopLats = b.stopLats;
+        this.stopLons = b.stopLons;
+        this.stopGrid = PointGrid.of(DoubleBuffer.wrap(stopLats), DoubleBuffer.wrap(stopLons), 250);
+        this.routeNames = b.routeNames;
+        this.routeTypes = b.routeTypes;
+        this.patternRoutes = b.patternRoutes;
+        this.patternStopStart = b.patternStopStart;
+        this.patternStops = b.patternStops;
+        this.patternTripStart = b.patternTripStart;
+        this.tripIds = b.tripIds;
+        this.tripHeadsigns = b.tripHeadsigns;
+        this.tripShapeIds = b.tripShapeIds;
+        this.tripServices = b.tripServices;
+        this.tripTimeStart = b.tripTimeStart;
+        this.arrivals = b.arrivals;
+        this.departures = b.departures;
+        this.transfers = b.transfers;
+        this.calendar = b.calendar;
+
+        // which patterns serve each stop, and where in the pattern
+        int stops = stopIds.length;
+        this.stopPatternStart = new int[stops + 1];
+        for (int i = 0; i < patternStops.length; i++)
+            stopPatternStart[patternStops[i] + 1]++;
+        for (int s = 0; s < stops; s++)
+            stopPatternStart[s + 1] += stopPatternStart[s];
+        this.stopPatterns = new int[patternStops.length];
+        this.stopPatternPositions = new int[patternStops.length];
+        int[] fill = Arrays.copyOf(stopPatternStart, stops);
+        for (int p = 0; p < patternCount(); p++) {
+            for (int i = patternStopStart[p]; i < patternStopStart[p + 1]; i++) {
+                int j = fill[patternStops[i]]++;
+                stopPatterns[j] = p;
+                stopPatternPositions[j] = i - patternStopStart[p];
+            }
+        }
+
+        // one network per mode, each with its own stops
+        this.patternModes = new TransitMode[patternCount()];
+        this.modeStops = new BitSet[TransitMode.values().length];
+        for (int m = 0; m < modeStops.length; m++)
+            modeStops[m] = new BitSet(stops);
+        for (int p = 0; p < patternCount(); p++) {
+            patternModes[p] = TransitMode.of(routeTypes[patternRoutes[p]]);
+            if (patternModes[p] == null)
+                continue;
+            for (int i = patternStopStart[p]; i < patternStopStart[p + 1]; i++)
+                modeStops[patternModes[p].ordinal()].set(patternStops[i]);
+        }
+        this.modeStopGrids = new PointGrid[modeStops.length];
+        for (int m = 0; m < modeStops.length; m++) {
+            BitSet served = modeStops[m];
+            modeStopGrids[m] = PointGrid.of(DoubleBuffer.wrap(stopLats), DoubleBuffer.wrap(stopLons), 250,
+                    served::get);
+        }
+    }
+
+    private Timetable(Timetable base, Footpaths transfers) {
+        this.stopIds = base.stopIds;
+        this.stopNames = base.stopNames;
+        this.stopLats = base.stopLats;
+        this.stopLons = base.stopLons;
+        this.stopGrid = base.stopGrid;
+        this.modeStops = base.modeStops;
+        this.modeStopGrids = base.modeStopGrids;
+        this.routeNames = base.routeNames;
+        this.routeTypes = base.routeTypes;
+        this.patternRoutes = base.patternRoutes;
+        this.patternModes = base.patternModes;
+        this.patternStopStart = base.patternStopStart;
+        this.patternStops = base.patternStops;
+        this.patternTripStart = base.patternTripStart;
+        this.tripIds = base.tripIds;
+        this.tripHeadsigns = base.tripHeadsigns;
+        this.tripShapeIds = base.tripShapeIds;
+        this.tripServices = base.tripServices;
+        this.tripTimeStart = base.tripTimeStart;
+        this.arrivals = base.arrivals;
+        this.departures = base.departures;
+        this.stopPatternStart = base.stopPatternStart;
+        this.stopPatterns = base.stopPatterns;
+        this.stopPatternPositions = base.stopPatternPositions;
+        this.transfers = transfers;
+        this.calendar = base.calendar;
+    }
+
+    /**
+     * Reads stops.txt, routes.txt, trips.txt, stop_times.txt and, when present,
+     * calendar.txt, calendar_dates.txt and transfers.txt from the feed directory.
+     */
+    public static Timetable read(Path gtfsDir) throws IOException {
+        Builder b = new Builder();
+        b.readStops(gtfsDir.resolve("stops.txt"));
+        b.readRoutes(gtfsDir.resolve("routes.txt"));
+        b.calendar = ServiceCalendar.read(gtfsDir.resolve("calendar.txt"), gtfsDir.resolve("calendar_dates.txt"));
+        b.readTrips(gtfsDir.resolve("trips.txt"));
+        b.readStopTimes(gtfsDir.resolve("stop_times.txt"));
+        b.readTransfers(gtfsDir.resolve("transfers.txt"));
+        return new Timetable(b);
+    }
+
+    /**
+     * Reads only routes.txt and trips.txt, to tell which mode runs along each shape
+     * when there is no timetable. A shape shared by several modes keeps the first.
+     *
+     * @return the mode of every shape a trip of a covered route type follows
+     */
+    public static Map<String, TransitMode> readShapeModes(Path gtfsDir) throws IOException {
+        Builder b = new Builder();
+        b.readRoutes(gtfsDir.resolve("routes.txt"));
+        Map<String, TransitMode> modes = new HashMap<>();
+        try (GtfsCsv csv = GtfsCsv.open(gtfsDir.resolve("trips.txt"))) {
+            int routeCol = csv.column("route_id");
+            int shapeCol = csv.column("shape_id");
+            while (csv.next()) {
+                Integer route = b.routeOrdinals.get(csv.get(routeCol));
+                String shapeId = csv.get(shapeCol);
+                TransitMode mode = route == null ? null : TransitMode.of(b.routeTypes[route]);
+                if (mode != null && !shapeId.isEmpty())
+                    modes.putIfAbsent(shapeId, mode);
+            }
+        }
+        return modes;
+    }
+
+    /** @return the files of the feed a timetable is read from that exist, for {@link TransitCache#checksum} */
+    public static Path[] sources(Path gtfsDir) {
+        return SOURCES.stream().map(gtfsDir::resolve).filter(Files::exists).toArray(Path[]::new);
+    }
+
+    /**
+     * Maps a timetable from a file written by {@link #writeCache}.
+     *
+     * @return the timetable, or null when the file is missing or was written by another
+     *         version or for another feed
+     */
+    public static Timetable readCache(Path file, long checksum) throws IOException {
+        ByteBuffer in = TransitCache.map(file);
+        if (in == null || in.getInt() != MAGIC || in.getInt() != VERSION || in.getLong() != checksum)
+            return null;
+        int stops = in.getInt();
+        int routes = in.getInt();
+        int patterns = in.getInt();
+        int patternStops = in.getInt();
+        int trips = in.getInt();
+        int stopTimes = in.getInt();
+        int transfers = in.getInt();
+
+        Builder b = new Builder();
+        b.stopIds = getStrings(in, stops);
+        b.stopNames = getStrings(in, stops);
+        b.stopLats = getDoubles(in, stops);
+        b.stopLons = getDoubles(in, stops);
+        b.routeNames = getStrings(in, routes);
+        b.routeTypes = getInts(in, routes);
+        b.patternRoutes = getInts(in, patterns);
+        b.patternStopStart = getInts(in, patterns + 1);
+        b.patternStops = getInts(in, patternStops);
+        b.patternTripStart = getInts(in, patterns + 1);
+        b.tripIds = getStrings(in, trips);
+        b.tripHeadsigns = getStrings(in, trips);
+        b.tripShapeIds = getStrings(in, trips);
+        b.tripServices = getInts(in, trips);
+        b.tripTimeStart = getInts(in, trips);
+        b.transfers = new Footpaths(getInts(in, stops + 1), getInts(in, transfers), getInts(in, transfers));
+        b.calendar = ServiceCalendar.get(in);
+        b.arrivals = TransitCache.slice(in, stopTimes * 4L).asIntBuffer();
+        b.departures = TransitCache.slice(in, stopTimes * 4L).asIntBuffer();
+        if (in.hasRemaining())
+            return null;
+        return new Timetable(b);
+    }
+
+    /**
+     * Writes the timetable as read from the feed, with the checksum of its files,
+     * replacing the file only once it is complete. Footpaths added later are left out.
+     */
+    public void writeCache(Path file, long checksum) throws IOException {
+        Path dir = file.toAbsolutePath().getParent();
+        Files.createDirectories(dir);
+        Path tmp = Files.createTempFile(dir, file.getFileName().toString(), ".tmp");
+        try {
+            try (DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(Files.newOutputStream(tmp), 1 << 16))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeLong(checksum);
+                out.writeInt(stopIds.length);
+                out.writeInt(routeNames.length);
+                out.writeInt(patternRoutes.length);
+                out.writeInt(patternStops.length);
+                out.writeInt(tripIds.length);
+                out.writeInt(arrivals.limit());
+                out.writeInt(transfers.size());
+                writeStrings(out, stopIds);
+                writeStrings(out, stopNames);
+                for (double lat : stopLats)
+                    out.writeDouble(lat);
+                for (double lon : stopLons)
+                    out.writeDouble(lon);
+                writeStrings(out, routeNames);
+                writeInts(out, routeTypes);
+                writeInts(out, patternRoutes);
+                writeInts(out, patternStopStart);
+                writeInts(out, patternStops);
+                writeInts(out, patternTripStart);
+                writeStrings(out, tripIds);
+                writeStrings(out, tripHeadsigns);
+                writeStrings(out, tripShapeIds);
+                writeInts(out, tripServices);
+                writeInts(out, tripTimeStart);
+                for (int s = 0; s <= stopIds.length; s++)
+                    out.writeInt(s < stopIds.length ? transfers.start(s) : transfers.size());
+                for (int j = 0; j < transfers.size(); j++)
+                    out.writeInt(transfers.target(j));
+                for (int j = 0; j < transfers.size(); j++)
+                    out.writeInt(transfers.seconds(j));
+                calendar.write(out);
+                TransitCache.writeInts(out, arrivals.duplicate());
+                TransitCache.writeInts(out, departures.duplicate());
+            }
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    private static void writeStrings(DataOutputStream out, String[] values) throws IOException {
+        for (String value : values)
+            TransitCache.writeString(out, value);
+    }
+
+    private static void writeInts(DataOutputStream out, int[] values) throws IOException {
+        for (int value : values)
+            out.writeInt(value);
+    }
+
+    private static String[] getStrings(ByteBuffer in, int n) throws IOException {
+        String[] values = new String[n];
+        for (int i = 0; i < n; i++)
+            values[i] = TransitCache.getString(in);
+        return values;
+    }
+
+    private static int[] getInts(ByteBuffer in, int n) throws IOException {
+        int[] values = new int[n];
+        TransitCache.slice(in, n * 4L).asIntBuffer().get(values);
+        return values;
+    }
+
+    private static double[] getDoubles(ByteBuffer in, int n) throws IOException {
+        double[] values = new double[n];
+        TransitCache.slice(in, n * 8L).asDoubleBuffer().get(values);
+        return values;
+    }
+
+    public int stopCount() {
+        return stopIds.length;
+    }
+
+    public int patternCount() {
+        return patternRoutes.length;
+    }
+
+    public int tripCount() {
+        return tripIds.length;
+    }
+
+    public String stopId(int stop) {
+        return stopIds[stop];
+    }
+
+    public String stopName(int stop) {
+        return stopNames[stop];
+    }
+
+    public double stopLat(int stop) {
+        return stopLats[stop];
+    }
+
+    public double stopLon(int stop) {
+        return stopLons[stop];
+    }
+
+    /** Calls the visitor for every stop within radiusMeters of the coordinate. */
+    void forEachStopNear(double lat, double lon, double radiusMeters, PointGrid.Visitor visitor) {
+        stopGrid.forEachPointNear(lat, lon, radiusMeters, visitor);
+    }
+
+    /** Calls the visitor for every stop of the mode within radiusMeters of the coordinate. */
+    void forEachStopNear(TransitMode mode, double lat, double lon, double radiusMeters, PointGrid.Visitor visitor) {
+        modeStopGrids[mode.ordinal()].forEachPointNear(lat, lon, radiusMeters, visitor);
+    }
+
+    /** Whether a pattern of the mode calls at the stop. */
+    public boolean serves(TransitMode mode, int stop) {
+        return modeStops[mode.ordinal()].get(stop);
+    }
+
+    /** Number of stops a pattern of the mode calls at. */
+    public int stopCount(TransitMode mode) {
+        return modeStops[mode.ordinal()].cardinality();
+    }
+
+    int patternOf(int trip) {
+        // trips are numbered pattern by pattern
+        int lo = 0, hi = patternCount() - 1;
+        while (lo < hi) {
+            int mid = (lo + hi + 1) >>> 1;
+            if (patternTripStart[mid] <= trip)
+                lo = mid;
+            else
+                hi = mid - 1;
+        }
+        return lo;
+    }
+
+    int patternRoute(int pattern) {
+        return patternRoutes[pattern];
+    }
+
+    /** @return the mode of the pattern's route, or null when no mode covers its route type */
+    TransitMode patternMode(int pattern) {
+        return patternModes[pattern];
+    }
+
+    int patternSize(int pattern) {
+        return patternStopStart[pattern + 1] - patternStopStart[pattern];
+    }
+
+    int patternStop(int pattern, int position) {
+        return patternStops[patternStopStart[pattern] + position];
+    }
+
+    int firstTrip(int pattern) {
+        return patternTripStart[pattern];
+    }
+
+    int endTrip(int pattern) {
+        return patternTripStart[pattern + 1];
+    }
+
+    public String routeName(int route) {
+        return routeNames[route];
+    }
+
+    /** GTFS route_type of the route, 3 for bus. */
+    public int routeType(int route) {
+        return routeTypes[route];
+    }
+
+    public String tripId(int trip) {
+        return tripIds[trip];
+    }
+
+    public String tripHeadsign(int trip) {
+        return tripHeadsigns[trip];
+    }
+
+    /** @return the shape_id of the trip, or an empty string when the feed has none */
+    public String tripShapeId(int trip) {
+        return tripShapeIds[trip];
+    }
+
+    int arrival(int trip, int position) {
+        return arrivals.get(tripTimeStart[trip] + position);
+    }
+
+    int departure(int trip, int position) {
+        return departures.get(tripTimeStart[trip] + position);
+    }
+
+    int tripService(int trip) {
+        return tripServices[trip];
+    }
+
+    int stopPatternStart(int stop) {
+        return stopPatternStart[stop];
+    }
+
+    int stopPatternEnd(int stop) {
+        return stopPatternStart[stop + 1];
+    }
+
+    int stopPattern(int j) {
+        return stopPatterns[j];
+    }
+
+    int stopPatternPosition(int j) {
+        return stopPatternPositions[j];
+    }
+
+    int transferStart(int stop) {
+        return transfers.start(stop);
+    }
+
+    int transferEnd(int stop) {
+        return transfers.end(stop);
+    }
+
+    int transferTarget(int j) {
+        return transfers.target(j);
+    }
+
+    int transferSeconds(int j) {
+        return transfers.seconds(j);
+    }
+
+    int transferCount() {
+        return transfers.size();
+    }
+
+    /**
+     * @return this timetable with the footpaths added to the feed's transfers; a
+     *         transfer the feed gives between the same two stops is kept
+     */
+    Timetable withFootpaths(Footpaths footpaths) {
+        return new Timetable(this, transfers.merge(footpaths));
+    }
+
+    /** @return the services running on the date, by service ordinal */
+    BitSet activeServices(LocalDate date) {
+        return calendar.active(date);
+    }
+
+    /** Accumulates the feed while it is read, then lays it out into the final arrays. */
+    private static final class Builder {
+        String[] stopIds;
+        String[] stopNames;
+        double[] stopLats;
+        double[] stopLons;
+        final Map<String, Integer> stopOrdinals = new HashMap<>();
+
+        String[] routeNames;
+        int[] routeTypes;
+        final Map<String, Integer> routeOrdinals = new HashMap<>();
+
+        ServiceCalendar calendar;
+
+        // trips as read from trips.txt
+        final Map<String, Integer> rawTripOrdinals = new HashMap<>();
+        final List<String> rawTripIds = new ArrayList<>();
+        final List<String> rawHeadsigns = new ArrayList<>();
+        final List<String> rawShapeIds = new ArrayList<>();
+        int[] rawTripRoutes = new int[1024];
+        int[] rawTripServices = new int[1024];
+
+        int[] patternRoutes;
+        int[] patternStopStart;
+        int[] patternStops;
+        int[] patternTripStart;
+        String[] tripIds;
+        String[] tripHeadsigns;
+        String[] tripShapeIds;
+        int[] tripServices;
+        int[] tripTimeStart;
+        IntBuffer arrivals;
+        IntBuffer departures;
+        Footpaths transfers;
+
+        void readStops(Path file) throws IOException {
+            List<String> ids = new ArrayList<>();
+            List<String> names = new ArrayList<>();
+            double[] lats = new double[1024];
+            double[] lons = new double[1024];
+            try (GtfsCsv csv = GtfsCsv.open(file)) {
+                int idCol = csv.column("stop_id");
+                int nameCol = csv.column("stop_name");
+                int latCol = csv.column("stop_lat");
+                int lonCol = csv.column("stop_lon");
+                while (csv.next()) {
+                    double lat, lon;
+                    try {
+                        lat = Double.parseDouble(csv.get(latCol));
+                        lon = Double.parseDouble(csv.get(lonCol));
+                    } catch (NumberFormatException e) {
+                        continue;
+                    }
+                    int stop = ids.size();
+                    if (stop == lats.length) {
+                        lats = Arrays.copyOf(lats, stop * 2);
+                        lons = Arrays.copyOf(lons, stop * 2);
+                    }
+                    stopOrdinals.put(csv.get(idCol), stop);
+                    ids.add(csv.get(idCol));
+                    names.add(csv.get(nameCol));
+                    lats[stop] = lat;
+                    lons[stop] = lon;
+                }
+            }
+            stopIds = ids.toArray(new String[0]);
+            stopNames = names.toArray(new String[0]);
+            stopLats = Arrays.copyOf(lats, ids.size());
+            stopLons = Arrays.copyOf(lons, ids.size());
+        }
+
+        void readRoutes(Path file) throws IOException {
+            List<String> names = new ArrayList<>();
+            List<Integer> types = new ArrayList<>();
+            try (GtfsCsv csv = GtfsCsv.open(file)) {
+                int idCol = csv.column("route_id");
+                int shortCol = csv.column("route_short_name");
+                int longCol = csv.column("route_long_name");
+                int typeCol = csv.column("route_type");
+                while (csv.next()) {
+                    routeOrdinals.put(csv.get(idCol), names.size());
+                    String name = csv.get(shortCol);
+                    names.add(name.isEmpty() ? csv.get(longCol) : name);
+                    int type;
+                    try {
+                        type = Integer.parseInt(csv.get(typeCol));
+                    } catch (NumberFormatException e) {
+                        type = 3;
+                    }
+                    types.add(type);
+                }
+            }
+            routeNames = names.toArray(new String[0]);
+            routeTypes = types.stream().mapToInt(Integer::intValue).toArray();
+        }
+
+        void readTrips(Path file) throws IOException {
+            try (GtfsCsv csv = GtfsCsv.open(file)) {
+                int idCol = csv.column("trip_id");
+                int routeCol = csv.column("route_id");
+                int serviceCol = csv.column("service_id");
+                int shapeCol = csv.column("shape_id");
+                int headsignCol = csv.column("trip_headsign");
+                while (csv.next()) {
+                    Integer route = routeOrdinals.get(csv.get(routeCol));
+                    if (route == null)
+                        continue;
+                    int trip = rawTripIds.size();
+                    if (trip == rawTripRoutes.length) {
+                        rawTripRoutes = Arrays.copyOf(rawTripRoutes, trip * 2);
+                        rawTripServices = Arrays.copyOf(rawTripServices, trip * 2);
+                    }
+                    rawTripOrdinals.put(csv.get(idCol), trip);
+                    rawTripIds.add(csv.get(idCol));
+                    rawHeadsigns.add(csv.get(headsignCol));
+                    rawShapeIds.add(csv.get(shapeCol));
+                    rawTripRoutes[trip] = route;
+                    rawTripServices[trip] = calendar.ordinal(csv.get(serviceCol));
+                }
+            }
+        }
+
+        void readStopTimes(Path file) throws IOException {
+            int[] rowTrip = new int[1 << 16];
+            int[] rowSequence = new int[1 << 16];
+            int[] rowStop = new int[1 << 16];
+            int[] rowArrival = new int[1 << 16];
+            int[] rowDeparture = new int[1 << 16];
+            int rows = 0;
+            int skipped = 0;
+            try (GtfsCsv csv = GtfsCsv.open(file)) {
+                int tripCol = csv.column("trip_id");
+                int arrivalCol = csv.column("arrival_time");
+                int departureCol = csv.column("departure_time");
+                int stopCol = csv.column("stop_id");
+                int sequenceCol = csv.column("stop_sequence");
+                while (csv.next()) {
+                    Integer trip = rawTripOrdinals.get(csv.get(tripCol));
+                    Integer stop = stopOrdinals.get(csv.get(stopCol));
+                    if (trip == null || stop == null) {
+                        skipped++;
+                        continue;
+                    }
+                    int arrival, departure, sequence;
+                    try {
+                        arrival = GtfsCsv.parseTime(csv.get(arrivalCol));
+                        departure = GtfsCsv.parseTime(csv.get(departureCol));
+                        sequence = Integer.parseInt(csv.get(sequenceCol));
+                    } catch (NumberFormatException e) {
+                        skipped++;
+                        continue;
+                    }
+                    if (rows == rowTrip.length) {
+                        int capacity = rows + (rows >> 1);
+                        rowTrip = Arrays.copyOf(rowTrip, capacity);
+                        rowSequence = Arrays.copyOf(rowSequence, capacity);
+                        rowStop = Arrays.copyOf(rowStop, capacity);
+                        rowArrival = Arrays.copyOf(rowArrival, capacity);
+                        rowDeparture = Arrays.copyOf(rowDeparture, capacity);
+                    }
+                    rowTrip[rows] = trip;
+                    rowSequence[rows] = sequence;
+                    rowStop[rows] = stop;
+                    // a stop with only one of the two times arrives and departs at once
+                    rowArrival[rows] = arrival >= 0 ? arrival : departure;
+                    rowDeparture[rows] = departure >= 0 ? departure : arrival;
+                    rows++;
+                }
+            }
+            if (skipped > 0)
+                logger.warn("Skipped {} unreadable rows in {}", skipped, file);
+
+            // group the rows by trip, ordered by stop_sequence
+            int tripCount = rawTripIds.size();
+            int[] tripRowStart = new int[tripCount + 1];
+            for (int r = 0; r < rows; r++)
+                tripRowStart[rowTrip[r] + 1]++;
+            for (int t = 0; t < tripCount; t++)
+                tripRowStart[t + 1] += tripRowStart[t];
+            int[] fill = Arrays.copyOf(tripRowStart, tripCount);
+            int[] order = new int[rows];
+            for (int r = 0; r < rows; r++)
+                order[fill[rowTrip[r]]++] = r;
+            for (int t = 0; t < tripCount; t++)
+                sortBySequence(order, tripRowStart[t], tripRowStart[t + 1], rowSequence);
+
+            buildPatterns(tripRowStart, order, rowStop, rowArrival, rowDeparture);
+        }
+
+        private static void sortBySequence(int[] order, int from, int to, int[] sequence) {
+            for (int i = from + 1; i < to; i++) {
+                if (sequence[order[i - 1]] > sequence[order[i]]) {
+                    long[] keyed = new long[to - from];
+                    for (int j = from; j < to; j++)
+                        keyed[j - from] = ((long) sequence[order[j]] << 32) | order[j];
+                    Arrays.sort(keyed);
+                    for (int j = from; j < to; j++)
+                        order[j] = (int) keyed[j - from];
+                    return;
+                }
+            }
+        }
+
+        /** Fills in stop times the feed leaves empty, linearly between the timed stops around them. */
+        private static boolean interpolate(int[] times, int[] otherTimes) {
+            int n = times.length;
+            if (n == 0 || times[0] < 0 || times[n - 1] < 0)
+                return false;
+            int last = 0;
+            for (int i = 1; i < n; i++) {
+                if (times[i] < 0)
+                    continue;
+                for (int j = last + 1; j < i; j++) {
+                    times[j] = times[last] + (times[i] - times[last]) * (j - last) / (i - last);
+                    otherTimes[j] = times[j];
+                }
+                last = i;
+            }
+            return true;
+        }
+
+        private void buildPatterns(int[] tripRowStart, int[] order, int[] rowStop, int[] rowArrival,
+                int[] rowDeparture) {
+            int tripCount = rawTripIds.size();
+            Map<PatternKey, Integer> patternIds = new HashMap<>();
+            List<int[]> patternStopLists = new ArrayList<>();
+            List<Integer> patternRouteList = new ArrayList<>();
+            List<List<Integer>> patternTrips = new ArrayList<>();
+            int[][] tripArrivals = new int[tripCount][];
+            int[][] tripDepartures = new int[tripCount][];
+            for (int t = 0; t < tripCount; t++) {
+                int from = tripRowStart[t], n = tripRowStart[t + 1] - from;
+                if (n < 2)
+                    continue;
+                int[] stops = new int[n];
+                int[] arr = new int[n];
+                int[] dep = new int[n];
+                for (int i = 0; i < n; i++) {
+                    int r = order[from + i];
+                    stops[i] = rowStop[r];
+                    arr[i] = rowArrival[r];
+                    dep[i] = rowDeparture[r];
+                }
+                if (!interpolate(arr, dep) || !interpolate(dep, arr))
+                    continue;
+                tripArrivals[t] = arr;
+                tripDepartures[t] = dep;
+                PatternKey key = new PatternKey(rawTripRoutes[t], stops);
+                Integer pattern = patternIds.get(key);
+                if (pattern == null) {
+                    pattern = patternStopLists.size();
+                    patternIds.put(key, pattern);
+                    patternStopLists.add(stops);
+                    patternRouteList.add(rawTripRoutes[t]);
+                    patternTrips.add(new ArrayList<>());
+                }
+                patternTrips.get(pattern).add(t);
+            }
+            splitOvertaking(patternStopLists, patternRouteList, patternTrips, tripArrivals, tripDepartures);
+
+            int patterns = patternStopLists.size();
+            patternRoutes = new int[patterns];
+            patternStopStart = new int[patterns + 1];
+            patternTripStart = new int[patterns + 1];
+            int stopSlots = 0, tripSlots = 0, timeSlots = 0;
+            for (int p = 0; p < patterns; p++) {
+                stopSlots += patternStopLists.get(p).length;
+                tripSlots += patternTrips.get(p).size();
+                timeSlots += patternTrips.get(p).size() * patternStopLists.get(p).length;
+            }
+            patternStops = new int[stopSlots];
+            tripIds = new String[tripSlots];
+            tripHeadsigns = new String[tripSlots];
+            tripShapeIds = new String[tripSlots];
+            tripServices = new int[tripSlots];
+            tripTimeStart = new int[tripSlots];
+            int[] arrivals = new int[timeSlots];
+            int[] departures = new int[timeSlots];
+
+            int stopSlot = 0, trip = 0, timeSlot = 0;
+            for (int p = 0; p < patterns; p++) {
+                int[] stops = patternStopLists.get(p);
+                patternRoutes[p] = patternRouteList.get(p);
+                patternStopStart[p] = stopSlot;
+                System.arraycopy(stops, 0, patternStops, stopSlot, stops.length);
+                stopSlot += stops.length;
+
+                patternTripStart[p] = trip;
+                for (int raw : patternTrips.get(p)) {
+                    tripIds[trip] = rawTripIds.get(raw);
+                    tripHeadsigns[trip] = rawHeadsigns.get(raw);
+                    tripShapeIds[trip] = rawShapeIds.get(raw);
+                    tripServices[trip] = rawTripServices[raw];
+                    tripTimeStart[trip] = timeSlot;
+                    System.arraycopy(tripArrivals[raw], 0, arrivals, timeSlot, stops.length);
+                    System.arraycopy(tripDepartures[raw], 0, departures, timeSlot, stops.length);
+                    timeSlot += stops.length;
+                    trip++;
+                }
+            }
+            patternStopStart[patterns] = stopSlot;
+            patternTripStart[patterns] = trip;
+            this.arrivals = IntBuffer.wrap(arrivals);
+            this.departures = IntBuffer.wrap(departures);
+        }
+
+        /**
+         * Sorts the trips of each pattern by departure from the first stop and moves trips
+         * that overtake an earlier one into patterns of their own over the same stops, so
+         * that the times of every pattern are sorted at every stop as the search assumes.
+         */
+        private static void splitOvertaking(List<int[]> patternStopLists, List<Integer> patternRouteList,
+                List<List<Integer>> patternTrips, int[][] tripArrivals, int[][] tripDepartures) {
+            int patterns = patternStopLists.size();
+            for (int p = 0; p < patterns; p++) {
+                List<Integer> trips = new ArrayList<>(patternTrips.get(p));
+                trips.sort((a, c) -> Integer.compare(tripDepartures[a][0], tripDepartures[c][0]));
+                patternTrips.get(p).clear();
+                // each trip joins the first of the pattern's splits whose last trip it keeps behind
+                List<List<Integer>> split = new ArrayList<>();
+                split.add(patternTrips.get(p));
+                for (int t : trips) {
+                    List<Integer> into = null;
+                    for (List<Integer> candidate : split) {
+                        int last = candidate.isEmpty() ? -1 : candidate.get(candidate.size() - 1);
+                        if (last < 0 || !overtakes(tripArrivals[t], tripDepartures[t],
+                                tripArrivals[last], tripDepartures[last])) {
+                            into = candidate;
+                            break;
+                        }
+                    }
+                    if (into == null) {
+                        into = new ArrayList<>();
+                        split.add(into);
+                        patternStopLists.add(patternStopLists.get(p));
+                        patternRouteList.add(patternRouteList.get(p));
+                        patternTrips.add(into);
+                    }
+                    into.add(t);
+                }
+            }
+        }
+
+        /** @return whether a trip arrives or departs anywhere before one that departed before it */
+        private static boolean overtakes(int[] arr, int[] dep, int[] earlierArr, int[] earlierDep) {
+            for (int i = 0; i < arr.length; i++) {
+                if (arr[i] < earlierArr[i] || dep[i] < earlierDep[i])
+                    return true;
+            }
+            return false;
+        }
+
+        void readTransfers(Path file) throws IOException {
+            List<int[]> rows = new ArrayList<>();
+            if (Files.exists(file)) {
+                try (GtfsCsv csv = GtfsCsv.open(file)) {
+                    int fromCol = csv.column("from_stop_id");
+                    int toCol = csv.column("to_stop_id");
+                    int typeCol = csv.column("transfer_type");
+                    int timeCol = csv.column("min_transfer_time");
+                    while (csv.next()) {
+                        Integer from = stopOrdinals.get(csv.get(fromCol));
+                        Integer to = stopOrdinals.get(csv.get(toCol));
+                        // transfers within a stop are covered by the change time
+                        if (from == null || to == null || from.equals(to))
+                            continue;
+                        int seconds;
+                        try {
+                            // type 3 forbids the transfer, kept so no computed footpath replaces it
+                            seconds = "3".equals(csv.get(typeCol)) ? NO_TRANSFER
+                                    : csv.get(timeCol).isEmpty() ? 0 : Integer.parseInt(csv.get(timeCol));
+                        } catch (NumberFormatException e) {
+                            continue;
+                        }
+                        rows.add(new int[] { from, to, seconds });
+                    }
+                }
+            }
+            transfers = Footpaths.of(stopIds.length, rows);
+        }
+    }
+
+    private static final class PatternKey {
+        private final int route;
+        private final int[] stops;
+        private final int hash;
+
+        PatternKey(int route, int[] stops) {
+            this.route = route;
+            this.stops = stops;
+            this.hash = 31 * route + Arrays.hashCode(stops);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof PatternKey))
+                return false;
+            PatternKey other = (PatternKey) o;
+            return route == other.route && Arrays.equals(stops, other.stops);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    /** Which services run on which date, from calendar.txt and calendar_dates.txt. */
+    static final class ServiceCalendar {
+        private final Map<String, Integer> ordinals = new HashMap<>();
+        private int[] startDates = new int[16];
+        private int[] endDates = new int[16];
+        private int[] weekdays = new int[16];
+        // date * ordinal count + ordinal -> 1 added, 2 removed
+        private final Map<Long, Integer> exceptions = new HashMap<>();
+
+        static ServiceCalendar read(Path calendarFile, Path datesFile) throws IOException {
+            ServiceCalendar calendar = new ServiceCalendar();
+            if (Files.exists(calendarFile)) {
+                try (GtfsCsv csv = GtfsCsv.open(calendarFile)) {
+                    int idCol = csv.column("service_id");
+                    int startCol = csv.column("start_date");
+                    int endCol = csv.column("end_date");
+                    int[] dayCols = new int[7];
+                    for (DayOfWeek day : DayOfWeek.values())
+                        dayCols[day.ordinal()] = csv.column(day.name().toLowerCase());
+                    while (csv.next()) {
+                        int service = calendar.ordinal(csv.get(idCol));
+                        int mask = 0;
+                        for (int d = 0; d < 7; d++) {
+                            if ("1".equals(csv.get(dayCols[d])))
+                                mask |= 1 << d;
+                        }
+                        try {
+                            calendar.startDates[service] = Integer.parseInt(csv.get(startCol));
+                            calendar.endDates[service] = Integer.parseInt(csv.get(endCol));
+                        } catch (NumberFormatException e) {
+                            continue;
+                        }
+                        calendar.weekdays[service] = mask;
+                    }
+                }
+            }
+            if (Files.exists(datesFile)) {
+                try (GtfsCsv csv = GtfsCsv.open(datesFile)) {
+                    int idCol = csv.column("service_id");
+                    int dateCol = csv.column("date");
+                    int typeCol = csv.column("exception_type");
+                    while (csv.next()) {
+                        int service = calendar.ordinal(csv.get(idCol));
+                        try {
+                            calendar.exceptions.put(key(Integer.parseInt(csv.get(dateCol)), service),
+                                    Integer.parseInt(csv.get(typeCol)));
+                        } catch (NumberFormatException e) {
+                            // ignore the row
+                        }
+                    }
+                }
+            }
+            return calendar;
+        }
+
+        /** Writes the services in ordinal order, then the exceptions. */
+        void write(DataOutputStream out) throws IOException {
+            String[] ids = new String[ordinals.size()];
+            for (Map.Entry<String, Integer> service : ordinals.entrySet())
+                ids[service.getValue()] = service.getKey();
+            out.writeInt(ids.length);
+            out.writeInt(exceptions.size());
+            for (int s = 0; s < ids.length; s++) {
+                TransitCache.writeString(out, ids[s]);
+                out.writeInt(startDates[s]);
+                out.writeInt(endDates[s]);
+                out.writeInt(weekdays[s]);
+            }
+            for (Map.Entry<Long, Integer> exception : exceptions.entrySet()) {
+                out.writeLong(exception.getKey());
+                out.writeInt(exception.getValue());
+            }
+        }
+
+        /** Reads a calendar written by {@link #write}. */
+        static ServiceCalendar get(ByteBuffer in) throws IOException {
+            ServiceCalendar calendar = new ServiceCalendar();
+            int services = in.getInt();
+            int exceptions = in.getInt();
+            for (int i = 0; i < services; i++) {
+                int service = calendar.ordinal(TransitCache.getString(in));
+                calendar.startDates[service] = in.getInt();
+                calendar.endDates[service] = in.getInt();
+                calendar.weekdays[service] = in.getInt();
+            }
+            for (int i = 0; i < exceptions; i++)
+                calendar.exceptions.put(in.getLong(), in.getInt());
+            return calendar;
+        }
+
+        int ordinal(String serviceId) {
+            Integer ordinal = ordinals.get(serviceId);
+            if (ordinal != null)
+                return ordinal;
+            int service = ordinals.size();
+            ordinals.put(serviceId, service);
+            if (service == startDates.length) {
+                startDates = Arrays.copyOf(startDates, service * 2);
+                endDates = Arrays.copyOf(endDates, service * 2);
+                weekdays = Arrays.copyOf(weekdays, service * 2);
+            }
+            return service;
+        }
+
+        BitSet active(LocalDate date) {
+            int day = date.getYear() * 10000 + date.getMonthValue() * 100 + date.getDayOfMonth();
+            int weekday = 1 << date.getDayOfWeek().ordinal();
+            BitSet active = new BitSet(ordinals.size());
+            for (int s = 0; s < ordinals.size(); s++) {
+                Integer exception = exceptions.get(key(day, s));
+                boolean running = exception != null ? exception == 1
+                        : startDates[s] <= day && day <= endDates[s] && (weekdays[s] & weekday) != 0;
+                if (running)
+                    active.set(s);
+            }
+            return active;
+        }
+
+        private static long key(int date, int service) {
+            return ((long) date << 32) | service;
+        }
+    }
+}
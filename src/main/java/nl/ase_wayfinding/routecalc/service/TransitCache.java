@@ -0,0 +1,236 @@
+package nl.ase_wayfinding.routecalc.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * Parsed GTFS data in a compact binary file, so later starts map it instead of
+ * parsing the text feed again. The file starts with a format version and a CRC32
+ * of the source files; a file written by another version, for another feed or
+ * with another index cell size is ignored and rewritten. The shapes are kept
+ * with the mode of each and one index per {@link TransitMode}, so the modes'
+ * trips and routes need not be read again either. The coordinate and index
+ * arrays are used straight from the mapping, so neither startup time nor heap use
+ * grow with the feed; only the shape ids are read onto the heap.
+ *
+ * <pre>
+ * int magic, int version, long checksum, double cellDeg, int shapes, int points,
+ * shapes x (short length, UTF-8 id),
+ * int[shapes + 1] shape starts, double[points] lats, double[points] lons,
+ * byte[shapes] mode ordinal of each shape, or -1 for none,
+ * per mode in declaration order: int cells, int indexed points,
+ *     long[cells] cell keys, int[cells + 1] cell starts, int[indexed points] points by cell
+ * </pre>
+ */
+public final class TransitCache {
+
+    private static final Logger logger = LoggerFactory.getLogger(TransitCache.class);
+
+    private static final int MAGIC = 0x52434754; // "RCGT"
+    // 2 added the modes; reordering TransitMode also needs a new version
+    static final int VERSION = 2;
+    private static final byte NO_MODE = -1;
+
+    private TransitCache() {
+    }
+
+    /** CRC32 over the contents of the source files, in order. */
+    public static long checksum(Path... sources) throws IOException {
+        CRC32 crc = new CRC32();
+        byte[] buffer = new byte[1 << 16];
+        for (Path source : sources) {
+            try (InputStream in = Files.newInputStream(source)) {
+                int read;
+                while ((read = in.read(buffer)) > 0)
+                    crc.update(buffer, 0, read);
+            }
+        }
+        return crc.getValue();
+    }
+
+    /**
+     * Maps the shapes and the index of each mode from the cache file.
+     *
+     * @return the index of every mode, all over the same shapes, or null when the file
+     *         is missing or was written for another version, feed or cell size
+     */
+    public static Map<TransitMode, ShapeIndex> read(Path file, long checksum, double cellSizeMeters)
+            throws IOException {
+        ByteBuffer in = map(file);
+        if (in == null)
+            return null;
+        if (in.getInt() != MAGIC || in.getInt() != VERSION) {
+            logger.info("♻️ Transit cache {} has an old format, rebuilding it", file);
+            return null;
+        }
+        if (in.getLong() != checksum) {
+            logger.info("♻️ GTFS feed changed since transit cache {} was written, rebuilding it", file);
+            return null;
+        }
+        double cellDeg = in.getDouble();
+        if (cellDeg != PointGrid.cellDegrees(cellSizeMeters))
+            return null;
+        int shapeCount = in.getInt();
+        int pointCount = in.getInt();
+
+        String[] ids = new String[shapeCount];
+        for (int s = 0; s < shapeCount; s++)
+            ids[s] = getString(in);
+        IntBuffer starts = slice(in, (shapeCount + 1) * 4L).asIntBuffer();
+        DoubleBuffer lats = slice(in, pointCount * 8L).asDoubleBuffer();
+        DoubleBuffer lons = slice(in, pointCount * 8L).asDoubleBuffer();
+        ShapeTable shapes = new ShapeTable(ids, starts, lats, lons);
+        ByteBuffer modes = slice(in, shapeCount);
+        int[] shapesOfMode = new int[TransitMode.values().length];
+        while (modes.hasRemaining()) {
+            byte mode = modes.get();
+            if (mode != NO_MODE)
+                shapesOfMode[mode]++;
+        }
+
+        Map<TransitMode, ShapeIndex> indexes = new EnumMap<>(TransitMode.class);
+        for (TransitMode mode : TransitMode.values()) {
+            if (in.remaining() < 8)
+                throw new IOException("Transit cache is truncated");
+            int cellCount = in.getInt();
+            int indexed = in.getInt();
+            LongBuffer cells = slice(in, cellCount * 8L).asLongBuffer();
+            IntBuffer cellStart = slice(in, (cellCount + 1) * 4L).asIntBuffer();
+            IntBuffer points = slice(in, indexed * 4L).asIntBuffer();
+            PointGrid grid = new PointGrid(cellDeg, shapes.lats(), shapes.lons(), cells, cellStart, points);
+            indexes.put(mode, new ShapeIndex(shapes, grid, shapesOfMode[mode.ordinal()]));
+        }
+        if (in.hasRemaining())
+            return null;
+        return indexes;
+    }
+
+    /**
+     * Writes the shapes and the index of each mode, replacing the file only once it is
+     * complete. A mode without an index is written as one without shapes.
+     *
+     * @param indexes indexes over the same shapes, each covering only its mode's shapes
+     */
+    public static void write(Path file, long checksum, Map<TransitMode, ShapeIndex> indexes) throws IOException {
+        ShapeTable shapes = indexes.values().iterator().next().getShapes();
+        double cellDeg = indexes.values().iterator().next().grid().cellDeg();
+        // a shape's mode is the mode whose index files its points
+        byte[] modes = new byte[shapes.size()];
+        Arrays.fill(modes, NO_MODE);
+        for (Map.Entry<TransitMode, ShapeIndex> index : indexes.entrySet()) {
+            IntBuffer points = index.getValue().grid().points();
+            while (points.hasRemaining())
+                modes[shapes.shapeOf(points.get())] = (byte) index.getKey().ordinal();
+        }
+        Path dir = file.toAbsolutePath().getParent();
+        Files.createDirectories(dir);
+        Path tmp = Files.createTempFile(dir, file.getFileName().toString(), ".tmp");
+        try {
+            try (DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(Files.newOutputStream(tmp), 1 << 16))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeLong(checksum);
+                out.writeDouble(cellDeg);
+                out.writeInt(shapes.size());
+                out.writeInt(shapes.pointCount());
+                for (String id : shapes.ids())
+                    writeString(out, id);
+                writeInts(out, shapes.starts());
+                DoubleBuffer lats = shapes.lats();
+                while (lats.hasRemaining())
+                    out.writeDouble(lats.get());
+                DoubleBuffer lons = shapes.lons();
+                while (lons.hasRemaining())
+                    out.writeDouble(lons.get());
+                out.write(modes);
+                for (TransitMode mode : TransitMode.values()) {
+                    ShapeIndex index = indexes.get(mode);
+                    if (index == null) {
+                        out.writeInt(0);
+                        out.writeInt(0);
+                        out.writeInt(0);
+                        continue;
+                    }
+                    PointGrid grid = index.grid();
+                    LongBuffer cells = grid.cells();
+                    IntBuffer points = grid.points();
+                    out.writeInt(cells.remaining());
+                    out.writeInt(points.remaining());
+                    while (cells.hasRemaining())
+                        out.writeLong(cells.get());
+                    writeInts(out, grid.cellStart());
+                    writeInts(out, points);
+                }
+            }
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    /**
+     * Maps the whole file read-only; the mapping stays valid after the channel is closed.
+     *
+     * @return the mapped file, or null when it is missing or too short or too large to map
+     */
+    static ByteBuffer map(Path file) throws IOException {
+        if (!Files.isRegularFile(file))
+            return null;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (channel.size() < 32 || channel.size() > Integer.MAX_VALUE)
+                return null;
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return mapped.duplicate();
+        }
+    }
+
+    static void writeInts(DataOutputStream out, IntBuffer values) throws IOException {
+        while (values.hasRemaining())
+            out.writeInt(values.get());
+    }
+
+    /** Writes the string as a short length and its UTF-8 bytes. */
+    static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > 0xffff)
+            throw new IOException("String too long for the transit cache: " + value.substring(0, 32) + "...");
+        out.writeShort(bytes.length);
+        out.write(bytes);
+    }
+
+    /** Reads a string written by {@link #writeString}. */
+    static String getString(ByteBuffer in) throws IOException {
+        return StandardCharsets.UTF_8.decode(slice(in, in.getShort() & 0xffff)).toString();
+    }
+
+    /** @return the next length bytes of the buffer as their own buffer, advancing past them */
+    static ByteBuffer slice(ByteBuffer in, long length) throws IOException {
+        if (length > in.remaining())
+            throw new IOException("Transit cache is truncated");
+        ByteBuffer slice = in.slice();
+        slice.limit((int) length);
+        in.position(in.position() + (int) length);
+        return slice;
+    }
+}
@@ -0,0 +1,76 @@
+package nl.ase_wayfinding.routecalc.service;
+
+/**
+ * The transit networks routed separately, each grouping the GTFS route types its
+ * vehicles run under. Stops, shapes and timetable searches of one mode never mix
+ * with those of another.
+ */
+public enum TransitMode {
+
+    BUS("bus", "bus stop", "Bus Stop"),
+    RAIL("train", "station", "Station"),
+    TRAM("tram", "tram stop", "Tram Stop");
+
+    private final String name;
+    private final String stopNoun;
+    private final String stopLabel;
+
+    TransitMode(String name, String stopNoun, String stopLabel) {
+        this.name = name;
+        this.stopNoun = stopNoun;
+        this.stopLabel = stopLabel;
+    }
+
+    /**
+     * Maps a basic or extended GTFS route_type onto its mode.
+     *
+     * @return the mode, or null for route types no mode covers, such as ferries
+     */
+    public static TransitMode of(int routeType) {
+        switch (routeType) {
+        case 0: // tram, streetcar, light rail
+        case 5: // cable tram
+            return TRAM;
+        case 1: // subway, metro
+        case 2: // rail
+        case 12: // monorail
+            return RAIL;
+        case 3: // bus
+        case 11: // trolleybus
+            return BUS;
+        default:
+            break;
+        }
+        if (routeType >= 100 && routeType < 200 || routeType >= 400 && routeType < 500)
+            return RAIL;
+        if (routeType >= 200 && routeType < 300 || routeType >= 700 && routeType < 900)
+            return BUS;
+        if (routeType >= 900 && routeType < 1000)
+            return TRAM;
+        return null;
+    }
+
+    /** @return the mode requested under the name, ignoring case, or null when it is not a transit mode */
+    public static TransitMode fromName(String name) {
+        for (TransitMode mode : values()) {
+            if (mode.name.equalsIgnoreCase(name))
+                return mode;
+        }
+        return null;
+    }
+
+    /** The mode as requested and reported, e.g. "train". */
+    public String getName() {
+        return name;
+    }
+
+    /** Where the mode's vehicles are boarded, e.g. "station", for messages. */
+    public String getStopNoun() {
+        return stopNoun;
+    }
+
+    /** The stop noun as the name of a walking leg's end, e.g. "Station". */
+    public String getStopLabel() {
+        return stopLabel;
+    }
+}
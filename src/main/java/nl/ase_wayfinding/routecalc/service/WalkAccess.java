@@ -0,0 +1,59 @@
+package nl.ase_wayfinding.routecalc.service;
+
+import com.graphhopper.isochrone.algorithm.ShortestPathTree;
+import com.graphhopper.routing.querygraph.QueryGraph;
+import com.graphhopper.routing.util.TraversalMode;
+import com.graphhopper.routing.weighting.Weighting;
+import com.graphhopper.storage.BaseGraph;
+import com.graphhopper.storage.index.Snap;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Walking times between one point and all stops around it from a single
+ * shortest-path tree on the walk network, rather than one route per stop. The
+ * point and the stops' stored snaps become virtual nodes of one query graph, and
+ * the tree grows from the point until it is a walking radius away.
+ */
+final class WalkAccess {
+
+    private WalkAccess() {
+    }
+
+    /**
+     * @param point        the origin or destination, snapped onto the walk network
+     * @param stops        candidate stops, all with a snap
+     * @param towardsPoint true to time walks from the stops to the point, for egress
+     * @return the stops the tree reaches, with the walk along the network plus the
+     *         stop's own distance from the street
+     */
+    static List<Raptor.StopTime> search(BaseGraph graph, Weighting weighting, Snap point, StopSnaps snaps,
+            List<Integer> stops, boolean towardsPoint, double radiusMeters, double walkSpeedMps) {
+        List<Snap> querySnaps = new ArrayList<>(stops.size() + 1);
+        querySnaps.add(point);
+        for (int stop : stops)
+            querySnaps.add(snaps.snap(stop, graph));
+        // creating the query graph moves every snap onto its virtual or tower node
+        QueryGraph queryGraph = QueryGraph.create(graph, querySnaps);
+
+        ShortestPathTree tree = new ShortestPathTree(queryGraph, queryGraph.wrapWeighting(weighting), towardsPoint,
+                TraversalMode.NODE_BASED);
+        tree.setDistanceLimit(radiusMeters);
+        Map<Integer, Long> millisByNode = new HashMap<>();
+        tree.search(point.getClosestNode(), label -> millisByNode.putIfAbsent(label.node, label.time));
+
+        List<Raptor.StopTime> reached = new ArrayList<>();
+        for (int i = 0; i < stops.size(); i++) {
+            Long millis = millisByNode.get(querySnaps.get(i + 1).getClosestNode());
+            if (millis == null)
+                continue;
+            int stop = stops.get(i);
+            double seconds = millis / 1000d + snaps.offsetMeters(stop) / walkSpeedMps;
+            reached.add(new Raptor.StopTime(stop, (int) Math.ceil(seconds)));
+        }
+        return reached;
+    }
+}
@@ -0,0 +1,184 @@
+package nl.ase_wayfinding.routecalc.service;
+
+import com.graphhopper.routing.weighting.Weighting;
+import com.graphhopper.storage.BaseGraph;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Walking transfers between every pair of snapped stops within a radius on the
+ * walk network, computed once at startup and kept in a file next to the graph
+ * cache. Each stop's footpaths come from one {@link WalkAccess} tree; the stops
+ * are split over a fork-join pool. Requests only read the result.
+ *
+ * <pre>
+ * int magic, int version, long graph key, long stops key, double radius,
+ * int stops, int footpaths, int[stops + 1] starts, int[footpaths] targets,
+ * int[footpaths] seconds
+ * </pre>
+ */
+final class WalkingTransfers {
+
+    private static final int MAGIC = 0x52435754; // "RCWT"
+    static final int VERSION = 1;
+    // stops per fork-join task that is not split any further
+    private static final int BATCH = 64;
+
+    private WalkingTransfers() {
+    }
+
+    static Footpaths compute(BaseGraph graph, Weighting weighting, StopSnaps snaps, double radiusMeters,
+            double walkSpeedMps, int parallelism) {
+        int stops = snaps.size();
+        int[][] targets = new int[stops][];
+        int[][] seconds = new int[stops][];
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            pool.invoke(new Batch(0, stops, graph, weighting, snaps, radiusMeters, walkSpeedMps, targets, seconds));
+        } finally {
+            pool.shutdown();
+        }
+
+        int[] start = new int[stops + 1];
+        for (int s = 0; s < stops; s++)
+            start[s + 1] = start[s] + targets[s].length;
+        int[] allTargets = new int[start[stops]];
+        int[] allSeconds = new int[start[stops]];
+        for (int s = 0; s < stops; s++) {
+            System.arraycopy(targets[s], 0, allTargets, start[s], targets[s].length);
+            System.arraycopy(seconds[s], 0, allSeconds, start[s], seconds[s].length);
+        }
+        return new Footpaths(start, allTargets, allSeconds);
+    }
+
+    /** Footpaths from one stop to every other snapped stop the walk tree reaches. */
+    private static void footpathsFrom(int stop, BaseGraph graph, Weighting weighting, StopSnaps snaps,
+            double radiusMeters, double walkSpeedMps, int[][] targets, int[][] seconds) {
+        targets[stop] = new int[0];
+        seconds[stop] = new int[0];
+        if (!snaps.isSnapped(stop))
+            return;
+        List<Integer> candidates = new ArrayList<>();
+        snaps.forEachStopNear(snaps.lat(stop), snaps.lon(stop), radiusMeters, (other, meters) -> {
+            if (other != stop)
+                candidates.add(other);
+        });
+        if (candidates.isEmpty())
+            return;
+        List<Raptor.StopTime> reached = WalkAccess.search(graph, weighting, snaps.snap(stop, graph), snaps,
+                candidates, false, radiusMeters, walkSpeedMps);
+        // the walk from the stop onto the street
+        int offsetSeconds = (int) Math.ceil(snaps.offsetMeters(stop) / walkSpeedMps);
+        targets[stop] = new int[reached.size()];
+        seconds[stop] = new int[reached.size()];
+        for (int i = 0; i < reached.size(); i++) {
+            targets[stop][i] = reached.get(i).getStop();
+            seconds[stop][i] = reached.get(i).getSeconds() + offsetSeconds;
+        }
+    }
+
+    private static final class Batch extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final int from;
+        private final int to;
+        private final BaseGraph graph;
+        private final Weighting weighting;
+        private final StopSnaps snaps;
+        private final double radiusMeters;
+        private final double walkSpeedMps;
+        private final int[][] targets;
+        private final int[][] seconds;
+
+        Batch(int from, int to, BaseGraph graph, Weighting weighting, StopSnaps snaps, double radiusMeters,
+                double walkSpeedMps, int[][] targets, int[][] seconds) {
+            this.from = from;
+            this.to = to;
+            this.graph = graph;
+            this.weighting = weighting;
+            this.snaps = snaps;
+            this.radiusMeters = radiusMeters;
+            this.walkSpeedMps = walkSpeedMps;
+            this.targets = targets;
+            this.seconds = seconds;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= BATCH) {
+                for (int stop = from; stop < to; stop++)
+                    footpathsFrom(stop, graph, weighting, snaps, radiusMeters, walkSpeedMps, targets, seconds);
+                return;
+            }
+            int mid = (from + to) >>> 1;
+            invokeAll(new Batch(from, mid, graph, weighting, snaps, radiusMeters, walkSpeedMps, targets, seconds),
+                    new Batch(mid, to, graph, weighting, snaps, radiusMeters, walkSpeedMps, targets, seconds));
+        }
+    }
+
+    /**
+     * @return the footpaths stored in the file, or null when it is missing or was
+     *         written by another version, for another graph, other stops or another radius
+     */
+    static Footpaths read(Path file, long graphKey, long stopsKey, double radiusMeters) throws IOException {
+        if (!Files.isRegularFile(file))
+            return null;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), 1 << 16))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION || in.readLong() != graphKey
+                    || in.readLong() != stopsKey || in.readDouble() != radiusMeters)
+                return null;
+            int stops = in.readInt();
+            int count = in.readInt();
+            int[] start = readInts(in, stops + 1);
+            return new Footpaths(start, readInts(in, count), readInts(in, count));
+        }
+    }
+
+    /** Writes the footpaths, replacing the file only once it is complete. */
+    static void write(Path file, long graphKey, long stopsKey, double radiusMeters, Footpaths footpaths)
+            throws IOException {
+        Path dir = file.toAbsolutePath().getParent();
+        Files.createDirectories(dir);
+        Path tmp = Files.createTempFile(dir, file.getFileName().toString(), ".tmp");
+        try {
+            try (DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(Files.newOutputStream(tmp), 1 << 16))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeLong(graphKey);
+                out.writeLong(stopsKey);
+                out.writeDouble(radiusMeters);
+                int stops = footpaths.stopCount();
+                out.writeInt(stops);
+                out.writeInt(footpaths.size());
+                for (int s = 0; s <= stops; s++)
+                    out.writeInt(s < stops ? footpaths.start(s) : footpaths.size());
+                for (int j = 0; j < footpaths.size(); j++)
+                    out.writeInt(footpaths.target(j));
+                for (int j = 0; j < footpaths.size(); j++)
+                    out.writeInt(footpaths.seconds(j));
+            }
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    private static int[] readInts(DataInputStream in, int n) throws IOException {
+        int[] values = new int[n];
+        for (int i = 0; i < n; i++)
+            values[i] = in.readInt();
+        return values;
+    }
+}
@@ -0,0 +1,89 @@
+package nl.ase_wayfinding.routecalc.service;
+
+import com.graphhopper.util.DistanceCalcEarth;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Picks the route waypoints that are sent for AQI checks. Points are placed by
+ * travelled distance rather than by vertex index, so the number of waypoints
+ * follows the route length: dense city polylines no longer produce hundreds of
+ * near-identical points and long straight edges still get covered.
+ */
+public final class WaypointSampler {
+
+    private static final double METERS_PER_DEGREE = 111_320d;
+
+    private final double spacingMeters;
+    private final double cellLat;
+    private final int maxWaypoints;
+
+    /**
+     * @param spacingMeters  distance between two samples along the route
+     * @param cellSizeMeters samples that fall into the same cell of this size are merged
+     * @param maxWaypoints   upper bound of samples per route; the spacing grows for long routes
+     */
+    public WaypointSampler(double spacingMeters, double cellSizeMeters, int maxWaypoints) {
+        if (spacingMeters <= 0 || cellSizeMeters <= 0 || maxWaypoints < 2)
+            throw new IllegalArgumentException("spacing and cell size must be positive and maxWaypoints at least 2");
+        this.spacingMeters = spacingMeters;
+        this.cellLat = cellSizeMeters / METERS_PER_DEGREE;
+        this.maxWaypoints = maxWaypoints;
+    }
+
+    /**
+     * @param coords route geometry as [lon, lat]
+     * @return samples as [lon, lat], first and last point included
+     */
+    public List<List<Double>> sample(List<List<Double>> coords) {
+        List<List<Double>> samples = new ArrayList<>();
+        if (coords.isEmpty())
+            return samples;
+
+        double length = 0;
+        for (int i = 1; i < coords.size(); i++)
+            length += segmentLength(coords.get(i - 1), coords.get(i));
+        double spacing = Math.max(spacingMeters, length / (maxWaypoints - 1));
+
+        Set<Long> seenCells = new HashSet<>();
+        addIfNewCell(samples, seenCells, coords.get(0).get(0), coords.get(0).get(1));
+        // distance travelled since the last sample position
+        double travelled = 0;
+        for (int i = 1; i < coords.size(); i++) {
+            List<Double> from = coords.get(i - 1);
+            List<Double> to = coords.get(i);
+            double segment = segmentLength(from, to);
+            double offset = spacing - travelled;
+            while (offset <= segment) {
+                double f = offset / segment;
+                addIfNewCell(samples, seenCells, from.get(0) + f * (to.get(0) - from.get(0)),
+                        from.get(1) + f * (to.get(1) - from.get(1)));
+                offset += spacing;
+            }
+            travelled = segment - (offset - spacing);
+        }
+        List<Double> last = coords.get(coords.size() - 1);
+        addIfNewCell(samples, seenCells, last.get(0), last.get(1));
+
+        // rounding can leave one sample too many
+        while (samples.size() > maxWaypoints)
+            samples.remove(samples.size() - 2);
+        return samples;
+    }
+
+    private void addIfNewCell(List<List<Double>> samples, Set<Long> seenCells, double lon, double lat) {
+        long row = (long) Math.floor(lat / cellLat);
+        double cellLon = cellLat / Math.cos(Math.toRadians((row + 0.5) * cellLat));
+        long col = (long) Math.floor(lon / cellLon);
+        if (seenCells.add((row << 32) | (col & 0xFFFFFFFFL)))
+            samples.add(Arrays.asList(lon, lat));
+    }
+
+    private static double segmentLength(List<Double> from, List<Double> to) {
+        return DistanceCalcEarth.DIST_EARTH.calcDist(from.get(1), from.get(0), to.get(1), to.get(0));
+    }
+}
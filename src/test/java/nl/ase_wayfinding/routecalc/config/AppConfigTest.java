@@ -5,6 +5,9 @@ import org.junit.jupiter.api.Test;
 import org.springframework.context.annotation.AnnotationConfigApplicationContext;
 import org.springframework.web.client.RestTemplate;
 
+import java.util.concurrent.ExecutorService;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
 
 class AppConfigTest {
@@ -16,4 +19,13 @@ class AppConfigTest {
             assertNotNull(rt);
         }
     }
+
+    @Test
+    void testRoutingExecutorBean() {
+        try (AnnotationConfigApplicationContext context = new AnnotationConfigApplicationContext(AppConfig.class)) {
+            ExecutorService executor = context.getBean("routingExecutor", ExecutorService.class);
+            assertNotNull(executor);
+            assertFalse(executor.isShutdown());
+        }
+    }
 }
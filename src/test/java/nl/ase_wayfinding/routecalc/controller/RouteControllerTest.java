@@ -1,6 +1,7 @@
 package nl.ase_wayfinding.routecalc.controller;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.graphhopper.GHRequest;
 import com.graphhopper.GHResponse;
 import com.graphhopper.ResponsePath;
 import com.graphhopper.util.InstructionList;
@@ -8,8 +9,11 @@ import com.graphhopper.util.PointList;
 import com.graphhopper.util.details.PathDetail;
 import nl.ase_wayfinding.routecalc.config.TestSecurityConfig;
 import nl.ase_wayfinding.routecalc.service.GraphHopperService;
+import nl.ase_wayfinding.routecalc.service.RouteResultCache;
+import nl.ase_wayfinding.routecalc.service.TransitMode;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoSettings;
 import org.mockito.quality.Strictness;
@@ -23,9 +27,11 @@ import org.springframework.test.web.servlet.MockMvc;
 import com.graphhopper.util.PMap;
 import java.util.*;
 
+import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.*;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
 
@@ -45,6 +51,9 @@ public class RouteControllerTest {
         @MockBean
         private GraphHopperService graphHopperService;
 
+        @MockBean
+        private RouteResultCache routeResultCache;
+
         @Autowired
         private ObjectMapper objectMapper;
 
@@ -70,6 +79,9 @@ public class RouteControllerTest {
                                 Arrays.asList(-71.0589, 42.3601) // Boston
                 );
 
+                // Mockito answers an empty map by default, the cache must miss unless a test says otherwise
+                when(routeResultCache.get(any(), any(), any())).thenReturn(null);
+
                 // Setup mock point list behavior
                 when(mockPointList.size()).thenReturn(3); // Ensure we have points to extract
                 when(mockPointList.getLat(anyInt())).thenReturn(41.0); // Mock latitude
@@ -467,7 +479,11 @@ public class RouteControllerTest {
                                 .andExpect(status().isOk())
                                 .andExpect(jsonPath("$.status").value("success"));
 
-                verify(graphHopperService, times(1)).getOptimizedRoute(any(), eq("car"));
+                ArgumentCaptor<GHRequest> request = ArgumentCaptor.forClass(GHRequest.class);
+                verify(graphHopperService, times(1)).getOptimizedRoute(request.capture(), eq("car"));
+                assertEquals(3, request.getValue().getPoints().size());
+                assertEquals(40.6438, request.getValue().getPoints().get(1).getLat());
+                assertEquals(-73.7949, request.getValue().getPoints().get(1).getLon());
         }
 
         @Test
@@ -585,4 +601,111 @@ public class RouteControllerTest {
 
                 verify(graphHopperService, never()).getOptimizedRoute(any(), anyString());
         }
+
+        @Test
+        void getStats_ReturnsServiceStats() throws Exception {
+                when(graphHopperService.getStats())
+                                .thenReturn(Map.of("aqi_tile_cache", Map.of("hits", 3, "misses", 1)));
+
+                mockMvc.perform(get("/route/stats"))
+                                .andExpect(status().isOk())
+                                .andExpect(jsonPath("$.aqi_tile_cache.hits").value(3))
+                                .andExpect(jsonPath("$.aqi_tile_cache.misses").value(1));
+        }
+
+        @Test
+        void calculateRoute_CachedRoute_SkipsRouting() throws Exception {
+                when(graphHopperService.getRoutingDataVersion()).thenReturn("graph@1/aqi#2");
+                when(routeResultCache.get(eq(testPoints), eq("car"), eq("graph@1/aqi#2")))
+                                .thenReturn(Map.of("status", "success", "mode", "car"));
+
+                mockMvc.perform(post("/route")
+                                .contentType(MediaType.APPLICATION_JSON)
+                                .content(objectMapper.writeValueAsString(Map.of("points", testPoints, "mode", "car"))))
+                                .andExpect(status().isOk())
+                                .andExpect(jsonPath("$.status").value("success"));
+
+                verify(graphHopperService, never()).getOptimizedRoute(any(), any());
+        }
+
+        @Test
+        void calculateRoute_SingleMode_CachesFormattedResponse() throws Exception {
+                when(graphHopperService.getRoutingDataVersion()).thenReturn("graph@1/aqi#2");
+                when(graphHopperService.getOptimizedRoute(any(), eq("car"))).thenReturn(successfulRouteResult);
+
+                mockMvc.perform(post("/route")
+                                .contentType(MediaType.APPLICATION_JSON)
+                                .content(objectMapper.writeValueAsString(Map.of("points", testPoints, "mode", "car"))))
+                                .andExpect(status().isOk());
+
+                verify(routeResultCache, times(1)).put(eq(testPoints), eq("car"), eq("graph@1/aqi#2"), anyMap());
+        }
+
+        @Test
+        void calculateRoute_BusMode_PassesDepartureTime() throws Exception {
+                when(graphHopperService.getBusRouteWithWalking(any(), any())).thenReturn(formattedBusResponse);
+
+                Map<String, Object> requestBody = new HashMap<>();
+                requestBody.put("points", testPoints);
+                requestBody.put("mode", "bus");
+                requestBody.put("departure_time", "2025-03-04T08:30:00");
+
+                mockMvc.perform(post("/route")
+                                .contentType(MediaType.APPLICATION_JSON)
+                                .content(objectMapper.writeValueAsString(requestBody)))
+                                .andExpect(status().isOk())
+                                .andExpect(jsonPath("$.mode").value("bus"));
+
+                verify(graphHopperService, times(1)).getBusRouteWithWalking(any(),
+                                eq(java.time.LocalDateTime.of(2025, 3, 4, 8, 30)));
+        }
+
+        @Test
+        void calculateRoute_BusMode_InvalidDepartureTime() throws Exception {
+                Map<String, Object> requestBody = new HashMap<>();
+                requestBody.put("points", testPoints);
+                requestBody.put("mode", "bus");
+                requestBody.put("departure_time", "half past eight");
+
+                mockMvc.perform(post("/route")
+                                .contentType(MediaType.APPLICATION_JSON)
+                                .content(objectMapper.writeValueAsString(requestBody)))
+                                .andExpect(status().isBadRequest());
+
+                verify(graphHopperService, never()).getBusRouteWithWalking(any(), any());
+        }
+
+        @Test
+        void calculateRoute_TrainMode_RidesTheRailNetwork() throws Exception {
+                when(graphHopperService.getTransitRouteWithWalking(any(), eq(TransitMode.RAIL), any()))
+                                .thenReturn(Map.of("status", "success", "mode", "train", "paths", List.of()));
+
+                Map<String, Object> requestBody = new HashMap<>();
+                requestBody.put("points", testPoints);
+                requestBody.put("mode", "train");
+                requestBody.put("departure_time", "2025-03-04T08:30:00");
+
+                mockMvc.perform(post("/route")
+                                .contentType(MediaType.APPLICATION_JSON)
+                                .content(objectMapper.writeValueAsString(requestBody)))
+                                .andExpect(status().isOk())
+                                .andExpect(jsonPath("$.mode").value("train"));
+
+                verify(graphHopperService, times(1)).getTransitRouteWithWalking(any(), eq(TransitMode.RAIL),
+                                eq(java.time.LocalDateTime.of(2025, 3, 4, 8, 30)));
+                verify(graphHopperService, never()).getBusRouteWithWalking(any(), any());
+                verify(graphHopperService, never()).getOptimizedRoute(any(), any());
+        }
+
+        @Test
+        void calculateRoute_TramMode_Failure() throws Exception {
+                when(graphHopperService.getTransitRouteWithWalking(any(), eq(TransitMode.TRAM), isNull()))
+                                .thenThrow(new RuntimeException("no shapes"));
+
+                mockMvc.perform(post("/route")
+                                .contentType(MediaType.APPLICATION_JSON)
+                                .content(objectMapper.writeValueAsString(Map.of("points", testPoints, "mode", "tram"))))
+                                .andExpect(status().isInternalServerError())
+                                .andExpect(jsonPath("$.error").value("Tram route calculation failed"));
+        }
 }
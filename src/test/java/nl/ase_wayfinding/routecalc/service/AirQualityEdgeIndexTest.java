@@ -0,0 +1,85 @@
+package nl.ase_wayfinding.routecalc.service;
+
+import com.graphhopper.routing.ev.EdgeIntAccess;
+import com.graphhopper.routing.ev.IntEncodedValue;
+import com.graphhopper.routing.util.EncodingManager;
+import com.graphhopper.storage.BaseGraph;
+import com.graphhopper.storage.NodeAccess;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AirQualityEdgeIndexTest {
+
+    private static final double[] DUBLIN = { -6.30, 53.30, -6.20, 53.40 };
+
+    private IntEncodedValue airQualityEnc;
+    private BaseGraph graph;
+
+    @BeforeEach
+    void setUp() {
+        airQualityEnc = AirQuality.create();
+        EncodingManager em = EncodingManager.start().add(airQualityEnc).build();
+        graph = new BaseGraph.Builder(em).create();
+        NodeAccess na = graph.getNodeAccess();
+        na.setNode(0, 53.3100, -6.2900);
+        na.setNode(1, 53.3110, -6.2890);
+        na.setNode(2, 53.3900, -6.2100);
+        na.setNode(3, 53.3910, -6.2090);
+        na.setNode(4, 53.5000, -6.5000); // outside the snapshot area
+        na.setNode(5, 53.5010, -6.5010);
+        graph.edge(0, 1).setDistance(100);
+        graph.edge(2, 3).setDistance(100);
+        graph.edge(4, 5).setDistance(100);
+    }
+
+    @Test
+    void testBuild_bucketsEdgesInsideTheAreaOnly() {
+        AirQualityEdgeIndex index = AirQualityEdgeIndex.build(graph, DUBLIN, 500);
+
+        assertEquals(2, index.getCellCount());
+        assertEquals(2, index.getEdgeCount());
+        List<List<Double>> centers = index.getCellCenters();
+        assertEquals(2, centers.size());
+        // centers are [lon, lat] and lie close to the edges they represent
+        assertEquals(-6.29, centers.get(0).get(0), 0.01);
+        assertEquals(53.31, centers.get(0).get(1), 0.01);
+        assertEquals(-6.21, centers.get(1).get(0), 0.01);
+        assertEquals(53.39, centers.get(1).get(1), 0.01);
+    }
+
+    @Test
+    void testApply_writesReadingOntoEdgesOfTheCell() {
+        AirQualityEdgeIndex index = AirQualityEdgeIndex.build(graph, DUBLIN, 500);
+        EdgeIntAccess access = graph.createEdgeIntAccess();
+
+        int written = index.apply(new int[] { 5, 2 }, airQualityEnc, access);
+
+        assertEquals(2, written);
+        assertEquals(5, airQualityEnc.getInt(false, 0, access));
+        assertEquals(2, airQualityEnc.getInt(false, 1, access));
+        assertEquals(0, airQualityEnc.getInt(false, 2, access));
+    }
+
+    @Test
+    void testApply_clampsOutOfRangeReadings() {
+        AirQualityEdgeIndex index = AirQualityEdgeIndex.build(graph, DUBLIN, 500);
+        EdgeIntAccess access = graph.createEdgeIntAccess();
+
+        index.apply(new int[] { 42, -1 }, airQualityEnc, access);
+
+        assertEquals(airQualityEnc.getMaxStorableInt(), airQualityEnc.getInt(false, 0, access));
+        assertEquals(0, airQualityEnc.getInt(false, 1, access));
+    }
+
+    @Test
+    void testApply_rejectsWrongNumberOfReadings() {
+        AirQualityEdgeIndex index = AirQualityEdgeIndex.build(graph, DUBLIN, 500);
+
+        assertThrows(IllegalArgumentException.class,
+                () -> index.apply(new int[] { 1 }, airQualityEnc, graph.createEdgeIntAccess()));
+    }
+}
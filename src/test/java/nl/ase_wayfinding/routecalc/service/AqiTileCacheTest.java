@@ -0,0 +1,79 @@
+package nl.ase_wayfinding.routecalc.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AqiTileCacheTest {
+
+    @Test
+    void testCellKey_nearbyCoordinatesShareACell() {
+        AqiTileCache cache = new AqiTileCache(100, 60_000, 100);
+
+        // ~3 m apart in central Dublin
+        long a = cache.cellKey(53.34940, -6.26030);
+        long b = cache.cellKey(53.34942, -6.26028);
+        // ~1 km away
+        long c = cache.cellKey(53.35840, -6.26030);
+
+        assertEquals(a, b);
+        assertNotEquals(a, c);
+    }
+
+    @Test
+    void testGet_countsHitsAndMisses() {
+        AqiTileCache cache = new AqiTileCache(100, 60_000, 100);
+
+        assertNull(cache.get(53.3498, -6.2603));
+        cache.put(53.3498, -6.2603, 4);
+        assertEquals(4, cache.get(53.3498, -6.2603));
+
+        assertEquals(1, cache.getHits());
+        assertEquals(1, cache.getMisses());
+        assertEquals(1, cache.size());
+    }
+
+    @Test
+    void testGet_expiredReadingIsAMiss() throws Exception {
+        AqiTileCache cache = new AqiTileCache(100, 1, 100);
+        cache.put(53.3498, -6.2603, 2);
+
+        Thread.sleep(5);
+
+        assertNull(cache.get(53.3498, -6.2603));
+        assertEquals(1, cache.getExpirations());
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    void testPut_evictsLeastRecentlyUsedCellWhenFull() {
+        AqiTileCache cache = new AqiTileCache(100, 60_000, 2);
+        cache.put(1L, 1);
+        cache.put(2L, 2);
+        cache.get(1L); // 2 is now the least recently used cell
+        cache.put(3L, 3);
+
+        assertEquals(2, cache.size());
+        assertEquals(1, cache.getEvictions());
+        assertEquals(1, cache.get(1L));
+        assertNull(cache.get(2L));
+        assertEquals(3, cache.get(3L));
+    }
+
+    @Test
+    void testStats_reportsHitRatio() {
+        AqiTileCache cache = new AqiTileCache(100, 60_000, 100);
+        cache.put(5L, 1);
+        cache.get(5L);
+        cache.get(6L);
+
+        Map<String, Object> stats = cache.stats();
+
+        assertEquals(0.5, stats.get("hit_ratio"));
+        assertEquals(1L, stats.get("hits"));
+        assertEquals(1L, stats.get("misses"));
+        assertEquals(100, stats.get("max_entries"));
+    }
+}
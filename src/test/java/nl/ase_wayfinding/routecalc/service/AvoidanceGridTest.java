@@ -0,0 +1,85 @@
+package nl.ase_wayfinding.routecalc.service;
+
+import com.graphhopper.routing.weighting.Weighting;
+import com.graphhopper.routing.util.EncodingManager;
+import com.graphhopper.storage.BaseGraph;
+import com.graphhopper.util.EdgeIteratorState;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class AvoidanceGridTest {
+
+    @Test
+    void testContains_coversRadiusAroundCoordinate() {
+        AvoidanceGrid grid = AvoidanceGrid.of(50, 100, List.of(Arrays.asList(-6.2603, 53.3498)));
+
+        assertTrue(grid.contains(53.3498, -6.2603));
+        // ~80 m north and ~80 m east
+        assertTrue(grid.contains(53.3505, -6.2603));
+        assertTrue(grid.contains(53.3498, -6.2591));
+        // ~300 m away
+        assertFalse(grid.contains(53.3525, -6.2603));
+        assertFalse(grid.contains(53.3498, -6.2558));
+    }
+
+    @Test
+    void testWith_keepsEarlierCellsAndIsImmutable() {
+        AvoidanceGrid first = AvoidanceGrid.of(50, 100, List.of(Arrays.asList(-6.2603, 53.3498)));
+        AvoidanceGrid second = first.with(List.of(Arrays.asList(-6.2000, 53.3000)));
+
+        assertTrue(second.contains(53.3498, -6.2603));
+        assertTrue(second.contains(53.3000, -6.2000));
+        assertFalse(first.contains(53.3000, -6.2000));
+        assertSame(second, second.with(List.of()));
+    }
+
+    @Test
+    void testEquals_sameCellsFromOverlappingCoordinates() {
+        AvoidanceGrid a = AvoidanceGrid.of(50, 100, List.of(Arrays.asList(-6.2603, 53.3498)));
+        AvoidanceGrid b = a.with(List.of(Arrays.asList(-6.2603, 53.3498)));
+
+        assertEquals(a, b);
+        assertEquals(a.hashCode(), b.hashCode());
+        assertEquals(a.getCellCount(), b.getCellCount());
+    }
+
+    @Test
+    void testContains_scatteredZonesOutsideBitsetWindow() {
+        // opposite ends of the country, a window too large for the bitset
+        List<List<Double>> coords = new ArrayList<>();
+        coords.add(Arrays.asList(-10.0, 51.5));
+        coords.add(Arrays.asList(-5.5, 55.3));
+        AvoidanceGrid grid = AvoidanceGrid.of(10, 20, coords);
+
+        assertTrue(grid.contains(51.5, -10.0));
+        assertTrue(grid.contains(55.3, -5.5));
+        assertFalse(grid.contains(53.35, -6.26));
+    }
+
+    @Test
+    void testAvoidanceWeighting_penalizesEdgesInsideTheGrid() {
+        BaseGraph graph = new BaseGraph.Builder(EncodingManager.start().build()).create();
+        graph.getNodeAccess().setNode(0, 53.3490, -6.2610);
+        graph.getNodeAccess().setNode(1, 53.3506, -6.2596);
+        graph.getNodeAccess().setNode(2, 53.3600, -6.2400);
+        EdgeIteratorState inside = graph.edge(0, 1).setDistance(200);
+        EdgeIteratorState outside = graph.edge(1, 2).setDistance(2000);
+        Weighting base = mock(Weighting.class);
+        when(base.calcEdgeWeight(any(), anyBoolean())).thenReturn(10.0);
+        AvoidanceGrid grid = AvoidanceGrid.of(50, 100, List.of(Arrays.asList(-6.2603, 53.3498)));
+
+        AvoidanceWeighting weighting = new AvoidanceWeighting(base, grid, graph, 100);
+
+        assertEquals(1000.0, weighting.calcEdgeWeight(inside, false));
+        assertEquals(10.0, weighting.calcEdgeWeight(outside, false));
+    }
+}
@@ -0,0 +1,122 @@
+package nl.ase_wayfinding.routecalc.service;
+
+import com.graphhopper.config.Profile;
+import com.graphhopper.routing.WeightingFactory;
+import com.graphhopper.routing.util.EncodingManager;
+import com.graphhopper.routing.weighting.Weighting;
+import com.graphhopper.storage.BaseGraph;
+import com.graphhopper.util.CustomModel;
+import com.graphhopper.util.JsonFeature;
+import com.graphhopper.util.JsonFeatureCollection;
+import com.graphhopper.util.PMap;
+import org.junit.jupiter.api.Test;
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.GeometryFactory;
+import org.locationtech.jts.geom.Polygon;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+import static com.graphhopper.json.Statement.If;
+import static com.graphhopper.json.Statement.Op.MULTIPLY;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.Mockito.*;
+
+class CachingWeightingFactoryTest {
+
+    private static final GeometryFactory GEOMETRY_FACTORY = new GeometryFactory();
+
+    private final Profile car = new Profile("car").setVehicle("car").setWeighting("custom");
+
+    private static CustomModel avoid(double lon, double lat) {
+        double d = 0.001;
+        Polygon square = GEOMETRY_FACTORY.createPolygon(new Coordinate[] {
+                new Coordinate(lon - d, lat - d), new Coordinate(lon + d, lat - d), new Coordinate(lon + d, lat + d),
+                new Coordinate(lon - d, lat + d), new Coordinate(lon - d, lat - d) });
+        JsonFeatureCollection areas = new JsonFeatureCollection();
+        areas.getFeatures().add(new JsonFeature("bad_areas", "Feature", null, square, new HashMap<>()));
+        CustomModel cm = new CustomModel();
+        cm.setAreas(areas);
+        cm.addToPriority(If("in_bad_areas", MULTIPLY, "0.01"));
+        return cm;
+    }
+
+    private static PMap hints(CustomModel cm) {
+        return new PMap().putObject(CustomModel.KEY, cm);
+    }
+
+    @Test
+    void testCreateWeighting_reusesWeightingOfEqualModel() {
+        WeightingFactory delegate = mock(WeightingFactory.class);
+        when(delegate.createWeighting(any(), any(), anyBoolean())).thenAnswer(inv -> mock(Weighting.class));
+        CachingWeightingFactory factory = new CachingWeightingFactory(delegate, null, 100, 10);
+
+        Weighting first = factory.createWeighting(car, hints(avoid(-6.26, 53.35)), false);
+        Weighting second = factory.createWeighting(car, hints(avoid(-6.26, 53.35)), false);
+
+        assertSame(first, second);
+        verify(delegate, times(1)).createWeighting(any(), any(), anyBoolean());
+        assertEquals(1, factory.getHits());
+        assertEquals(1, factory.getMisses());
+    }
+
+    @Test
+    void testCreateWeighting_differentAreaGeometryIsAMiss() {
+        WeightingFactory delegate = mock(WeightingFactory.class);
+        when(delegate.createWeighting(any(), any(), anyBoolean())).thenAnswer(inv -> mock(Weighting.class));
+        CachingWeightingFactory factory = new CachingWeightingFactory(delegate, null, 100, 10);
+
+        Weighting first = factory.createWeighting(car, hints(avoid(-6.26, 53.35)), false);
+        Weighting second = factory.createWeighting(car, hints(avoid(-6.25, 53.35)), false);
+
+        assertNotSame(first, second);
+        assertEquals(2, factory.size());
+    }
+
+    @Test
+    void testCreateWeighting_withoutCustomModelIsNotCached() {
+        WeightingFactory delegate = mock(WeightingFactory.class);
+        when(delegate.createWeighting(any(), any(), anyBoolean())).thenAnswer(inv -> mock(Weighting.class));
+        CachingWeightingFactory factory = new CachingWeightingFactory(delegate, null, 100, 10);
+
+        factory.createWeighting(car, new PMap(), false);
+        factory.createWeighting(car, new PMap(), false);
+
+        verify(delegate, times(2)).createWeighting(any(), any(), anyBoolean());
+        assertEquals(0, factory.size());
+    }
+
+    @Test
+    void testCreateWeighting_evictsLeastRecentlyUsed() {
+        WeightingFactory delegate = mock(WeightingFactory.class);
+        when(delegate.createWeighting(any(), any(), anyBoolean())).thenAnswer(inv -> mock(Weighting.class));
+        CachingWeightingFactory factory = new CachingWeightingFactory(delegate, null, 100, 2);
+
+        for (int i = 0; i < 3; i++) {
+            factory.createWeighting(car, hints(avoid(-6.26 + i * 0.01, 53.35)), false);
+        }
+        factory.createWeighting(car, hints(avoid(-6.26, 53.35)), false);
+
+        assertEquals(2, factory.size());
+        assertEquals(4, factory.getMisses());
+    }
+
+    @Test
+    void testCreateWeighting_wrapsAndCachesAvoidanceGrid() {
+        WeightingFactory delegate = mock(WeightingFactory.class);
+        when(delegate.createWeighting(any(), any(), anyBoolean())).thenAnswer(inv -> mock(Weighting.class));
+        BaseGraph graph = new BaseGraph.Builder(EncodingManager.start().build()).create();
+        CachingWeightingFactory factory = new CachingWeightingFactory(delegate, graph, 100, 10);
+        AvoidanceGrid grid = AvoidanceGrid.of(50, 100, List.of(Arrays.asList(-6.26, 53.35)));
+
+        Weighting first = factory.createWeighting(car, new PMap().putObject(AvoidanceGrid.KEY, grid), false);
+        Weighting second = factory.createWeighting(car,
+                new PMap().putObject(AvoidanceGrid.KEY, grid.with(List.of(Arrays.asList(-6.26, 53.35)))), false);
+
+        assertTrue(first instanceof AvoidanceWeighting);
+        assertSame(first, second);
+    }
+}
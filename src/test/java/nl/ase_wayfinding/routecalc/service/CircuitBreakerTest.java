@@ -0,0 +1,47 @@
+package nl.ase_wayfinding.routecalc.service;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CircuitBreakerTest {
+
+    @Test
+    void testOnFailure_opensAfterThreshold() {
+        CircuitBreaker breaker = new CircuitBreaker(2, 60_000);
+
+        breaker.onFailure();
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        breaker.onFailure();
+
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        assertFalse(breaker.tryAcquirePermission());
+        assertEquals(1, breaker.getRejectedCalls());
+    }
+
+    @Test
+    void testOnSuccess_resetsConsecutiveFailures() {
+        CircuitBreaker breaker = new CircuitBreaker(2, 60_000);
+
+        breaker.onFailure();
+        breaker.onSuccess();
+        breaker.onFailure();
+
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+    }
+
+    @Test
+    void testTryAcquirePermission_allowsOneTrialWhenHalfOpen() throws Exception {
+        CircuitBreaker breaker = new CircuitBreaker(1, 10);
+        breaker.onFailure();
+        Thread.sleep(20);
+
+        assertTrue(breaker.tryAcquirePermission());
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+        assertFalse(breaker.tryAcquirePermission());
+
+        // a failed trial re-opens the breaker
+        breaker.onFailure();
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+    }
+}
@@ -0,0 +1,209 @@
+package nl.ase_wayfinding.routecalc.service;
+
+import com.graphhopper.ResponsePath;
+import com.graphhopper.util.DistanceCalcEarth;
+import com.graphhopper.util.FinishInstruction;
+import com.graphhopper.util.Instruction;
+import com.graphhopper.util.InstructionList;
+import com.graphhopper.util.PointList;
+import com.graphhopper.util.TranslationMap;
+import com.graphhopper.util.ViaInstruction;
+import com.graphhopper.util.shapes.GHPoint;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DetourRepairTest {
+
+    private static final TranslationMap.TranslationHashMap TR = new TranslationMap.TranslationHashMap(Locale.ENGLISH);
+    private static final double LAT = 53.35;
+    private static final double LON = -6.27;
+    private static final double STEP = 0.001;
+
+    /** 21 points west to east: "A" over points 0-9, a left turn onto "B" over 10-19, finish at 20. */
+    private static ResponsePath straightPath() {
+        PointList points = new PointList();
+        for (int i = 0; i <= 20; i++)
+            points.add(LAT, LON + i * STEP);
+        InstructionList instructions = new InstructionList(3, TR);
+        instructions.add(instruction(Instruction.CONTINUE_ON_STREET, "A", points, 0, 10, 10));
+        instructions.add(instruction(Instruction.TURN_LEFT, "B", points, 10, 20, 10));
+        instructions.add(instruction(Instruction.FINISH, "", points, 20, 21, 0));
+        ResponsePath path = new ResponsePath();
+        path.setPoints(points);
+        path.setInstructions(instructions);
+        path.setDistance(instructions.get(0).getDistance() + instructions.get(1).getDistance());
+        path.setTime(instructions.get(0).getTime() + instructions.get(1).getTime());
+        path.setRouteWeight(200);
+        return path;
+    }
+
+    /**
+     * 11 points west to east merged from two legs the way GraphHopper does: "A" over
+     * points 0-4, the via point 5 shared with the second leg, "B" over 5-9, finish at 10.
+     */
+    private static ResponsePath viaPath() {
+        PointList points = new PointList();
+        for (int i = 0; i <= 10; i++)
+            points.add(LAT, LON + i * STEP);
+        InstructionList instructions = new InstructionList(4, TR);
+        instructions.add(instruction(Instruction.CONTINUE_ON_STREET, "A", points, 0, 5, 5));
+        ViaInstruction via = new ViaInstruction(new FinishInstruction(LAT, LON + 5 * STEP, Double.NaN));
+        via.setViaCount(1);
+        instructions.add(via);
+        instructions.add(instruction(Instruction.TURN_LEFT, "B", points, 5, 10, 5));
+        instructions.add(new FinishInstruction(LAT, LON + 10 * STEP, Double.NaN));
+        ResponsePath path = new ResponsePath();
+        path.setPoints(points);
+        path.setInstructions(instructions);
+        path.setDistance(10 * segment());
+        path.setTime(instructions.get(0).getTime() + instructions.get(2).getTime());
+        path.setRouteWeight(100);
+        return path;
+    }
+
+    /** A routed detour from the first point over the others, finishing at end. */
+    private static ResponsePath detour(String name, GHPoint end, GHPoint... points) {
+        PointList around = new PointList();
+        for (GHPoint point : points)
+            around.add(point.getLat(), point.getLon());
+        InstructionList instructions = new InstructionList(2, TR);
+        Instruction instruction = new Instruction(Instruction.TURN_RIGHT, name, around);
+        instruction.setDistance(300);
+        instruction.setTime(30_000);
+        instructions.add(instruction);
+        instructions.add(new FinishInstruction(end.getLat(), end.getLon(), Double.NaN));
+        ResponsePath detour = new ResponsePath();
+        detour.setInstructions(instructions);
+        detour.setRouteWeight(20);
+        return detour;
+    }
+
+    private static GHPoint at(double lat, int step) {
+        return new GHPoint(lat, LON + step * STEP);
+    }
+
+    private static Instruction instruction(int sign, String name, PointList points, int from, int to, int segments) {
+        Instruction instruction = new Instruction(sign, name, points.copy(from, to));
+        double distance = segments * segment();
+        instruction.setDistance(distance);
+        instruction.setTime(Math.round(distance * 100));
+        return instruction;
+    }
+
+    private static double segment() {
+        return DistanceCalcEarth.DIST_EARTH.calcDist(LAT, LON, LAT, LON + STEP);
+    }
+
+    @Test
+    void testFindStretches_widensByMarginAndMergesOverlaps() {
+        ResponsePath path = straightPath();
+
+        List<int[]> single = DetourRepair.findStretches(path.getPoints(),
+                List.of(Arrays.asList(LON + 10 * STEP, LAT + 0.0002)), 150);
+        List<int[]> merged = DetourRepair.findStretches(path.getPoints(),
+                List.of(Arrays.asList(LON + 3 * STEP, LAT), Arrays.asList(LON + 5 * STEP, LAT)), 150);
+
+        assertEquals(1, single.size());
+        assertArrayEquals(new int[] { 7, 13 }, single.get(0));
+        assertEquals(1, merged.size());
+        assertArrayEquals(new int[] { 0, 8 }, merged.get(0));
+    }
+
+    @Test
+    void testFindStretches_withoutBadCoordinatesIsEmpty() {
+        assertTrue(DetourRepair.findStretches(straightPath().getPoints(), List.of(), 150).isEmpty());
+    }
+
+    @Test
+    void testSplice_replacesStretchWithDetour() {
+        ResponsePath original = straightPath();
+        PointList detourPoints = new PointList();
+        detourPoints.add(LAT, LON + 7 * STEP);
+        detourPoints.add(LAT + 0.002, LON + 8 * STEP);
+        detourPoints.add(LAT + 0.002, LON + 12 * STEP);
+        InstructionList detourInstructions = new InstructionList(2, TR);
+        Instruction around = new Instruction(Instruction.TURN_RIGHT, "C", detourPoints.copy(0, 3));
+        around.setDistance(600);
+        around.setTime(60_000);
+        detourInstructions.add(around);
+        PointList finish = new PointList();
+        finish.add(LAT, LON + 13 * STEP);
+        detourInstructions.add(new Instruction(Instruction.FINISH, "", finish));
+        ResponsePath detour = new ResponsePath();
+        detour.setInstructions(detourInstructions);
+        detour.setRouteWeight(50);
+
+        ResponsePath spliced = DetourRepair.splice(original, List.of(new int[] { 7, 13 }), List.of(detour));
+
+        assertEquals(7 + 3 + 8, spliced.getPoints().size());
+        assertEquals(LAT + 0.002, spliced.getPoints().getLat(8), 1e-9);
+        assertEquals(LON + 13 * STEP, spliced.getPoints().getLon(10), 1e-9);
+        InstructionList instructions = spliced.getInstructions();
+        assertEquals(4, instructions.size());
+        assertEquals("A", instructions.get(0).getName());
+        assertEquals("C", instructions.get(1).getName());
+        assertEquals("B", instructions.get(2).getName());
+        assertEquals(Instruction.CONTINUE_ON_STREET, instructions.get(2).getSign());
+        assertEquals(Instruction.FINISH, instructions.get(3).getSign());
+        int length = 0;
+        for (Instruction instruction : instructions)
+            length += instruction.getLength();
+        assertEquals(spliced.getPoints().size(), length);
+        assertEquals(14 * segment() + 600, spliced.getDistance(), 0.01);
+        assertEquals(2 * 7 * segment() * 100 + 60_000, spliced.getTime(), 2);
+        assertEquals(200 * 0.7 + 50, spliced.getRouteWeight(), 1);
+    }
+
+    @Test
+    void testSplice_viaPathTwiceKeepsTheViaPointOnceAndTheDestination() {
+        ResponsePath once = DetourRepair.splice(viaPath(), List.of(new int[] { 1, 3 }),
+                List.of(detour("C", at(LAT, 3), at(LAT, 1), at(LAT + 0.002, 2))));
+
+        assertEquals(11, once.getPoints().size());
+        int length = 0;
+        for (Instruction instruction : once.getInstructions())
+            length += instruction.getLength();
+        // as in a merged path, the finish covers no points but holds the last one
+        assertEquals(once.getPoints().size() - 1, length);
+
+        ResponsePath twice = DetourRepair.splice(once, List.of(new int[] { 7, 9 }),
+                List.of(detour("D", at(LAT, 9), at(LAT, 7), at(LAT - 0.002, 8))));
+
+        PointList points = twice.getPoints();
+        assertEquals(11, points.size());
+        assertEquals(LON + 10 * STEP, points.getLon(points.size() - 1), 1e-9);
+        assertEquals(LAT - 0.002, points.getLat(8), 1e-9);
+        InstructionList instructions = twice.getInstructions();
+        assertEquals(Instruction.FINISH, instructions.get(instructions.size() - 1).getSign());
+        long vias = instructions.stream().filter(i -> i.getSign() == Instruction.REACHED_VIA).count();
+        assertEquals(1, vias);
+    }
+
+    @Test
+    void testSplice_stretchFromTheViaPointKeepsTheViaInstruction() {
+        ResponsePath spliced = DetourRepair.splice(viaPath(), List.of(new int[] { 5, 8 }),
+                List.of(detour("C", at(LAT, 8), at(LAT, 5), at(LAT + 0.002, 6))));
+
+        InstructionList instructions = spliced.getInstructions();
+        assertEquals(List.of("A", "", "C", "B", ""),
+                instructions.stream().map(Instruction::getName).collect(Collectors.toList()));
+        assertEquals(Instruction.REACHED_VIA, instructions.get(1).getSign());
+        assertEquals(5 + 2 + 3, spliced.getPoints().size());
+    }
+
+    @Test
+    void testCoversViaPoint_onlyInsideAStretch() {
+        ResponsePath path = straightPath();
+        List<int[]> stretches = List.of(new int[] { 7, 13 });
+
+        assertTrue(DetourRepair.coversViaPoint(path.getPoints(), stretches, List.of(new GHPoint(LAT, LON + 10 * STEP))));
+        assertFalse(DetourRepair.coversViaPoint(path.getPoints(), stretches, List.of(new GHPoint(LAT, LON + 13 * STEP))));
+        assertFalse(DetourRepair.coversViaPoint(path.getPoints(), stretches, List.of()));
+    }
+}
\ No newline at end of file
@@ -0,0 +1,77 @@
+package nl.ase_wayfinding.routecalc.service;
+
+import com.graphhopper.routing.util.EncodingManager;
+import com.graphhopper.routing.weighting.Weighting;
+import com.graphhopper.storage.BaseGraph;
+import com.graphhopper.storage.RAMDirectory;
+import com.graphhopper.storage.index.LocationIndexTree;
+import com.graphhopper.util.EdgeIteratorState;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class EdgeBlocklistTest {
+
+    private BaseGraph graph;
+    private LocationIndexTree locationIndex;
+    private EdgeIteratorState westEast;
+    private EdgeIteratorState southNorth;
+
+    @BeforeEach
+    void setUp() {
+        graph = new BaseGraph.Builder(EncodingManager.start().build()).create();
+        // two ~1 km edges crossing central Dublin, one west-east and one south-north
+        graph.getNodeAccess().setNode(0, 53.3500, -6.2700);
+        graph.getNodeAccess().setNode(1, 53.3500, -6.2550);
+        graph.getNodeAccess().setNode(2, 53.3400, -6.2500);
+        graph.getNodeAccess().setNode(3, 53.3490, -6.2500);
+        westEast = graph.edge(0, 1).setDistance(1000);
+        southNorth = graph.edge(2, 3).setDistance(1000);
+        locationIndex = new LocationIndexTree(graph, new RAMDirectory());
+        locationIndex.prepareIndex();
+    }
+
+    @Test
+    void testWith_blocksEdgesPassingWithinRadius() {
+        // ~30 m north of the middle of the west-east edge
+        EdgeBlocklist blocklist = EdgeBlocklist.empty()
+                .with(graph, locationIndex, List.of(Arrays.asList(-6.2625, 53.3503)), 100);
+
+        assertTrue(blocklist.contains(westEast.getEdge()));
+        assertFalse(blocklist.contains(southNorth.getEdge()));
+        assertEquals(1, blocklist.size());
+    }
+
+    @Test
+    void testWith_accumulatesAndIgnoresCoordinatesAwayFromTheGraph() {
+        EdgeBlocklist first = EdgeBlocklist.empty()
+                .with(graph, locationIndex, List.of(Arrays.asList(-6.2625, 53.3503)), 100);
+        EdgeBlocklist second = first.with(graph, locationIndex, List.of(Arrays.asList(-6.2502, 53.3445)), 100);
+        EdgeBlocklist unchanged = second.with(graph, locationIndex, List.of(Arrays.asList(-6.3500, 53.4000)), 100);
+
+        assertEquals(1, first.size());
+        assertEquals(2, second.size());
+        assertSame(second, unchanged);
+    }
+
+    @Test
+    void testBlocklistWeighting_penalizesBlockedEdgesOnly() {
+        EdgeBlocklist blocklist = EdgeBlocklist.empty()
+                .with(graph, locationIndex, List.of(Arrays.asList(-6.2625, 53.3503)), 100);
+        Weighting base = mock(Weighting.class);
+        when(base.calcEdgeWeight(any(), anyBoolean())).thenReturn(10.0);
+
+        BlocklistWeighting weighting = new BlocklistWeighting(base, blocklist, graph.getEdges(), 100);
+
+        assertEquals(1000.0, weighting.calcEdgeWeight(westEast, false));
+        assertEquals(10.0, weighting.calcEdgeWeight(southNorth, false));
+    }
+}
@@ -0,0 +1,179 @@
+package nl.ase_wayfinding.routecalc.service;
+
+import com.sun.net.httpserver.HttpServer;
+import nl.ase_wayfinding.routecalc.config.AppConfig;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.web.client.RestTemplate;
+
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Runs the client against a local stub of the environmental-data service that can
+ * be switched between healthy, failing and slow responses.
+ */
+class EnvironmentalDataClientTest {
+
+    private static final List<List<Double>> COORDS = List.of(Arrays.asList(-6.2603, 53.3498),
+            Arrays.asList(-6.2546, 53.3438));
+
+    private HttpServer server;
+    private final AtomicInteger status = new AtomicInteger(200);
+    private final AtomicInteger delayMillis = new AtomicInteger(0);
+    private final AtomicInteger dripMillis = new AtomicInteger(0);
+    private final AtomicInteger requests = new AtomicInteger();
+    private volatile CountDownLatch release;
+    private String baseUrl;
+    private RestTemplate restTemplate;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/environmental-data", exchange -> {
+            requests.incrementAndGet();
+            try {
+                if (release != null)
+                    release.await(5, TimeUnit.SECONDS);
+                Thread.sleep(delayMillis.get());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            byte[] body = (status.get() == 200 ? "[{\"aqi\":2},{\"aqi\":5}]" : "{\"error\":\"boom\"}")
+                    .getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().add("Content-Type", "application/json");
+            exchange.sendResponseHeaders(status.get(), body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                if (dripMillis.get() == 0) {
+                    out.write(body);
+                    return;
+                }
+                // one byte at a time, each well within the read timeout
+                for (byte b : body) {
+                    out.write(b);
+                    out.flush();
+                    Thread.sleep(dripMillis.get());
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.start();
+        baseUrl = "http://127.0.0.1:" + server.getAddress().getPort();
+        restTemplate = new AppConfig().restTemplate(10, 200, 500, 300, 30_000);
+    }
+
+    @AfterEach
+    void tearDown() {
+        if (release != null)
+            release.countDown();
+        server.stop(0);
+    }
+
+    @Test
+    void testFetchAirQuality_returnsReadings() {
+        EnvironmentalDataClient client = new EnvironmentalDataClient(restTemplate, baseUrl, 4, 50, 3, 60_000, 1_000);
+
+        assertEquals(List.of(2, 5), client.fetchAirQuality(COORDS));
+        assertEquals(CircuitBreaker.State.CLOSED, client.getCircuitState());
+    }
+
+    @Test
+    void testFetchAirQuality_readTimeoutIsAFailure() {
+        EnvironmentalDataClient client = new EnvironmentalDataClient(restTemplate, baseUrl, 4, 50, 3, 60_000, 1_000);
+        delayMillis.set(1_000);
+
+        long start = System.nanoTime();
+        assertTrue(client.fetchAirQuality(COORDS).isEmpty());
+        long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        assertTrue(elapsedMillis < 900, "call should be cut off by the read timeout, took " + elapsedMillis + " ms");
+        assertEquals(1L, client.stats().get("failures"));
+    }
+
+    @Test
+    void testFetchAirQuality_slowDripIsCutOffByTheDeadline() {
+        EnvironmentalDataClient client = new EnvironmentalDataClient(restTemplate, baseUrl, 4, 50, 3, 60_000, 500);
+        dripMillis.set(100);
+
+        long start = System.nanoTime();
+        assertTrue(client.fetchAirQuality(COORDS).isEmpty());
+        long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        // the 21-byte body takes over 2 s to arrive, yet no single read hits the 300 ms read timeout
+        assertTrue(elapsedMillis < 1_000, "call should be cut off by the deadline, took " + elapsedMillis + " ms");
+        Map<String, Object> stats = client.stats();
+        assertEquals(1L, stats.get("failures"));
+        assertEquals(1L, stats.get("deadline_exceeded"));
+        client.shutdown();
+    }
+
+    @Test
+    void testFetchAirQuality_opensCircuitAfterRepeatedFailures() {
+        EnvironmentalDataClient client = new EnvironmentalDataClient(restTemplate, baseUrl, 4, 50, 3, 60_000, 1_000);
+        status.set(500);
+
+        for (int i = 0; i < 3; i++) {
+            assertTrue(client.fetchAirQuality(COORDS).isEmpty());
+        }
+        assertEquals(CircuitBreaker.State.OPEN, client.getCircuitState());
+
+        // further calls are skipped without reaching the service
+        assertTrue(client.fetchAirQuality(COORDS).isEmpty());
+        assertEquals(3, requests.get());
+        assertEquals(1L, client.stats().get("circuit_rejections"));
+    }
+
+    @Test
+    void testFetchAirQuality_halfOpenTrialClosesCircuitWhenServiceRecovers() throws Exception {
+        EnvironmentalDataClient client = new EnvironmentalDataClient(restTemplate, baseUrl, 4, 50, 1, 50, 1_000);
+        status.set(500);
+        assertTrue(client.fetchAirQuality(COORDS).isEmpty());
+        assertEquals(CircuitBreaker.State.OPEN, client.getCircuitState());
+
+        status.set(200);
+        Thread.sleep(80);
+
+        assertEquals(List.of(2, 5), client.fetchAirQuality(COORDS));
+        assertEquals(CircuitBreaker.State.CLOSED, client.getCircuitState());
+    }
+
+    @Test
+    void testFetchAirQuality_bulkheadRejectsCallsOverTheLimit() throws Exception {
+        EnvironmentalDataClient client = new EnvironmentalDataClient(restTemplate, baseUrl, 1, 10, 3, 60_000, 1_000);
+        release = new CountDownLatch(1);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<List<Integer>> inFlight = executor.submit(() -> client.fetchAirQuality(COORDS));
+            while (requests.get() == 0) {
+                Thread.sleep(5);
+            }
+
+            // the only permit is held by the in-flight call
+            assertTrue(client.fetchAirQuality(COORDS).isEmpty());
+            Map<String, Object> stats = client.stats();
+            assertEquals(1L, stats.get("bulkhead_rejections"));
+            assertEquals(1, requests.get());
+
+            release.countDown();
+            assertEquals(List.of(2, 5), inFlight.get(5, TimeUnit.SECONDS));
+            assertEquals(1, client.stats().get("available_permits"));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package nl.ase_wayfinding.routecalc.service;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FanOutTest {
+
+    private final ExecutorService pool = Executors.newFixedThreadPool(2);
+
+    @AfterEach
+    void tearDown() {
+        pool.shutdownNow();
+    }
+
+    @Test
+    void testInvokeAll_returnsResultsInTaskOrder() {
+        List<Callable<String>> tasks = List.of(
+                () -> {
+                    Thread.sleep(50);
+                    return "first";
+                },
+                () -> "second",
+                () -> "third");
+
+        assertEquals(List.of("first", "second", "third"), FanOut.invokeAll(pool, tasks));
+    }
+
+    @Test
+    void testInvokeAll_firstFailureCancelsSiblings() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch blocked = new CountDownLatch(1);
+        AtomicBoolean interrupted = new AtomicBoolean();
+        IllegalStateException failure = new IllegalStateException("no route");
+        List<Callable<String>> tasks = List.of(
+                () -> {
+                    started.await(5, TimeUnit.SECONDS);
+                    throw failure;
+                },
+                () -> {
+                    started.countDown();
+                    try {
+                        blocked.await(5, TimeUnit.SECONDS);
+                    } catch (InterruptedException e) {
+                        interrupted.set(true);
+                    }
+                    return "slow";
+                });
+
+        IllegalStateException thrown = assertThrows(IllegalStateException.class, () -> FanOut.invokeAll(pool, tasks));
+
+        assertSame(failure, thrown);
+        pool.shutdown();
+        assertTrue(pool.awaitTermination(5, TimeUnit.SECONDS));
+        assertTrue(interrupted.get());
+    }
+
+    @Test
+    void testInvokeAll_callerRunsTasksTheExecutorRejects() {
+        List<Callable<String>> tasks = List.of(() -> "a", () -> "b", () -> "c");
+
+        List<String> results = FanOut.invokeAll(command -> {
+            throw new RejectedExecutionException("full");
+        }, tasks);
+
+        assertEquals(List.of("a", "b", "c"), results);
+    }
+
+    @Test
+    void testInvokeAll_sharedDeadlineDropsSlowTasks() {
+        List<Callable<String>> tasks = List.of(() -> "walk to stop", () -> {
+            Thread.sleep(300);
+            return "walk from stop";
+        });
+
+        assertThrows(TimeoutException.class, () -> FanOut.invokeAll(pool, tasks, 50, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    void testInvokeAll_reportsEarliestFailureInTaskOrder() {
+        IllegalStateException first = new IllegalStateException("no car route");
+        List<Callable<String>> tasks = List.of(
+                () -> {
+                    Thread.sleep(50);
+                    throw first;
+                },
+                () -> {
+                    throw new IllegalStateException("no walking route");
+                });
+
+        assertSame(first, assertThrows(IllegalStateException.class, () -> FanOut.invokeAll(pool, tasks)));
+    }
+}
\ No newline at end of file
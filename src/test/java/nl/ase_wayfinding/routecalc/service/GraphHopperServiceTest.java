@@ -11,14 +11,13 @@ import com.graphhopper.util.InstructionList;
 import com.graphhopper.util.PointList;
 import com.graphhopper.util.Translation;
 import com.graphhopper.util.TranslationMap;
+import com.graphhopper.util.exceptions.ConnectionNotFoundException;
+import com.graphhopper.util.exceptions.PointNotFoundException;
 import com.graphhopper.util.shapes.GHPoint;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
-import org.locationtech.jts.geom.Geometry;
-import org.locationtech.jts.geom.MultiPolygon;
-import org.locationtech.jts.geom.Polygon;
 import org.mockito.*;
 import org.springframework.core.io.ResourceLoader;
 import org.springframework.core.io.Resource;
@@ -68,6 +67,7 @@ public class GraphHopperServiceTest {
         @InjectMocks
         private GraphHopperService graphHopperService;
 
+        private java.util.concurrent.ExecutorService routingExecutor;
         private Path tempOsmFile;
         private Path tempGtfsDir;
         private Path shapesFilePath;
@@ -77,15 +77,19 @@ public class GraphHopperServiceTest {
                 MockitoAnnotations.openMocks(this);
                 // Set default fields for most tests
                 ReflectionTestUtils.setField(graphHopperService, "hopper", hopper);
+                ReflectionTestUtils.setField(graphHopperService, "environmentalDataClient",
+                        new EnvironmentalDataClient(restTemplate, "http://test-env-data-service", 4, 50, 5, 30_000, 2_500));
+                ReflectionTestUtils.setField(graphHopperService, "aqiTileCache", new AqiTileCache(100, 600_000, 10_000));
+                routingExecutor = java.util.concurrent.Executors.newFixedThreadPool(2);
+                ReflectionTestUtils.setField(graphHopperService, "routingExecutor", routingExecutor);
                 ReflectionTestUtils.setField(graphHopperService, "osmFilePath", "test-osm-file.pbf");
                 ReflectionTestUtils.setField(graphHopperService, "graphCachePath", "test-graph-cache");
                 ReflectionTestUtils.setField(graphHopperService, "gtfsPath", "test-gtfs-path");
-                ReflectionTestUtils.setField(graphHopperService, "environmentalDataServiceUrl",
-                        "http://test-env-data-service");
         }
 
         @AfterEach
         void tearDown() throws Exception {
+                routingExecutor.shutdownNow();
                 // Clean up temporary files if they were created
                 if (tempOsmFile != null && Files.exists(tempOsmFile)) {
                         Files.delete(tempOsmFile);
@@ -128,6 +132,7 @@ public class GraphHopperServiceTest {
                 assertEquals(1, result.get("iterations"));
                 assertEquals(mockPath, result.get("bestPath"));
                 assertEquals(mockResponse, result.get("response"));
+                assertEquals(GraphHopperService.TERMINATION_CLEAN, result.get("termination_reason"));
         }
 
         @Test
@@ -266,9 +271,12 @@ public class GraphHopperServiceTest {
                 when(mockWalkFromBusResponse.hasErrors()).thenReturn(false);
                 when(mockWalkFromBusResponse.getBest()).thenReturn(mockWalkFromBusPath);
 
-                when(hopper.route(any(GHRequest.class)))
-                                .thenReturn(mockWalkToBusResponse)
-                                .thenReturn(mockWalkFromBusResponse);
+                // both walks run concurrently, answer by start point rather than call order
+                when(hopper.route(any(GHRequest.class))).thenAnswer(invocation -> {
+                        GHRequest request = invocation.getArgument(0);
+                        return request.getPoints().get(0).getLat() == 51.5074 ? mockWalkToBusResponse
+                                        : mockWalkFromBusResponse;
+                });
 
                 // Mock the path segment formatting
                 Map<String, Object> mockWalkToSegment = Map.of("mode", "walk", "distance", 100.0, "time", 600000L);
@@ -520,8 +528,8 @@ public class GraphHopperServiceTest {
                                 new double[] { -0.090, 51.520 },
                                 new double[] { -0.035, 51.525 }));
 
-                // Use reflection to set the bus routes
-                ReflectionTestUtils.setField(graphHopperService, "busRoutes", testBusRoutes);
+                // Load and index the bus routes
+                graphHopperService.setBusRoutes(testBusRoutes);
 
                 // Act
                 Map<String, Object> result = graphHopperService.getBusRoute(userPoints);
@@ -543,7 +551,7 @@ public class GraphHopperServiceTest {
                 );
 
                 // Set empty bus routes
-                ReflectionTestUtils.setField(graphHopperService, "busRoutes", new HashMap<>());
+                graphHopperService.setBusRoutes(new HashMap<>());
 
                 // Act
                 Map<String, Object> result = graphHopperService.getBusRoute(userPoints);
@@ -639,23 +647,62 @@ public class GraphHopperServiceTest {
         }
 
         @Test
-        void testGetTrainRouteWithWalking() {
-                // Arrange: Create test input points.
-                List<List<Double>> userPoints = Arrays.asList(
-                        Arrays.asList(-0.1278, 51.5074), // Start
-                        Arrays.asList(-0.0343, 51.5258)  // End
-                );
+        void testGetTrainRouteWithWalking_followsTheNearestRailShape() {
+                List<double[]> shape = List.of(new double[] { -6.2603, 53.3498 }, new double[] { -6.2597, 53.3382 });
+                Map<String, List<double[]>> shapes = new HashMap<>();
+                shapes.put("luas", shape);
+                shapes.put("dart", shape);
+                graphHopperService.setShapeRoutes(shapes, Map.of("luas", TransitMode.TRAM, "dart", TransitMode.RAIL));
+                List<List<Double>> userPoints = Arrays.asList(Arrays.asList(-6.2601, 53.3497),
+                                Arrays.asList(-6.2596, 53.3384));
+                GHResponse walkResponse = mock(GHResponse.class);
+                when(walkResponse.getBest()).thenReturn(mock(ResponsePath.class));
+                when(hopper.route(any(GHRequest.class))).thenReturn(walkResponse);
+                doAnswer(invocation -> Map.of("mode", "walk", "start", invocation.getArgument(2),
+                                "end", invocation.getArgument(3)))
+                                .when(graphHopperService).formatPathSegment(any(), eq("walk"), anyString(), anyString());
 
-                // Act: Invoke the real getTrainRouteWithWalking method.
                 Map<String, Object> result = graphHopperService.getTrainRouteWithWalking(userPoints);
 
-                // Assert: Verify the returned structure against the expected values.
-                assertNotNull(result);
                 assertEquals("success", result.get("status"));
                 assertEquals("train", result.get("mode"));
-                assertTrue(result.containsKey("paths"));
-                assertTrue(((List<?>) result.get("paths")).isEmpty());
-                assertEquals("Train routing is not fully implemented yet", result.get("message"));
+                List<Map<String, Object>> paths = (List<Map<String, Object>>) result.get("paths");
+                assertEquals("Station", paths.get(0).get("end"));
+                assertEquals("train", paths.get(1).get("mode"));
+                assertEquals("dart", paths.get(1).get("route"));
+                assertEquals("Station", paths.get(2).get("start"));
+                // the shapes are no bus routes
+                assertEquals("No bus route found for this journey.",
+                                graphHopperService.getBusRoute(userPoints).get("error"));
+        }
+
+        @Test
+        void testGetBusRouteWithWalking_ridesAShapeThatDoublesBackInItsDirection() {
+                // out east along 53.3500, back west along 53.3503 between the outbound points
+                List<double[]> shape = new ArrayList<>();
+                for (int i = 0; i < 5; i++)
+                        shape.add(new double[] { -6.270 + i * 0.005, 53.3500 });
+                for (int i = 0; i < 5; i++)
+                        shape.add(new double[] { -6.2525 - i * 0.005, 53.3503 });
+                graphHopperService.setBusRoutes(Map.of("loop", shape));
+                // the origin is nearest to outbound point 1 but to the return half's line
+                List<List<Double>> userPoints = Arrays.asList(Arrays.asList(-6.265, 53.3502),
+                                Arrays.asList(-6.255, 53.3500));
+                GHResponse walkResponse = mock(GHResponse.class);
+                when(walkResponse.getBest()).thenReturn(mock(ResponsePath.class));
+                when(hopper.route(any(GHRequest.class))).thenReturn(walkResponse);
+                doReturn(Map.of("mode", "walk")).when(graphHopperService).formatPathSegment(any(), eq("walk"),
+                                anyString(), anyString());
+
+                Map<String, Object> result = graphHopperService.getBusRouteWithWalking(userPoints);
+
+                assertEquals("success", result.get("status"));
+                List<Map<String, Object>> paths = (List<Map<String, Object>>) result.get("paths");
+                List<List<Double>> ride = (List<List<Double>>) paths.get(1).get("points");
+                assertEquals(List.of(-6.265, 53.3500), ride.get(0));
+                assertEquals(List.of(-6.255, 53.3500), ride.get(ride.size() - 1));
+                for (List<Double> point : ride)
+                        assertEquals(53.3500, point.get(1), 1e-9);
         }
 
         @Test
@@ -874,25 +921,23 @@ public class GraphHopperServiceTest {
         }
 
         @Test
-        void testUpdateCustomModel_updatesCustomModelCorrectly() {
-                // Arrange: create a new GHRequest without a CustomModel
+        void testUpdateAvoidanceGrid_marksBadCoordinates() {
+                // Arrange: create a new GHRequest without an avoidance grid
                 GHRequest request = new GHRequest();
                 // Simulate a set of bad coordinates
                 List<List<Double>> badCoords = List.of(Arrays.asList(-0.1278, 51.5074), Arrays.asList(-0.0810, 51.5166));
                 int iteration = 1;
 
-                // Act: call updateCustomModel (this method is package-private so we can access it)
-                graphHopperService.updateCustomModel(request, badCoords, iteration);
+                // Act: call updateAvoidanceGrid (this method is package-private so we can access it)
+                graphHopperService.updateAvoidanceGrid(request, badCoords, iteration);
 
-                // Assert: verify that a custom model is added to the request with an area defined
-                CustomModel cm = request.getCustomModel();
-                assertNotNull(cm);
-                // Verify that the areas collection is not empty
-                assertNotNull(cm.getAreas());
-                assertFalse(cm.getAreas().getFeatures().isEmpty());
-                // Check that the priority list contains an entry for "in_bad_area_1"
-                // (We rely on the string produced by If("in_bad_area_1", MULTIPLY, "0.01") – you can verify it exists in the custom model's priority list)
-                // (Assuming CustomModel stores priorities in a collection accessible by a getter; adjust as necessary.)
+                // Assert: the grid travels as a request hint and covers both coordinates
+                AvoidanceGrid grid = request.getHints().getObject(AvoidanceGrid.KEY, null);
+                assertNotNull(grid);
+                assertTrue(grid.contains(51.5074, -0.1278));
+                assertTrue(grid.contains(51.5166, -0.0810));
+                assertFalse(grid.contains(51.5120, -0.1000));
+                assertNull(request.getCustomModel());
         }
 
         @Test
@@ -930,54 +975,6 @@ public class GraphHopperServiceTest {
                 assertTrue(instr1.get("text").toString().toLowerCase().contains("disembark"));
         }
 
-        @Test
-        void testGenerateHexagon_createsPolygonWithCorrectProperties() {
-                // Using ReflectionTestUtils to call the private method generateHexagon
-                List<Double> center = Arrays.asList(-0.1278, 51.5074);
-                double radius = 100; // meters
-                Polygon hexagon = (Polygon) ReflectionTestUtils.invokeMethod(
-                        graphHopperService, "generateHexagon", center, radius);
-                assertNotNull(hexagon);
-                // A valid hexagon polygon here should have 7 coordinates (6 distinct + repeat first to close)
-                assertEquals(7, hexagon.getCoordinates().length);
-                // Verify that the first and last coordinate are the same (closed ring)
-                assertEquals(hexagon.getCoordinates()[0], hexagon.getCoordinates()[6]);
-        }
-
-        @Test
-        void testCreateAvoidancePolygon_returnsUnionPolygon() {
-                // Prepare a list of bad coordinates (each will generate a hexagon)
-                List<List<Double>> badCoords = new ArrayList<>();
-                badCoords.add(Arrays.asList(-0.1278, 51.5074));
-                badCoords.add(Arrays.asList(-0.0810, 51.5166));
-
-                // Invoke the private method createAvoidancePolygon via reflection
-                Geometry result = (Geometry) ReflectionTestUtils.invokeMethod(
-                        graphHopperService, "createAvoidancePolygon", badCoords);
-                assertNotNull(result);
-                // The union could either be a Polygon or MultiPolygon
-                assertTrue(result instanceof Polygon || result instanceof MultiPolygon);
-        }
-
-        @Test
-        void testFindClosestIndex_returnsCorrectIndex() {
-                List<double[]> busPoints = new ArrayList<>();
-                busPoints.add(new double[]{-0.127, 51.507});   // index 0
-                busPoints.add(new double[]{-0.110, 51.515});   // index 1
-                busPoints.add(new double[]{-0.090, 51.520});   // index 2
-
-                // Choose a user location near the second bus stop
-                GHPoint userPoint = new GHPoint(51.515, -0.110);
-
-                Object indexObject = ReflectionTestUtils.invokeMethod(graphHopperService, "findClosestIndex", userPoint, busPoints);
-                assertNotNull(indexObject, "Returned index should not be null");
-                Integer indexInteger = (Integer) indexObject;
-
-                int index = indexInteger.intValue();
-                assertEquals(1, index);
-        }
-
-
         @Test
         @SuppressWarnings("unchecked")
         void testConvertBusPoints_convertsCorrectly() {
@@ -1026,51 +1023,14 @@ public class GraphHopperServiceTest {
         }
 
         @Test
-        void testUpdateCustomModel_WithEmptyBadCoords() {
+        void testUpdateAvoidanceGrid_WithEmptyBadCoords() {
                 GHRequest request = new GHRequest();
                 List<List<Double>> badCoords = Collections.emptyList();
                 int iteration = 1;
 
-                graphHopperService.updateCustomModel(request, badCoords, iteration);
-
-                CustomModel cm = request.getCustomModel();
-                assertTrue(cm.getAreas().getFeatures().isEmpty());
-        }
-
-        @Test
-        void testGenerateHexagon_ZeroRadius() {
-                List<Double> center = Arrays.asList(-0.1278, 51.5074);
-                Polygon hexagon = (Polygon) ReflectionTestUtils.invokeMethod(
-                        graphHopperService, "generateHexagon", center, 0.0);
-
-                // A zero radius should still create a polygon (though points overlap)
-                assertNotNull(hexagon);
-                assertEquals(7, hexagon.getCoordinates().length);
-        }
-
-        @Test
-        void testDistance_CalculationAccuracy() {
-                // Distance between London and Paris (approx 344 km)
-                double lat1 = 51.5074, lon1 = -0.1278;
-                double lat2 = 48.8566, lon2 = 2.3522;
-                double expectedDistance = 344_000; // Approx in meters (actual ~344,000m)
-                double actualDistance = (Double) ReflectionTestUtils.invokeMethod(
-                        graphHopperService, "distance", lat1, lon1, lat2, lon2);
-
-                // Allow 10% tolerance
-                assertEquals(expectedDistance, actualDistance, expectedDistance * 0.1);
-        }
-
-        @Test
-        void testFindClosestIndex_ExactMatch() {
-                List<double[]> busPoints = new ArrayList<>();
-                busPoints.add(new double[]{-0.1278, 51.5074}); // Index 0
-                GHPoint userPoint = new GHPoint(51.5074, -0.1278); // Exact match
-
-                int index = (int) ReflectionTestUtils.invokeMethod(
-                        graphHopperService, "findClosestIndex", userPoint, busPoints);
+                graphHopperService.updateAvoidanceGrid(request, badCoords, iteration);
 
-                assertEquals(0, index);
+                assertFalse(request.getHints().has(AvoidanceGrid.KEY));
         }
 
         @Test
@@ -1140,7 +1100,7 @@ public class GraphHopperServiceTest {
                         Arrays.asList(-0.2, 51.6),   // User start point (lon, lat)
                         Arrays.asList(-0.1, 51.5)    // User end point
                 );
-                // Return a bus route with two points in reverse order compared to what findClosestIndex would expect.
+                // Return a bus route with two points in reverse order compared to the direction of travel.
                 Map<String, Object> busRouteData = new HashMap<>();
                 busRouteData.put("mode", "bus");
                 busRouteData.put("busRoute", "10");
@@ -1254,4 +1214,604 @@ public class GraphHopperServiceTest {
                 // When points is empty, "location" should not be added.
                 assertFalse(instrMap.containsKey("location"));
         }
-}
\ No newline at end of file
+
+        @Test
+        void testRoute_plainRequestUsesCH() {
+                GHRequest request = new GHRequest(51.5074, -0.1278, 51.5258, -0.0343).setProfile("car");
+                GHResponse mockResponse = mock(GHResponse.class);
+                when(hopper.route(any(GHRequest.class))).thenReturn(mockResponse);
+
+                GHResponse result = graphHopperService.route(request);
+
+                assertEquals(mockResponse, result);
+                assertFalse(request.getHints().getBool("ch.disable", true));
+                assertFalse(request.getHints().getBool("lm.disable", true));
+        }
+
+        @Test
+        void testRoute_customModelDisablesCH() {
+                GHRequest request = new GHRequest(51.5074, -0.1278, 51.5258, -0.0343).setProfile("car");
+                request.setCustomModel(new CustomModel());
+                GHResponse mockResponse = mock(GHResponse.class);
+                when(mockResponse.hasErrors()).thenReturn(false);
+                when(hopper.route(any(GHRequest.class))).thenReturn(mockResponse);
+
+                graphHopperService.route(request);
+
+                assertTrue(request.getHints().getBool("ch.disable", false));
+                assertFalse(request.getHints().getBool("lm.disable", true));
+                verify(hopper, times(1)).route(any(GHRequest.class));
+        }
+
+        @Test
+        void testRoute_fallsBackToFlexibleWhenLMRejectsCustomModel() {
+                GHRequest request = new GHRequest(51.5074, -0.1278, 51.5258, -0.0343).setProfile("car");
+                request.setCustomModel(new CustomModel());
+                GHResponse lmError = mock(GHResponse.class);
+                when(lmError.hasErrors()).thenReturn(true);
+                when(lmError.getErrors()).thenReturn(List.of(new IllegalArgumentException(
+                                "CustomModel in query can only use distance_influence bigger or equal to 70.0, but was: 0.0")));
+                GHResponse flexResponse = mock(GHResponse.class);
+                when(hopper.route(any(GHRequest.class))).thenReturn(lmError).thenReturn(flexResponse);
+
+                GHResponse result = graphHopperService.route(request);
+
+                assertEquals(flexResponse, result);
+                assertTrue(request.getHints().getBool("lm.disable", false));
+                verify(hopper, times(2)).route(any(GHRequest.class));
+        }
+
+        @Test
+        void testRoute_doesNotRetryFlexibleWhenRouteIsNotFound() {
+                GHRequest request = new GHRequest(51.5074, -0.1278, 51.5258, -0.0343).setProfile("car");
+                request.setCustomModel(new CustomModel());
+                GHResponse pointError = new GHResponse().addError(
+                                new PointNotFoundException("Cannot find point 0: 51.5074,-0.1278", 0));
+                GHResponse connectionError = new GHResponse().addError(
+                                new ConnectionNotFoundException("Connection between locations not found", Map.of()));
+                when(hopper.route(any(GHRequest.class))).thenReturn(pointError).thenReturn(connectionError);
+
+                assertSame(pointError, graphHopperService.route(request));
+                assertSame(connectionError, graphHopperService.route(request));
+                assertFalse(request.getHints().getBool("lm.disable", true));
+                verify(hopper, times(2)).route(any(GHRequest.class));
+        }
+
+        @Test
+        void testRoute_disabledPreparationsUseFlexibleSearch() {
+                ReflectionTestUtils.setField(graphHopperService, "chEnabled", false);
+                ReflectionTestUtils.setField(graphHopperService, "lmEnabled", false);
+                GHRequest request = new GHRequest(51.5074, -0.1278, 51.5258, -0.0343).setProfile("walk");
+                when(hopper.route(any(GHRequest.class))).thenReturn(mock(GHResponse.class));
+
+                graphHopperService.route(request);
+
+                assertTrue(request.getHints().getBool("ch.disable", false));
+                assertTrue(request.getHints().getBool("lm.disable", false));
+        }
+
+        @Test
+        void testGetOptimizedRoute_freshAirQualitySnapshotRoutesOnce() {
+                AirQualityEdgeIndex index = mock(AirQualityEdgeIndex.class);
+                ReflectionTestUtils.setField(graphHopperService, "airQualityIndex", index);
+                ReflectionTestUtils.setField(graphHopperService, "airQualitySnapshotMillis", System.currentTimeMillis());
+                GHRequest request = new GHRequest(53.3498, -6.2603, 53.3438, -6.2546).setProfile("bike");
+
+                ResponsePath mockPath = mock(ResponsePath.class);
+                GHResponse mockResponse = mock(GHResponse.class);
+                when(mockResponse.getBest()).thenReturn(mockPath);
+                when(mockResponse.getAll()).thenReturn(List.of(mockPath));
+                when(hopper.route(any(GHRequest.class))).thenReturn(mockResponse);
+
+                Map<String, Object> result = graphHopperService.getOptimizedRoute(request, "bike");
+
+                assertEquals(1, result.get("iterations"));
+                assertEquals(mockPath, result.get("bestPath"));
+                assertTrue(request.getCustomModel().toString().contains("air_quality > 3"));
+                verify(hopper, times(1)).route(any(GHRequest.class));
+                verifyNoInteractions(restTemplate);
+        }
+
+        @Test
+        void testGetOptimizedRoute_staleAirQualitySnapshotFallsBackToIterativeLoop() {
+                ReflectionTestUtils.setField(graphHopperService, "airQualityIndex", mock(AirQualityEdgeIndex.class));
+                ReflectionTestUtils.setField(graphHopperService, "airQualitySnapshotMillis",
+                        System.currentTimeMillis() - 3_600_000L);
+                GHRequest request = new GHRequest(53.3498, -6.2603, 53.3438, -6.2546).setProfile("car");
+
+                ResponsePath mockPath = mock(ResponsePath.class);
+                PointList pointList = new PointList();
+                pointList.add(53.3498, -6.2603);
+                when(mockPath.getPoints()).thenReturn(pointList);
+                GHResponse mockResponse = mock(GHResponse.class);
+                when(mockResponse.getBest()).thenReturn(mockPath);
+                when(mockResponse.getAll()).thenReturn(List.of(mockPath));
+                when(hopper.route(any(GHRequest.class))).thenReturn(mockResponse);
+                when(restTemplate.exchange(anyString(), any(HttpMethod.class), any(HttpEntity.class), eq(List.class)))
+                                .thenReturn(new ResponseEntity<>(List.of(Map.of("aqi", 1)), HttpStatus.OK));
+
+                Map<String, Object> result = graphHopperService.getOptimizedRoute(request, "car");
+
+                assertEquals(1, result.get("iterations"));
+                assertFalse(request.getHints().getBool("ch.disable", true));
+                verify(restTemplate, times(1)).exchange(anyString(), any(HttpMethod.class), any(HttpEntity.class),
+                                eq(List.class));
+        }
+
+        @Test
+        void testRefreshAirQualitySnapshot_writesReadingsAndBumpsEpoch() {
+                com.graphhopper.routing.ev.IntEncodedValue airQualityEnc = AirQuality.create();
+                com.graphhopper.routing.util.EncodingManager em = com.graphhopper.routing.util.EncodingManager.start()
+                                .add(airQualityEnc).build();
+                com.graphhopper.storage.BaseGraph graph = new com.graphhopper.storage.BaseGraph.Builder(em).create();
+                graph.getNodeAccess().setNode(0, 53.3100, -6.2900);
+                graph.getNodeAccess().setNode(1, 53.3110, -6.2890);
+                graph.edge(0, 1).setDistance(100);
+                when(hopper.getBaseGraph()).thenReturn(graph);
+                when(hopper.getEncodingManager()).thenReturn(em);
+                ReflectionTestUtils.setField(graphHopperService, "airQualityIndex",
+                        AirQualityEdgeIndex.build(graph, new double[] { -6.30, 53.30, -6.20, 53.40 }, 500));
+                when(restTemplate.exchange(anyString(), any(HttpMethod.class), any(HttpEntity.class), eq(List.class)))
+                                .thenReturn(new ResponseEntity<>(List.of(Map.of("aqi", 4)), HttpStatus.OK));
+
+                assertFalse(graphHopperService.isAirQualitySnapshotFresh());
+                graphHopperService.refreshAirQualitySnapshot();
+
+                assertEquals(4, airQualityEnc.getInt(false, 0, graph.createEdgeIntAccess()));
+                assertEquals(1, graphHopperService.getAirQualityEpoch());
+                assertTrue(graphHopperService.isAirQualitySnapshotFresh());
+        }
+
+        @Test
+        void testRefreshAirQualitySnapshot_keepsPreviousSnapshotOnFailure() {
+                AirQualityEdgeIndex index = mock(AirQualityEdgeIndex.class);
+                when(index.getCellCenters()).thenReturn(List.of(Arrays.asList(-6.29, 53.31)));
+                ReflectionTestUtils.setField(graphHopperService, "airQualityIndex", index);
+                when(restTemplate.exchange(anyString(), any(HttpMethod.class), any(HttpEntity.class), eq(List.class)))
+                                .thenThrow(new RuntimeException("Simulated service failure"));
+
+                graphHopperService.refreshAirQualitySnapshot();
+
+                verify(index, never()).apply(any(), any(), any());
+                assertEquals(0, graphHopperService.getAirQualityEpoch());
+                assertFalse(graphHopperService.isAirQualitySnapshotFresh());
+        }
+
+        @Test
+        @SuppressWarnings("unchecked")
+        void testIdentifyBadCoordinates_onlySendsUncachedCells() {
+                AqiTileCache cache = (AqiTileCache) ReflectionTestUtils.getField(graphHopperService, "aqiTileCache");
+                cache.put(51.5074, -0.1278, 5);
+                // only the route ends are sampled
+                ReflectionTestUtils.setField(graphHopperService, "waypointSpacingMeters", 100_000d);
+                List<List<Double>> coords = new ArrayList<>();
+                for (int i = 0; i < 10; i++) {
+                        coords.add(Arrays.asList(-0.1278 + i * 0.0100, 51.5074));
+                }
+
+                ArgumentCaptor<HttpEntity> entityCaptor = ArgumentCaptor.forClass(HttpEntity.class);
+                when(restTemplate.exchange(anyString(), any(HttpMethod.class), entityCaptor.capture(), eq(List.class)))
+                                .thenReturn(new ResponseEntity<>(List.of(Map.of("aqi", 1)), HttpStatus.OK));
+
+                List<List<Double>> badCoords = (List<List<Double>>) ReflectionTestUtils.invokeMethod(
+                        graphHopperService, "identifyBadCoordinates", coords);
+
+                // waypoint 0 is a cached bad cell, only waypoint 9 is looked up
+                assertEquals(List.of(coords.get(0)), badCoords);
+                List<Map<String, Double>> sent = (List<Map<String, Double>>) entityCaptor.getValue().getBody();
+                assertEquals(1, sent.size());
+                assertEquals(coords.get(9).get(0), sent.get(0).get("longitude"));
+                assertEquals(1, cache.getHits());
+
+                // the fetched reading is cached for the next request
+                ReflectionTestUtils.invokeMethod(graphHopperService, "identifyBadCoordinates", coords);
+                verify(restTemplate, times(1)).exchange(anyString(), any(HttpMethod.class), any(HttpEntity.class),
+                                eq(List.class));
+        }
+
+        @Test
+        @SuppressWarnings("unchecked")
+        void testGetStats_includesAqiTileCacheAndClient() {
+                Map<String, Object> stats = graphHopperService.getStats();
+
+                Map<String, Object> tileStats = (Map<String, Object>) stats.get("aqi_tile_cache");
+                assertNotNull(tileStats);
+                assertEquals(0, tileStats.get("size"));
+                Map<String, Object> clientStats = (Map<String, Object>) stats.get("environmental_data_client");
+                assertEquals("CLOSED", clientStats.get("circuit_state"));
+        }
+
+        @Test
+        void testUpdateAvoidanceGrid_accumulatesAcrossIterations() {
+                GHRequest request = new GHRequest();
+
+                graphHopperService.updateAvoidanceGrid(request, List.of(Arrays.asList(-0.1278, 51.5074)), 1);
+                AvoidanceGrid first = request.getHints().getObject(AvoidanceGrid.KEY, null);
+                graphHopperService.updateAvoidanceGrid(request, List.of(Arrays.asList(-0.0810, 51.5166)), 2);
+
+                AvoidanceGrid grid = request.getHints().getObject(AvoidanceGrid.KEY, null);
+                assertTrue(grid.contains(51.5074, -0.1278));
+                assertTrue(grid.contains(51.5166, -0.0810));
+                assertTrue(grid.getCellCount() > first.getCellCount());
+        }
+
+        @Test
+        void testRoute_avoidanceGridDisablesCH() {
+                GHRequest request = new GHRequest(53.3498, -6.2603, 53.3438, -6.2546).setProfile("car");
+                graphHopperService.updateAvoidanceGrid(request, List.of(Arrays.asList(-6.2580, 53.3470)), 1);
+                when(hopper.route(any(GHRequest.class))).thenReturn(new GHResponse());
+
+                graphHopperService.route(request);
+
+                assertTrue(request.getHints().getBool("ch.disable", false));
+                assertFalse(request.getHints().getBool("lm.disable", true));
+        }
+
+        @Test
+        void testUpdateAvoidance_edgesStrategySnapsToBlocklist() {
+                com.graphhopper.storage.BaseGraph graph = new com.graphhopper.storage.BaseGraph.Builder(
+                                com.graphhopper.routing.util.EncodingManager.start().build()).create();
+                graph.getNodeAccess().setNode(0, 53.3500, -6.2700);
+                graph.getNodeAccess().setNode(1, 53.3500, -6.2550);
+                graph.getNodeAccess().setNode(2, 53.3400, -6.2500);
+                graph.edge(0, 1).setDistance(1000);
+                graph.edge(1, 2).setDistance(1200);
+                com.graphhopper.storage.index.LocationIndexTree index = new com.graphhopper.storage.index.LocationIndexTree(
+                                graph, new com.graphhopper.storage.RAMDirectory());
+                index.prepareIndex();
+                when(hopper.getBaseGraph()).thenReturn(graph);
+                when(hopper.getLocationIndex()).thenReturn(index);
+                ReflectionTestUtils.setField(graphHopperService, "avoidanceStrategy", "edges");
+                GHRequest request = new GHRequest();
+
+                graphHopperService.updateAvoidance(request, List.of(Arrays.asList(-6.2625, 53.3503)), 1);
+
+                EdgeBlocklist blocklist = request.getHints().getObject(EdgeBlocklist.KEY, null);
+                assertNotNull(blocklist);
+                assertTrue(blocklist.contains(0));
+                assertFalse(blocklist.contains(1));
+                assertFalse(request.getHints().has(AvoidanceGrid.KEY));
+        }
+
+        private static ResponsePath eastboundPath(int pointCount) {
+                PointList points = new PointList();
+                for (int i = 0; i < pointCount; i++)
+                        points.add(53.35, -6.27 + i * 0.001);
+                Translation tr = new TranslationMap.TranslationHashMap(Locale.ENGLISH);
+                InstructionList instructions = new InstructionList(2, tr);
+                Instruction street = new Instruction(Instruction.CONTINUE_ON_STREET, "Quay", points.copy(0, pointCount - 1));
+                street.setDistance(66.4 * (pointCount - 1));
+                street.setTime(6_640 * (pointCount - 1));
+                instructions.add(street);
+                instructions.add(new Instruction(Instruction.FINISH, "", points.copy(pointCount - 1, pointCount)));
+                ResponsePath path = new ResponsePath();
+                path.setPoints(points);
+                path.setInstructions(instructions);
+                path.setDistance(street.getDistance());
+                path.setTime(street.getTime());
+                return path;
+        }
+
+        @Test
+        void testRepairLocally_routesOnlyTheFlaggedStretch() {
+                ResponsePath path = eastboundPath(11);
+                ReflectionTestUtils.setField(graphHopperService, "repairMarginMeters", 100.0);
+                AvoidanceGrid grid = AvoidanceGrid.of(50, 100, List.of(Arrays.asList(-6.265, 53.35)));
+                GHRequest request = new GHRequest().setProfile("car");
+                request.putHint(AvoidanceGrid.KEY, grid);
+                GHResponse detourResponse = new GHResponse();
+                detourResponse.add(eastboundPath(3));
+                when(hopper.route(any(GHRequest.class))).thenReturn(detourResponse);
+
+                GHResponse repaired = graphHopperService.repairLocally(request, path,
+                                List.of(Arrays.asList(-6.265, 53.35)));
+
+                ArgumentCaptor<GHRequest> captor = ArgumentCaptor.forClass(GHRequest.class);
+                verify(hopper, times(1)).route(captor.capture());
+                GHRequest detourRequest = captor.getValue();
+                assertEquals(-6.267, detourRequest.getPoints().get(0).getLon(), 1e-9);
+                assertEquals(-6.263, detourRequest.getPoints().get(1).getLon(), 1e-9);
+                assertSame(grid, detourRequest.getHints().getObject(AvoidanceGrid.KEY, null));
+                assertEquals(3 + 2 + 4, repaired.getBest().getPoints().size());
+        }
+
+        @Test
+        void testRepairLocally_fullModeRecalculatesWholeRoute() {
+                ReflectionTestUtils.setField(graphHopperService, "repairMode", "full");
+
+                GHResponse repaired = graphHopperService.repairLocally(new GHRequest().setProfile("car"),
+                                eastboundPath(11), List.of(Arrays.asList(-6.265, 53.35)));
+
+                assertNull(repaired);
+                verify(hopper, never()).route(any(GHRequest.class));
+        }
+
+        private static GHResponse responseThrough(double... lonLats) {
+                ResponsePath path = mock(ResponsePath.class);
+                PointList points = new PointList();
+                for (int i = 0; i < lonLats.length; i += 2)
+                        points.add(lonLats[i + 1], lonLats[i]);
+                when(path.getPoints()).thenReturn(points);
+                GHResponse response = mock(GHResponse.class);
+                when(response.getBest()).thenReturn(path);
+                when(response.getAll()).thenReturn(List.of(path));
+                return response;
+        }
+
+        @Test
+        void testGetOptimizedRoute_stopsWhenRouteUnchanged() {
+                ReflectionTestUtils.setField(graphHopperService, "repairMode", "full");
+                GHRequest request = new GHRequest(53.35, -6.27, 53.36, -6.26).setProfile("car");
+                GHResponse response = responseThrough(-6.27, 53.35, -6.26, 53.36);
+                when(hopper.route(any(GHRequest.class))).thenReturn(response);
+                doReturn(List.of(Arrays.asList(-6.27, 53.35))).when(graphHopperService).identifyBadCoordinates(anyList());
+
+                Map<String, Object> result = graphHopperService.getOptimizedRoute(request, "car");
+
+                assertEquals(2, result.get("iterations"));
+                assertEquals(GraphHopperService.TERMINATION_ROUTE_UNCHANGED, result.get("termination_reason"));
+                verify(graphHopperService, times(1)).identifyBadCoordinates(anyList());
+        }
+
+        @Test
+        void testGetOptimizedRoute_stopsWhenBadCoordinatesDoNotDecrease() {
+                ReflectionTestUtils.setField(graphHopperService, "repairMode", "full");
+                GHRequest request = new GHRequest(53.35, -6.27, 53.36, -6.26).setProfile("car");
+                GHResponse first = responseThrough(-6.27, 53.35, -6.26, 53.36);
+                GHResponse second = responseThrough(-6.27, 53.35, -6.265, 53.355, -6.26, 53.36);
+                when(hopper.route(any(GHRequest.class))).thenReturn(first).thenReturn(second);
+                doReturn(List.of(Arrays.asList(-6.27, 53.35))).when(graphHopperService).identifyBadCoordinates(anyList());
+
+                Map<String, Object> result = graphHopperService.getOptimizedRoute(request, "car");
+
+                assertEquals(2, result.get("iterations"));
+                assertEquals(GraphHopperService.TERMINATION_NO_IMPROVEMENT, result.get("termination_reason"));
+                assertSame(first, result.get("response"));
+                verify(hopper, times(2)).route(any(GHRequest.class));
+        }
+
+        @Test
+        void testGetOptimizedRoute_stopsWhenLatencyBudgetIsSpent() {
+                ReflectionTestUtils.setField(graphHopperService, "iterationBudgetMs", 0L);
+                GHRequest request = new GHRequest(53.35, -6.27, 53.36, -6.26).setProfile("car");
+                GHResponse response = responseThrough(-6.27, 53.35, -6.26, 53.36);
+                when(hopper.route(any(GHRequest.class))).thenReturn(response);
+                doReturn(List.of(Arrays.asList(-6.27, 53.35))).when(graphHopperService).identifyBadCoordinates(anyList());
+
+                Map<String, Object> result = graphHopperService.getOptimizedRoute(request, "car");
+
+                assertEquals(1, result.get("iterations"));
+                assertEquals(GraphHopperService.TERMINATION_BUDGET, result.get("termination_reason"));
+                verify(hopper, times(1)).route(any(GHRequest.class));
+        }
+
+        @Test
+        void testGetRoutingDataVersion_changesWithAirQualitySnapshot() {
+                com.graphhopper.storage.StorableProperties properties = new com.graphhopper.storage.StorableProperties(
+                                new com.graphhopper.storage.RAMDirectory());
+                properties.put("datareader.import.date", "2026-10-01T00:00:00Z");
+                when(hopper.getProperties()).thenReturn(properties);
+
+                String before = graphHopperService.getRoutingDataVersion();
+                ((java.util.concurrent.atomic.AtomicLong) ReflectionTestUtils.getField(graphHopperService,
+                                "airQualityEpoch")).incrementAndGet();
+
+                assertTrue(before.contains("2026-10-01T00:00:00Z"));
+                assertNotEquals(before, graphHopperService.getRoutingDataVersion());
+        }
+
+        @Test
+        void testFlightKey_normalizesPointsAndMode() {
+                String key = GraphHopperService.flightKey("route", "Car",
+                                List.of(Arrays.asList(-6.26030001, 53.3498), Arrays.asList(-6.2546, 53.3438)));
+
+                assertEquals(key, GraphHopperService.flightKey("route", "car",
+                                List.of(Arrays.asList(-6.2603, 53.34980002), Arrays.asList(-6.2546, 53.3438))));
+                assertNotEquals(key, GraphHopperService.flightKey("route", "bike",
+                                List.of(Arrays.asList(-6.2603, 53.3498), Arrays.asList(-6.2546, 53.3438))));
+        }
+
+        @Test
+        void testGetChainedRoute_mergesConsecutiveSameModeLegs() {
+                ReflectionTestUtils.setField(graphHopperService, "translationMap", new TranslationMap().doImport());
+                List<List<Double>> points = Arrays.asList(
+                                Arrays.asList(-6.2603, 53.3498),
+                                Arrays.asList(-6.2580, 53.3480),
+                                Arrays.asList(-6.2560, 53.3460),
+                                Arrays.asList(-6.2546, 53.3438));
+                Translation tr = new TranslationMap.TranslationHashMap(Locale.ENGLISH);
+                InstructionList instructions = new InstructionList(6, tr);
+                double[][] legs = { { 53.3498, -6.2603, 53.3490, -6.2590 }, { 53.3480, -6.2580, 53.3470, -6.2570 },
+                                { 53.3460, -6.2560, 53.3450, -6.2550 } };
+                for (int leg = 0; leg < legs.length; leg++) {
+                        PointList street = new PointList();
+                        street.add(legs[leg][0], legs[leg][1]);
+                        street.add(legs[leg][2], legs[leg][3]);
+                        Instruction instruction = new Instruction(Instruction.CONTINUE_ON_STREET, "Street " + leg, street);
+                        instruction.setDistance(100.0 * (leg + 1));
+                        instruction.setTime(60_000L * (leg + 1));
+                        instructions.add(instruction);
+                        List<Double> end = points.get(leg + 1);
+                        if (leg + 1 < legs.length) {
+                                PointList via = new PointList();
+                                via.add(end.get(1), end.get(0));
+                                com.graphhopper.util.ViaInstruction viaInstruction = new com.graphhopper.util.ViaInstruction(
+                                                "", via);
+                                viaInstruction.setViaCount(leg + 1);
+                                instructions.add(viaInstruction);
+                        } else {
+                                instructions.add(new com.graphhopper.util.FinishInstruction(end.get(1), end.get(0), 0));
+                        }
+                }
+                ResponsePath merged = new ResponsePath();
+                merged.setInstructions(instructions);
+                doReturn(Map.of("iterations", 1, "bestPath", merged, "response", mock(GHResponse.class)))
+                                .when(graphHopperService).getOptimizedRoute(any(GHRequest.class), eq("walk"));
+
+                Map<String, Object> result = graphHopperService.getChainedRoute(points,
+                                Arrays.asList("walk", "walk", "walk"));
+
+                ArgumentCaptor<GHRequest> request = ArgumentCaptor.forClass(GHRequest.class);
+                verify(graphHopperService, times(1)).getOptimizedRoute(request.capture(), eq("walk"));
+                assertEquals(4, request.getValue().getPoints().size());
+                List<Map<String, Object>> segments = (List<Map<String, Object>>) result.get("segments");
+                assertEquals(3, segments.size());
+                assertEquals(200.0, segments.get(1).get("distance"));
+                assertEquals(120_000L, segments.get(1).get("time"));
+                assertEquals(Arrays.asList(-6.2560, 53.3460),
+                                ((List<List<Double>>) segments.get(1).get("points")).get(2));
+                assertEquals(600.0, result.get("total_distance"));
+                assertEquals(360_000L, result.get("total_time"));
+        }
+
+        @Test
+        void testGetChainedRoute_routesLegsSeparatelyWhenMergedPathDoesNotSplit() {
+                List<List<Double>> points = Arrays.asList(
+                                Arrays.asList(-6.2603, 53.3498),
+                                Arrays.asList(-6.2580, 53.3480),
+                                Arrays.asList(-6.2546, 53.3438));
+                ResponsePath path = mock(ResponsePath.class);
+                when(path.getDistance()).thenReturn(250.0);
+                when(path.getTime()).thenReturn(90_000L);
+                doReturn(Map.of("iterations", 1, "bestPath", path, "response", mock(GHResponse.class)))
+                                .when(graphHopperService).getOptimizedRoute(any(GHRequest.class), eq("bike"));
+                doReturn(new ArrayList<>()).when(graphHopperService).extractCoordinates(any(ResponsePath.class));
+                doReturn(new ArrayList<>()).when(graphHopperService).extractInstructions(any(ResponsePath.class));
+
+                Map<String, Object> result = graphHopperService.getChainedRoute(points, Arrays.asList("bike", "bike"));
+
+                // one merged attempt, then one search per leg
+                verify(graphHopperService, times(3)).getOptimizedRoute(any(GHRequest.class), eq("bike"));
+                assertEquals(2, ((List<?>) result.get("segments")).size());
+                assertEquals(500.0, result.get("total_distance"));
+        }
+
+        @Test
+        void testGetChainedRoute_routesIndependentLegsInParallel() throws Exception {
+                List<List<Double>> points = Arrays.asList(
+                                Arrays.asList(-6.2603, 53.3498),
+                                Arrays.asList(-6.2580, 53.3480),
+                                Arrays.asList(-6.2546, 53.3438));
+                java.util.concurrent.CountDownLatch bothStarted = new java.util.concurrent.CountDownLatch(2);
+                ResponsePath path = mock(ResponsePath.class);
+                when(path.getDistance()).thenReturn(250.0);
+                when(path.getTime()).thenReturn(90_000L);
+                doAnswer(invocation -> {
+                        // each leg waits for the other, so this only completes when both run at once
+                        bothStarted.countDown();
+                        assertTrue(bothStarted.await(5, java.util.concurrent.TimeUnit.SECONDS));
+                        return Map.of("iterations", 1, "bestPath", path, "response", mock(GHResponse.class));
+                }).when(graphHopperService).getOptimizedRoute(any(GHRequest.class), anyString());
+                doReturn(new ArrayList<>()).when(graphHopperService).extractCoordinates(any(ResponsePath.class));
+                doReturn(new ArrayList<>()).when(graphHopperService).extractInstructions(any(ResponsePath.class));
+
+                Map<String, Object> result = graphHopperService.getChainedRoute(points, Arrays.asList("car", "walk"));
+
+                List<Map<String, Object>> segments = (List<Map<String, Object>>) result.get("segments");
+                assertEquals("car", segments.get(0).get("mode"));
+                assertEquals("walk", segments.get(1).get("mode"));
+                assertEquals(500.0, result.get("total_distance"));
+                assertEquals(180_000L, result.get("total_time"));
+        }
+
+        @Test
+        void testGetBusRouteWithWalking_walkingLegsShareADeadline() throws Exception {
+                List<List<Double>> userPoints = Arrays.asList(Arrays.asList(-0.1278, 51.5074),
+                                Arrays.asList(-0.0343, 51.5258));
+                List<double[]> busPoints = List.of(new double[] { -0.1278, 51.5074 }, new double[] { -0.0343, 51.5258 });
+                doReturn(Map.of("busRoute", "46A", "points", busPoints)).when(graphHopperService).getBusRoute(anyList());
+                ReflectionTestUtils.setField(graphHopperService, "transitWalkDeadlineMs", 50L);
+                GHResponse walk = mock(GHResponse.class);
+                when(hopper.route(any(GHRequest.class))).thenAnswer(invocation -> {
+                        GHRequest request = invocation.getArgument(0);
+                        // the walk from the last stop overruns the deadline
+                        if (request.getPoints().get(0).getLat() == 51.5258)
+                                Thread.sleep(300);
+                        return walk;
+                });
+
+                Map<String, Object> result = graphHopperService.getBusRouteWithWalking(userPoints);
+
+                assertEquals("Walking routes to and from the bus stops timed out", result.get("error"));
+        }
+
+        @Test
+        void testGetBusRouteWithWalking_followsTheTimetable(@org.junit.jupiter.api.io.TempDir Path gtfsDir)
+                        throws Exception {
+                graphHopperService.setTimetable(Timetable.read(TimetableTest.writeFeed(gtfsDir)));
+                graphHopperService.setBusRoutes(Map.of("S1", List.of(
+                                new double[] { -6.2600, 53.3500 },
+                                new double[] { -6.2610, 53.3550 },
+                                new double[] { -6.2600, 53.3600 },
+                                new double[] { -6.2600, 53.3700 })));
+                List<List<Double>> userPoints = Arrays.asList(
+                                Arrays.asList(-6.2601, 53.3498),
+                                Arrays.asList(-6.2552, 53.3803));
+
+                ResponsePath walkPath = mock(ResponsePath.class);
+                GHResponse walkResponse = mock(GHResponse.class);
+                when(walkResponse.hasErrors()).thenReturn(false);
+                when(walkResponse.getBest()).thenReturn(walkPath);
+                when(hopper.route(any(GHRequest.class))).thenReturn(walkResponse);
+                doAnswer(invocation -> Map.of("mode", "walk", "start", invocation.getArgument(2),
+                                "end", invocation.getArgument(3)))
+                                .when(graphHopperService).formatPathSegment(any(), eq("walk"), anyString(), anyString());
+
+                Map<String, Object> result = graphHopperService.getBusRouteWithWalking(userPoints,
+                                java.time.LocalDateTime.of(2025, 3, 4, 7, 55));
+
+                assertEquals("success", result.get("status"));
+                assertEquals("2025-03-04T08:40", result.get("arrival_time").toString().substring(0, 16));
+                assertEquals(1, result.get("transfers"));
+                List<Map<String, Object>> paths = (List<Map<String, Object>>) result.get("paths");
+                assertEquals(List.of("walk", "bus", "walk", "bus", "walk"),
+                                paths.stream().map(p -> p.get("mode")).collect(Collectors.toList()));
+                assertEquals("Origin", paths.get(0).get("start"));
+                assertEquals("Stop C", paths.get(2).get("start"));
+                assertEquals("Stop D", paths.get(2).get("end"));
+                assertEquals("Destination", paths.get(4).get("end"));
+
+                Map<String, Object> firstRide = paths.get(1);
+                assertEquals("46A", firstRide.get("busRoute"));
+                assertEquals("T1", firstRide.get("trip_id"));
+                assertEquals("2025-03-04T08:00", firstRide.get("departure_time"));
+                // geometry follows the trip's shape, the second ride has none and joins its stops
+                assertEquals(4, ((List<?>) firstRide.get("points")).size());
+                assertEquals(2, ((List<?>) paths.get(3).get("points")).size());
+                verify(hopper, times(3)).route(any(GHRequest.class));
+        }
+
+        @Test
+        void testGetTrainRouteWithWalking_ridesOnlyTheRailTimetable(@org.junit.jupiter.api.io.TempDir Path gtfsDir)
+                        throws Exception {
+                graphHopperService.setTimetable(Timetable.read(TimetableTest.writeMixedFeed(gtfsDir)));
+                List<List<Double>> userPoints = Arrays.asList(
+                                Arrays.asList(-6.2551, 53.3698),
+                                Arrays.asList(-6.2552, 53.3803));
+                GHResponse walkResponse = mock(GHResponse.class);
+                when(walkResponse.getBest()).thenReturn(mock(ResponsePath.class));
+                when(hopper.route(any(GHRequest.class))).thenReturn(walkResponse);
+                doAnswer(invocation -> Map.of("mode", "walk", "start", invocation.getArgument(2),
+                                "end", invocation.getArgument(3)))
+                                .when(graphHopperService).formatPathSegment(any(), eq("walk"), anyString(), anyString());
+
+                Map<String, Object> result = graphHopperService.getTrainRouteWithWalking(userPoints,
+                                java.time.LocalDateTime.of(2025, 3, 4, 8, 15));
+
+                assertEquals("success", result.get("status"));
+                assertEquals("train", result.get("mode"));
+                assertEquals(0, result.get("transfers"));
+                List<Map<String, Object>> paths = (List<Map<String, Object>>) result.get("paths");
+                assertEquals(List.of("walk", "train", "walk"),
+                                paths.stream().map(p -> p.get("mode")).collect(Collectors.toList()));
+                assertEquals("Lucan Road", paths.get(1).get("route"));
+                assertEquals("T3", paths.get(1).get("trip_id"));
+                assertEquals("Stop D", paths.get(1).get("from_stop"));
+                assertEquals("Stop E", paths.get(1).get("to_stop"));
+
+                // no bus stop is within walking distance of the destination
+                Map<String, Object> bus = graphHopperService.getBusRouteWithWalking(userPoints,
+                                java.time.LocalDateTime.of(2025, 3, 4, 8, 15));
+                assertEquals("No bus stop within walking distance.", bus.get("error"));
+        }
+}
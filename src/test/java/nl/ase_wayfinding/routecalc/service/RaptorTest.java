@@ -0,0 +1,170 @@
+package nl.ase_wayfinding.routecalc.service;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.List;
+
+import static nl.ase_wayfinding.routecalc.service.TimetableTest.stop;
+import static org.junit.jupiter.api.Assertions.*;
+
+class RaptorTest {
+
+    private static final LocalDate TUESDAY = LocalDate.of(2025, 3, 4);
+
+    @TempDir
+    Path gtfsDir;
+
+    private Timetable table;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        table = Timetable.read(TimetableTest.writeFeed(gtfsDir));
+    }
+
+    private Raptor.Journey search(int maxTransfers, String from, String to, LocalDate date, String time) {
+        String[] hms = time.split(":");
+        int departure = Integer.parseInt(hms[0]) * 3600 + Integer.parseInt(hms[1]) * 60;
+        return new Raptor(table, maxTransfers, 60).search(
+                List.of(new Raptor.StopTime(stop(table, from), 60)),
+                List.of(new Raptor.StopTime(stop(table, to), 90)), date, departure);
+    }
+
+    private static int at(int hours, int minutes) {
+        return hours * 3600 + minutes * 60;
+    }
+
+    @Test
+    void testSearch_ridesTheFirstCatchableTrip() {
+        Raptor.Journey journey = search(3, "A", "C", TUESDAY, "07:55");
+
+        assertNotNull(journey);
+        List<Raptor.Leg> legs = journey.getLegs();
+        assertEquals(3, legs.size());
+        assertEquals(Raptor.Leg.Kind.ACCESS, legs.get(0).getKind());
+        Raptor.Leg ride = legs.get(1);
+        assertEquals(Raptor.Leg.Kind.RIDE, ride.getKind());
+        assertEquals("T1", table.tripId(ride.getTrip()));
+        assertEquals(0, ride.getBoardPosition());
+        assertEquals(2, ride.getAlightPosition());
+        assertEquals(Raptor.Leg.Kind.EGRESS, legs.get(2).getKind());
+        // leaves just in time to walk to the stop
+        assertEquals(at(7, 59), journey.getDeparture());
+        assertEquals(at(8, 20) + 90, journey.getArrival());
+        assertEquals(1, journey.getRides());
+    }
+
+    @Test
+    void testSearch_respectsTheDepartureTime() {
+        Raptor.Journey journey = search(3, "A", "C", TUESDAY, "08:00");
+
+        assertEquals("T2", table.tripId(journey.getLegs().get(1).getTrip()));
+        assertEquals(at(8, 50) + 90, journey.getArrival());
+    }
+
+    @Test
+    void testSearch_changesVehicleOverAFootpath() {
+        Raptor.Journey journey = search(3, "A", "E", TUESDAY, "07:55");
+
+        assertNotNull(journey);
+        List<Raptor.Leg> legs = journey.getLegs();
+        assertEquals(5, legs.size());
+        assertEquals("T1", table.tripId(legs.get(1).getTrip()));
+        Raptor.Leg transfer = legs.get(2);
+        assertEquals(Raptor.Leg.Kind.TRANSFER, transfer.getKind());
+        assertEquals(stop(table, "C"), transfer.getFromStop());
+        assertEquals(stop(table, "D"), transfer.getToStop());
+        assertEquals(at(8, 22), transfer.getArrival());
+        assertEquals("T3", table.tripId(legs.get(3).getTrip()));
+        assertEquals(at(8, 40) + 90, journey.getArrival());
+        assertEquals(2, journey.getRides());
+
+        assertNull(search(0, "A", "E", TUESDAY, "07:55"));
+    }
+
+    @Test
+    void testSearch_catchesTripsOfThePreviousServiceDay() {
+        Raptor.Journey journey = search(3, "A", "C", TUESDAY, "00:20");
+
+        assertNotNull(journey);
+        Raptor.Leg ride = journey.getLegs().get(1);
+        assertEquals("T5", table.tripId(ride.getTrip()));
+        assertEquals(-24 * 3600, ride.getDayOffset());
+        assertEquals(at(0, 30), ride.getDeparture());
+        assertEquals(at(0, 50) + 90, journey.getArrival());
+    }
+
+    @Test
+    void testSearch_returnsNullWhenNothingRuns() {
+        assertNull(search(3, "A", "C", LocalDate.of(2025, 3, 5), "07:55"));
+        assertNull(search(3, "C", "A", TUESDAY, "07:55"));
+    }
+
+    @Test
+    void testSearch_ridesOnlyTheRequestedMode() throws Exception {
+        Timetable mixed = Timetable.read(TimetableTest.writeMixedFeed(gtfsDir));
+        List<Raptor.StopTime> access = List.of(new Raptor.StopTime(stop(mixed, "A"), 60));
+        List<Raptor.StopTime> egress = List.of(new Raptor.StopTime(stop(mixed, "E"), 90));
+
+        // bus 46A to C, walk to D, train to E
+        Raptor.Journey any = new Raptor(mixed, 3, 60).search(access, egress, TUESDAY, at(7, 55));
+        assertNotNull(any);
+        assertEquals(2, any.getRides());
+        assertNull(new Raptor(mixed, TransitMode.BUS, 3, 60).search(access, egress, TUESDAY, at(7, 55)));
+
+        Raptor.Journey train = new Raptor(mixed, TransitMode.RAIL, 3, 60).search(
+                List.of(new Raptor.StopTime(stop(mixed, "D"), 60)), egress, TUESDAY, at(8, 20));
+        assertNotNull(train);
+        assertEquals("T3", mixed.tripId(train.getLegs().get(1).getTrip()));
+    }
+
+    @Test
+    void testSearch_findsTripsOvertakenByAnEarlierOne() throws Exception {
+        Timetable feed = Timetable.read(TimetableTest.writeOvertakingFeed(gtfsDir));
+
+        // FAST has left Q by 08:20, SLOW leaves at 08:30 though it left P first
+        Raptor.Journey journey = new Raptor(feed, 0, 60).search(
+                List.of(new Raptor.StopTime(stop(feed, "Q"), 0)),
+                List.of(new Raptor.StopTime(stop(feed, "R"), 0)), TUESDAY, at(8, 20));
+
+        assertNotNull(journey);
+        assertEquals("SLOW", feed.tripId(journey.getLegs().get(1).getTrip()));
+        assertEquals(at(8, 40), journey.getArrival());
+    }
+
+    @Test
+    void testSearch_keepsTheChangeTimeAfterARideFromAnEarlierRound() throws Exception {
+        TimetableTest.write(gtfsDir, "stops.txt",
+                "stop_id,stop_name,stop_lat,stop_lon",
+                "A,A,53.30,-6.26", "B,B,53.31,-6.26", "Y,Y,53.32,-6.26", "X,X,53.33,-6.26", "C,C,53.34,-6.26");
+        TimetableTest.write(gtfsDir, "routes.txt",
+                "route_id,route_short_name,route_long_name,route_type",
+                "R1,1,,3", "R2,2,,3", "R3,3,,3");
+        TimetableTest.write(gtfsDir, "calendar.txt",
+                "service_id,monday,tuesday,wednesday,thursday,friday,saturday,sunday,start_date,end_date",
+                "WK,1,1,1,1,1,0,0,20250101,20251231");
+        TimetableTest.write(gtfsDir, "trips.txt",
+                "route_id,service_id,trip_id",
+                "R1,WK,AB", "R2,WK,YX", "R3,WK,EARLY", "R3,WK,LATE");
+        TimetableTest.write(gtfsDir, "stop_times.txt",
+                "trip_id,arrival_time,departure_time,stop_id,stop_sequence",
+                "AB,08:00:00,08:00:00,A,1", "AB,08:10:00,08:10:00,B,2", "AB,08:12:00,08:12:00,Y,3",
+                "YX,08:20:00,08:20:00,Y,1", "YX,08:30:00,08:30:00,X,2",
+                // X-B-C is scanned again in round 3 once X is reached, with B's ride label kept
+                "EARLY,08:05:00,08:05:00,X,1", "EARLY,08:10:00,08:10:00,B,2", "EARLY,08:20:00,08:20:00,C,3",
+                "LATE,08:10:00,08:10:00,X,1", "LATE,08:15:00,08:15:00,B,2", "LATE,08:25:00,08:25:00,C,3");
+        Timetable feed = Timetable.read(gtfsDir);
+
+        Raptor.Journey journey = new Raptor(feed, 3, 120).search(
+                List.of(new Raptor.StopTime(stop(feed, "A"), 60)),
+                List.of(new Raptor.StopTime(stop(feed, "C"), 0)), TUESDAY, at(7, 55));
+
+        assertNotNull(journey);
+        // arriving at B at 08:10 leaves no two minutes to change onto EARLY
+        assertEquals("LATE", feed.tripId(journey.getLegs().get(2).getTrip()));
+        assertEquals(at(8, 25), journey.getArrival());
+    }
+}
@@ -0,0 +1,66 @@
+package nl.ase_wayfinding.routecalc.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RouteResultCacheTest {
+
+    private static final List<List<Double>> TRIP = List.of(Arrays.asList(-6.2603, 53.3498),
+            Arrays.asList(-6.2546, 53.3438));
+    private static final Map<String, Object> ROUTE = Map.of("status", "success", "distance", 812.5);
+
+    @Test
+    void testGet_nearbyEndpointsShareAnEntry() {
+        RouteResultCache cache = new RouteResultCache(25, 60_000, 10, 1 << 20);
+        cache.put(TRIP, "car", "v1", ROUTE);
+
+        // a few metres away from both endpoints
+        List<List<Double>> retry = List.of(Arrays.asList(-6.26032, 53.34982), Arrays.asList(-6.25458, 53.34378));
+
+        assertSame(ROUTE, cache.get(retry, "car", "v1"));
+        assertNull(cache.get(TRIP, "bike", "v1"));
+        assertEquals(1, cache.getHits());
+        assertEquals(1, cache.getMisses());
+    }
+
+    @Test
+    void testGet_newDataVersionDropsEntries() {
+        RouteResultCache cache = new RouteResultCache(25, 60_000, 10, 1 << 20);
+        cache.put(TRIP, "car", "v1", ROUTE);
+
+        assertNull(cache.get(TRIP, "car", "v2"));
+        assertEquals(0, cache.size());
+        assertEquals(1L, cache.stats().get("invalidations"));
+
+        // a result computed against the old data is not cached any more
+        cache.put(TRIP, "car", "v1", ROUTE);
+        assertNull(cache.get(TRIP, "car", "v2"));
+    }
+
+    @Test
+    void testPut_evictsWhenOverMemoryBound() {
+        RouteResultCache cache = new RouteResultCache(25, 60_000, 10, 100);
+        cache.put(TRIP, "car", "v1", Map.of("padding", "x".repeat(60)));
+        cache.put(TRIP, "walk", "v1", Map.of("padding", "y".repeat(60)));
+
+        assertEquals(1, cache.size());
+        assertNull(cache.get(TRIP, "car", "v1"));
+        assertNotNull(cache.get(TRIP, "walk", "v1"));
+        assertEquals(1L, cache.stats().get("evictions"));
+        assertTrue((long) cache.stats().get("estimated_bytes") <= 100);
+    }
+
+    @Test
+    void testGet_expiredEntryIsAMiss() {
+        RouteResultCache cache = new RouteResultCache(25, -1, 10, 1 << 20);
+        cache.put(TRIP, "car", "v1", ROUTE);
+
+        assertNull(cache.get(TRIP, "car", "v1"));
+        assertEquals(1L, cache.stats().get("expirations"));
+    }
+}
@@ -0,0 +1,71 @@
+package nl.ase_wayfinding.routecalc.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ShapeIndexTest {
+
+    // O'Connell Street to St Stephen's Green, [lon, lat]
+    private static final List<double[]> SOUTHBOUND = List.of(new double[] { -6.2603, 53.3498 },
+            new double[] { -6.2595, 53.3455 }, new double[] { -6.2590, 53.3420 }, new double[] { -6.2597, 53.3382 });
+
+    private static List<double[]> reversed(List<double[]> shape) {
+        return List.of(shape.get(3), shape.get(2), shape.get(1), shape.get(0));
+    }
+
+    @Test
+    void testNearest_picksShapeRunningInTravelDirection() {
+        Map<String, List<double[]>> shapes = new LinkedHashMap<>();
+        shapes.put("46A_north", reversed(SOUTHBOUND));
+        shapes.put("46A_south", SOUTHBOUND);
+        ShapeIndex index = ShapeIndex.of(shapes, 250);
+
+        ShapeIndex.Match match = index.nearest(53.3497, -6.2601, 53.3384, -6.2596, 500);
+
+        assertNotNull(match);
+        assertEquals("46A_south", match.getShapeId());
+        assertEquals(0, match.getBoardIndex());
+        assertEquals(3, match.getAlightIndex());
+        assertTrue(match.getWalkMeters() < 50);
+    }
+
+    @Test
+    void testNearest_prefersShortestWalkToBothStops() {
+        Map<String, List<double[]>> shapes = new LinkedHashMap<>();
+        shapes.put("far", List.of(new double[] { -6.2640, 53.3498 }, new double[] { -6.2640, 53.3382 }));
+        shapes.put("near", List.of(new double[] { -6.2600, 53.3490 }, new double[] { -6.2600, 53.3390 }));
+        ShapeIndex index = ShapeIndex.of(shapes, 250);
+
+        assertEquals("near", index.nearest(53.3498, -6.2603, 53.3382, -6.2597, 1000).getShapeId());
+    }
+
+    @Test
+    void testNearest_noShapeWithinWalkingDistance() {
+        ShapeIndex index = ShapeIndex.of(Map.of("46A_south", SOUTHBOUND, "empty", List.of()), 250);
+
+        // a trip across the river in Cork
+        assertNull(index.nearest(51.8985, -8.4756, 51.8969, -8.4863, 1000));
+        assertNull(ShapeIndex.of(Map.of(), 250).nearest(53.3498, -6.2603, 53.3382, -6.2597, 1000));
+    }
+
+    @Test
+    void testNearest_onlySearchesTheIncludedShapes() {
+        Map<String, List<double[]>> shapes = new LinkedHashMap<>();
+        shapes.put("luas", SOUTHBOUND);
+        shapes.put("46A", SOUTHBOUND);
+        ShapeTable table = ShapeTable.of(shapes);
+        ShapeIndex buses = ShapeIndex.of(table, 250, shape -> table.id(shape).equals("46A"));
+
+        ShapeIndex.Match match = buses.nearest(53.3497, -6.2601, 53.3384, -6.2596, 500);
+
+        assertEquals(1, buses.size());
+        assertNotNull(match);
+        assertEquals("46A", match.getShapeId());
+        assertNull(ShapeIndex.of(table, 250, shape -> false).nearest(53.3497, -6.2601, 53.3384, -6.2596, 500));
+    }
+}
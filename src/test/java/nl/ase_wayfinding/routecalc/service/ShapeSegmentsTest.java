@@ -0,0 +1,68 @@
+package nl.ase_wayfinding.routecalc.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ShapeSegmentsTest {
+
+    // a straight stretch along a parallel, [lon, lat]
+    private static final List<double[]> SHAPE = List.of(new double[] { -0.130, 51.510 },
+            new double[] { -0.120, 51.510 }, new double[] { -0.110, 51.510 });
+
+    @Test
+    void testProject_returnsPointOnSegmentRatherThanVertex() {
+        ShapeSegments segments = ShapeSegments.of(SHAPE);
+
+        // 100 m north of the middle of the first segment
+        ShapeSegments.Projection projection = segments.project(51.5109, -0.125);
+
+        assertEquals(0, projection.getSegment());
+        assertEquals(0.5, projection.getFraction(), 1e-6);
+        assertEquals(51.510, projection.getLat(), 1e-9);
+        assertEquals(-0.125, projection.getLon(), 1e-9);
+        assertEquals(100, projection.getDistanceMeters(), 1);
+    }
+
+    @Test
+    void testProject_exactVertexAndBeyondTheEnds() {
+        ShapeSegments segments = ShapeSegments.of(SHAPE);
+
+        ShapeSegments.Projection vertex = segments.project(51.510, -0.130);
+        assertEquals(0, vertex.getPosition());
+        assertEquals(0, vertex.getDistanceMeters(), 1e-9);
+
+        ShapeSegments.Projection pastEnd = segments.project(51.510, -0.100);
+        assertEquals(2, pastEnd.getPosition());
+        assertEquals(-0.110, pastEnd.getLon());
+    }
+
+    @Test
+    void testProject_findsNearestSegmentAcrossBlocks() {
+        // a zig-zag long enough to span several blocks, the closest segment is near the end
+        List<double[]> zigzag = new ArrayList<>();
+        for (int i = 0; i < 100; i++)
+            zigzag.add(new double[] { -0.2 + i * 0.001, 51.5 + (i % 2) * 0.001 });
+        ShapeSegments segments = ShapeSegments.of(zigzag);
+
+        ShapeSegments.Projection projection = segments.project(51.5, -0.2 + 90.5 * 0.001);
+
+        assertEquals(90, projection.getSegment());
+        assertTrue(projection.getDistanceMeters() < 40);
+    }
+
+    @Test
+    void testSlice_startsAndEndsAtProjectedPoints() {
+        ShapeSegments segments = ShapeSegments.of(SHAPE);
+
+        List<double[]> slice = segments.slice(segments.project(51.510, -0.125), segments.project(51.510, -0.110));
+
+        assertEquals(3, slice.size());
+        assertArrayEquals(new double[] { -0.125, 51.510 }, slice.get(0), 1e-9);
+        assertArrayEquals(new double[] { -0.120, 51.510 }, slice.get(1), 1e-9);
+        assertArrayEquals(new double[] { -0.110, 51.510 }, slice.get(2), 1e-9);
+    }
+}
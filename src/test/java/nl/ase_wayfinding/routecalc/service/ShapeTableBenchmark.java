@@ -0,0 +1,106 @@
+package nl.ase_wayfinding.routecalc.service;
+
+import java.io.BufferedWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Load-time and retained-heap comparison of {@link ShapeTable} against the previous
+ * readAllLines/split loader that kept every point as a double[] in a HashMap of
+ * ArrayLists. Not a unit test, run it by hand:
+ *
+ * <pre>
+ * java -cp target/classes:target/test-classes:... nl.ase_wayfinding.routecalc.service.ShapeTableBenchmark [shapes.txt]
+ * </pre>
+ *
+ * Without an argument a synthetic feed of about four million points, the size of
+ * a national feed, is generated in the temp directory.
+ */
+public class ShapeTableBenchmark {
+
+    private static final int RUNS = 5;
+
+    public static void main(String[] args) throws Exception {
+        Path shapes = args.length > 0 ? Paths.get(args[0]) : syntheticFeed(8_000, 500);
+        System.out.printf("Feed %s, %.1f MB%n", shapes, Files.size(shapes) / 1e6);
+
+        for (int run = 1; run <= RUNS; run++) {
+            long packed = measure(() -> ShapeTable.read(shapes));
+            long boxed = measure(() -> readBoxed(shapes));
+            System.out.printf("run %d: packed %d ms, boxed %d ms%n", run, packed, boxed);
+        }
+        System.out.printf("retained heap: packed %.1f MB, boxed %.1f MB%n",
+                retained(() -> ShapeTable.read(shapes)) / 1e6, retained(() -> readBoxed(shapes)) / 1e6);
+    }
+
+    private static long measure(Loader loader) throws Exception {
+        long start = System.nanoTime();
+        loader.load();
+        return (System.nanoTime() - start) / 1_000_000;
+    }
+
+    private static long retained(Loader loader) throws Exception {
+        long before = usedAfterGc();
+        Object shapes = loader.load();
+        long after = usedAfterGc();
+        // keep the result reachable until after the measurement
+        System.out.println("  " + shapes.getClass().getSimpleName() + " loaded");
+        return after - before;
+    }
+
+    private static long usedAfterGc() throws InterruptedException {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            Thread.sleep(100);
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    /** The loader ShapeTable replaced. */
+    private static Map<String, List<double[]>> readBoxed(Path shapesFile) throws Exception {
+        Map<String, List<double[]>> busRoutes = new HashMap<>();
+        List<String> lines = Files.readAllLines(shapesFile, StandardCharsets.UTF_8);
+        for (int i = 1; i < lines.size(); i++) {
+            String[] parts = lines.get(i).split(",");
+            if (parts.length < 4)
+                continue;
+            String shapeId = parts[0].replace("\"", "").trim();
+            double lat = Double.parseDouble(parts[1].replace("\"", "").trim());
+            double lon = Double.parseDouble(parts[2].replace("\"", "").trim());
+            busRoutes.computeIfAbsent(shapeId, k -> new ArrayList<>()).add(new double[] { lon, lat });
+        }
+        return busRoutes;
+    }
+
+    private static Path syntheticFeed(int shapes, int pointsPerShape) throws Exception {
+        Path file = Files.createTempFile("shapes-benchmark", ".txt");
+        file.toFile().deleteOnExit();
+        Random random = new Random(42);
+        try (BufferedWriter writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            writer.write("shape_id,shape_pt_lat,shape_pt_lon,shape_pt_sequence,shape_dist_traveled\n");
+            for (int s = 0; s < shapes; s++) {
+                double lat = 51.4 + random.nextDouble() * 3.9;
+                double lon = -10.5 + random.nextDouble() * 4.5;
+                for (int p = 1; p <= pointsPerShape; p++) {
+                    lat += (random.nextDouble() - 0.5) * 0.002;
+                    lon += (random.nextDouble() - 0.5) * 0.002;
+                    writer.write(String.format(Locale.ROOT, "%d,%.6f,%.6f,%d,%.1f%n", s, lat, lon, p, p * 25.0));
+                }
+            }
+        }
+        return file;
+    }
+
+    private interface Loader {
+        Object load() throws Exception;
+    }
+}
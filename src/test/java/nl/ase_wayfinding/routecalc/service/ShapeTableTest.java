@@ -0,0 +1,69 @@
+package nl.ase_wayfinding.routecalc.service;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ShapeTableTest {
+
+    @TempDir
+    Path gtfsDir;
+
+    private ShapeTable read(String... lines) throws Exception {
+        Path shapes = gtfsDir.resolve("shapes.txt");
+        Files.write(shapes, List.of(lines), StandardCharsets.UTF_8);
+        return ShapeTable.read(shapes);
+    }
+
+    @Test
+    void testRead_usesHeaderColumnOrderAndSequence() throws Exception {
+        ShapeTable table = read(
+                "shape_pt_sequence,shape_dist_traveled,shape_pt_lon,shape_pt_lat,shape_id",
+                "2,120.5,-6.2595,53.3455,\"46A\"",
+                "1,0,-6.2603,53.3498,46A",
+                "1,0,-6.2700,53.3400,145",
+                "3,310.2,-6.2590,53.3420,46A");
+
+        assertEquals(2, table.size());
+        assertEquals(4, table.pointCount());
+        Map<String, List<double[]>> shapes = table.asMap();
+        List<double[]> route46A = shapes.get("46A");
+        assertEquals(3, route46A.size());
+        assertArrayEquals(new double[] { -6.2603, 53.3498 }, route46A.get(0));
+        assertArrayEquals(new double[] { -6.2595, 53.3455 }, route46A.get(1));
+        assertArrayEquals(new double[] { -6.2590, 53.3420 }, route46A.get(2));
+        assertArrayEquals(new double[] { -6.2700, 53.3400 }, shapes.get("145").get(0));
+    }
+
+    @Test
+    void testRead_skipsShortAndUnparseableRows() throws Exception {
+        ShapeTable table = read(
+                "shape_id,shape_pt_lat,shape_pt_lon,shape_pt_sequence",
+                "46A,53.3498,-6.2603,1",
+                "46A,not-a-number,-6.2595,2",
+                "46A,53.3455",
+                "",
+                "46A,53.3420,-6.2590,3");
+
+        assertEquals(1, table.size());
+        assertEquals(2, table.asMap().get("46A").size());
+    }
+
+    @Test
+    void testOf_roundTripsShapesAsPackedArrays() {
+        ShapeTable table = ShapeTable.of(Map.of("46A", List.of(new double[] { -6.2603, 53.3498 },
+                new double[] { -6.2595, 53.3455 })));
+
+        assertEquals("46A", table.id(0));
+        assertEquals(0, table.start(0));
+        assertEquals(2, table.end(0));
+        assertArrayEquals(new double[] { -6.2595, 53.3455 }, table.points(0).get(1));
+    }
+}
@@ -0,0 +1,93 @@
+package nl.ase_wayfinding.routecalc.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SingleFlightTest {
+
+    /** Starts a leader that blocks until released and a follower once the leader is running. */
+    private static Future<String> follow(ExecutorService pool, SingleFlight<String, String> flight,
+            CountDownLatch running, CountDownLatch release, AtomicInteger calls, RuntimeException failure)
+            throws Exception {
+        pool.submit(() -> flight.execute("dublin", () -> {
+            calls.incrementAndGet();
+            running.countDown();
+            await(release);
+            if (failure != null)
+                throw failure;
+            return "route";
+        }));
+        assertTrue(running.await(5, TimeUnit.SECONDS));
+        Future<String> follower = pool.submit(() -> flight.execute("dublin", () -> {
+            calls.incrementAndGet();
+            return "second";
+        }));
+        // the follower registers synchronously, wait until it has been counted
+        while (flight.getCoalesced() == 0)
+            Thread.sleep(1);
+        release.countDown();
+        return follower;
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Test
+    void testExecute_concurrentCallersShareOneComputation() throws Exception {
+        SingleFlight<String, String> flight = new SingleFlight<>();
+        ExecutorService pool = Executors.newFixedThreadPool(2);
+        AtomicInteger calls = new AtomicInteger();
+        try {
+            Future<String> follower = follow(pool, flight, new CountDownLatch(1), new CountDownLatch(1), calls, null);
+
+            assertEquals("route", follower.get(5, TimeUnit.SECONDS));
+            assertEquals(1, calls.get());
+            assertEquals(1, flight.getExecutions());
+            assertEquals(1, flight.getCoalesced());
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    @Test
+    void testExecute_followerSeesLeaderException() throws Exception {
+        SingleFlight<String, String> flight = new SingleFlight<>();
+        ExecutorService pool = Executors.newFixedThreadPool(2);
+        IllegalStateException failure = new IllegalStateException("graph not loaded");
+        try {
+            Future<String> follower = follow(pool, flight, new CountDownLatch(1), new CountDownLatch(1),
+                    new AtomicInteger(), failure);
+
+            Exception thrown = assertThrows(Exception.class, () -> follower.get(5, TimeUnit.SECONDS));
+            assertSame(failure, thrown.getCause());
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    @Test
+    void testExecute_sequentialCallsAreNotCoalesced() {
+        SingleFlight<String, String> flight = new SingleFlight<>();
+
+        flight.execute("dublin", () -> "first");
+        String second = flight.execute("dublin", () -> "second");
+
+        assertEquals("second", second);
+        assertEquals(2, flight.getExecutions());
+        assertEquals(0, flight.getCoalesced());
+        assertEquals(0, flight.stats().get("in_flight"));
+    }
+}
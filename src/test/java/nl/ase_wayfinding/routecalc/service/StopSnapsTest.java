@@ -0,0 +1,114 @@
+package nl.ase_wayfinding.routecalc.service;
+
+import com.graphhopper.routing.util.EdgeFilter;
+import com.graphhopper.routing.util.EncodingManager;
+import com.graphhopper.storage.BaseGraph;
+import com.graphhopper.storage.RAMDirectory;
+import com.graphhopper.storage.index.LocationIndex;
+import com.graphhopper.storage.index.LocationIndexTree;
+import com.graphhopper.storage.index.Snap;
+import com.graphhopper.util.shapes.BBox;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static nl.ase_wayfinding.routecalc.service.TimetableTest.stop;
+import static org.junit.jupiter.api.Assertions.*;
+
+class StopSnapsTest {
+
+    @TempDir
+    Path dir;
+
+    private Timetable table;
+    private BaseGraph graph;
+    private LocationIndex index;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        table = Timetable.read(TimetableTest.writeFeed(dir));
+        // one street running north just west of stops A, B and C; D and E are far from it
+        graph = new BaseGraph.Builder(EncodingManager.start().build()).create();
+        graph.getNodeAccess().setNode(0, 53.3400, -6.2605);
+        graph.getNodeAccess().setNode(1, 53.3900, -6.2605);
+        graph.edge(0, 1).setDistance(5560);
+        index = new LocationIndexTree(graph, new RAMDirectory()).prepareIndex();
+    }
+
+    @Test
+    void testCompute_snapsStopsNearAStreetOnly() {
+        StopSnaps snaps = StopSnaps.compute(table, index, EdgeFilter.ALL_EDGES, 42, 100);
+
+        assertEquals(5, snaps.size());
+        assertEquals(3, snaps.snappedCount());
+        int b = stop(table, "B");
+        assertTrue(snaps.isSnapped(b));
+        assertEquals(53.3600, snaps.lat(b), 1e-6);
+        assertEquals(-6.2605, snaps.lon(b), 1e-9);
+        assertEquals(33, snaps.offsetMeters(b), 1);
+        assertFalse(snaps.isSnapped(stop(table, "D")));
+
+        List<Integer> near = new ArrayList<>();
+        snaps.forEachStopNear(53.3600, -6.2600, 500, (s, meters) -> near.add(s));
+        assertEquals(List.of(b), near);
+    }
+
+    @Test
+    void testWrap_answersLookupsAtSnappedPointsFromTheTable() {
+        StopSnaps snaps = StopSnaps.compute(table, index, EdgeFilter.ALL_EDGES, 42, 100);
+        int b = stop(table, "B");
+        int[] delegated = new int[1];
+        LocationIndex counting = new LocationIndex() {
+            @Override
+            public Snap findClosest(double lat, double lon, EdgeFilter edgeFilter) {
+                delegated[0]++;
+                return index.findClosest(lat, lon, edgeFilter);
+            }
+
+            @Override
+            public void query(BBox queryBBox, Visitor function) {
+                index.query(queryBBox, function);
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+        LocationIndex wrapped = snaps.wrap(counting, graph);
+
+        Snap first = wrapped.findClosest(snaps.lat(b), snaps.lon(b), EdgeFilter.ALL_EDGES);
+        Snap second = wrapped.findClosest(snaps.lat(b), snaps.lon(b), EdgeFilter.ALL_EDGES);
+        assertEquals(0, delegated[0]);
+        assertTrue(first.isValid());
+        assertNotSame(first, second);
+        assertEquals(snaps.lat(b), first.getSnappedPoint().lat);
+        assertEquals(0, first.getClosestEdge().getEdge());
+
+        // other points, and edges the request may not use, go to the real index
+        wrapped.findClosest(53.3650, -6.2600, EdgeFilter.ALL_EDGES);
+        wrapped.findClosest(snaps.lat(b), snaps.lon(b), edge -> false);
+        assertEquals(2, delegated[0]);
+    }
+
+    @Test
+    void testReadWrite_roundTripsForTheSameGraphAndStops() throws Exception {
+        StopSnaps snaps = StopSnaps.compute(table, index, EdgeFilter.ALL_EDGES, 42, 100);
+        Path file = dir.resolve("cache").resolve("stop_snaps.bin");
+        snaps.write(file);
+
+        StopSnaps read = StopSnaps.read(file, 42, table);
+        assertNotNull(read);
+        assertEquals(snaps.snappedCount(), read.snappedCount());
+        int c = stop(table, "C");
+        assertEquals(snaps.lat(c), read.lat(c));
+        assertEquals(snaps.offsetMeters(c), read.offsetMeters(c));
+        assertEquals(snaps.snap(c, graph).getWayIndex(), read.snap(c, graph).getWayIndex());
+
+        assertNull(StopSnaps.read(file, 43, table));
+        assertNull(StopSnaps.read(dir.resolve("missing.bin"), 42, table));
+    }
+}
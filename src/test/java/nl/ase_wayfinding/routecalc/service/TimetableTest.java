@@ -0,0 +1,287 @@
+package nl.ase_wayfinding.routecalc.service;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TimetableTest {
+
+    @TempDir
+    Path gtfsDir;
+
+    /**
+     * Writes a small feed: route 46A runs A-B-C on weekdays at 08:00 and 08:30 and
+     * once after midnight on 3 March 2025 only; route 145 runs D-E at 08:25 and
+     * 08:55. C and D are two minutes apart on foot.
+     */
+    static Path writeFeed(Path dir) throws Exception {
+        write(dir, "stops.txt",
+                "stop_id,stop_name,stop_lat,stop_lon",
+                "A,Stop A,53.3500,-6.2600",
+                "B,Stop B,53.3600,-6.2600",
+                "C,Stop C,53.3700,-6.2600",
+                "D,Stop D,53.3700,-6.2550",
+                "E,Stop E,53.3800,-6.2550");
+        write(dir, "routes.txt",
+                "route_id,agency_id,route_short_name,route_long_name,route_type",
+                "R1,DB,46A,,3",
+                "R2,DB,,Lucan Road,3");
+        write(dir, "calendar.txt",
+                "service_id,monday,tuesday,wednesday,thursday,friday,saturday,sunday,start_date,end_date",
+                "WK,1,1,1,1,1,0,0,20250101,20251231");
+        write(dir, "calendar_dates.txt",
+                "service_id,date,exception_type",
+                "WK,20250305,2",
+                "NIGHT,20250303,1");
+        write(dir, "trips.txt",
+                "route_id,service_id,trip_id,trip_headsign,shape_id",
+                "R1,WK,T2,Stop C,S1",
+                "R1,WK,T1,Stop C,S1",
+                "R2,WK,T3,Stop E,",
+                "R2,WK,T4,Stop E,",
+                "R1,NIGHT,T5,Stop C,S1");
+        write(dir, "stop_times.txt",
+                "trip_id,arrival_time,departure_time,stop_id,stop_sequence",
+                "T1,08:20:00,08:20:00,C,3",
+                "T1,08:00:00,08:00:00,A,1",
+                "T1,08:10:00,08:10:00,B,2",
+                "T2,08:30:00,08:30:00,A,1",
+                "T2,08:40:00,08:40:00,B,2",
+                "T2,08:50:00,08:50:00,C,3",
+                "T3,08:25:00,08:25:00,D,1",
+                "T3,08:40:00,08:40:00,E,2",
+                "T4,08:55:00,08:55:00,D,1",
+                "T4,09:10:00,09:10:00,E,2",
+                "T5,24:30:00,24:30:00,A,1",
+                "T5,,,B,2",
+                "T5,24:50:00,24:50:00,C,3",
+                "T6,09:00:00,09:00:00,A,1");
+        write(dir, "transfers.txt",
+                "from_stop_id,to_stop_id,transfer_type,min_transfer_time",
+                "C,D,2,120",
+                "D,C,3,");
+        return dir;
+    }
+
+    /** The same feed with route Lucan Road run by trains along shape S2, and a ferry. */
+    static Path writeMixedFeed(Path dir) throws Exception {
+        writeFeed(dir);
+        write(dir, "routes.txt",
+                "route_id,agency_id,route_short_name,route_long_name,route_type",
+                "R1,DB,46A,,3",
+                "R2,IR,,Lucan Road,2",
+                "R3,DF,F1,,4");
+        write(dir, "trips.txt",
+                "route_id,service_id,trip_id,trip_headsign,shape_id",
+                "R1,WK,T2,Stop C,S1",
+                "R1,WK,T1,Stop C,S1",
+                "R2,WK,T3,Stop E,S2",
+                "R2,WK,T4,Stop E,S2",
+                "R1,NIGHT,T5,Stop C,S1",
+                "R3,WK,T7,Stop A,S3");
+        return dir;
+    }
+
+    /** One route over P, Q and R whose FAST trip leaves P after SLOW and overtakes it. */
+    static Path writeOvertakingFeed(Path dir) throws Exception {
+        write(dir, "stops.txt",
+                "stop_id,stop_name,stop_lat,stop_lon",
+                "P,P,53.30,-6.26", "Q,Q,53.31,-6.26", "R,R,53.32,-6.26");
+        write(dir, "routes.txt",
+                "route_id,route_short_name,route_long_name,route_type",
+                "R1,1,,3");
+        write(dir, "calendar.txt",
+                "service_id,monday,tuesday,wednesday,thursday,friday,saturday,sunday,start_date,end_date",
+                "WK,1,1,1,1,1,0,0,20250101,20251231");
+        write(dir, "trips.txt",
+                "route_id,service_id,trip_id",
+                "R1,WK,SLOW", "R1,WK,FAST", "R1,WK,NEXT");
+        write(dir, "stop_times.txt",
+                "trip_id,arrival_time,departure_time,stop_id,stop_sequence",
+                "SLOW,08:00:00,08:00:00,P,1", "SLOW,08:30:00,08:30:00,Q,2", "SLOW,08:40:00,08:40:00,R,3",
+                "FAST,08:05:00,08:05:00,P,1", "FAST,08:15:00,08:15:00,Q,2", "FAST,08:25:00,08:25:00,R,3",
+                "NEXT,08:20:00,08:20:00,P,1", "NEXT,08:50:00,08:50:00,Q,2", "NEXT,09:00:00,09:00:00,R,3");
+        return dir;
+    }
+
+    static void write(Path dir, String file, String... lines) throws Exception {
+        Files.write(dir.resolve(file), List.of(lines), StandardCharsets.UTF_8);
+    }
+
+    static int stop(Timetable table, String id) {
+        for (int s = 0; s < table.stopCount(); s++) {
+            if (table.stopId(s).equals(id))
+                return s;
+        }
+        throw new AssertionError("No stop " + id);
+    }
+
+    static int trip(Timetable table, String id) {
+        for (int t = 0; t < table.tripCount(); t++) {
+            if (table.tripId(t).equals(id))
+                return t;
+        }
+        throw new AssertionError("No trip " + id);
+    }
+
+    @Test
+    void testRead_groupsTripsIntoPatternsOrderedByDeparture() throws Exception {
+        Timetable table = Timetable.read(writeFeed(gtfsDir));
+
+        assertEquals(5, table.stopCount());
+        // T6 has a single stop and no trip entry, it is dropped
+        assertEquals(5, table.tripCount());
+        assertEquals(2, table.patternCount());
+
+        int pattern = table.patternOf(trip(table, "T1"));
+        assertEquals("46A", table.routeName(table.patternRoute(pattern)));
+        assertEquals(3, table.patternSize(pattern));
+        assertEquals(stop(table, "A"), table.patternStop(pattern, 0));
+        assertEquals(stop(table, "C"), table.patternStop(pattern, 2));
+        List<String> trips = new ArrayList<>();
+        for (int t = table.firstTrip(pattern); t < table.endTrip(pattern); t++)
+            trips.add(table.tripId(t));
+        assertEquals(List.of("T1", "T2", "T5"), trips);
+
+        int other = table.patternOf(trip(table, "T3"));
+        assertEquals("Lucan Road", table.routeName(table.patternRoute(other)));
+        assertEquals(3, table.routeType(table.patternRoute(other)));
+        assertEquals("", table.tripShapeId(trip(table, "T3")));
+        assertEquals("S1", table.tripShapeId(trip(table, "T1")));
+    }
+
+    @Test
+    void testRead_splitsOvertakingTripsIntoPatternsOfTheirOwn() throws Exception {
+        Timetable table = Timetable.read(writeOvertakingFeed(gtfsDir));
+
+        assertEquals(2, table.patternCount());
+        int slow = table.patternOf(trip(table, "SLOW"));
+        assertNotEquals(slow, table.patternOf(trip(table, "FAST")));
+        assertEquals(slow, table.patternOf(trip(table, "NEXT")));
+        assertEquals(table.patternRoute(slow), table.patternRoute(table.patternOf(trip(table, "FAST"))));
+        for (int p = 0; p < table.patternCount(); p++) {
+            for (int i = 0; i < table.patternSize(p); i++) {
+                for (int t = table.firstTrip(p) + 1; t < table.endTrip(p); t++)
+                    assertTrue(table.departure(t - 1, i) <= table.departure(t, i));
+            }
+        }
+    }
+
+    @Test
+    void testRead_interpolatesMissingTimesAndKeepsTimesPastMidnight() throws Exception {
+        Timetable table = Timetable.read(writeFeed(gtfsDir));
+
+        int night = trip(table, "T5");
+        assertEquals(24 * 3600 + 30 * 60, table.departure(night, 0));
+        assertEquals(24 * 3600 + 40 * 60, table.arrival(night, 1));
+        assertEquals(24 * 3600 + 40 * 60, table.departure(night, 1));
+        assertEquals(24 * 3600 + 50 * 60, table.arrival(night, 2));
+    }
+
+    @Test
+    void testRead_appliesCalendarExceptionsAndTransfers() throws Exception {
+        Timetable table = Timetable.read(writeFeed(gtfsDir));
+
+        int weekday = table.tripService(trip(table, "T1"));
+        int night = table.tripService(trip(table, "T5"));
+        assertTrue(table.activeServices(LocalDate.of(2025, 3, 4)).get(weekday));
+        assertFalse(table.activeServices(LocalDate.of(2025, 3, 5)).get(weekday));
+        assertFalse(table.activeServices(LocalDate.of(2025, 3, 8)).get(weekday));
+        assertTrue(table.activeServices(LocalDate.of(2025, 3, 3)).get(night));
+        assertFalse(table.activeServices(LocalDate.of(2025, 3, 4)).get(night));
+
+        int c = stop(table, "C");
+        assertEquals(1, table.transferEnd(c) - table.transferStart(c));
+        assertEquals(stop(table, "D"), table.transferTarget(table.transferStart(c)));
+        assertEquals(120, table.transferSeconds(table.transferStart(c)));
+        int d = stop(table, "D");
+        assertEquals(1, table.transferEnd(d) - table.transferStart(d));
+        assertEquals(Timetable.NO_TRANSFER, table.transferSeconds(table.transferStart(d)));
+    }
+
+    @Test
+    void testRead_partitionsStopsAndPatternsByMode() throws Exception {
+        Timetable table = Timetable.read(writeMixedFeed(gtfsDir));
+
+        assertEquals(3, table.stopCount(TransitMode.BUS));
+        assertEquals(2, table.stopCount(TransitMode.RAIL));
+        assertEquals(0, table.stopCount(TransitMode.TRAM));
+        assertTrue(table.serves(TransitMode.BUS, stop(table, "C")));
+        assertFalse(table.serves(TransitMode.BUS, stop(table, "D")));
+        assertTrue(table.serves(TransitMode.RAIL, stop(table, "D")));
+        assertEquals(TransitMode.RAIL, table.patternMode(table.patternOf(trip(table, "T3"))));
+
+        // C and D are 330 m apart, each is only found among its own mode's stops
+        List<String> rail = new ArrayList<>();
+        table.forEachStopNear(TransitMode.RAIL, 53.3700, -6.2600, 500, (stop, meters) -> rail.add(table.stopId(stop)));
+        assertEquals(List.of("D"), rail);
+        List<String> all = new ArrayList<>();
+        table.forEachStopNear(53.3700, -6.2600, 500, (stop, meters) -> all.add(table.stopId(stop)));
+        assertEquals(2, all.size());
+    }
+
+    @Test
+    void testReadCache_mapsWhatWasWritten() throws Exception {
+        Path feed = writeMixedFeed(gtfsDir);
+        Timetable table = Timetable.read(feed);
+        long checksum = TransitCache.checksum(Timetable.sources(feed));
+        Path cache = gtfsDir.resolve("cache").resolve("timetable.bin");
+        table.writeCache(cache, checksum);
+
+        Timetable mapped = Timetable.readCache(cache, checksum);
+
+        assertNotNull(mapped);
+        assertEquals(table.stopCount(), mapped.stopCount());
+        assertEquals(table.patternCount(), mapped.patternCount());
+        assertEquals(table.tripCount(), mapped.tripCount());
+        assertEquals(table.transferCount(), mapped.transferCount());
+        assertEquals(table.stopCount(TransitMode.RAIL), mapped.stopCount(TransitMode.RAIL));
+        for (int t = 0; t < table.tripCount(); t++) {
+            assertEquals(table.tripId(t), mapped.tripId(t));
+            assertEquals(table.tripShapeId(t), mapped.tripShapeId(t));
+            int pattern = table.patternOf(t);
+            assertEquals(pattern, mapped.patternOf(t));
+            for (int i = 0; i < table.patternSize(pattern); i++) {
+                assertEquals(table.patternStop(pattern, i), mapped.patternStop(pattern, i));
+                assertEquals(table.arrival(t, i), mapped.arrival(t, i));
+                assertEquals(table.departure(t, i), mapped.departure(t, i));
+            }
+        }
+        for (LocalDate date = LocalDate.of(2025, 3, 1); date.isBefore(LocalDate.of(2025, 3, 15)); date = date.plusDays(1))
+            assertEquals(table.activeServices(date), mapped.activeServices(date));
+        int c = stop(mapped, "C");
+        assertEquals(120, mapped.transferSeconds(mapped.transferStart(c)));
+        assertEquals("Stop C", mapped.stopName(c));
+    }
+
+    @Test
+    void testReadCache_changedFeedIsAMiss() throws Exception {
+        Path feed = writeFeed(gtfsDir);
+        long checksum = TransitCache.checksum(Timetable.sources(feed));
+        Path cache = gtfsDir.resolve("timetable.bin");
+        Timetable.read(feed).writeCache(cache, checksum);
+
+        writeOvertakingFeed(gtfsDir);
+
+        assertNotEquals(checksum, TransitCache.checksum(Timetable.sources(feed)));
+        assertNull(Timetable.readCache(cache, TransitCache.checksum(Timetable.sources(feed))));
+        assertNull(Timetable.readCache(gtfsDir.resolve("missing.bin"), checksum));
+    }
+
+    @Test
+    void testReadShapeModes_mapsShapesToTheirRoutesMode() throws Exception {
+        Map<String, TransitMode> modes = Timetable.readShapeModes(writeMixedFeed(gtfsDir));
+
+        // the ferry's shape belongs to no mode
+        assertEquals(Map.of("S1", TransitMode.BUS, "S2", TransitMode.RAIL), modes);
+    }
+}
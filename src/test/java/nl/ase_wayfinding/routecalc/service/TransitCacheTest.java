@@ -0,0 +1,83 @@
+package nl.ase_wayfinding.routecalc.service;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TransitCacheTest {
+
+    @TempDir
+    Path dir;
+
+    private Path feed(String... rows) throws Exception {
+        Path shapes = dir.resolve("shapes.txt");
+        Files.write(shapes, List.of(rows), StandardCharsets.UTF_8);
+        return shapes;
+    }
+
+    @Test
+    void testRead_mapsWhatWasWritten() throws Exception {
+        Path shapes = feed("shape_id,shape_pt_lat,shape_pt_lon,shape_pt_sequence",
+                "46A,53.3498,-6.2603,1", "46A,53.3455,-6.2595,2", "46A,53.3382,-6.2597,3",
+                "145,53.3400,-6.2700,1");
+        long checksum = TransitCache.checksum(shapes);
+        Path cache = dir.resolve("cache").resolve("shapes.bin");
+        TransitCache.write(cache, checksum, ShapeIndex.byMode(ShapeTable.read(shapes), 250, null));
+
+        ShapeIndex mapped = TransitCache.read(cache, checksum, 250).get(TransitMode.BUS);
+
+        assertNotNull(mapped);
+        assertEquals(2, mapped.size());
+        assertEquals(4, mapped.getShapes().pointCount());
+        assertArrayEquals(new double[] { -6.2595, 53.3455 }, mapped.getShapes().asMap().get("46A").get(1));
+        ShapeIndex.Match match = mapped.nearest(53.3497, -6.2601, 53.3384, -6.2596, 500);
+        assertEquals("46A", match.getShapeId());
+        assertEquals(2, match.getAlightIndex());
+    }
+
+    @Test
+    void testRead_mapsTheIndexOfEachMode() throws Exception {
+        Path shapes = feed("shape_id,shape_pt_lat,shape_pt_lon,shape_pt_sequence",
+                "46A,53.3498,-6.2603,1", "46A,53.3382,-6.2597,2",
+                "DART,53.3499,-6.2602,1", "DART,53.3383,-6.2598,2",
+                "FERRY,53.3497,-6.2604,1", "FERRY,53.3381,-6.2596,2");
+        long checksum = TransitCache.checksum(shapes);
+        Path cache = dir.resolve("shapes.bin");
+        TransitCache.write(cache, checksum, ShapeIndex.byMode(ShapeTable.read(shapes), 250,
+                Map.of("46A", TransitMode.BUS, "DART", TransitMode.RAIL)));
+
+        Map<TransitMode, ShapeIndex> mapped = TransitCache.read(cache, checksum, 250);
+
+        assertNotNull(mapped);
+        assertEquals(1, mapped.get(TransitMode.BUS).size());
+        assertEquals(1, mapped.get(TransitMode.RAIL).size());
+        assertEquals(0, mapped.get(TransitMode.TRAM).size());
+        assertEquals("46A", mapped.get(TransitMode.BUS).nearest(53.3498, -6.2603, 53.3382, -6.2597, 500).getShapeId());
+        assertEquals("DART", mapped.get(TransitMode.RAIL).nearest(53.3498, -6.2603, 53.3382, -6.2597, 500).getShapeId());
+        assertNull(mapped.get(TransitMode.TRAM).nearest(53.3498, -6.2603, 53.3382, -6.2597, 500));
+        // the ferry has no mode and is in no index, but keeps its points
+        assertEquals(3, mapped.get(TransitMode.BUS).getShapes().size());
+    }
+
+    @Test
+    void testRead_changedFeedOrCellSizeIsAMiss() throws Exception {
+        Path shapes = feed("shape_id,shape_pt_lat,shape_pt_lon,shape_pt_sequence", "46A,53.3498,-6.2603,1");
+        long checksum = TransitCache.checksum(shapes);
+        Path cache = dir.resolve("shapes.bin");
+        TransitCache.write(cache, checksum, ShapeIndex.byMode(ShapeTable.read(shapes), 250, null));
+
+        feed("shape_id,shape_pt_lat,shape_pt_lon,shape_pt_sequence", "46A,53.3498,-6.2603,1", "46A,53.3455,-6.2595,2");
+
+        assertNotEquals(checksum, TransitCache.checksum(shapes));
+        assertNull(TransitCache.read(cache, TransitCache.checksum(shapes), 250));
+        assertNull(TransitCache.read(cache, checksum, 100));
+        assertNull(TransitCache.read(dir.resolve("missing.bin"), checksum, 250));
+    }
+}
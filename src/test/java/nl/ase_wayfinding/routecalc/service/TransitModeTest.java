@@ -0,0 +1,33 @@
+package nl.ase_wayfinding.routecalc.service;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TransitModeTest {
+
+    @Test
+    void testOf_mapsBasicAndExtendedRouteTypes() {
+        assertEquals(TransitMode.TRAM, TransitMode.of(0));
+        assertEquals(TransitMode.RAIL, TransitMode.of(1));
+        assertEquals(TransitMode.RAIL, TransitMode.of(2));
+        assertEquals(TransitMode.BUS, TransitMode.of(3));
+        assertEquals(TransitMode.BUS, TransitMode.of(11));
+        assertEquals(TransitMode.RAIL, TransitMode.of(109));
+        assertEquals(TransitMode.BUS, TransitMode.of(700));
+        assertEquals(TransitMode.TRAM, TransitMode.of(900));
+        // ferries, cable cars and funiculars are not routed
+        assertNull(TransitMode.of(4));
+        assertNull(TransitMode.of(6));
+        assertNull(TransitMode.of(1000));
+    }
+
+    @Test
+    void testFromName_acceptsTheRequestedModeNames() {
+        assertEquals(TransitMode.BUS, TransitMode.fromName("bus"));
+        assertEquals(TransitMode.RAIL, TransitMode.fromName("Train"));
+        assertEquals(TransitMode.TRAM, TransitMode.fromName("tram"));
+        assertNull(TransitMode.fromName("rail"));
+        assertNull(TransitMode.fromName("walk"));
+    }
+}
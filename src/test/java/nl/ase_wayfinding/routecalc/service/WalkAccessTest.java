@@ -0,0 +1,89 @@
+package nl.ase_wayfinding.routecalc.service;
+
+import com.graphhopper.routing.ev.DecimalEncodedValue;
+import com.graphhopper.routing.ev.VehicleSpeed;
+import com.graphhopper.routing.util.EdgeFilter;
+import com.graphhopper.routing.util.EncodingManager;
+import com.graphhopper.routing.weighting.SpeedWeighting;
+import com.graphhopper.storage.BaseGraph;
+import com.graphhopper.storage.RAMDirectory;
+import com.graphhopper.storage.index.LocationIndex;
+import com.graphhopper.storage.index.LocationIndexTree;
+import com.graphhopper.storage.index.Snap;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static nl.ase_wayfinding.routecalc.service.TimetableTest.stop;
+import static org.junit.jupiter.api.Assertions.*;
+
+class WalkAccessTest {
+
+    @TempDir
+    Path dir;
+
+    private Timetable table;
+    private BaseGraph graph;
+    private LocationIndex index;
+    private SpeedWeighting weighting;
+    private StopSnaps snaps;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        table = Timetable.read(TimetableTest.writeFeed(dir));
+        DecimalEncodedValue speedEnc = VehicleSpeed.create("foot", 4, 1, true);
+        graph = new BaseGraph.Builder(EncodingManager.start().add(speedEnc).build()).create();
+        // a street past stops A, B and C, walked at 2 m/s; north of B it is one-way southbound
+        graph.getNodeAccess().setNode(0, 53.3400, -6.2605);
+        graph.getNodeAccess().setNode(1, 53.3650, -6.2605);
+        graph.getNodeAccess().setNode(2, 53.3900, -6.2605);
+        graph.edge(0, 1).setDistance(2780).set(speedEnc, 2, 2);
+        graph.edge(1, 2).setDistance(2780).set(speedEnc, 0, 2);
+        index = new LocationIndexTree(graph, new RAMDirectory()).prepareIndex();
+        weighting = new SpeedWeighting(speedEnc);
+        snaps = StopSnaps.compute(table, index, EdgeFilter.ALL_EDGES, 1, 100);
+    }
+
+    private Map<String, Integer> search(double lat, double lon, boolean towardsPoint, double radius) {
+        Snap point = index.findClosest(lat, lon, EdgeFilter.ALL_EDGES);
+        List<Integer> candidates = List.of(stop(table, "A"), stop(table, "B"), stop(table, "C"));
+        Map<String, Integer> seconds = new HashMap<>();
+        for (Raptor.StopTime s : WalkAccess.search(graph, weighting, point, snaps, candidates, towardsPoint, radius,
+                1.0))
+            seconds.put(table.stopId(s.getStop()), s.getSeconds());
+        return seconds;
+    }
+
+    @Test
+    void testSearch_timesEveryStopInOneTree() {
+        // halfway between A and B, 556 m from each; C is up the one-way street
+        Map<String, Integer> seconds = search(53.3550, -6.2605, false, 2000);
+
+        assertEquals(2, seconds.size());
+        // network time at 2 m/s plus 33 m between street and stop at 1 m/s
+        assertEquals(556 / 2 + 33, seconds.get("A"), 3);
+        assertEquals(556 / 2 + 33, seconds.get("B"), 3);
+        assertFalse(seconds.containsKey("C"));
+    }
+
+    @Test
+    void testSearch_followsTheStreetDirectionForEgress() {
+        // walking from C down to the point is allowed, walking up to C is not
+        Map<String, Integer> towards = search(53.3550, -6.2605, true, 2000);
+        assertEquals(1668 / 2 + 33, towards.get("C"), 3);
+        assertEquals(3, towards.size());
+    }
+
+    @Test
+    void testSearch_stopsAtTheRadius() {
+        Map<String, Integer> seconds = search(53.3400, -6.2605, false, 1500);
+
+        assertEquals(List.of("A"), List.copyOf(seconds.keySet()));
+        assertEquals(1112 / 2 + 33, seconds.get("A"), 3);
+    }
+}
@@ -0,0 +1,107 @@
+package nl.ase_wayfinding.routecalc.service;
+
+import com.graphhopper.routing.ev.DecimalEncodedValue;
+import com.graphhopper.routing.ev.VehicleSpeed;
+import com.graphhopper.routing.util.EdgeFilter;
+import com.graphhopper.routing.util.EncodingManager;
+import com.graphhopper.routing.weighting.SpeedWeighting;
+import com.graphhopper.storage.BaseGraph;
+import com.graphhopper.storage.RAMDirectory;
+import com.graphhopper.storage.index.LocationIndexTree;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.List;
+
+import static nl.ase_wayfinding.routecalc.service.TimetableTest.stop;
+import static org.junit.jupiter.api.Assertions.*;
+
+class WalkingTransfersTest {
+
+    @TempDir
+    Path dir;
+
+    private Timetable table;
+    private BaseGraph graph;
+    private SpeedWeighting weighting;
+    private StopSnaps snaps;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        table = Timetable.read(TimetableTest.writeFeed(dir));
+        DecimalEncodedValue speedEnc = VehicleSpeed.create("foot", 4, 1, true);
+        graph = new BaseGraph.Builder(EncodingManager.start().add(speedEnc).build()).create();
+        // one street past stops A, B and C, walked at 2 m/s
+        graph.getNodeAccess().setNode(0, 53.3400, -6.2605);
+        graph.getNodeAccess().setNode(1, 53.3900, -6.2605);
+        graph.edge(0, 1).setDistance(5560).set(speedEnc, 2, 2);
+        weighting = new SpeedWeighting(speedEnc);
+        snaps = StopSnaps.compute(table, new LocationIndexTree(graph, new RAMDirectory()).prepareIndex(),
+                EdgeFilter.ALL_EDGES, 1, 100);
+    }
+
+    private int seconds(Footpaths footpaths, String from, String to) {
+        int f = stop(table, from), t = stop(table, to);
+        for (int j = footpaths.start(f); j < footpaths.end(f); j++) {
+            if (footpaths.target(j) == t)
+                return footpaths.seconds(j);
+        }
+        return -1;
+    }
+
+    @Test
+    void testCompute_connectsStopsWithinTheRadiusBothWays() {
+        Footpaths footpaths = WalkingTransfers.compute(graph, weighting, snaps, 1500, 1.0, 2);
+
+        // 1112 m along the street at 2 m/s plus 33 m onto and off it at 1 m/s
+        assertEquals(1112 / 2 + 66, seconds(footpaths, "A", "B"), 3);
+        assertEquals(1112 / 2 + 66, seconds(footpaths, "B", "A"), 3);
+        assertEquals(1112 / 2 + 66, seconds(footpaths, "C", "B"), 3);
+        assertEquals(-1, seconds(footpaths, "A", "C"));
+        // D and E are not on the walk network
+        int d = stop(table, "D");
+        assertEquals(0, footpaths.end(d) - footpaths.start(d));
+        assertEquals(4, footpaths.size());
+    }
+
+    @Test
+    void testReadWrite_roundTripsForTheSameGraphStopsAndRadius() throws Exception {
+        Footpaths footpaths = WalkingTransfers.compute(graph, weighting, snaps, 1500, 1.0, 1);
+        Path file = dir.resolve("cache").resolve("walk_transfers.bin");
+        long stopsKey = StopSnaps.stopsKey(table);
+        WalkingTransfers.write(file, 1, stopsKey, 1500, footpaths);
+
+        Footpaths read = WalkingTransfers.read(file, 1, stopsKey, 1500);
+        assertNotNull(read);
+        assertEquals(footpaths.size(), read.size());
+        assertEquals(seconds(footpaths, "B", "C"), seconds(read, "B", "C"));
+
+        assertNull(WalkingTransfers.read(file, 1, stopsKey, 1000));
+        assertNull(WalkingTransfers.read(file, 2, stopsKey, 1500));
+    }
+
+    @Test
+    void testWithFootpaths_keepsTheFeedsTransfers() {
+        int c = stop(table, "C"), d = stop(table, "D"), b = stop(table, "B");
+        Footpaths computed = Footpaths.of(table.stopCount(), List.of(
+                new int[] { c, d, 300 }, new int[] { d, c, 300 }, new int[] { c, b, 600 }));
+
+        Timetable merged = table.withFootpaths(computed);
+
+        assertEquals(3, merged.transferCount());
+        assertEquals(120, seconds(merged, c, d));
+        assertEquals(Timetable.NO_TRANSFER, seconds(merged, d, c));
+        assertEquals(600, seconds(merged, c, b));
+        assertEquals(2, table.transferCount());
+    }
+
+    private static int seconds(Timetable table, int from, int to) {
+        for (int j = table.transferStart(from); j < table.transferEnd(from); j++) {
+            if (table.transferTarget(j) == to)
+                return table.transferSeconds(j);
+        }
+        return -2;
+    }
+}
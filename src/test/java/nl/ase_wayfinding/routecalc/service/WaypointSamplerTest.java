@@ -0,0 +1,70 @@
+package nl.ase_wayfinding.routecalc.service;
+
+import com.graphhopper.util.DistanceCalcEarth;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class WaypointSamplerTest {
+
+    @Test
+    void testSample_spacingFollowsDistanceNotVertexCount() {
+        // ~2 km straight line east, once as 2 vertices and once as 400 vertices
+        List<List<Double>> sparse = List.of(Arrays.asList(-6.3000, 53.3500), Arrays.asList(-6.2700, 53.3500));
+        List<List<Double>> dense = new ArrayList<>();
+        for (int i = 0; i <= 400; i++) {
+            dense.add(Arrays.asList(-6.3000 + i * 0.000075, 53.3500));
+        }
+        WaypointSampler sampler = new WaypointSampler(200, 20, 100);
+
+        List<List<Double>> fromSparse = sampler.sample(sparse);
+        List<List<Double>> fromDense = sampler.sample(dense);
+
+        assertEquals(fromSparse.size(), fromDense.size());
+        assertTrue(fromSparse.size() >= 10 && fromSparse.size() <= 12, "got " + fromSparse.size());
+        assertEquals(sparse.get(0), fromSparse.get(0));
+        assertEquals(sparse.get(1), fromSparse.get(fromSparse.size() - 1));
+        for (int i = 2; i < fromSparse.size() - 1; i++) {
+            double gap = DistanceCalcEarth.DIST_EARTH.calcDist(fromSparse.get(i - 1).get(1),
+                    fromSparse.get(i - 1).get(0), fromSparse.get(i).get(1), fromSparse.get(i).get(0));
+            assertEquals(200, gap, 1);
+        }
+    }
+
+    @Test
+    void testSample_mergesPointsInTheSameCell() {
+        // a route that doubles back over the same 100 m
+        List<List<Double>> coords = List.of(Arrays.asList(-6.2600, 53.3500), Arrays.asList(-6.2585, 53.3500),
+                Arrays.asList(-6.2600, 53.3500));
+        WaypointSampler sampler = new WaypointSampler(10, 50, 100);
+
+        List<List<Double>> samples = sampler.sample(coords);
+
+        // only the outward leg produces new cells
+        assertTrue(samples.size() <= 4, "got " + samples.size());
+    }
+
+    @Test
+    void testSample_capsWaypointsOnLongRoutes() {
+        // ~67 km
+        List<List<Double>> coords = List.of(Arrays.asList(-7.0000, 53.3500), Arrays.asList(-6.0000, 53.3500));
+        WaypointSampler sampler = new WaypointSampler(100, 50, 25);
+
+        List<List<Double>> samples = sampler.sample(coords);
+
+        assertEquals(25, samples.size());
+        assertEquals(coords.get(1), samples.get(samples.size() - 1));
+    }
+
+    @Test
+    void testSample_emptyAndSinglePoint() {
+        WaypointSampler sampler = new WaypointSampler(100, 50, 25);
+
+        assertTrue(sampler.sample(List.of()).isEmpty());
+        assertEquals(1, sampler.sample(List.of(Arrays.asList(-6.26, 53.35))).size());
+    }
+}